@@ -0,0 +1,86 @@
+package de.digitalcollections.solrocr.formats;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Helpers for building the plaintext of OCR fragments in the single-pass fragment parsers.
+ *
+ * While a fragment is parsed, highlighting tags are appended to the plaintext as {@link #START_MARK} and
+ * {@link #END_MARK}, so they are neither unescaped nor touched by the whitespace normalization. They are restored by
+ * {@link #normalize(CharSequence, boolean, String, String)}.
+ */
+public final class FragmentText {
+  /** Stand-ins for the highlighting tags in the plaintext until whitespace is normalized. */
+  public static final char START_MARK = '\uE000';
+  public static final char END_MARK = '\uE001';
+
+  private FragmentText() {
+  }
+
+  /**
+   * Unescape the plaintext, normalize its whitespace and restore the highlighting tags.
+   *
+   * Line breaks are dropped, all other runs of whitespace are collapsed to a single space and the text is trimmed.
+   *
+   * @param htmlEntities Whether HTML entities should be decoded before XML entities, like the
+   *                     {@link org.apache.lucene.analysis.charfilter.HTMLStripCharFilter} does
+   */
+  public static String normalize(CharSequence raw, boolean htmlEntities, String startHlTag, String endHlTag) {
+    String unescaped = unescape(raw.toString(), htmlEntities);
+    StringBuilder sb = new StringBuilder(unescaped.length() + 16);
+    boolean inWhitespace = false;
+    for (int i = 0; i < unescaped.length(); i++) {
+      char c = unescaped.charAt(i);
+      if (c == '\n') {
+        // Line breaks are dropped, not collapsed
+        continue;
+      }
+      if (c == ' ' || c == '\t' || c == '\u000B' || c == '\f' || c == '\r') {
+        if (!inWhitespace) {
+          sb.append(' ');
+          inWhitespace = true;
+        }
+        continue;
+      }
+      inWhitespace = false;
+      sb.append(c);
+    }
+    int start = 0;
+    int end = sb.length();
+    while (start < end && sb.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && sb.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    StringBuilder out = new StringBuilder(end - start + 32);
+    for (int i = start; i < end; i++) {
+      char c = sb.charAt(i);
+      if (c == START_MARK) {
+        out.append(startHlTag);
+      } else if (c == END_MARK) {
+        out.append(endHlTag);
+      } else {
+        out.append(c);
+      }
+    }
+    return out.toString();
+  }
+
+  /**
+   * Decode the entities in the string, without copying it if there are none.
+   *
+   * @param htmlEntities Whether HTML entities should be decoded before XML entities
+   */
+  public static String unescape(String str, boolean htmlEntities) {
+    if (str.indexOf('&') < 0) {
+      return str;
+    }
+    if (htmlEntities) {
+      // Like the HTMLStripCharFilter, the named non-breaking space is decoded to a regular space
+      str = StringEscapeUtils.unescapeHtml4(StringUtils.replace(str, "&nbsp;", " "));
+    }
+    return StringEscapeUtils.unescapeXml(str);
+  }
+}
@@ -2,19 +2,26 @@ package de.digitalcollections.solrocr.formats;
 
 import com.google.common.collect.ImmutableSet;
 import de.digitalcollections.solrocr.iter.IterableCharSequence;
+import de.digitalcollections.solrocr.iter.IterableCharSequence.OffsetType;
+import de.digitalcollections.solrocr.model.OcrBlock;
 import de.digitalcollections.solrocr.model.OcrBox;
 import de.digitalcollections.solrocr.model.OcrPage;
 import de.digitalcollections.solrocr.model.OcrSnippet;
+import de.digitalcollections.solrocr.model.OcrSnippet.Part;
+import de.digitalcollections.solrocr.model.OcrStructure;
+import de.digitalcollections.solrocr.util.Utf8;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.BreakIterator;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Deque;
+import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.regex.Matcher;
@@ -27,6 +34,7 @@ import org.apache.commons.text.StringEscapeUtils;
 import org.apache.lucene.analysis.charfilter.HTMLStripCharFilter;
 import org.apache.lucene.search.uhighlight.Passage;
 import org.apache.lucene.search.uhighlight.PassageFormatter;
+import org.apache.lucene.util.ArrayUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,7 +49,25 @@ public abstract class OcrPassageFormatter extends PassageFormatter {
   protected final String startHlTag;
   protected final String endHlTag;
   protected final boolean absoluteHighlights;
-
+  /** Buffers for the passage that is currently being formatted, reused for all passages of the formatter. */
+  private byte[] passageBytes = new byte[0];
+  private char[] passageChars = new char[0];
+  private int[] charOffsets = new int[0];
+  private int passageLength;
+  /** Offset of the passage text in the content, and of its first byte in {@link #passageBytes} */
+  private int passageStart;
+  private int passageBytesOffset;
+  private int passageBytesLength;
+  private boolean wellFormed;
+  private final StringBuilder highlightedPassage = new StringBuilder();
+  /** Word buffer for formats that parse their words into a list of boxes */
+  private final WordBoxes parsedWords = new WordBoxes();
+  /** Breaks on the start of every page, used to determine the page a passage starts on. */
+  protected BreakIterator pageIter;
+  /** Recorded structure of the content, if available, used to look up pages without parsing them again. */
+  private OcrStructure structure;
+  /** Parts of the snippets that are included in the response, parts that are not included are not computed. */
+  private Set<Part> includedParts = EnumSet.allOf(Part.class);
 
   protected OcrPassageFormatter(String startHlTag, String endHlTag, boolean absoluteHighlights) {
     this.startHlTag = startHlTag;
@@ -49,6 +75,32 @@ public abstract class OcrPassageFormatter extends PassageFormatter {
     this.absoluteHighlights = absoluteHighlights;
   }
 
+  /**
+   * Use the recorded structure of the content to locate the starts of pages, instead of scanning the content for
+   * them. Pages that were parsed once are kept in the structure, so later passages on the same page (in this or in
+   * later requests, if the structure is cached) don't have to parse them again.
+   */
+  public void setStructure(OcrStructure structure) {
+    if (structure != null && structure.hasBlock(OcrBlock.PAGE)) {
+      this.structure = structure;
+      this.pageIter = structure.getBreakIterator(OcrBlock.PAGE);
+    }
+  }
+
+  /**
+   * Only compute the given parts of the snippets. The plaintext is not parsed if {@link Part#TEXT} is not included,
+   * regions are only determined if they, their pages or the highlights are included and highlighted spans are only
+   * determined if {@link Part#HIGHLIGHTS} is included.
+   */
+  public void setIncludedParts(Set<Part> parts) {
+    this.includedParts = EnumSet.copyOf(parts);
+  }
+
+  /** Whether the part is included in the snippets. */
+  protected boolean isIncluded(Part part) {
+    return includedParts.contains(part);
+  }
+
   /** Merge overlapping matches. **/
   private List<PassageMatch> mergeMatches(int numMatches, int[] matchStarts, int[] matchEnds) {
     Deque<PassageMatch> sortedMatches = IntStream.range(0, numMatches)
@@ -91,39 +143,181 @@ public abstract class OcrPassageFormatter extends PassageFormatter {
     return snippets;
   }
 
-  private OcrSnippet format(Passage passage, IterableCharSequence content) {
-    StringBuilder sb = new StringBuilder(content.subSequence(passage.getStartOffset(), passage.getEndOffset()));
-    int extraChars = 0;
-    if (passage.getNumMatches() > 0) {
-      List<PassageMatch> matches = mergeMatches(passage.getNumMatches(), passage.getMatchStarts(), passage.getMatchEnds());
+  /** Format a single passage into an {@link OcrSnippet}, or <tt>null</tt> if it does not contain any words. */
+  protected OcrSnippet format(Passage passage, IterableCharSequence content) {
+    String xmlFragment = highlightPassage(passage, content);
+    OcrPage page = determineStartPage(xmlFragment, passage.getStartOffset(), content);
+    OcrSnippet snip = parseFragment(xmlFragment, page);
+    if (snip != null) {
+      snip.setScore(passage.getScore());
+    }
+    return snip;
+  }
+
+  /**
+   * Get the text of the passage with highlighting tags around its matches.
+   *
+   * The passage is decoded once into a char buffer, along with a table that maps every offset in the content to the
+   * offset of its character in the buffer. The tags are then spliced in with a single forward pass over the buffer.
+   */
+  String highlightPassage(Passage passage, IterableCharSequence content) {
+    return highlight(passage, content).toString();
+  }
+
+  /**
+   * Same as {@link #highlightPassage(Passage, IterableCharSequence)}, but without creating a {@link String}.
+   *
+   * @return the highlighted passage in a buffer that is reused for the next passage
+   */
+  protected CharSequence highlight(Passage passage, IterableCharSequence content) {
+    decodePassage(passage, content);
+    int numMatches = passage.getNumMatches();
+    StringBuilder sb = highlightedPassage;
+    sb.setLength(0);
+    sb.ensureCapacity(passageLength + numMatches * (startHlTag.length() + endHlTag.length()));
+    int pos = 0;
+    if (numMatches > 0) {
+      List<PassageMatch> matches = mergeMatches(numMatches, passage.getMatchStarts(), passage.getMatchEnds());
       for (PassageMatch match : matches) {
-        int matchStart = content.subSequence(passage.getStartOffset(), match.start).toString().length();
-        sb.insert(extraChars + matchStart, startHlTag);
-        extraChars += startHlTag.length();
-        int matchEnd = content.subSequence(passage.getStartOffset(), match.end).toString().length();
-        String matchText = sb.substring(extraChars + matchStart, extraChars + matchEnd);
-        if (matchText.trim().endsWith(">")) {
+        int matchStart = Math.max(pos, charOffset(match.start, passage, content));
+        if (matchStart > passageLength) {
+          throw new IndexOutOfBoundsException(
+              String.format("Match at %d is outside of passage [%d, %d]", match.start, passage.getStartOffset(),
+                            passage.getEndOffset()));
+        }
+        int matchEnd = Math.max(matchStart, Math.min(charOffset(match.end, passage, content), passageLength));
+        if (endsWithTag(matchStart, matchEnd)) {
           // Set the end of the match to the position before the last inner closing tag inside of the match.
-          Matcher m = LAST_INNER_TAG_PAT.matcher(matchText);
+          Matcher m = LAST_INNER_TAG_PAT.matcher(CharBuffer.wrap(passageChars, matchStart, matchEnd - matchStart));
           int idx = -1;
           while (m.find()) {
             idx = m.start() + 1;
           }
           if (idx > -1) {
-            matchEnd -= (matchText.length() - idx);
+            matchEnd = matchStart + idx;
           }
         }
-        sb.insert(Math.min(extraChars + matchEnd, sb.length()), endHlTag);
-        extraChars += endHlTag.length();
+        sb.append(passageChars, pos, matchStart - pos)
+            .append(startHlTag)
+            .append(passageChars, matchStart, matchEnd - matchStart)
+            .append(endHlTag);
+        pos = matchEnd;
       }
     }
-    String xmlFragment = sb.toString();
-    OcrPage page = determineStartPage(xmlFragment, passage.getStartOffset(), content);
-    OcrSnippet snip = parseFragment(xmlFragment, page);
-    if (snip != null) {
-      snip.setScore(passage.getScore());
+    sb.append(passageChars, pos, passageLength - pos);
+    return sb;
+  }
+
+  /**
+   * Decode the passage into {@link #passageChars} and fill {@link #charOffsets} for it. For byte offsets, offsets in
+   * the middle of a multi-byte character map to the start of the character, like in
+   * {@link IterableCharSequence#subSequence(int, int)}.
+   */
+  private void decodePassage(Passage passage, IterableCharSequence content) {
+    int start = passage.getStartOffset();
+    int end = passage.getEndOffset();
+    if (start < 0 || end > content.length() || end < start) {
+      throw new IndexOutOfBoundsException();
     }
-    return snip;
+    if (content.getOffsetType() != OffsetType.BYTES) {
+      String text = content.subSequence(start, end).toString();
+      passageChars = ArrayUtil.grow(passageChars, text.length());
+      text.getChars(0, text.length(), passageChars, 0);
+      passageLength = text.length();
+      passageStart = start;
+      return;
+    }
+    // Include enough bytes before and after the passage to find the characters its edges fall into
+    int readStart = Math.max(0, start - 3);
+    int readEnd = Math.min(content.length(), end + 1);
+    int len = readEnd - readStart;
+    passageBytes = ArrayUtil.grow(passageBytes, len);
+    content.copyBytes(readStart, passageBytes, 0, len);
+    int from = start - readStart;
+    while (from > 0 && isContinuation(passageBytes[from])) {
+      from--;
+    }
+    int to = end - readStart;
+    while (to < len && to > from && isContinuation(passageBytes[to])) {
+      to--;
+    }
+    passageStart = readStart + from;
+    passageBytesOffset = from;
+    passageBytesLength = to - from;
+    wellFormed = Utf8.isWellFormed(passageBytes, from, to - from);
+    if (!wellFormed) {
+      // Let the JDK deal with the malformed input, character offsets are determined by decoding prefixes
+      String text = new String(passageBytes, from, to - from, StandardCharsets.UTF_8);
+      passageChars = ArrayUtil.grow(passageChars, text.length());
+      text.getChars(0, text.length(), passageChars, 0);
+      passageLength = text.length();
+      return;
+    }
+    passageChars = ArrayUtil.grow(passageChars, to - from);
+    charOffsets = ArrayUtil.grow(charOffsets, to - from + 1);
+    int numChars = 0;
+    int idx = from;
+    while (idx < to) {
+      int b = passageBytes[idx] & 0xFF;
+      if (b < 0x80) {
+        charOffsets[idx - from] = numChars;
+        passageChars[numChars++] = (char) b;
+        idx++;
+        continue;
+      }
+      int seqLen = b < 0xE0 ? 2 : (b < 0xF0 ? 3 : 4);
+      int codePoint;
+      if (seqLen == 2) {
+        codePoint = ((b & 0x1F) << 6) | (passageBytes[idx + 1] & 0x3F);
+      } else if (seqLen == 3) {
+        codePoint = ((b & 0x0F) << 12) | ((passageBytes[idx + 1] & 0x3F) << 6) | (passageBytes[idx + 2] & 0x3F);
+      } else {
+        codePoint = ((b & 0x07) << 18) | ((passageBytes[idx + 1] & 0x3F) << 12)
+            | ((passageBytes[idx + 2] & 0x3F) << 6) | (passageBytes[idx + 3] & 0x3F);
+      }
+      for (int i = 0; i < seqLen; i++) {
+        charOffsets[idx - from + i] = numChars;
+      }
+      numChars += Character.toChars(codePoint, passageChars, numChars);
+      idx += seqLen;
+    }
+    charOffsets[to - from] = numChars;
+    passageLength = numChars;
+  }
+
+  /** Get the offset in {@link #passageChars} for an offset in the content. */
+  private int charOffset(int offset, Passage passage, IterableCharSequence content) {
+    if (offset < passage.getStartOffset() || offset > passage.getEndOffset()) {
+      // Outside of the passage, decode the text in between
+      return content.subSequence(passage.getStartOffset(), offset).toString().length();
+    }
+    if (content.getOffsetType() != OffsetType.BYTES) {
+      return offset - passageStart;
+    }
+    int idx = offset - passageStart;
+    if (idx >= passageBytesLength) {
+      return passageLength;
+    }
+    if (!wellFormed) {
+      while (idx > 0 && isContinuation(passageBytes[passageBytesOffset + idx])) {
+        idx--;
+      }
+      return new String(passageBytes, passageBytesOffset, idx, StandardCharsets.UTF_8).length();
+    }
+    return charOffsets[idx];
+  }
+
+  /** Same as <tt>matchText.trim().endsWith(">")</tt> for the text between the offsets. */
+  private boolean endsWithTag(int start, int end) {
+    int idx = end - 1;
+    while (idx >= start && passageChars[idx] <= ' ') {
+      idx--;
+    }
+    return idx >= start && passageChars[idx] == '>';
+  }
+
+  private static boolean isContinuation(byte b) {
+    return (b & 0xC0) == 0x80;
   }
 
   /** Helper method to get plaintext from XML/HTML-like fragments */
@@ -143,49 +337,140 @@ public abstract class OcrPassageFormatter extends PassageFormatter {
   }
 
   /** Determine the page an OCR fragment resides on. */
-  public abstract OcrPage determineStartPage(String ocrFragment, int startOffset, IterableCharSequence content);
+  public OcrPage determineStartPage(String ocrFragment, int startOffset, IterableCharSequence content) {
+    int pageIdx = structure != null ? structure.getPageIndex(startOffset) : -1;
+    if (pageIdx < 0) {
+      return parseStartPage(ocrFragment, startOffset, content);
+    }
+    OcrPage page = structure.getPage(pageIdx);
+    if (page == null) {
+      page = parseStartPage(ocrFragment, startOffset, content);
+      if (page != null) {
+        structure.setPage(pageIdx, page);
+      }
+    }
+    return page;
+  }
+
+  /** Parse the page an OCR fragment resides on from the page's tag in the content. */
+  protected abstract OcrPage parseStartPage(String ocrFragment, int startOffset, IterableCharSequence content);
+
+  /**
+   * Parse the word boxes, pages and plaintext of an OCR fragment. The plaintext only needs to be parsed if
+   * {@link Part#TEXT} is included.
+   *
+   * By default, each of these is parsed separately. Formats that can determine all of them with a single pass over
+   * the fragment should override this.
+   */
+  protected ParsedFragment parse(String ocrFragment, String startPage) {
+    TreeMap<Integer, OcrPage> pages = this.parsePages(ocrFragment);
+    List<OcrBox> boxes = this.parseWords(ocrFragment, pages, startPage);
+    WordBoxes words = this.parsedWords;
+    words.reset(startPage);
+    String pageId = startPage;
+    for (OcrBox box : boxes) {
+      if (!StringUtils.equals(box.getPageId(), pageId)) {
+        pageId = box.getPageId();
+        words.startPage(pageId);
+      }
+      words.add(box.getText(), box.getUlx(), box.getUly(), box.getLrx(), box.getLry(), box.isInHighlight());
+    }
+    if (words.isEmpty() || !isIncluded(Part.TEXT)) {
+      return new ParsedFragment(words, new ArrayList<>(pages.values()), null);
+    }
+    return new ParsedFragment(words, new ArrayList<>(pages.values()), getTextFromXml(ocrFragment));
+  }
 
   /** Parse an {@link OcrSnippet} from an OCR fragment. */
   protected OcrSnippet parseFragment(String ocrFragment, OcrPage page) {
-    TreeMap<Integer, OcrPage> pages = this.parsePages(ocrFragment);
-    List<OcrBox> allBoxes = this.parseWords(ocrFragment, pages, page.id);
-    if (allBoxes.isEmpty()) {
+    return buildSnippet(this.parse(ocrFragment, page.id), page);
+  }
+
+  /**
+   * Build an {@link OcrSnippet} from the parsed words, pages and text of a fragment on the given start page.
+   *
+   * Works directly on the columns of the {@link WordBoxes}, {@link OcrBox} instances are only created for the
+   * regions and the highlighted words of the snippet.
+   */
+  protected OcrSnippet buildSnippet(ParsedFragment parsed, OcrPage page) {
+    WordBoxes words = parsed.words;
+    int numWords = words.size();
+    if (numWords == 0) {
       return null;
     }
+    if (!isIncluded(Part.REGIONS) && !isIncluded(Part.HIGHLIGHTS) && !isIncluded(Part.PAGES)) {
+      return new OcrSnippet(parsed.text, null, null, includedParts);
+    }
 
-    // Grouped by columns
-    List<List<OcrBox>> byColumns = new ArrayList<>();
-    List<OcrBox> currentCol = new ArrayList<>();
-    OcrBox prevBox = null;
+    // Grouped by columns, column i spans the words from colStarts[i] to colStarts[i + 1]
+    int[] colStarts = new int[8];
+    int numCols = 0;
+    colStarts[numCols++] = 0;
+    int prevIdx = -1;
     String pageId = null;
-    for (OcrBox box : allBoxes) {
+    for (int i = 0; i < numWords; i++) {
       // Stupid, haphazard heuristic for column detection: If the next box is at least the height of the current box
       // times five higher on the page, we're on a new column. Or if the page changes.
       // FIXME: This cleary needs some more thought put into it
-      boolean newColumn = prevBox != null && (box.getUly() + prevBox.getHeight() * 5) < prevBox.getUly();
-      boolean newPage = pageId != null && !box.getPageId().equals(pageId);
+      boolean newColumn = prevIdx >= 0 && (words.getUly(i) + words.getHeight(prevIdx) * 5) < words.getUly(prevIdx);
+      boolean newPage = pageId != null && !words.getPageId(i).equals(pageId);
       if (newColumn || newPage) {
-        byColumns.add(currentCol);
-        currentCol = new ArrayList<>();
+        colStarts = ArrayUtil.grow(colStarts, numCols + 2);
+        colStarts[numCols++] = i;
       }
-      currentCol.add(box);
       // Skip very low-height boxes since they throw off the heuristic, we still track page changes, though!
-      if (box.getHeight() > 5) {
-        prevBox = box;
+      if (words.getHeight(i) > 5) {
+        prevIdx = i;
+      }
+      pageId = words.getPageId(i);
+    }
+    colStarts[numCols] = numWords;
+
+    List<OcrBox> snippetRegions = new ArrayList<>(numCols);
+    // Index of the region of every column, -1 for columns without text
+    int[] colRegionIdxs = new int[numCols];
+    for (int col = 0; col < numCols; col++) {
+      OcrBox region = determineSnippetRegion(words, colStarts[col], colStarts[col + 1]);
+      colRegionIdxs[col] = -1;
+      if (!region.getText().trim().isEmpty()) {
+        colRegionIdxs[col] = snippetRegions.size();
+        snippetRegions.add(region);
       }
-      pageId = box.getPageId();
     }
-    byColumns.add(currentCol);
+    Set<String> snippetPageIds = snippetRegions.stream()
+        .map(OcrBox::getPageId).collect(Collectors.toSet());
+    List<OcrPage> allPages = new ArrayList<>();
+    allPages.add(page);
+    allPages.addAll(parsed.pages);
+    List<OcrPage> snippetPages = allPages.stream()
+        .filter(p -> snippetPageIds.contains(p.id))
+        .distinct()
+        .collect(Collectors.toList());
+
+    OcrSnippet snip = new OcrSnippet(parsed.text, snippetPages, snippetRegions, includedParts);
+    if (!isIncluded(Part.HIGHLIGHTS)) {
+      return snip;
+    }
 
-    // Get highlighted spans
+    // Get highlighted spans, along with the region each of their words is located in. Only the region of the word's
+    // column can contain it, words outside of it (e.g. with broken coordinates) don't get a region.
     List<List<OcrBox>> hlSpans = new ArrayList<>();
     List<OcrBox> currentSpan = null;
-    for (OcrBox wordBox : allBoxes) {
-      if (wordBox.isInHighlight()) {
+    int col = 0;
+    for (int i = 0; i < numWords; i++) {
+      while (i >= colStarts[col + 1]) {
+        col++;
+      }
+      if (words.isInHighlight(i)) {
         if (currentSpan == null) {
           currentSpan = new ArrayList<>();
         }
-        currentSpan.add(wordBox);
+        OcrBox box = words.toBox(i);
+        int regionIdx = colRegionIdxs[col];
+        if (regionIdx >= 0 && snippetRegions.get(regionIdx).contains(box)) {
+          box.setParentRegionIdx(regionIdx);
+        }
+        currentSpan.add(box);
       } else if (currentSpan != null) {
         hlSpans.add(currentSpan);
         currentSpan = null;
@@ -195,44 +480,33 @@ public abstract class OcrPassageFormatter extends PassageFormatter {
       hlSpans.add(currentSpan);
     }
 
-    String highlightedText = getTextFromXml(ocrFragment);
-    List<OcrBox> snippetRegions = byColumns.stream()
-        .map(this::determineSnippetRegion)
-        .filter(r -> !r.getText().isEmpty() && !r.getText().trim().isEmpty())
-        .collect(Collectors.toList());
-    Set<String> snippetPageIds = snippetRegions.stream()
-        .map(OcrBox::getPageId).collect(Collectors.toSet());
-    List<OcrPage> allPages = new ArrayList<>();
-    allPages.add(page);
-    allPages.addAll(pages.values());
-    List<OcrPage> snippetPages = allPages.stream()
-        .filter(p -> snippetPageIds.contains(p.id))
-        .distinct()
-        .collect(Collectors.toList());
-
-    OcrSnippet snip = new OcrSnippet(highlightedText, snippetPages, snippetRegions);
     this.addHighlightsToSnippet(hlSpans, snip);
     return snip;
   }
 
-  private OcrBox determineSnippetRegion(List<OcrBox> wordBoxes) {
-    float snipUlx = wordBoxes.stream().map(OcrBox::getUlx).min(Float::compareTo).get();
-    float snipUly = wordBoxes.stream().map(OcrBox::getUly).min(Float::compareTo).get();
-    float snipLrx = wordBoxes.stream().map(OcrBox::getLrx).max(Float::compareTo).get();
-    float snipLry = wordBoxes.stream().map(OcrBox::getLry).max(Float::compareTo).get();
-    String pageId = wordBoxes.get(0).getPageId();
-
-    String regionText = wordBoxes.stream().map(OcrBox::getText).collect(Collectors.joining(" "));
-    OcrBox firstBox = wordBoxes.get(0);
-    OcrBox lastBox = wordBoxes.get(wordBoxes.size() -1);
-    if (firstBox.isInHighlight() && !firstBox.getText().contains(startHlTag)) {
-      regionText = startHlTag + regionText;
+  /** Determine the region that encloses the words from <tt>start</tt> (inclusive) to <tt>end</tt> (exclusive). */
+  private OcrBox determineSnippetRegion(WordBoxes words, int start, int end) {
+    float snipUlx = words.getUlx(start);
+    float snipUly = words.getUly(start);
+    float snipLrx = words.getLrx(start);
+    float snipLry = words.getLry(start);
+    StringBuilder regionText = new StringBuilder();
+    words.appendText(start, regionText);
+    for (int i = start + 1; i < end; i++) {
+      snipUlx = Math.min(snipUlx, words.getUlx(i));
+      snipUly = Math.min(snipUly, words.getUly(i));
+      snipLrx = Math.max(snipLrx, words.getLrx(i));
+      snipLry = Math.max(snipLry, words.getLry(i));
+      regionText.append(' ');
+      words.appendText(i, regionText);
     }
-    if (lastBox.isInHighlight() && !lastBox.getText().contains(endHlTag)) {
-      regionText = regionText + endHlTag;
+    if (words.isInHighlight(start) && !words.textContains(start, startHlTag)) {
+      regionText.insert(0, startHlTag);
     }
-
-    return new OcrBox(regionText, pageId, snipUlx, snipUly, snipLrx, snipLry, false);
+    if (words.isInHighlight(end - 1) && !words.textContains(end - 1, endHlTag)) {
+      regionText.append(endHlTag);
+    }
+    return new OcrBox(regionText.toString(), words.getPageId(start), snipUlx, snipUly, snipLrx, snipLry, false);
   }
 
   /** Parse word boxes from an OCR fragment. */
@@ -245,28 +519,40 @@ public abstract class OcrPassageFormatter extends PassageFormatter {
    */
   protected abstract TreeMap<Integer, OcrPage> parsePages(String ocrFragment);
 
+  /**
+   * Add the highlighted spans to the snippet.
+   *
+   * The boxes of the highlighted words have their parent region index set if they are located in one of the regions
+   * of the snippet, only these are converted to coordinates relative to their region.
+   */
   protected void addHighlightsToSnippet(List<List<OcrBox>> hlSpans, OcrSnippet snippet) {
-    hlSpans.stream().flatMap(Collection::stream)
-        .forEach(box -> {
-          Optional<OcrBox> region = snippet.getSnippetRegions().stream().filter(r -> r.contains(box)).findFirst();
-          if (!region.isPresent()) {
-            return;
-          }
-          if (!this.absoluteHighlights) {
-            float xOffset = region.get().getUlx();
-            float yOffset = region.get().getUly();
-            box.setUlx(box.getUlx() - xOffset);
-            box.setLrx(box.getLrx() - xOffset);
-            box.setUly(box.getUly() - yOffset);
-            box.setLry(box.getLry() - yOffset);
-          }
-          box.setParentRegionIdx(snippet.getSnippetRegions().indexOf(region.get()));
-          // Remove the highlighting tags from the text
-          box.setText(box.getText().replaceAll(startHlTag, "").replaceAll(endHlTag, ""));
-        });
+    List<OcrBox> regions = snippet.getSnippetRegions();
+    for (List<OcrBox> span : hlSpans) {
+      for (OcrBox box : span) {
+        Integer regionIdx = box.getParentRegionIdx();
+        if (regionIdx == null) {
+          continue;
+        }
+        if (!this.absoluteHighlights) {
+          toRegionCoordinates(box, regions.get(regionIdx));
+        }
+        // Remove the highlighting tags from the text
+        box.setText(StringUtils.remove(StringUtils.remove(box.getText(), startHlTag), endHlTag));
+      }
+    }
     hlSpans.forEach(span -> snippet.addHighlightSpan(this.mergeBoxes(span)));
   }
 
+  /** Convert the coordinates of a highlighted box to be relative to the region it is located in. */
+  protected void toRegionCoordinates(OcrBox box, OcrBox region) {
+    float xOffset = region.getUlx();
+    float yOffset = region.getUly();
+    box.setUlx(box.getUlx() - xOffset);
+    box.setLrx(box.getLrx() - xOffset);
+    box.setUly(box.getUly() - yOffset);
+    box.setLry(box.getLry() - yOffset);
+  }
+
 
   /** Merge adjacent OCR boxes into a single one, taking line breaks into account **/
   protected List<OcrBox> mergeBoxes(List<OcrBox> boxes) {
@@ -327,6 +613,22 @@ public abstract class OcrPassageFormatter extends PassageFormatter {
     return Arrays.stream(snips).map(OcrSnippet::getText).toArray(String[]::new);
   }
 
+  /** Word boxes, pages and plaintext of an OCR fragment. */
+  protected static final class ParsedFragment {
+    /** Word boxes, in the order they appear in the fragment. */
+    public final WordBoxes words;
+    /** Pages that start in the fragment, in the order they appear in the fragment. */
+    public final List<OcrPage> pages;
+    /** Plaintext with highlighting tags, can be <tt>null</tt> if there are no words. */
+    public final String text;
+
+    public ParsedFragment(WordBoxes words, List<OcrPage> pages, String text) {
+      this.words = words;
+      this.pages = pages;
+      this.text = text;
+    }
+  }
+
   private static class PassageMatch {
     public int start;
     public int end;
@@ -0,0 +1,145 @@
+package de.digitalcollections.solrocr.formats;
+
+import de.digitalcollections.solrocr.model.OcrBox;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * Columnar buffer for the word boxes of an OCR fragment.
+ *
+ * Coordinates, pages and highlighting state of the words are stored in primitive arrays and their texts in a single
+ * char buffer, so parsing a fragment and building a snippet from it does not need an object per word. The buffer is
+ * meant to be reused for all fragments of a formatter, {@link OcrBox} instances are only created for the parts of
+ * the snippet that end up in the response.
+ *
+ * Words are always located on the page that was started last, see {@link #startPage(String)}.
+ */
+public final class WordBoxes {
+  private static final int INITIAL_SIZE = 64;
+
+  private float[] ulxs = new float[INITIAL_SIZE];
+  private float[] ulys = new float[INITIAL_SIZE];
+  private float[] lrxs = new float[INITIAL_SIZE];
+  private float[] lrys = new float[INITIAL_SIZE];
+  /** Index of the word's page in {@link #pageIds} */
+  private int[] pageIdxs = new int[INITIAL_SIZE];
+  /** Offsets of the word's text in {@link #texts}, the text ends at the start of the next word */
+  private int[] textStarts = new int[INITIAL_SIZE + 1];
+  private boolean[] highlights = new boolean[INITIAL_SIZE];
+  private final StringBuilder texts = new StringBuilder();
+  private final List<String> pageIds = new ArrayList<>();
+  private int size;
+
+  /** Remove all words and pages, the first page is the page the fragment starts on. */
+  public void reset(String startPageId) {
+    size = 0;
+    texts.setLength(0);
+    pageIds.clear();
+    pageIds.add(startPageId);
+  }
+
+  /** Start a new page, all words added from now on are located on it. */
+  public void startPage(String pageId) {
+    pageIds.add(pageId);
+  }
+
+  /** Add a word whose text is the given range of the sequence, on the page that was started last. */
+  public void add(CharSequence text, int textFrom, int textTo, float ulx, float uly, float lrx, float lry,
+                  boolean inHighlight) {
+    if (size == ulxs.length) {
+      grow();
+    }
+    ulxs[size] = ulx;
+    ulys[size] = uly;
+    lrxs[size] = lrx;
+    lrys[size] = lry;
+    pageIdxs[size] = pageIds.size() - 1;
+    highlights[size] = inHighlight;
+    textStarts[size] = texts.length();
+    texts.append(text, textFrom, textTo);
+    size++;
+    textStarts[size] = texts.length();
+  }
+
+  public void add(String text, float ulx, float uly, float lrx, float lry, boolean inHighlight) {
+    add(text, 0, text.length(), ulx, uly, lrx, lry, inHighlight);
+  }
+
+  private void grow() {
+    int newSize = ArrayUtil.oversize(size + 1, Float.BYTES);
+    ulxs = ArrayUtil.growExact(ulxs, newSize);
+    ulys = ArrayUtil.growExact(ulys, newSize);
+    lrxs = ArrayUtil.growExact(lrxs, newSize);
+    lrys = ArrayUtil.growExact(lrys, newSize);
+    pageIdxs = ArrayUtil.growExact(pageIdxs, newSize);
+    textStarts = ArrayUtil.growExact(textStarts, newSize + 1);
+    highlights = Arrays.copyOf(highlights, newSize);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public float getUlx(int idx) {
+    return ulxs[idx];
+  }
+
+  public float getUly(int idx) {
+    return ulys[idx];
+  }
+
+  public float getLrx(int idx) {
+    return lrxs[idx];
+  }
+
+  public float getLry(int idx) {
+    return lrys[idx];
+  }
+
+  public float getHeight(int idx) {
+    return lrys[idx] - ulys[idx];
+  }
+
+  public String getPageId(int idx) {
+    return pageIds.get(pageIdxs[idx]);
+  }
+
+  public boolean isInHighlight(int idx) {
+    return highlights[idx];
+  }
+
+  public String getText(int idx) {
+    return texts.substring(textStarts[idx], textStarts[idx + 1]);
+  }
+
+  /** Append the text of the word to the builder, without creating a {@link String} for it. */
+  public void appendText(int idx, StringBuilder sb) {
+    sb.append(texts, textStarts[idx], textStarts[idx + 1]);
+  }
+
+  /** Whether the text of the word contains the string. */
+  public boolean textContains(int idx, String str) {
+    int found = texts.indexOf(str, textStarts[idx]);
+    return found >= 0 && found + str.length() <= textStarts[idx + 1];
+  }
+
+  /** Create an {@link OcrBox} for the word. */
+  public OcrBox toBox(int idx) {
+    return new OcrBox(getText(idx), getPageId(idx), ulxs[idx], ulys[idx], lrxs[idx], lrys[idx], highlights[idx]);
+  }
+
+  /** Create {@link OcrBox} instances for all words. */
+  public List<OcrBox> toBoxes() {
+    List<OcrBox> boxes = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      boxes.add(toBox(i));
+    }
+    return boxes;
+  }
+}
@@ -9,6 +9,7 @@ import de.digitalcollections.solrocr.iter.TagBreakIterator;
 import java.io.Reader;
 import java.text.BreakIterator;
 import java.util.Map;
+import java.util.function.Predicate;
 import org.apache.lucene.analysis.util.CharFilterFactory;
 
 public class AltoFormat implements OcrFormat {
@@ -45,4 +46,19 @@ public class AltoFormat implements OcrFormat {
         || blockTagMapping.values().stream()
             .anyMatch(t -> ocrChunk.contains("<" + t));
   }
+
+  @Override
+  public String getPageMarker() {
+    return "<Page";
+  }
+
+  @Override
+  public Predicate<String> getBlockStartMatcher(OcrBlock block) {
+    String tagName = blockTagMapping.get(block);
+    if (tagName == null) {
+      return null;
+    }
+    String breakTag = "<" + tagName;
+    return tag -> tag.startsWith(breakTag);
+  }
 }
@@ -0,0 +1,350 @@
+package de.digitalcollections.solrocr.formats.alto;
+
+import de.digitalcollections.solrocr.formats.FragmentText;
+import de.digitalcollections.solrocr.formats.WordBoxes;
+import de.digitalcollections.solrocr.model.OcrPage;
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Tokenizer that parses the words, pages and plaintext of an ALTO fragment with a single pass over the fragment.
+ *
+ * Highlighting tags can occur anywhere in the fragment, including inside of attribute values, and are treated as
+ * opaque tokens. Attribute values are only materialized as strings where they end up in the output, all other
+ * attributes are tracked as offsets into the fragment.
+ *
+ * Instances are not thread-safe, but can be reused for multiple fragments.
+ */
+class AltoFragmentParser {
+  private static final String[] ATTRIBUTES = {
+      "ID", "HPOS", "VPOS", "WIDTH", "HEIGHT", "CONTENT", "SUBS_TYPE", "SUBS_CONTENT"};
+  private static final int ID = 0;
+  private static final int HPOS = 1;
+  private static final int VPOS = 2;
+  private static final int WIDTH = 3;
+  private static final int HEIGHT = 4;
+  private static final int CONTENT = 5;
+  private static final int SUBS_TYPE = 6;
+  private static final int SUBS_CONTENT = 7;
+
+  private final String startHlTag;
+  private final String endHlTag;
+
+  /** Offsets of the values of the known attributes of the current tag, -1 if the attribute is missing */
+  private final int[] valueStarts = new int[ATTRIBUTES.length];
+  private final int[] valueEnds = new int[ATTRIBUTES.length];
+
+  private final WordBoxes words = new WordBoxes();
+  private String fragment;
+  private int tagEnd;
+
+  AltoFragmentParser(String startHlTag, String endHlTag) {
+    this.startHlTag = startHlTag;
+    this.endHlTag = endHlTag;
+  }
+
+  /**
+   * Parse the fragment.
+   *
+   * @param startPage Identifier of the page the fragment starts on, used for all words before the first page in the
+   *                  fragment
+   * @param withText Whether the plaintext should be determined
+   */
+  Result parse(String fragment, String startPage, boolean withText) {
+    this.fragment = fragment;
+    words.reset(startPage);
+    List<OcrPage> pages = new ArrayList<>();
+    StringBuilder text = withText ? new StringBuilder(fragment.length() / 4) : null;
+    boolean inHighlight = false;
+    boolean highlightHyphenEnd = false;
+
+    int len = fragment.length();
+    int idx = 0;
+    while (idx < len) {
+      if (fragment.startsWith(startHlTag, idx)) {
+        if (withText) {
+          text.append(FragmentText.START_MARK);
+        }
+        idx += startHlTag.length();
+        continue;
+      }
+      if (fragment.startsWith(endHlTag, idx)) {
+        if (withText) {
+          text.append(FragmentText.END_MARK);
+        }
+        idx += endHlTag.length();
+        continue;
+      }
+      char c = fragment.charAt(idx);
+      if (c != '<') {
+        if (withText) {
+          text.append(c);
+        }
+        idx++;
+        continue;
+      }
+
+      if (fragment.startsWith("<Description>", idx)) {
+        int descEnd = fragment.indexOf("</Description>", idx);
+        if (descEnd >= 0) {
+          idx = descEnd + "</Description>".length();
+          continue;
+        }
+      }
+      if (!parseTag(idx)) {
+        // Not a complete tag, treat the rest as text
+        if (withText) {
+          text.append(fragment, idx, len);
+        }
+        break;
+      }
+      boolean isClosing = fragment.startsWith("</", idx);
+      int nameStart = isClosing ? idx + 2 : idx + 1;
+      if (isTag(nameStart, "String") && !isClosing) {
+        String subsType = getValue(SUBS_TYPE);
+        boolean isHypStart = "HypPart1".equals(subsType);
+        boolean isHypEnd = "HypPart2".equals(subsType);
+        if (withText) {
+          if (isHypStart && fragment.indexOf("<String", tagEnd) >= 0) {
+            // The hyphen end is part of the fragment, so we use the dehyphenated form
+            appendValue(text, SUBS_CONTENT);
+          } else if (!isHypEnd || words.isEmpty()) {
+            // A hyphen end is only output if its start is not part of the fragment, then the hyphenated form is used
+            appendValue(text, CONTENT);
+          }
+        }
+
+        String content = getValue(CONTENT);
+        String wordText = content == null ? "" : StringEscapeUtils.unescapeXml(content);
+        if (isHypStart) {
+          wordText += "-";
+        }
+        if (wordText.contains(startHlTag) || valueContains(SUBS_CONTENT, startHlTag)) {
+          inHighlight = true;
+        }
+        int x = parseCoordinate(HPOS);
+        int y = parseCoordinate(VPOS);
+        int w = parseCoordinate(WIDTH);
+        int h = parseCoordinate(HEIGHT);
+        words.add(wordText, x, y, x + w, y + h, inHighlight);
+
+        if (inHighlight && subsType != null) {
+          if (isHypStart && valueContains(SUBS_CONTENT, endHlTag)) {
+            highlightHyphenEnd = true;
+          } else if (highlightHyphenEnd) {
+            highlightHyphenEnd = false;
+            inHighlight = false;
+          }
+        } else if (wordText.contains(endHlTag) || fragment.startsWith(endHlTag, tagEnd + 1)) {
+          inHighlight = false;
+        }
+      } else if (isTag(nameStart, "Page") && !isClosing) {
+        OcrPage page = toPage();
+        pages.add(page);
+        words.startPage(page.id);
+      } else if (withText && (isTag(nameStart, "TextLine") || (!isClosing && isTag(nameStart, "SP")))) {
+        text.append(' ');
+      }
+      idx = tagEnd + 1;
+    }
+    return new Result(words, pages, withText ? FragmentText.normalize(text, false, startHlTag, endHlTag) : null);
+  }
+
+  /** Parse the first page tag in the fragment, or return <tt>null</tt> if there is none. */
+  OcrPage parseFirstPage(String fragment) {
+    this.fragment = fragment;
+    int idx = fragment.indexOf("<Page");
+    while (idx >= 0) {
+      if (isTag(idx + 1, "Page") && parseTag(idx)) {
+        return toPage();
+      }
+      idx = fragment.indexOf("<Page", idx + 1);
+    }
+    return null;
+  }
+
+  private OcrPage toPage() {
+    Dimension dims = null;
+    if (valueStarts[WIDTH] >= 0 && valueStarts[HEIGHT] >= 0) {
+      try {
+        dims = new Dimension(parseCoordinate(WIDTH), parseCoordinate(HEIGHT));
+      } catch (NumberFormatException e) {
+        // NOP, we're only interested in integer dimensions
+      }
+    }
+    return new OcrPage(getValue(ID), dims);
+  }
+
+  /** Whether the element name at the offset is the given name. */
+  private boolean isTag(int nameStart, String name) {
+    if (!fragment.startsWith(name, nameStart)) {
+      return false;
+    }
+    int after = nameStart + name.length();
+    if (after >= fragment.length()) {
+      return false;
+    }
+    char c = fragment.charAt(after);
+    return c == '>' || c == '/' || Character.isWhitespace(c);
+  }
+
+  /**
+   * Find the end of the tag that starts at the offset and record the values of its known attributes.
+   *
+   * @return whether the tag is complete
+   */
+  private boolean parseTag(int start) {
+    for (int i = 0; i < ATTRIBUTES.length; i++) {
+      valueStarts[i] = -1;
+      valueEnds[i] = -1;
+    }
+    int len = fragment.length();
+    int idx = start + 1;
+    int keyStart = -1;
+    int keyEnd = -1;
+    while (idx < len) {
+      if (fragment.startsWith(startHlTag, idx)) {
+        idx += startHlTag.length();
+        continue;
+      }
+      if (fragment.startsWith(endHlTag, idx)) {
+        idx += endHlTag.length();
+        continue;
+      }
+      char c = fragment.charAt(idx);
+      if (c == '>') {
+        tagEnd = idx;
+        return true;
+      } else if (c == '=') {
+        keyEnd = idx;
+        int quotePos = idx + 1;
+        if (keyStart >= 0 && quotePos < len && (fragment.charAt(quotePos) == '"' || fragment.charAt(quotePos) == '\'')) {
+          int valueEnd = findValueEnd(quotePos + 1, fragment.charAt(quotePos));
+          if (valueEnd < 0) {
+            return false;
+          }
+          recordValue(keyStart, keyEnd, quotePos + 1, valueEnd);
+          idx = valueEnd + 1;
+          keyStart = -1;
+          continue;
+        }
+      } else if (Character.isWhitespace(c) || c == '/') {
+        keyStart = -1;
+      } else if (keyStart < 0) {
+        keyStart = idx;
+      }
+      idx++;
+    }
+    return false;
+  }
+
+  private int findValueEnd(int start, char quote) {
+    int idx = start;
+    int len = fragment.length();
+    while (idx < len) {
+      if (fragment.startsWith(startHlTag, idx)) {
+        idx += startHlTag.length();
+      } else if (fragment.startsWith(endHlTag, idx)) {
+        idx += endHlTag.length();
+      } else if (fragment.charAt(idx) == quote) {
+        return idx;
+      } else {
+        idx++;
+      }
+    }
+    return -1;
+  }
+
+  private void recordValue(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+    int keyLen = keyEnd - keyStart;
+    for (int i = 0; i < ATTRIBUTES.length; i++) {
+      if (ATTRIBUTES[i].length() == keyLen && fragment.startsWith(ATTRIBUTES[i], keyStart)) {
+        valueStarts[i] = valueStart;
+        valueEnds[i] = valueEnd;
+        return;
+      }
+    }
+  }
+
+  private String getValue(int attr) {
+    if (valueStarts[attr] < 0) {
+      return null;
+    }
+    return fragment.substring(valueStarts[attr], valueEnds[attr]);
+  }
+
+  private boolean valueContains(int attr, String str) {
+    if (valueStarts[attr] < 0) {
+      return false;
+    }
+    int idx = fragment.indexOf(str, valueStarts[attr]);
+    return idx >= 0 && idx + str.length() <= valueEnds[attr];
+  }
+
+  /** Append the raw value of the attribute to the plaintext, with highlighting tags replaced by their marks. */
+  private void appendValue(StringBuilder text, int attr) {
+    int idx = valueStarts[attr];
+    if (idx < 0) {
+      return;
+    }
+    int end = valueEnds[attr];
+    while (idx < end) {
+      if (fragment.startsWith(startHlTag, idx)) {
+        text.append(FragmentText.START_MARK);
+        idx += startHlTag.length();
+      } else if (fragment.startsWith(endHlTag, idx)) {
+        text.append(FragmentText.END_MARK);
+        idx += endHlTag.length();
+      } else {
+        text.append(fragment.charAt(idx++));
+      }
+    }
+  }
+
+  /** Parse a numeric attribute value into an integer, decimal places are truncated. */
+  private int parseCoordinate(int attr) {
+    int start = valueStarts[attr];
+    int end = valueEnds[attr];
+    if (start < 0) {
+      throw new NumberFormatException(
+          String.format("Missing %s attribute in ALTO element, check your source files!", ATTRIBUTES[attr]));
+    }
+    int idx = start;
+    boolean negative = idx < end && fragment.charAt(idx) == '-';
+    if (negative) {
+      idx++;
+    }
+    int value = 0;
+    int numDigits = 0;
+    while (idx < end && Character.isDigit(fragment.charAt(idx)) && numDigits < 9) {
+      value = value * 10 + (fragment.charAt(idx++) - '0');
+      numDigits++;
+    }
+    if (idx < end && fragment.charAt(idx) == '.') {
+      idx++;
+      while (idx < end && Character.isDigit(fragment.charAt(idx))) {
+        idx++;
+      }
+    }
+    if (numDigits == 0 || idx < end) {
+      // Exponents, very large numbers, whitespace, etc.
+      return (int) Double.parseDouble(fragment.substring(start, end));
+    }
+    return negative ? -value : value;
+  }
+
+  static final class Result {
+    /** Words of the fragment, only valid until the parser is used for the next fragment */
+    final WordBoxes words;
+    final List<OcrPage> pages;
+    final String text;
+
+    Result(WordBoxes words, List<OcrPage> pages, String text) {
+      this.words = words;
+      this.pages = pages;
+      this.text = text;
+    }
+  }
+}
@@ -1,78 +1,37 @@
 package de.digitalcollections.solrocr.formats.hocr;
 
 import com.google.common.collect.ImmutableSet;
-import java.text.BreakIterator;
-import java.text.CharacterIterator;
+import de.digitalcollections.solrocr.iter.TagScanningBreakIterator;
+import java.nio.charset.StandardCharsets;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class HocrClassBreakIterator extends BreakIterator {
+/**
+ * A {@link java.text.BreakIterator} that splits a hOCR document on elements with one of a set of classes.
+ *
+ * The class of an element is the value of the first <tt>class</tt> attribute in its tag that starts with <tt>ocr</tt>,
+ * as matched by {@link #CLASS_PAT}. To avoid running the pattern on every single tag, it is matched on the raw bytes
+ * of the tag instead.
+ */
+public class HocrClassBreakIterator extends TagScanningBreakIterator {
   private final static Pattern CLASS_PAT = Pattern.compile("class=['\"](?<class>ocr.+?)['\"]");
-  private final Set<String> breakClasses;
+  private final static byte[] CLASS_ATTR = "class=".getBytes(StandardCharsets.US_ASCII);
+  private final static byte[] CLASS_PREFIX = "ocr".getBytes(StandardCharsets.US_ASCII);
 
-  private CharacterIterator text;
-  private int current;
+  private final byte[][] breakClasses;
 
   public HocrClassBreakIterator(String breakClass) {
-    this.breakClasses = ImmutableSet.of(breakClass);
+    this(ImmutableSet.of(breakClass));
   }
 
   public HocrClassBreakIterator(Set<String> breakClasses) {
-    this.breakClasses = breakClasses;
+    this.breakClasses = breakClasses.stream()
+        .map(c -> c.getBytes(StandardCharsets.UTF_8))
+        .toArray(byte[][]::new);
   }
 
-  @Override
-  public int first() {
-    this.text.first();
-    this.current = this.text.getIndex();
-    return this.current();
-  }
-
-  @Override
-  public int last() {
-    this.text.last();
-    this.current = this.text.getIndex();
-    return this.current();
-  }
-
-  @Override
-  public int next(int n) {
-    for (int i=n; i > 0; i--) {
-      this.next();
-    }
-    return this.current;
-  }
-
-  @Override
-  public int next() {
-    String fullTag = "";
-    String hocrClass = "";
-    StringBuilder sb = null;
-    while(!breakClasses.contains(hocrClass)) {
-      char c = this.text.current();
-      if (c == '<') {
-        sb = new StringBuilder();
-      }
-      if (sb != null) {
-        sb.append(c);
-        if (c == '>') {
-          fullTag = sb.toString();
-          hocrClass = getHocrClass(fullTag);
-          sb = null;
-        }
-      }
-      if (this.text.next() == CharacterIterator.DONE) {
-        this.current = this.text.getIndex();;
-        return this.current;
-      }
-    }
-    // FIXME: This will break with ByteCharIterators if the tag has a multi-byte codepoint.
-    this.current = this.text.getIndex() - fullTag.length();
-    return this.current;
-  }
-
-  private String getHocrClass(String fullTag) {
+  static String getHocrClass(String fullTag) {
     Matcher m = CLASS_PAT.matcher(fullTag);
     if (m.find()) {
       return m.group("class");
@@ -82,57 +41,58 @@ public class HocrClassBreakIterator extends BreakIterator {
   }
 
   @Override
-  public int previous() {
-    String fullTag = "";
-    String hocrClass = "";
-    StringBuilder sb = null;
-    while(!breakClasses.contains(hocrClass)) {
-      char c = this.text.current();
-      if (c == '>') {
-        sb = new StringBuilder();
+  protected boolean matches(byte[] buf, int offset, int len) {
+    int end = offset + len;
+    // Same semantics as CLASS_PAT: The first position where the complete pattern matches determines the class
+    for (int idx = offset; idx + CLASS_ATTR.length + CLASS_PREFIX.length + 3 <= end; idx++) {
+      if (!startsWith(buf, idx, CLASS_ATTR)) {
+        continue;
+      }
+      int quotePos = idx + CLASS_ATTR.length;
+      int valueStart = quotePos + 1;
+      if (!isQuote(buf[quotePos]) || !startsWith(buf, valueStart, CLASS_PREFIX)) {
+        continue;
+      }
+      // At least one character after the prefix, then everything up to the first quote, all on a single line
+      int valueEnd = valueStart + CLASS_PREFIX.length;
+      if (isLineTerminator(buf[valueEnd])) {
+        continue;
       }
-      if (sb != null) {
-        sb.insert(0, c);
-        if (c == '<') {
-          fullTag = sb.toString();
-          hocrClass = getHocrClass(fullTag);
-          sb = null;
-        }
+      valueEnd++;
+      while (valueEnd < end && !isQuote(buf[valueEnd]) && !isLineTerminator(buf[valueEnd])) {
+        valueEnd++;
       }
-      if (this.text.previous() == CharacterIterator.DONE) {
-        this.current = this.text.getIndex();
-        return this.current;
+      if (valueEnd == end || !isQuote(buf[valueEnd])) {
+        continue;
       }
+      return isBreakClass(buf, valueStart, valueEnd - valueStart);
     }
-    // FIXME: This will break with ByteCharIterators if the tag has a multi-byte codepoint.
-    this.current = this.text.getIndex() + 1;
-    return this.current;
+    return false;
   }
 
-  @Override
-  public int following(int offset) {
-    this.text.setIndex(offset);
-    return this.next();
-  }
-
-  @Override
-  public int preceding(int offset) {
-    this.text.setIndex(offset);
-    return this.previous();
+  private boolean isBreakClass(byte[] buf, int offset, int len) {
+    for (byte[] cls : breakClasses) {
+      if (cls.length == len && startsWith(buf, offset, cls)) {
+        return true;
+      }
+    }
+    return false;
   }
 
-  @Override
-  public int current() {
-    return this.current;
+  private static boolean startsWith(byte[] buf, int offset, byte[] prefix) {
+    for (int i = 0; i < prefix.length; i++) {
+      if (buf[offset + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
   }
 
-  @Override
-  public CharacterIterator getText() {
-    return this.text;
+  private static boolean isQuote(byte b) {
+    return b == '\'' || b == '"';
   }
 
-  @Override
-  public void setText(CharacterIterator newText) {
-    this.text = newText;
+  private static boolean isLineTerminator(byte b) {
+    return b == '\n' || b == '\r';
   }
 }
@@ -12,6 +12,7 @@ import java.text.BreakIterator;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import org.apache.lucene.analysis.pattern.PatternReplaceCharFilter;
 import org.apache.lucene.analysis.util.CharFilterFactory;
@@ -56,4 +57,18 @@ public class HocrFormat implements OcrFormat {
         .flatMap(Collection::stream)
         .anyMatch(ocrChunk::contains);
   }
+
+  @Override
+  public String getPageMarker() {
+    return "ocr_page";
+  }
+
+  @Override
+  public Predicate<String> getBlockStartMatcher(OcrBlock block) {
+    Set<String> classes = blockClassMapping.get(block);
+    if (classes == null) {
+      return null;
+    }
+    return tag -> classes.contains(HocrClassBreakIterator.getHocrClass(tag));
+  }
 }
@@ -0,0 +1,295 @@
+package de.digitalcollections.solrocr.formats.hocr;
+
+import de.digitalcollections.solrocr.formats.FragmentText;
+import de.digitalcollections.solrocr.formats.WordBoxes;
+import de.digitalcollections.solrocr.model.OcrPage;
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Tokenizer that parses the words, pages and plaintext of a hOCR fragment with a single pass over the fragment.
+ *
+ * Tags are stripped from the plaintext, with the exception of the highlighting tags, which are treated as opaque
+ * tokens. Since line breaks are dropped from the plaintext, block-level and inline elements don't need to be told
+ * apart. Entities are decoded as HTML first and then as XML, to give the same results as the
+ * {@link org.apache.lucene.analysis.charfilter.HTMLStripCharFilter} that was used for this before.
+ *
+ * Instances are not thread-safe, but can be reused for multiple fragments.
+ */
+class HocrFragmentParser {
+  // Pages are rare compared to words, so their attributes are still parsed with regular expressions
+  private static final Pattern pageIdPat = Pattern.compile(
+      "(?:id=['\"](?<id>.+?)['\"]|x_source (?<source>.+?)['\";]|ppageno (?<pageno>\\d+))");
+  private static final Pattern pageBboxPat = Pattern.compile("bbox 0 0 (?<width>\\d+) (?<height>\\d+)");
+
+  private final String startHlTag;
+  private final String endHlTag;
+
+  private final WordBoxes words = new WordBoxes();
+  private String fragment;
+  private int tagEnd;
+  private int classStart;
+  private int classEnd;
+  private int titleStart;
+  private int titleEnd;
+  private final int[] bbox = new int[4];
+
+  HocrFragmentParser(String startHlTag, String endHlTag) {
+    this.startHlTag = startHlTag;
+    this.endHlTag = endHlTag;
+  }
+
+  /**
+   * Parse the fragment.
+   *
+   * @param startPage Identifier of the page the fragment starts on, used for all words before the first page in the
+   *                  fragment
+   * @param withText Whether the plaintext should be determined
+   */
+  Result parse(String fragment, String startPage, boolean withText) {
+    this.fragment = fragment;
+    words.reset(startPage);
+    List<OcrPage> pages = new ArrayList<>();
+    StringBuilder text = withText ? new StringBuilder(fragment.length() / 4) : null;
+    boolean inHighlight = false;
+
+    int len = fragment.length();
+    int idx = 0;
+    while (idx < len) {
+      if (fragment.startsWith(startHlTag, idx)) {
+        if (withText) {
+          text.append(FragmentText.START_MARK);
+        }
+        idx += startHlTag.length();
+        continue;
+      }
+      if (fragment.startsWith(endHlTag, idx)) {
+        if (withText) {
+          text.append(FragmentText.END_MARK);
+        }
+        idx += endHlTag.length();
+        continue;
+      }
+      char c = fragment.charAt(idx);
+      if (c != '<') {
+        if (withText) {
+          text.append(c);
+        }
+        idx++;
+        continue;
+      }
+
+      int skipTo = skipNonElement(idx);
+      if (skipTo > idx) {
+        idx = skipTo;
+        continue;
+      }
+      if (!parseTag(idx)) {
+        // Not a complete tag, treat the rest as text
+        if (withText) {
+          text.append(fragment, idx, len);
+        }
+        break;
+      }
+      if (isTag(idx + 1, "span") && classIs("ocrx_word") && parseBbox()) {
+        int textStart = tagEnd + 1;
+        int textEnd = fragment.indexOf("</span>", textStart);
+        if (textEnd > textStart) {
+          String wordText = FragmentText.unescape(fragment.substring(textStart, textEnd), false);
+          if (wordText.contains(startHlTag)) {
+            inHighlight = true;
+          }
+          words.add(wordText, bbox[0], bbox[1], bbox[2], bbox[3], inHighlight);
+          if (wordText.contains(endHlTag) || fragment.startsWith(endHlTag, textEnd + "</span>".length())) {
+            inHighlight = false;
+          }
+        }
+      } else if (isTag(idx + 1, "div") && classIs("ocr_page")) {
+        OcrPage page = toPage();
+        pages.add(page);
+        words.startPage(page.id);
+      }
+      // The text of words is handled like any other text, so we continue right after the tag
+      idx = tagEnd + 1;
+    }
+    return new Result(words, pages, withText ? FragmentText.normalize(text, true, startHlTag, endHlTag) : null);
+  }
+
+  /** Parse the first page element in the fragment, or return <tt>null</tt> if there is none. */
+  OcrPage parseFirstPage(String fragment) {
+    this.fragment = fragment;
+    int idx = fragment.indexOf("<div");
+    while (idx >= 0) {
+      if (isTag(idx + 1, "div") && parseTag(idx) && classIs("ocr_page")) {
+        return toPage();
+      }
+      idx = fragment.indexOf("<div", idx + 1);
+    }
+    return null;
+  }
+
+  /**
+   * Skip over comments, processing instructions and the document title, which don't contribute to the text.
+   *
+   * @return the offset after the skipped section, or the start offset if there is nothing to skip
+   */
+  private int skipNonElement(int start) {
+    String endMarker;
+    if (fragment.startsWith("<!--", start)) {
+      endMarker = "-->";
+    } else if (fragment.startsWith("<?", start)) {
+      endMarker = "?>";
+    } else if (fragment.startsWith("<title>", start)) {
+      endMarker = "</title>";
+    } else {
+      return start;
+    }
+    int end = fragment.indexOf(endMarker, start);
+    return end < 0 ? start : end + endMarker.length();
+  }
+
+  private OcrPage toPage() {
+    // Only the attributes following the class are considered for the identifier and dimensions of the page
+    int attribStart = classEnd + 1;
+    while (attribStart < tagEnd && Character.isWhitespace(fragment.charAt(attribStart))) {
+      attribStart++;
+    }
+    String pageAttribs = fragment.substring(attribStart, tagEnd);
+    RuntimeException noPageIdExc = new RuntimeException("Pages must have an identifier, check your source files!");
+    Matcher idMatch = pageIdPat.matcher(pageAttribs);
+    if (!idMatch.find()) {
+      throw noPageIdExc;
+    }
+    String pageId = Stream.of("id", "source", "pageno")
+        .map(idMatch::group)
+        .filter(StringUtils::isNotEmpty)
+        .findFirst().orElseThrow(() -> noPageIdExc);
+    Dimension pageDims = null;
+    Matcher boxMatch = pageBboxPat.matcher(pageAttribs);
+    if (boxMatch.find()) {
+      pageDims = new Dimension(
+          Integer.parseInt(boxMatch.group("width")),
+          Integer.parseInt(boxMatch.group("height")));
+    }
+    return new OcrPage(pageId, pageDims);
+  }
+
+  /** Whether the element name at the offset is the given name. */
+  private boolean isTag(int nameStart, String name) {
+    if (!fragment.startsWith(name, nameStart)) {
+      return false;
+    }
+    int after = nameStart + name.length();
+    if (after >= fragment.length()) {
+      return false;
+    }
+    char c = fragment.charAt(after);
+    return c == '>' || c == '/' || Character.isWhitespace(c);
+  }
+
+  private boolean classIs(String cls) {
+    return classStart >= 0 && classEnd - classStart == cls.length() && fragment.startsWith(cls, classStart);
+  }
+
+  /**
+   * Find the end of the tag that starts at the offset and record the location of its <tt>class</tt> and
+   * <tt>title</tt> values.
+   *
+   * @return whether the tag is complete
+   */
+  private boolean parseTag(int start) {
+    classStart = classEnd = titleStart = titleEnd = -1;
+    int len = fragment.length();
+    int idx = start + 1;
+    int keyStart = -1;
+    while (idx < len) {
+      char c = fragment.charAt(idx);
+      if (c == '>') {
+        tagEnd = idx;
+        return true;
+      } else if (c == '=') {
+        int quotePos = idx + 1;
+        if (keyStart >= 0 && quotePos < len && (fragment.charAt(quotePos) == '"' || fragment.charAt(quotePos) == '\'')) {
+          int valueEnd = fragment.indexOf(fragment.charAt(quotePos), quotePos + 1);
+          if (valueEnd < 0) {
+            return false;
+          }
+          int keyLen = idx - keyStart;
+          if (keyLen == 5 && fragment.startsWith("class", keyStart)) {
+            classStart = quotePos + 1;
+            classEnd = valueEnd;
+          } else if (keyLen == 5 && fragment.startsWith("title", keyStart)) {
+            titleStart = quotePos + 1;
+            titleEnd = valueEnd;
+          }
+          idx = valueEnd + 1;
+          keyStart = -1;
+          continue;
+        }
+      } else if (Character.isWhitespace(c) || c == '/') {
+        keyStart = -1;
+      } else if (keyStart < 0) {
+        keyStart = idx;
+      }
+      idx++;
+    }
+    return false;
+  }
+
+  /** Parse the <tt>bbox</tt> property from the title of the current tag. */
+  private boolean parseBbox() {
+    if (titleStart < 0) {
+      return false;
+    }
+    int idx = fragment.indexOf("bbox ", titleStart);
+    while (idx >= 0 && idx < titleEnd) {
+      int pos = idx + "bbox ".length();
+      int i = 0;
+      for (; i < 4; i++) {
+        int numStart = pos;
+        int value = 0;
+        while (pos < titleEnd && pos - numStart < 9) {
+          char c = fragment.charAt(pos);
+          if (c < '0' || c > '9') {
+            break;
+          }
+          value = value * 10 + (c - '0');
+          pos++;
+        }
+        if (pos == numStart) {
+          break;
+        }
+        bbox[i] = value;
+        if (i < 3) {
+          if (pos >= titleEnd || fragment.charAt(pos) != ' ') {
+            break;
+          }
+          pos++;
+        }
+      }
+      if (i == 4) {
+        return true;
+      }
+      idx = fragment.indexOf("bbox ", idx + 1);
+    }
+    return false;
+  }
+
+  static final class Result {
+    /** Words of the fragment, only valid until the parser is used for the next fragment */
+    final WordBoxes words;
+    final List<OcrPage> pages;
+    final String text;
+
+    Result(WordBoxes words, List<OcrPage> pages, String text) {
+      this.words = words;
+      this.pages = pages;
+      this.text = text;
+    }
+  }
+}
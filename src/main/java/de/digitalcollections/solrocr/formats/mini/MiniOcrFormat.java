@@ -10,6 +10,7 @@ import de.digitalcollections.solrocr.iter.TagBreakIterator;
 import java.io.Reader;
 import java.text.BreakIterator;
 import java.util.Map;
+import java.util.function.Predicate;
 import org.apache.lucene.analysis.util.CharFilterFactory;
 
 public class MiniOcrFormat implements OcrFormat {
@@ -49,4 +50,19 @@ public class MiniOcrFormat implements OcrFormat {
             t -> ocrChunk.contains("<" + t + " ")
               || ocrChunk.contains("<" + t + ">"));
   }
+
+  @Override
+  public String getPageMarker() {
+    return "<p ";
+  }
+
+  @Override
+  public Predicate<String> getBlockStartMatcher(OcrBlock block) {
+    String tagName = blockTagMapping.get(block);
+    if (tagName == null) {
+      return null;
+    }
+    String breakTag = "<" + tagName;
+    return tag -> tag.startsWith(breakTag);
+  }
 }
@@ -0,0 +1,308 @@
+package de.digitalcollections.solrocr.formats.mini;
+
+import de.digitalcollections.solrocr.formats.FragmentText;
+import de.digitalcollections.solrocr.formats.WordBoxes;
+import de.digitalcollections.solrocr.model.OcrPage;
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scanner that parses the words, pages and plaintext of a MiniOCR fragment with a single pass over the fragment.
+ *
+ * The fragment is read as a {@link CharSequence}, so it can be scanned directly in the reused buffer of the
+ * highlighted passage. Coordinates are parsed without allocating and the words are collected in a reused
+ * {@link WordBoxes} buffer, so no objects are created per word.
+ *
+ * Instances are not thread-safe, but can be reused for multiple fragments.
+ */
+class MiniOcrFragmentParser {
+  private static final String WORD_START = "<w x=\"";
+  private static final String WORD_END = "</w>";
+  private static final String PAGE_START = "<p xml:id=\"";
+  /** Powers of ten that can be represented exactly as a float */
+  private static final float[] FLOAT_POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+  private final String startHlTag;
+  private final String endHlTag;
+
+  private CharSequence fragment;
+  private int pos;
+  /** Coordinates of the word tag that was parsed last */
+  private float x;
+  private float y;
+  private float width;
+  private float height;
+  private final WordBoxes words = new WordBoxes();
+
+  MiniOcrFragmentParser(String startHlTag, String endHlTag) {
+    this.startHlTag = startHlTag;
+    this.endHlTag = endHlTag;
+  }
+
+  /**
+   * Parse the fragment.
+   *
+   * @param startPage Identifier of the page the fragment starts on, used for all words before the first page in the
+   *                  fragment
+   * @param withText Whether the plaintext should be determined
+   */
+  Result parse(CharSequence fragment, String startPage, boolean withText) {
+    this.fragment = fragment;
+    words.reset(startPage);
+    List<OcrPage> pages = new ArrayList<>();
+    StringBuilder text = withText ? new StringBuilder(fragment.length() / 4) : null;
+    boolean inHighlight = false;
+
+    int len = fragment.length();
+    int idx = 0;
+    while (idx < len) {
+      if (startsWith(idx, startHlTag)) {
+        if (withText) {
+          text.append(FragmentText.START_MARK);
+        }
+        idx += startHlTag.length();
+        continue;
+      }
+      if (startsWith(idx, endHlTag)) {
+        if (withText) {
+          text.append(FragmentText.END_MARK);
+        }
+        idx += endHlTag.length();
+        continue;
+      }
+      char c = fragment.charAt(idx);
+      if (c != '<') {
+        if (withText) {
+          text.append(c);
+        }
+        idx++;
+        continue;
+      }
+
+      if (startsWith(idx, WORD_START) && parseWordTag(idx + WORD_START.length())) {
+        int textStart = pos;
+        int textEnd = indexOf(WORD_END, textStart, len);
+        if (textEnd > textStart) {
+          if (indexOf("&", textStart, textEnd) >= 0) {
+            String wordText = FragmentText.unescape(fragment.subSequence(textStart, textEnd).toString(), false);
+            inHighlight |= wordText.contains(startHlTag);
+            words.add(wordText, x, y, x + width, y + height, inHighlight);
+            if (wordText.contains(endHlTag)) {
+              inHighlight = false;
+            }
+          } else {
+            inHighlight |= indexOf(startHlTag, textStart, textEnd) >= 0;
+            words.add(fragment, textStart, textEnd, x, y, x + width, y + height, inHighlight);
+            if (indexOf(endHlTag, textStart, textEnd) >= 0) {
+              inHighlight = false;
+            }
+          }
+          if (startsWith(textEnd + WORD_END.length(), endHlTag)) {
+            inHighlight = false;
+          }
+        }
+        // The text of the word is handled like any other text
+        idx = textStart;
+        continue;
+      }
+      if (startsWith(idx, PAGE_START)) {
+        OcrPage page = parsePageTag(idx + PAGE_START.length());
+        if (page != null) {
+          pages.add(page);
+          words.startPage(page.id);
+          idx = pos;
+          continue;
+        }
+      }
+      int tagEnd = indexOf(">", idx, len);
+      if (tagEnd < 0) {
+        // Not a complete tag, treat the rest as text
+        if (withText) {
+          text.append(fragment, idx, len);
+        }
+        break;
+      }
+      idx = tagEnd + 1;
+    }
+
+    this.fragment = null;
+    return new Result(words, pages, withText ? FragmentText.normalize(text, true, startHlTag, endHlTag) : null);
+  }
+
+  /** Parse the first page tag in the fragment, or return <tt>null</tt> if there is none. */
+  OcrPage parseFirstPage(CharSequence fragment) {
+    this.fragment = fragment;
+    try {
+      int idx = indexOf(PAGE_START, 0, fragment.length());
+      while (idx >= 0) {
+        OcrPage page = parsePageTag(idx + PAGE_START.length());
+        if (page != null) {
+          return page;
+        }
+        idx = indexOf(PAGE_START, idx + 1, fragment.length());
+      }
+      return null;
+    } finally {
+      this.fragment = null;
+    }
+  }
+
+  /**
+   * Parse the coordinates of a word tag, starting at the first coordinate.
+   *
+   * @return whether the tag is a valid word tag, {@link #pos} is then set to the offset after the tag
+   */
+  private boolean parseWordTag(int start) {
+    pos = start;
+    x = parseFloat(' ');
+    if (Float.isNaN(x)) {
+      return false;
+    }
+    y = parseFloat(' ');
+    if (Float.isNaN(y)) {
+      return false;
+    }
+    width = parseFloat(' ');
+    if (Float.isNaN(width)) {
+      return false;
+    }
+    height = parseFloat('"');
+    if (Float.isNaN(height) || pos >= fragment.length() || fragment.charAt(pos) != '>') {
+      return false;
+    }
+    pos++;
+    return true;
+  }
+
+  /**
+   * Parse a non-negative decimal number at {@link #pos} that is followed by the delimiter and advance {@link #pos}
+   * behind the delimiter.
+   *
+   * Numbers with few enough digits are computed with a single float division of exactly representable operands,
+   * which gives the same correctly rounded result as {@link Float#parseFloat(String)}, everything else is passed on
+   * to it.
+   *
+   * @return the number or {@link Float#NaN} if there is no valid number followed by the delimiter
+   */
+  private float parseFloat(char delimiter) {
+    int start = pos;
+    int len = fragment.length();
+    int mantissa = 0;
+    int numDigits = 0;
+    int numFractionDigits = 0;
+    boolean inFraction = false;
+    boolean exact = true;
+    while (pos < len) {
+      char c = fragment.charAt(pos);
+      if (c >= '0' && c <= '9') {
+        if (numDigits == 7) {
+          exact = false;
+        } else if (mantissa > 0 || c != '0') {
+          numDigits++;
+        }
+        if (exact) {
+          mantissa = mantissa * 10 + (c - '0');
+        }
+        if (inFraction) {
+          numFractionDigits++;
+        }
+      } else if (c == '.' && !inFraction) {
+        inFraction = true;
+      } else {
+        break;
+      }
+      pos++;
+    }
+    int end = pos;
+    if (end == start || pos >= len || fragment.charAt(pos) != delimiter || (inFraction && end - start == 1)) {
+      return Float.NaN;
+    }
+    pos++;
+    if (exact && numFractionDigits < FLOAT_POW10.length) {
+      return mantissa / FLOAT_POW10[numFractionDigits];
+    }
+    return Float.parseFloat(fragment.subSequence(start, end).toString());
+  }
+
+  /**
+   * Parse a page tag, starting at its identifier.
+   *
+   * @return the page or <tt>null</tt> if the tag is incomplete, {@link #pos} is then set to the offset after the tag
+   */
+  private OcrPage parsePageTag(int idStart) {
+    int len = fragment.length();
+    int idEnd = indexOf("\"", idStart, len);
+    if (idEnd <= idStart) {
+      return null;
+    }
+    int tagEnd = indexOf(">", idEnd, len);
+    if (tagEnd < 0) {
+      return null;
+    }
+    Dimension dims = null;
+    int whStart = indexOf("wh=\"", idEnd, tagEnd);
+    if (whStart >= 0) {
+      pos = whStart + "wh=\"".length();
+      int width = parseInt(' ');
+      int height = width < 0 ? -1 : parseInt('"');
+      if (height >= 0) {
+        dims = new Dimension(width, height);
+      }
+    }
+    pos = tagEnd + 1;
+    return new OcrPage(fragment.subSequence(idStart, idEnd).toString(), dims);
+  }
+
+  /** Parse a non-negative integer at {@link #pos} that is followed by the delimiter, or return <tt>-1</tt>. */
+  private int parseInt(char delimiter) {
+    int start = pos;
+    int len = fragment.length();
+    long value = 0;
+    while (pos < len && fragment.charAt(pos) >= '0' && fragment.charAt(pos) <= '9' && value <= Integer.MAX_VALUE) {
+      value = value * 10 + (fragment.charAt(pos) - '0');
+      pos++;
+    }
+    if (pos == start || pos >= len || fragment.charAt(pos) != delimiter || value > Integer.MAX_VALUE) {
+      return -1;
+    }
+    pos++;
+    return (int) value;
+  }
+
+  private boolean startsWith(int offset, String str) {
+    if (offset < 0 || offset + str.length() > fragment.length()) {
+      return false;
+    }
+    for (int i = 0; i < str.length(); i++) {
+      if (fragment.charAt(offset + i) != str.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Find the first occurrence of the string that lies completely within [from, to), or <tt>-1</tt>. */
+  private int indexOf(String str, int from, int to) {
+    char first = str.charAt(0);
+    for (int i = from; i <= to - str.length(); i++) {
+      if (fragment.charAt(i) == first && startsWith(i, str)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  static final class Result {
+    /** Words of the fragment, only valid until the parser is used for the next fragment */
+    final WordBoxes words;
+    final List<OcrPage> pages;
+    final String text;
+
+    Result(WordBoxes words, List<OcrPage> pages, String text) {
+      this.words = words;
+      this.pages = pages;
+      this.text = text;
+    }
+  }
+}
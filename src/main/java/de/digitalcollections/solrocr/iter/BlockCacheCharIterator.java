@@ -0,0 +1,138 @@
+package de.digitalcollections.solrocr.iter;
+
+import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.util.BlockCache;
+import de.digitalcollections.solrocr.util.BlockCache.Block;
+import de.digitalcollections.solrocr.util.MappedFileCache;
+import de.digitalcollections.solrocr.util.MappedFileCache.MappedFile;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/** {@link ByteCharIterator} that reads a file in fixed-size blocks with positional reads through a {@link BlockCache}.
+ *
+ * The file is never memory-mapped, only the blocks that are actually accessed by the break iterators and passage
+ * formatters are read from storage. The iterator keeps the block it is currently positioned in pinned, so sequential
+ * access within a block is as cheap as with a mapped file.
+ */
+public class BlockCacheCharIterator extends ByteCharIterator {
+  private final Path filePath;
+  private final BlockCache cache;
+  private final int blockSize;
+  private MappedFile file;
+
+  private Block block;
+  private int blockStart = 0;
+  private int blockEnd = 0;
+  private boolean closed = false;
+
+  public BlockCacheCharIterator(Path path, Charset charset, SourcePointer ptr, BlockCache cache) throws IOException {
+    this(path, charset, ptr, cache, MappedFileCache.getInstance().acquire(path));
+  }
+
+  private BlockCacheCharIterator(Path path, Charset charset, SourcePointer ptr, BlockCache cache, MappedFile file) {
+    super(addressableLength(file.getSize()), charset, ptr);
+    this.filePath = path;
+    this.cache = cache;
+    this.blockSize = cache.getBlockSize();
+    this.file = file;
+    if (this.charset == StandardCharsets.UTF_8 && !file.hasUtf8Start()) {
+      file.release();
+      throw new IllegalArgumentException("File is not UTF-8 encoded");
+    }
+  }
+
+  public BlockCacheCharIterator(BlockCacheCharIterator other) {
+    super(other.numBytes, other.charset, other.ptr);
+    this.filePath = other.filePath;
+    this.cache = other.cache;
+    this.blockSize = other.blockSize;
+    this.file = other.file.share();
+    this.current = other.current;
+  }
+
+  /** Pin the block that contains the given offset. */
+  private void loadBlock(int offset) {
+    if (offset < 0 || offset >= numBytes) {
+      throw new IndexOutOfBoundsException(String.format("Offset %d is out of bounds [0, %d)", offset, numBytes));
+    }
+    if (block != null) {
+      cache.release(block);
+      block = null;
+      blockStart = blockEnd = 0;
+    }
+    long blockIdx = offset / blockSize;
+    try {
+      block = readBlock(blockIdx);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    blockStart = (int) (blockIdx * blockSize);
+    blockEnd = blockStart + block.length();
+  }
+
+  private Block readBlock(long blockIdx) throws IOException {
+    try {
+      return cache.get(file, blockIdx);
+    } catch (ClosedByInterruptException e) {
+      // Our own thread was interrupted, the shared channel is now unusable for everybody
+      MappedFileCache.getInstance().invalidate(file);
+      throw e;
+    } catch (ClosedChannelException e) {
+      // Another thread using the shared channel was interrupted, re-open the file and try again
+      MappedFileCache.getInstance().invalidate(file);
+      MappedFile reopened = MappedFileCache.getInstance().acquire(filePath);
+      file.release();
+      file = reopened;
+      return cache.get(file, blockIdx);
+    }
+  }
+
+  @Override
+  protected byte byteAt(int offset) {
+    if (offset < blockStart || offset >= blockEnd) {
+      loadBlock(offset);
+    }
+    return block.get(offset - blockStart);
+  }
+
+  @Override
+  protected void readBytes(int offset, byte[] dst, int dstOffset, int len) {
+    while (len > 0) {
+      if (offset < blockStart || offset >= blockEnd) {
+        loadBlock(offset);
+      }
+      int toCopy = Math.min(len, blockEnd - offset);
+      block.read(offset - blockStart, dst, dstOffset, toCopy);
+      offset += toCopy;
+      dstOffset += toCopy;
+      len -= toCopy;
+    }
+  }
+
+  @Override
+  public Object clone() {
+    return new BlockCacheCharIterator(this);
+  }
+
+  @Override
+  public String getIdentifier() {
+    return this.filePath.toAbsolutePath().toString();
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      if (block != null) {
+        cache.release(block);
+        block = null;
+        blockStart = blockEnd = 0;
+      }
+      file.release();
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package de.digitalcollections.solrocr.iter;
+
+import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.util.BlockCompressedFile;
+import de.digitalcollections.solrocr.util.BlockCompressedFile.BlockDecoder;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/** {@link ByteCharIterator} over the uncompressed content of a {@link BlockCompressedFile}.
+ *
+ * Only the blocks that are actually accessed are decompressed. Since break iteration frequently moves back and forth
+ * across block boundaries, the most recently used blocks are kept around.
+ */
+public class BlockCompressedCharIterator extends ByteCharIterator {
+  private static final int NUM_CACHED_BLOCKS = 4;
+
+  private final BlockCompressedFile file;
+  private final BlockDecoder decoder;
+  private final int blockSize;
+  private final byte[][] blocks = new byte[NUM_CACHED_BLOCKS][];
+  private final int[] blockIdxs = new int[NUM_CACHED_BLOCKS];
+  private final long[] lastUsed = new long[NUM_CACHED_BLOCKS];
+  private long useCounter = 0;
+
+  private byte[] block;
+  private long blockStart = 0;
+  private long blockEnd = 0;
+  private boolean closed = false;
+
+  public BlockCompressedCharIterator(Path path, Charset charset, SourcePointer ptr) throws IOException {
+    this(BlockCompressedFile.open(path), charset, ptr);
+  }
+
+  private BlockCompressedCharIterator(BlockCompressedFile file, Charset charset, SourcePointer ptr) {
+    super(addressableLength(file.getUncompressedSize()), charset, ptr);
+    this.file = file;
+    this.decoder = file.newDecoder();
+    this.blockSize = file.getBlockSize();
+    Arrays.fill(blockIdxs, -1);
+  }
+
+  public BlockCompressedCharIterator(BlockCompressedCharIterator other) {
+    this(reopen(other.file.getPath()), other.charset, other.ptr);
+    this.current = other.current;
+  }
+
+  private static BlockCompressedFile reopen(Path path) {
+    try {
+      return BlockCompressedFile.open(path);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Make the block that contains the given offset the current block. */
+  private void loadBlock(long offset) {
+    if (offset < 0 || offset >= numBytes) {
+      throw new IndexOutOfBoundsException(String.format("Offset %d is out of bounds [0, %d)", offset, numBytes));
+    }
+    int blockIdx = (int) (offset / blockSize);
+    int slot = -1;
+    int lruSlot = 0;
+    for (int i = 0; i < NUM_CACHED_BLOCKS; i++) {
+      if (blockIdxs[i] == blockIdx) {
+        slot = i;
+        break;
+      }
+      if (lastUsed[i] < lastUsed[lruSlot]) {
+        lruSlot = i;
+      }
+    }
+    if (slot < 0) {
+      slot = lruSlot;
+      if (blocks[slot] == null) {
+        blocks[slot] = new byte[blockSize];
+      }
+      // Mark the slot as empty until decoding succeeded
+      blockIdxs[slot] = -1;
+      try {
+        decoder.decode(blockIdx, blocks[slot]);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      blockIdxs[slot] = blockIdx;
+    }
+    lastUsed[slot] = ++useCounter;
+    block = blocks[slot];
+    blockStart = (long) blockIdx * blockSize;
+    blockEnd = blockStart + file.getBlockLength(blockIdx);
+  }
+
+  @Override
+  protected byte byteAt(int offset) {
+    if (offset < blockStart || offset >= blockEnd) {
+      loadBlock(offset);
+    }
+    return block[(int) (offset - blockStart)];
+  }
+
+  @Override
+  protected void readBytes(int offset, byte[] dst, int dstOffset, int len) {
+    long pos = offset;
+    while (len > 0) {
+      if (pos < blockStart || pos >= blockEnd) {
+        loadBlock(pos);
+      }
+      int toCopy = (int) Math.min(len, blockEnd - pos);
+      System.arraycopy(block, (int) (pos - blockStart), dst, dstOffset, toCopy);
+      pos += toCopy;
+      dstOffset += toCopy;
+      len -= toCopy;
+    }
+  }
+
+  @Override
+  public String getIdentifier() {
+    return file.getPath().toAbsolutePath().toString();
+  }
+
+  @Override
+  public Object clone() {
+    return new BlockCompressedCharIterator(this);
+  }
+
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      decoder.close();
+      file.close();
+      block = null;
+      blockStart = blockEnd = 0;
+    }
+  }
+}
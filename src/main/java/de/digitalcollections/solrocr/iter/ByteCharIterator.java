@@ -0,0 +1,216 @@
+package de.digitalcollections.solrocr.iter;
+
+import de.digitalcollections.solrocr.model.SourcePointer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/** Base class for {@link IterableCharSequence} implementations that operate on the raw bytes of an external source.
+ *
+ * ATTENTION: This breaks the semantics of {@link java.text.CharacterIterator} and {@link java.lang.CharSequence}
+ *            since all indices are byte offsets into the underlying source, <strong>not</strong> character indices.
+ *            All methods that don't operate on indices should work as expected.
+ *
+ *            Please note that this means that this type will only work with {@link java.text.BreakIterator} types
+ *            that don't mess with the index themselves.
+ *
+ * Implementations only need to provide access to the bytes of the source, all of the character iteration logic is
+ * implemented here.
+ */
+public abstract class ByteCharIterator implements IterableCharSequence, AutoCloseable {
+  protected final int numBytes;
+  protected final Charset charset;
+  protected final SourcePointer ptr;
+
+  protected int current;
+
+  /** Reusable buffer for decoding byte ranges, iterators are only ever used from a single thread. */
+  private byte[] decodeBuf;
+
+  protected ByteCharIterator(int numBytes, Charset charset, SourcePointer ptr) {
+    this.numBytes = numBytes;
+    this.charset = charset;
+    this.ptr = ptr;
+  }
+
+  /**
+   * Determine the number of addressable bytes for a source of the given size.
+   *
+   * Since Lucene stores offsets as <tt>int</tt>s, only the first 2 GiB of a larger source can ever be referenced by
+   * a highlighting hit, the remainder is invisible to the iterator.
+   */
+  protected static int addressableLength(long size) {
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+
+  /** Get the byte at the given offset in the source. */
+  protected abstract byte byteAt(int offset);
+
+  /** Copy <tt>len</tt> bytes starting at <tt>offset</tt> in the source into <tt>dst</tt>, starting at <tt>dstOffset</tt>. */
+  protected abstract void readBytes(int offset, byte[] dst, int dstOffset, int len);
+
+  @Override
+  public int length() {
+    return numBytes;
+  }
+
+  @Override
+  public void copyBytes(int offset, byte[] dst, int dstOffset, int len) {
+    if (offset < 0 || len < 0 || offset + len > numBytes) {
+      throw new IndexOutOfBoundsException();
+    }
+    this.readBytes(offset, dst, dstOffset, len);
+  }
+
+  /** Move offset to the left until we're on an UTF8 starting byte **/
+  private int adjustOffset(int b, int offset) {
+    while ((b >> 6) == 0b10) {
+      offset -= 1;
+      b = this.byteAt(offset) & 0xFF;
+    }
+    return offset;
+  }
+
+  protected int adjustOffset(int offset) {
+    if (offset == numBytes) {
+      return offset;
+    }
+    int b = this.byteAt(offset) & 0xFF;
+    return adjustOffset(b, offset);
+  }
+
+  /** Get ASCII character at the given byte offset.
+   *
+   * Note that for performance reason this will simply return `?` if the byte at the given position is not ASCII.
+   * This is done for a 25% performance boost while highlighting, with the reasoning that the `charAt` method is only
+   * used by the `BreakIterator` implementations to find OCR blocks. Every format supported by this plugin uses element
+   * names and attribute names that are pure ASCII, so we're not missing out on anything relevant, as long as the user
+   * doesn't put non-ASCII characters into attribute values.
+   */
+  @Override
+  public char charAt(int offset) {
+    int b = byteAt(offset) & 0xFF;  // bytes are signed in Java....
+    if (b < 0x80) {
+      // Optimization: It's just ASCII, so simply cast to a char
+      return (char) b;
+    } else {
+      // Dirty dirty dirty speed hack, see method docstring.
+      return '?';
+    }
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end < 0 || end > this.numBytes || end < start) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (charset == StandardCharsets.UTF_8) {
+      start = adjustOffset(start);
+      end = adjustOffset(end);
+    }
+    int len = end - start;
+    if (decodeBuf == null || decodeBuf.length < len) {
+      decodeBuf = new byte[Math.max(len, decodeBuf == null ? 0 : Math.min(2 * decodeBuf.length, numBytes))];
+    }
+    this.readBytes(start, decodeBuf, 0, len);
+    return new String(decodeBuf, 0, len, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public char first() {
+    this.current = this.getBeginIndex();
+    return this.current();
+  }
+
+  @Override
+  public char last() {
+    this.current = this.getEndIndex() - 1;
+    return this.current();
+  }
+
+  @Override
+  public char current() {
+    if (this.current == this.numBytes) {
+      return DONE;
+    }
+    return this.charAt(current);
+  }
+
+  @Override
+  public char next() {
+    char c = this.current();
+    int inc = 1;
+    if (Character.isHighSurrogate(c) || c > '\u07FF') {
+      inc = 3;
+    }  else if (c > '\u007F') {
+      inc = 2;
+    }
+    this.current = Math.min(this.current + inc, this.numBytes);
+    if (this.current == this.numBytes) {
+      return DONE;
+    }
+    return this.current();
+  }
+
+  @Override
+  public char previous() {
+    if (this.current > 0) {
+      char c = this.current();
+      int dec = 1;
+      if (Character.isLowSurrogate(c) || c > '\u07FF') {
+        dec = 3;
+      } else if (c > '\u007F') {
+        dec = 2;
+      }
+      this.current = Math.max(this.current - dec, 0);
+      return this.current();
+    } else {
+      return DONE;
+    }
+  }
+
+  @Override
+  public char setIndex(int offset) {
+    this.current = offset;
+    try {
+      return this.current();
+    } catch (IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  @Override
+  public int getBeginIndex() {
+    return 0;
+  }
+
+  @Override
+  public int getEndIndex() {
+    return numBytes;
+  }
+
+  @Override
+  public int getIndex() {
+    return current;
+  }
+
+  @Override
+  public OffsetType getOffsetType() {
+    return OffsetType.BYTES;
+  }
+
+  @Override
+  public Charset getCharset() {
+    return this.charset;
+  }
+
+  @Override
+  public SourcePointer getPointer() {
+    return ptr;
+  }
+
+  @Override
+  public abstract Object clone();
+
+  @Override
+  public abstract void close();
+}
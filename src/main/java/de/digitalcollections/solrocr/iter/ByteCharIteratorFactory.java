@@ -0,0 +1,35 @@
+package de.digitalcollections.solrocr.iter;
+
+import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.storage.StorageRegistry;
+import de.digitalcollections.solrocr.util.BlockCompressedFile;
+import de.digitalcollections.solrocr.util.ZipArchive;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/** Creates {@link ByteCharIterator} instances for OCR files, determines how the files are read at highlighting time. */
+@FunctionalInterface
+public interface ByteCharIteratorFactory {
+  /** Read files via memory-mapping, the default. */
+  ByteCharIteratorFactory MMAP = FileBytesCharIterator::new;
+
+  ByteCharIterator open(Path path, Charset charset, SourcePointer ptr) throws IOException;
+
+  /** Get a factory that routes every source to the iterator for its kind of storage: Files in remote storage are read
+   *  with a {@link RemoteCharIterator}, block-compressed containers with a {@link BlockCompressedCharIterator}, entries
+   *  in ZIP archives via {@link ZipEntryCharIterator#open(Path, Charset, SourcePointer)} and all other files with this
+   *  factory. */
+  default ByteCharIteratorFactory withSourceRouting() {
+    return (path, charset, ptr) -> {
+      if (StorageRegistry.isRemote(path)) {
+        return new RemoteCharIterator(path, charset, ptr);
+      } else if (ZipArchive.isZipEntry(path)) {
+        return ZipEntryCharIterator.open(path, charset, ptr);
+      } else if (BlockCompressedFile.isBlockCompressed(path)) {
+        return new BlockCompressedCharIterator(path, charset, ptr);
+      }
+      return this.open(path, charset, ptr);
+    };
+  }
+}
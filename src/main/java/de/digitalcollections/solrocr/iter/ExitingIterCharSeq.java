@@ -72,6 +72,16 @@ public class ExitingIterCharSeq implements IterableCharSequence {
     return iter.charAt(index);
   }
 
+  @Override
+  public void copyBytes(int offset, byte[] dst, int dstOffset, int len) {
+    untilNextCheck -= len;
+    if (untilNextCheck <= 0) {
+      checkAndThrow();
+      untilNextCheck = CHARS_BETWEEN_CHECKS;
+    }
+    iter.copyBytes(offset, dst, dstOffset, len);
+  }
+
   @Override
   public CharSequence subSequence(int start, int end) {
     return iter.subSequence(start, end);
@@ -1,211 +1,126 @@
 package de.digitalcollections.solrocr.iter;
 
 import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.util.MappedFileCache;
+import de.digitalcollections.solrocr.util.MappedFileCache.MappedFile;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileChannel.MapMode;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 
-/** ATTENTION: This breaks the semantics of {@link java.text.CharacterIterator} and {@link java.lang.CharSequence}
- *             since all indices are byte offsets into the underlying file, <strong>not</strong> character indices.
- *             All methods that don't operate on indices should work as expected.
+/** {@link ByteCharIterator} on top of a memory-mapped file.
  *
- *             Please note that this means that this type will only work with {@link java.text.BreakIterator} types
- *             that don't mess with the index themselves.
+ * The file mapping is obtained from the shared {@link MappedFileCache}, so creating and cloning instances for files
+ * that were recently highlighted is cheap. The file is mapped in chunks that are only mapped once they're accessed,
+ * so only the parts of the file that are actually highlighted occupy address space.
+ *
+ * The iterator can also be restricted to a range of the file, e.g. for entries that are stored uncompressed in a ZIP
+ * archive, in which case offsets are relative to the start of the range.
  */
-public class FileBytesCharIterator implements IterableCharSequence, AutoCloseable {
+public class FileBytesCharIterator extends ByteCharIterator {
 
-  private final Path filePath;  // For copy-constructor
-  private final FileChannel chan;
-  private final MappedByteBuffer buf;
-  private final int numBytes;
-  private final Charset charset;
-  private final SourcePointer ptr;
+  private final Path filePath;
+  private final MappedFile file;
+  private final int chunkSizePower;
+  /** Offset of the start of the iterated range in the file. */
+  private final long baseOffset;
 
-  private int current;
+  private ByteBuffer chunk;
+  private long chunkStart = 0;
+  private long chunkEnd = 0;
+  private boolean closed = false;
 
   public FileBytesCharIterator(Path path, SourcePointer ptr) throws IOException {
     this(path, StandardCharsets.UTF_8, ptr);
   }
 
   public FileBytesCharIterator(Path path, Charset charset, SourcePointer ptr) throws IOException {
-    this.ptr = ptr;
-    this.charset = charset;
-    this.filePath = path;
-    chan = (FileChannel) Files.newByteChannel(path, StandardOpenOption.READ);
-    this.numBytes = (int) chan.size();
-    this.buf = chan.map(MapMode.READ_ONLY, 0, chan.size());
-    if (this.charset == StandardCharsets.UTF_8) {
-      byte[] b = new byte[4];
-      buf.get(b);
-      int[] validationBuf = new int[4];
-      for (int i = 0; i < b.length; i++) {
-        validationBuf[i] = b[i] & 0xFF;
-      }
-      // TODO: This is a pretty spotty heuristic, maybe there's something in the stdlib?
-      if (!(validationBuf[0] == 0xEF && validationBuf[1] == 0xBB && validationBuf[2] == 0xBF)
-          && ((validationBuf[0] >> 3) != 0b11110)
-          && ((validationBuf[0] >> 4) != 0b1110)
-          && ((validationBuf[0] >> 5) != 0b110)
-          && ((validationBuf[0] >> 7) != 0)) {
-        throw new IllegalArgumentException("File is not UTF-8 encoded");
-      }
-    }
+    this(path, charset, ptr, MappedFileCache.getInstance());
   }
 
-  public FileBytesCharIterator(FileBytesCharIterator other) throws IOException {
-    this(other.filePath, other.charset, other.ptr);
-    this.current = other.current;
+  public FileBytesCharIterator(Path path, Charset charset, SourcePointer ptr, MappedFileCache cache)
+      throws IOException {
+    this(path, charset, ptr, cache.acquire(path));
   }
 
-  @Override
-  public int length() {
-    return numBytes;
-  }
-
-  /** Move offset to the left until we're on an UTF8 starting byte **/
-  private int adjustOffset(int b, int offset) {
-    while ((b >> 6) == 0b10) {
-      offset -= 1;
-      b = this.buf.get(offset) & 0xFF;
-    }
-    return offset;
-  }
-
-  private int adjustOffset(int offset) {
-    if (offset == numBytes) {
-      return offset;
+  private FileBytesCharIterator(Path path, Charset charset, SourcePointer ptr, MappedFile file) {
+    this(path, charset, ptr, file, 0, file.getSize());
+    if (this.charset == StandardCharsets.UTF_8 && !file.hasUtf8Start()) {
+      file.release();
+      throw new IllegalArgumentException("File is not UTF-8 encoded");
     }
-    int b = this.buf.get(offset) & 0xFF;
-    return adjustOffset(b, offset);
   }
 
-  /** Get ASCII character at the given byte offset.
+  /**
+   * Iterate over a range of a mapped file.
    *
-   * Note that for performance reason this will simply return `?` if the byte at the given position is not ASCII.
-   * This is done for a 25% performance boost while highlighting, with the reasoning that the `charAt` method is only
-   * used by the `BreakIterator` implementations to find OCR blocks. Every format supported by this plugin uses element
-   * names and attribute names that are pure ASCII, so we're not missing out on anything relevant, as long as the user
-   * doesn't put non-ASCII characters into attribute values.
+   * @param path Path to identify the iterated content by
+   * @param file Mapped file, the iterator takes over the caller's reference and releases it when closed
+   * @param offset Start of the range in the file
+   * @param length Length of the range
    */
-  @Override
-  public char charAt(int offset) {
-    int b = buf.get(offset) & 0xFF;  // bytes are signed in Java....
-    if (b < 0x80) {
-      // Optimization: It's just ASCII, so simply cast to a char
-      return (char) b;
-    } else {
-      // Dirty dirty dirty speed hack, see method docstring.
-      return '?';
-    }
-  }
-
-
-  @Override
-  public CharSequence subSequence(int start, int end) {
-    if (start < 0 || end < 0 || end > this.numBytes || end < start) {
-      throw new IndexOutOfBoundsException();
-    }
-    if (charset == StandardCharsets.UTF_8) {
-      start = adjustOffset(start);
-      end = adjustOffset(end);
-    }
-    byte[] buf = new byte[end - start];
-    this.buf.position(start);
-    this.buf.get(buf);
-    return new String(buf, StandardCharsets.UTF_8);
-  }
-
-  @Override
-  public char first() {
-    this.current = this.getBeginIndex();
-    return this.current();
-  }
-
-  @Override
-  public char last() {
-    this.current = this.getEndIndex() - 1;
-    return this.current();
+  public FileBytesCharIterator(Path path, Charset charset, SourcePointer ptr, MappedFile file, long offset,
+                               long length) {
+    super(addressableLength(length), charset, ptr);
+    this.filePath = path;
+    this.file = file;
+    this.chunkSizePower = file.getChunkSizePower();
+    this.baseOffset = offset;
   }
 
-  @Override
-  public char current() {
-    if (this.current == this.numBytes) {
-      return DONE;
-    }
-    return this.charAt(current);
+  public FileBytesCharIterator(FileBytesCharIterator other) {
+    super(other.numBytes, other.charset, other.ptr);
+    this.filePath = other.filePath;
+    this.file = other.file.share();
+    this.chunkSizePower = other.chunkSizePower;
+    this.baseOffset = other.baseOffset;
+    this.current = other.current;
   }
 
-  @Override
-  public char next() {
-    char c = this.current();
-    int inc = 1;
-    if (Character.isHighSurrogate(c) || c > '\u07FF') {
-      inc = 3;
-    }  else if (c > '\u007F') {
-      inc = 2;
+  /** Switch to the chunk that contains the given offset. */
+  private void loadChunk(long offset) {
+    if (offset < 0 || offset >= numBytes) {
+      throw new IndexOutOfBoundsException(String.format("Offset %d is out of bounds [0, %d)", offset, numBytes));
     }
-    this.current = Math.min(this.current + inc, this.numBytes);
-    if (this.current == this.numBytes) {
-      return DONE;
+    int chunkIdx = (int) ((baseOffset + offset) >>> chunkSizePower);
+    try {
+      this.chunk = file.chunk(chunkIdx);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
-    return this.current();
+    // Chunks of a range can start before and end after the range
+    this.chunkStart = ((long) chunkIdx << chunkSizePower) - baseOffset;
+    this.chunkEnd = Math.min(chunkStart + chunk.limit(), numBytes);
   }
 
   @Override
-  public char previous() {
-    if (this.current > 0) {
-      char c = this.current();
-      int dec = 1;
-      if (Character.isLowSurrogate(c) || c > '\u07FF') {
-        dec = 3;
-      } else if (c > '\u007F') {
-        dec = 2;
-      }
-      this.current = Math.max(this.current - dec, 0);
-      return this.current();
-    } else {
-      return DONE;
+  protected byte byteAt(int offset) {
+    if (offset < chunkStart || offset >= chunkEnd) {
+      loadChunk(offset);
     }
+    return chunk.get((int) (offset - chunkStart));
   }
 
   @Override
-  public char setIndex(int offset) {
-    this.current = offset;
-    try {
-      return this.current();
-    } catch (IndexOutOfBoundsException e) {
-      throw new IllegalArgumentException(e);
+  protected void readBytes(int offset, byte[] dst, int dstOffset, int len) {
+    long pos = offset;
+    while (len > 0) {
+      if (pos < chunkStart || pos >= chunkEnd) {
+        loadChunk(pos);
+      }
+      int toCopy = (int) Math.min(len, chunkEnd - pos);
+      chunk.position((int) (pos - chunkStart));
+      chunk.get(dst, dstOffset, toCopy);
+      pos += toCopy;
+      dstOffset += toCopy;
+      len -= toCopy;
     }
   }
 
-  @Override
-  public int getBeginIndex() {
-    return 0;
-  }
-
-  @Override
-  public int getEndIndex() {
-    return numBytes;
-  }
-
-  @Override
-  public int getIndex() {
-    return current;
-  }
-
   @Override
   public Object clone() {
-    try {
-      return new FileBytesCharIterator(this);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    return new FileBytesCharIterator(this);
   }
 
   @Override
@@ -214,22 +129,12 @@ public class FileBytesCharIterator implements IterableCharSequence, AutoCloseabl
   }
 
   @Override
-  public OffsetType getOffsetType() {
-    return OffsetType.BYTES;
-  }
-
-  @Override
-  public Charset getCharset() {
-    return this.charset;
-  }
-
-  @Override
-  public SourcePointer getPointer() {
-    return ptr;
-  }
-
-  @Override
-  public void close() throws IOException {
-    chan.close();
+  public void close() {
+    if (!closed) {
+      closed = true;
+      chunk = null;
+      chunkStart = chunkEnd = 0;
+      file.release();
+    }
   }
 }
@@ -27,6 +27,19 @@ public interface IterableCharSequence extends CharSequence, CharacterIterator {
 
   SourcePointer getPointer();
 
+  /**
+   * Copy the content between two indices into a buffer, one byte per index, to scan it for markup without decoding it.
+   *
+   * Sequences that are indexed by bytes copy their raw bytes, all others copy ASCII characters as they are and
+   * replace every other character with a non-ASCII byte.
+   */
+  default void copyBytes(int offset, byte[] dst, int dstOffset, int len) {
+    for (int i = 0; i < len; i++) {
+      char c = charAt(offset + i);
+      dst[dstOffset + i] = c < 0x80 ? (byte) c : (byte) 0x80;
+    }
+  }
+
   static IterableCharSequence fromString(String string) {
     return new IterableStringCharSequence(string);
   }
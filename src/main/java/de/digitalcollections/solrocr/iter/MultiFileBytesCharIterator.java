@@ -1,208 +1,158 @@
 package de.digitalcollections.solrocr.iter;
 
 import de.digitalcollections.solrocr.model.SourcePointer;
-import de.digitalcollections.solrocr.util.Utf8;
+import de.digitalcollections.solrocr.util.SourceFiles;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MultiFileBytesCharIterator implements IterableCharSequence, AutoCloseable {
+/** {@link ByteCharIterator} over the concatenation of multiple files.
+ *
+ * Every file is a segment of the iterator, the start offsets of the segments are kept in a sorted table. Finding the
+ * segment for an offset is a binary search in that table, with a fast path for the most recently accessed segment,
+ * since break iteration mostly moves around locally. The iterators for the individual files are only opened once a
+ * segment is accessed.
+ */
+public class MultiFileBytesCharIterator extends ByteCharIterator {
   private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
   private final List<Path> paths;
-  private final TreeMap<Integer, Path> offsetMap;
-  private final Map<Path, Integer> pathToOffset;
-  private final Charset charset;
-  private final int numBytes;
-  private final SourcePointer ptr;
-  private int current;
-  private final Map<Path, FileBytesCharIterator> subiters = new HashMap<>();
+  private final ByteCharIteratorFactory iterFactory;
+  /** Start offsets of all segments, followed by the end offset of the last segment. */
+  private final long[] segmentStarts;
+  private final ByteCharIterator[] segments;
 
-  public MultiFileBytesCharIterator(List<Path> filePaths, Charset charset, SourcePointer ptr) throws IOException {
-    this.ptr = ptr;
-    this.paths = filePaths;
-    this.charset = charset;
-    this.offsetMap = new TreeMap<>();
-    this.pathToOffset = new HashMap<>();
-    int offset = 0;
-    for (Path path : filePaths) {
-      offsetMap.put(offset, path);
-      pathToOffset.put(path, offset);
-      offset += Files.size(path);
-    }
-    this.numBytes = offset;
-  }
-
-  public MultiFileBytesCharIterator(MultiFileBytesCharIterator other) throws IOException {
-    this(other.paths, other.charset, other.ptr);
-    this.current = other.current;
-  }
-
-  private IterableCharSequence getCharSeq(int offset) {
-    Path path = offsetMap.floorEntry(offset).getValue();
-    FileBytesCharIterator it = subiters.get(path);
-    if (it == null) {
-      try {
-        it = new FileBytesCharIterator(path, charset, ptr);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-      subiters.put(path, it);
-    }
-    return it;
-  }
-
-  private int adjustOffset(int offset) {
-    return offset - offsetMap.floorKey(offset);
-  }
+  private ByteCharIterator currentSegment;
+  private long segmentStart = 0;
+  private long segmentEnd = 0;
 
-  @Override
-  public String getIdentifier() {
-    return String.format("{%s}", this.paths.stream().map(Path::toString).collect(Collectors.joining(", ")));
+  public MultiFileBytesCharIterator(List<Path> filePaths, Charset charset, SourcePointer ptr) throws IOException {
+    this(filePaths, charset, ptr, ByteCharIteratorFactory.MMAP);
   }
 
-  @Override
-  public OffsetType getOffsetType() {
-    return OffsetType.BYTES;
+  public MultiFileBytesCharIterator(List<Path> filePaths, Charset charset, SourcePointer ptr,
+                                    ByteCharIteratorFactory iterFactory) throws IOException {
+    this(filePaths, charset, ptr, iterFactory, buildOffsetTable(filePaths, ptr));
   }
 
-  @Override
-  public Charset getCharset() {
-    return charset;
-  }
-
-  @Override
-  public SourcePointer getPointer() {
-    return ptr;
+  private MultiFileBytesCharIterator(List<Path> filePaths, Charset charset, SourcePointer ptr,
+                                     ByteCharIteratorFactory iterFactory, long[] segmentStarts) {
+    super(addressableLength(segmentStarts[segmentStarts.length - 1]), charset, ptr);
+    this.paths = filePaths;
+    this.iterFactory = iterFactory;
+    this.segmentStarts = segmentStarts;
+    this.segments = new ByteCharIterator[segmentStarts.length - 1];
   }
 
-  @Override
-  public int length() {
-    return numBytes;
+  public MultiFileBytesCharIterator(MultiFileBytesCharIterator other) {
+    this(other.paths, other.charset, other.ptr, other.iterFactory, other.segmentStarts);
+    this.current = other.current;
   }
 
-  @Override
-  public char charAt(int offset) {
-    if (offset < 0 || offset >= this.numBytes) {
-      throw new IndexOutOfBoundsException();
+  /** Build the table of segment start offsets, using the sizes from the pointer where it has them for a file. */
+  private static long[] buildOffsetTable(List<Path> filePaths, SourcePointer ptr) throws IOException {
+    long[] starts = new long[filePaths.size() + 1];
+    long offset = 0;
+    for (int i = 0; i < filePaths.size(); i++) {
+      starts[i] = offset;
+      if (offset >= Integer.MAX_VALUE) {
+        // Lucene offsets are ints, so files starting beyond 2GiB can never be referenced by a hit
+        log.warn("Combined size of files exceeds the maximum addressable size of 2GiB, ignoring {} and all "
+                 + "following files.", filePaths.get(i));
+        Arrays.fill(starts, i + 1, starts.length, offset);
+        return starts;
+      }
+      SourcePointer.FileSource src = ptr != null && ptr.sources.size() == filePaths.size() ? ptr.sources.get(i) : null;
+      if (src != null && src.size > 0 && src.path.equals(filePaths.get(i))) {
+        offset += src.size;
+      } else {
+        offset += SourceFiles.contentSize(filePaths.get(i));
+      }
     }
-    IterableCharSequence seq = getCharSeq(offset);
-    int adjustedOffset = adjustOffset(offset);
-    return seq.charAt(adjustedOffset);
+    starts[filePaths.size()] = offset;
+    return starts;
   }
 
-  @Override
-  public CharSequence subSequence(int start, int end) {
-    if (start < 0 || end < 0 || end > this.numBytes || end < start) {
-      throw new IndexOutOfBoundsException();
+  /** Make the segment that contains the given offset the current segment. */
+  private void seekSegment(long offset) {
+    if (offset < 0 || offset >= numBytes) {
+      throw new IndexOutOfBoundsException(String.format("Offset %d is out of bounds [0, %d)", offset, numBytes));
     }
-    if (offsetMap.floorKey(start).equals(offsetMap.floorKey(end))) {
-      // Easy mode, start and end are in the same file
-      IterableCharSequence seq = getCharSeq(start);
-      return seq.subSequence(adjustOffset(start), adjustOffset(end));
-    } else {
-      IterableCharSequence seq = getCharSeq(start);
-      int adjustedStart = adjustOffset(start);
-      StringBuilder sb = new StringBuilder(seq.subSequence(adjustedStart, seq.length()));
-      seq = getCharSeq(end);
-      int adjustedEnd = adjustOffset(end);
-      sb.append(seq.subSequence(0, adjustedEnd));
-      return sb.toString();
+    int idx = Arrays.binarySearch(segmentStarts, 0, segments.length, offset);
+    if (idx < 0) {
+      idx = -idx - 2;
     }
-  }
-
-  @Override
-  public char first() {
-    this.current = this.getBeginIndex();
-    return this.current();
-  }
-
-  @Override
-  public char last() {
-    this.current = this.getEndIndex() - 1;
-    return this.current();
-  }
-
-  @Override
-  public char current() {
-    if (this.current == this.numBytes) {
-      return DONE;
+    // Skip over empty segments that start at the same offset
+    while (segmentStarts[idx + 1] <= offset) {
+      idx += 1;
     }
-    return this.charAt(current);
-  }
-
-  @Override
-  public char next() {
-    int inc = Utf8.encodedLength(Character.toString(this.current()));
-    this.current = Math.min(this.current + inc, this.numBytes);
-    if (this.current == this.numBytes) {
-      return DONE;
+    ByteCharIterator seg = segments[idx];
+    if (seg == null) {
+      try {
+        seg = iterFactory.open(paths.get(idx), charset, ptr);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      segments[idx] = seg;
     }
-    return this.current();
+    this.currentSegment = seg;
+    this.segmentStart = segmentStarts[idx];
+    this.segmentEnd = segmentStarts[idx + 1];
   }
 
   @Override
-  public char previous() {
-    if (this.current > 0) {
-      int dec = Utf8.encodedLength(Character.toString(this.current()));
-      this.current = Math.max(this.current - dec, 0);
-      return this.current();
-    } else {
-      return DONE;
+  protected byte byteAt(int offset) {
+    if (offset < segmentStart || offset >= segmentEnd) {
+      seekSegment(offset);
     }
+    return currentSegment.byteAt((int) (offset - segmentStart));
   }
 
   @Override
-  public char setIndex(int offset) {
-    this.current = offset;
-    try {
-      return this.current();
-    } catch (IndexOutOfBoundsException e) {
-      throw new IllegalArgumentException(e);
+  protected void readBytes(int offset, byte[] dst, int dstOffset, int len) {
+    long pos = offset;
+    while (len > 0) {
+      if (pos < segmentStart || pos >= segmentEnd) {
+        seekSegment(pos);
+      }
+      int toCopy = (int) Math.min(len, segmentEnd - pos);
+      currentSegment.readBytes((int) (pos - segmentStart), dst, dstOffset, toCopy);
+      pos += toCopy;
+      dstOffset += toCopy;
+      len -= toCopy;
     }
   }
 
   @Override
-  public int getBeginIndex() {
-    return 0;
-  }
-
-  @Override
-  public int getEndIndex() {
-    return numBytes;
-  }
-
-  @Override
-  public int getIndex() {
-    return current;
+  public String getIdentifier() {
+    return String.format("{%s}", this.paths.stream().map(Path::toString).collect(Collectors.joining(", ")));
   }
 
   @Override
   public Object clone() {
-    try {
-      return new MultiFileBytesCharIterator(this);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    return new MultiFileBytesCharIterator(this);
   }
 
   @Override
   public void close() {
-    subiters.forEach((p, it) -> {
+    for (int i = 0; i < segments.length; i++) {
+      if (segments[i] == null) {
+        continue;
+      }
       try {
-        it.close();
+        segments[i].close();
       } catch (Exception e) {
-        log.warn("Encountered error while closing sub-iterator for {}: {}", p, e.getMessage());
+        log.warn("Encountered error while closing sub-iterator for {}: {}", paths.get(i), e.getMessage());
       }
-    });
+      segments[i] = null;
+    }
+    currentSegment = null;
+    segmentStart = segmentEnd = 0;
   }
 }
@@ -0,0 +1,145 @@
+package de.digitalcollections.solrocr.iter;
+
+import java.nio.IntBuffer;
+import java.text.BreakIterator;
+import java.text.CharacterIterator;
+
+/**
+ * A {@link java.text.BreakIterator} that breaks on tags whose offsets were recorded ahead of time.
+ *
+ * Gives the same breaks as the scanning {@link TagBreakIterator} and
+ * {@link de.digitalcollections.solrocr.formats.hocr.HocrClassBreakIterator}, but answers every call with a binary
+ * search over the recorded offsets, without reading the text at all. Like the scanning iterators, {@link #next()}
+ * and {@link #previous()} continue from where the last call left off, i.e. behind a tag that was found going forward
+ * and in front of a tag that was found going backward.
+ *
+ * The offsets can live on or off the heap, they are only ever read with absolute gets, so the buffers can be shared
+ * between threads.
+ */
+public class OffsetIndexBreakIterator extends BreakIterator {
+  private final IntBuffer tagStarts;
+  private final IntBuffer tagEnds;
+  private CharacterIterator text;
+  private int current;
+  private int position;
+
+  /**
+   * @param tagStarts offsets of the opening <tt>&lt;</tt> of the tags, in ascending order
+   * @param tagEnds offsets of the closing <tt>&gt;</tt> of the tags, in ascending order
+   */
+  public OffsetIndexBreakIterator(int[] tagStarts, int[] tagEnds) {
+    this(IntBuffer.wrap(tagStarts), IntBuffer.wrap(tagEnds));
+  }
+
+  /**
+   * @param tagStarts offsets of the opening <tt>&lt;</tt> of the tags, in ascending order
+   * @param tagEnds offsets of the closing <tt>&gt;</tt> of the tags, in ascending order
+   */
+  public OffsetIndexBreakIterator(IntBuffer tagStarts, IntBuffer tagEnds) {
+    this.tagStarts = tagStarts;
+    this.tagEnds = tagEnds;
+  }
+
+  /** Same contract as {@link java.util.Arrays#binarySearch(int[], int)}, over all ints in the buffer. */
+  public static int binarySearch(IntBuffer offsets, int key) {
+    int low = 0;
+    int high = offsets.capacity() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int val = offsets.get(mid);
+      if (val < key) {
+        low = mid + 1;
+      } else if (val > key) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  @Override
+  public int first() {
+    this.text.first();
+    this.current = this.text.getIndex();
+    this.position = this.current;
+    return this.current;
+  }
+
+  @Override
+  public int last() {
+    this.text.last();
+    this.current = this.text.getIndex();
+    this.position = this.current;
+    return this.current;
+  }
+
+  @Override
+  public int next(int n) {
+    for (int i=n; i > 0; i--) {
+      this.next();
+    }
+    return this.current;
+  }
+
+  @Override
+  public int next() {
+    return this.following(this.position);
+  }
+
+  @Override
+  public int previous() {
+    return this.preceding(this.position);
+  }
+
+  /** Break on the first tag that starts at or after the offset. */
+  @Override
+  public int following(int offset) {
+    int idx = binarySearch(tagStarts, offset);
+    if (idx < 0) {
+      idx = -idx - 1;
+    }
+    if (idx == tagStarts.capacity()) {
+      this.current = this.text.getEndIndex();
+      this.position = this.current;
+    } else {
+      this.current = tagStarts.get(idx);
+      this.position = Math.min(tagEnds.get(idx) + 1, this.text.getEndIndex());
+    }
+    return this.current;
+  }
+
+  /** Break on the last tag that ends at or before the offset. */
+  @Override
+  public int preceding(int offset) {
+    int idx = binarySearch(tagEnds, offset);
+    if (idx < 0) {
+      idx = -idx - 2;
+    }
+    if (idx < 0) {
+      this.current = this.text.getBeginIndex();
+      this.position = this.current;
+    } else {
+      this.current = tagStarts.get(idx);
+      this.position = Math.max(tagStarts.get(idx) - 1, this.text.getBeginIndex());
+    }
+    return this.current;
+  }
+
+  @Override
+  public int current() {
+    return this.current;
+  }
+
+  @Override
+  public CharacterIterator getText() {
+    return this.text;
+  }
+
+  @Override
+  public void setText(CharacterIterator newText) {
+    this.current = 0;
+    this.position = 0;
+    this.text = newText;
+  }
+}
@@ -0,0 +1,108 @@
+package de.digitalcollections.solrocr.iter;
+
+import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.storage.RangeFetcher;
+import de.digitalcollections.solrocr.storage.RemoteBlockCache;
+import de.digitalcollections.solrocr.storage.RemoteObject;
+import de.digitalcollections.solrocr.storage.StorageRegistry;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/** {@link ByteCharIterator} over a file in remote storage, read through a {@link RemoteBlockCache}.
+ *
+ * Single bytes are read block by block, while ranges (e.g. the text of a passage) are read with a single call to the
+ * cache, so all of their missing blocks are fetched with one request.
+ */
+public class RemoteCharIterator extends ByteCharIterator {
+  private final Path path;
+  private final RemoteObject obj;
+  private final RangeFetcher fetcher;
+  private final RemoteBlockCache cache;
+  private final int blockSize;
+
+  private byte[] block;
+  private long blockStart = 0;
+  private long blockEnd = 0;
+
+  public RemoteCharIterator(Path path, Charset charset, SourcePointer ptr) throws IOException {
+    this(path, charset, ptr, StorageRegistry.getInstance());
+  }
+
+  public RemoteCharIterator(Path path, Charset charset, SourcePointer ptr, StorageRegistry registry)
+      throws IOException {
+    this(path, charset, ptr, registry.stat(path), registry);
+  }
+
+  private RemoteCharIterator(Path path, Charset charset, SourcePointer ptr, RemoteObject obj,
+                             StorageRegistry registry) throws IOException {
+    this(path, charset, ptr, obj, registry.getFetcher(obj.getUri()), registry.getBlockCache());
+  }
+
+  private RemoteCharIterator(Path path, Charset charset, SourcePointer ptr, RemoteObject obj, RangeFetcher fetcher,
+                             RemoteBlockCache cache) {
+    super(addressableLength(obj.getSize()), charset, ptr);
+    this.path = path;
+    this.obj = obj;
+    this.fetcher = fetcher;
+    this.cache = cache;
+    this.blockSize = cache.getBlockSize();
+  }
+
+  public RemoteCharIterator(RemoteCharIterator other) {
+    this(other.path, other.charset, other.ptr, other.obj, other.fetcher, other.cache);
+    this.current = other.current;
+  }
+
+  /** Make the block that contains the given offset the current block. */
+  private void loadBlock(long offset) {
+    if (offset < 0 || offset >= numBytes) {
+      throw new IndexOutOfBoundsException(String.format("Offset %d is out of bounds [0, %d)", offset, numBytes));
+    }
+    long blockIdx = offset / blockSize;
+    try {
+      block = cache.getBlock(fetcher, obj, blockIdx);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    blockStart = blockIdx * blockSize;
+    blockEnd = blockStart + block.length;
+  }
+
+  @Override
+  protected byte byteAt(int offset) {
+    if (offset < blockStart || offset >= blockEnd) {
+      loadBlock(offset);
+    }
+    return block[(int) (offset - blockStart)];
+  }
+
+  @Override
+  protected void readBytes(int offset, byte[] dst, int dstOffset, int len) {
+    if (offset >= blockStart && offset + len <= blockEnd) {
+      System.arraycopy(block, (int) (offset - blockStart), dst, dstOffset, len);
+      return;
+    }
+    try {
+      cache.read(fetcher, obj, offset, dst, dstOffset, len);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public String getIdentifier() {
+    return obj.getUri().toString();
+  }
+
+  @Override
+  public Object clone() {
+    return new RemoteCharIterator(this);
+  }
+
+  @Override
+  public void close() {
+    block = null;
+    blockStart = blockEnd = 0;
+  }
+}
@@ -0,0 +1,355 @@
+package de.digitalcollections.solrocr.iter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.BreakIterator;
+import java.text.CharacterIterator;
+import java.util.Arrays;
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * Base class for {@link java.text.BreakIterator}s that split an XML-like document on opening or closing tags that
+ * satisfy some condition.
+ *
+ * The content is scanned on its raw bytes instead of going through the {@link CharacterIterator} one character at a
+ * time: Chunks of the content are copied into a reusable window, which is searched for tag delimiters eight bytes at a
+ * time, and candidate tags are handed to {@link #matches(byte[], int, int)} in place. Moving over the content thus
+ * doesn't allocate anything, and for {@link ByteCharIterator}s all breaks are exact byte offsets.
+ *
+ * Like with other break iterators, {@link #next()} and {@link #previous()} continue from the current index of the
+ * text, which is left behind a tag found going forward and in front of a tag found going backward.
+ *
+ * All tags that were found are remembered until the text is changed, so the same boundaries don't have to be found
+ * again when the highlighter asks for the breaks around many matches that are close to each other.
+ */
+public abstract class TagScanningBreakIterator extends BreakIterator {
+  private static final int WINDOW_SIZE = 16 * 1024;
+  private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+  private static final long OPEN = 0x3C3C3C3C3C3C3C3CL;  // '<' in every byte
+  private static final long CLOSE = 0x3E3E3E3E3E3E3E3EL;  // '>' in every byte
+
+  private final byte[] window = new byte[WINDOW_SIZE];
+  private final ByteBuffer windowWords = ByteBuffer.wrap(window).order(ByteOrder.LITTLE_ENDIAN);
+  private int windowStart;
+  private int windowEnd;
+
+  /*
+   * Tags that were found so far, sorted by their offsets. If a gap between two neighbouring tags is linked, the
+   * content between them is known to not contain any other matching tag, so queries that fall into it don't have to
+   * look at the content at all. With hundreds of matches on neighbouring lines, most of the queries end up there.
+   */
+  private int[] tagStarts = new int[32];
+  private int[] tagEnds = new int[32];
+  private boolean[] linked = new boolean[32];
+  private int numTags;
+  /** End of the tag that was last found by a scan. */
+  private int foundEnd;
+
+  private CharacterIterator text;
+  private IterableCharSequence seq;
+  private int current;
+
+  /**
+   * Check if a tag is one that the iterator should break on.
+   *
+   * @param buf buffer that holds the tag
+   * @param offset offset of the tag's opening <tt>&lt;</tt> in the buffer
+   * @param len length of the tag including the closing <tt>&gt;</tt>, or the length of its beginning if the tag is
+   *            exceptionally long
+   */
+  protected abstract boolean matches(byte[] buf, int offset, int len);
+
+  @Override
+  public int first() {
+    this.text.first();
+    this.current = this.text.getIndex();
+    return this.current;
+  }
+
+  @Override
+  public int last() {
+    this.text.last();
+    this.current = this.text.getIndex();
+    return this.current;
+  }
+
+  @Override
+  public int next(int n) {
+    for (int i=n; i > 0; i--) {
+      this.next();
+    }
+    return this.current;
+  }
+
+  @Override
+  public int next() {
+    return this.following(this.text.getIndex());
+  }
+
+  @Override
+  public int previous() {
+    return this.preceding(this.text.getIndex());
+  }
+
+  @Override
+  public int following(int offset) {
+    int begin = this.text.getBeginIndex();
+    int end = this.text.getEndIndex();
+    offset = Math.max(begin, Math.min(offset, end));
+    int tagIdx = -1;
+    while (tagIdx < 0) {
+      // Last known tag that starts before the offset, always exists thanks to the sentinel
+      int prevIdx = lastIndexBelow(tagStarts, offset);
+      if (linked[prevIdx]) {
+        tagIdx = prevIdx + 1;
+        break;
+      }
+      // Scan from the previous tag if it's close, so we know there's nothing between it and the tag we find. If
+      // that tag is still in front of the offset, we continue from it.
+      if (offset - (tagEnds[prevIdx] + 1) <= WINDOW_SIZE) {
+        int prevStart = tagStarts[prevIdx];
+        int tagStart = scanForward(tagEnds[prevIdx] + 1);
+        int foundIdx = tagStart < 0 ? numTags - 1 : addTag(tagStart, foundEnd);
+        // Only fails with malformed markup, where scanning in different directions can disagree about tags
+        if (tagStarts[foundIdx - 1] == prevStart) {
+          linked[foundIdx - 1] = true;
+          continue;
+        }
+      }
+      int tagStart = scanForward(offset);
+      tagIdx = tagStart < 0 ? numTags - 1 : addTag(tagStart, foundEnd);
+    }
+    if (tagIdx == numTags - 1) {
+      this.text.setIndex(end);
+      this.current = end;
+    } else {
+      this.text.setIndex(Math.min(tagEnds[tagIdx] + 1, end));
+      this.current = tagStarts[tagIdx];
+    }
+    return this.current;
+  }
+
+  @Override
+  public int preceding(int offset) {
+    int begin = this.text.getBeginIndex();
+    int end = this.text.getEndIndex();
+    offset = Math.max(begin - 1, Math.min(offset, end - 1));
+    int tagIdx = -1;
+    while (tagIdx < 0) {
+      // First known tag that ends after the offset, always exists thanks to the sentinel
+      int nextIdx = lastIndexBelow(tagEnds, offset + 1) + 1;
+      if (linked[nextIdx - 1]) {
+        tagIdx = nextIdx - 1;
+        break;
+      }
+      // Scan from the next tag if it's close, so we know there's nothing between the tag we find and it. If that tag
+      // is still behind the offset, we continue from it.
+      if ((tagStarts[nextIdx] - 1) - offset <= WINDOW_SIZE) {
+        int nextStart = tagStarts[nextIdx];
+        int tagStart = scanBackward(nextStart - 1);
+        int foundIdx = tagStart < 0 ? 0 : addTag(tagStart, foundEnd);
+        // Only fails with malformed markup, where scanning in different directions can disagree about tags
+        if (tagStarts[foundIdx + 1] == nextStart) {
+          linked[foundIdx] = true;
+          continue;
+        }
+      }
+      int tagStart = scanBackward(offset);
+      tagIdx = tagStart < 0 ? 0 : addTag(tagStart, foundEnd);
+    }
+    if (tagIdx == 0) {
+      this.text.setIndex(begin);
+      this.current = begin;
+    } else {
+      this.text.setIndex(Math.max(tagStarts[tagIdx] - 1, begin));
+      this.current = tagStarts[tagIdx];
+    }
+    return this.current;
+  }
+
+  /** Find the first matching tag that starts at or after the offset, returns its start or -1 if there is none. */
+  private int scanForward(int from) {
+    int tagStart = findForward(from, OPEN, OPEN);
+    while (tagStart >= 0) {
+      int delim = findForward(tagStart + 1, OPEN, CLOSE);
+      if (delim < 0) {
+        break;
+      }
+      if (window[delim - windowStart] == '<') {
+        // Unclosed tag, start over from the new one
+        tagStart = delim;
+        continue;
+      }
+      if (tagMatches(tagStart, delim)) {
+        this.foundEnd = delim;
+        return tagStart;
+      }
+      tagStart = findForward(delim + 1, OPEN, OPEN);
+    }
+    return -1;
+  }
+
+  /** Find the last matching tag that ends at or before the offset, returns its start or -1 if there is none. */
+  private int scanBackward(int from) {
+    int tagEnd = findBackward(from, CLOSE, CLOSE);
+    while (tagEnd >= 0) {
+      int delim = findBackward(tagEnd - 1, OPEN, CLOSE);
+      if (delim < 0) {
+        break;
+      }
+      if (window[delim - windowStart] == '>') {
+        // Unopened tag, start over from the new one
+        tagEnd = delim;
+        continue;
+      }
+      if (tagMatches(delim, tagEnd)) {
+        this.foundEnd = tagEnd;
+        return delim;
+      }
+      tagEnd = findBackward(delim - 1, CLOSE, CLOSE);
+    }
+    return -1;
+  }
+
+  /** Index of the last entry in the known tag offsets that is smaller than the value. */
+  private int lastIndexBelow(int[] offsets, int value) {
+    int idx = Arrays.binarySearch(offsets, 0, numTags, value);
+    return idx >= 0 ? idx - 1 : -idx - 2;
+  }
+
+  /** Record a tag, returns its index in the known tags. */
+  private int addTag(int tagStart, int tagEnd) {
+    int idx = Arrays.binarySearch(tagStarts, 0, numTags, tagStart);
+    if (idx >= 0) {
+      return idx;
+    }
+    idx = -idx - 1;
+    if (numTags == tagStarts.length) {
+      tagStarts = ArrayUtil.grow(tagStarts, numTags + 1);
+      tagEnds = ArrayUtil.grow(tagEnds, numTags + 1);
+      linked = Arrays.copyOf(linked, tagStarts.length);
+    }
+    System.arraycopy(tagStarts, idx, tagStarts, idx + 1, numTags - idx);
+    System.arraycopy(tagEnds, idx, tagEnds, idx + 1, numTags - idx);
+    System.arraycopy(linked, idx, linked, idx + 1, numTags - idx);
+    tagStarts[idx] = tagStart;
+    tagEnds[idx] = tagEnd;
+    linked[idx] = false;
+    numTags++;
+    return idx;
+  }
+
+  @Override
+  public int current() {
+    return this.current;
+  }
+
+  @Override
+  public CharacterIterator getText() {
+    return this.text;
+  }
+
+  @Override
+  public void setText(CharacterIterator newText) {
+    this.current = 0;
+    this.text = newText;
+    this.seq = newText instanceof IterableCharSequence ? (IterableCharSequence) newText : null;
+    this.windowStart = 0;
+    this.windowEnd = 0;
+    // Sentinels for the beginning and the end of the text, so every tag has a predecessor and a successor
+    int begin = newText.getBeginIndex();
+    int end = newText.getEndIndex();
+    this.tagStarts[0] = begin - 1;
+    this.tagEnds[0] = begin - 1;
+    this.tagStarts[1] = end;
+    this.tagEnds[1] = end;
+    this.linked[0] = false;
+    this.linked[1] = false;
+    this.numTags = 2;
+  }
+
+  /** Check the tag between the two offsets (inclusive), making sure as much of it as possible is in the window. */
+  private boolean tagMatches(int tagStart, int tagEnd) {
+    int len = Math.min(tagEnd - tagStart + 1, WINDOW_SIZE);
+    if (tagStart < windowStart || tagStart + len > windowEnd) {
+      loadWindow(tagStart);
+    }
+    return matches(window, tagStart - windowStart, len);
+  }
+
+  /** Load the window so it starts at the given offset, or ends with it if it's too close to the end of the text. */
+  private void loadWindow(int start) {
+    int end = Math.min(this.text.getEndIndex(), start + WINDOW_SIZE);
+    start = Math.max(this.text.getBeginIndex(), Math.min(start, end - WINDOW_SIZE));
+    if (seq != null) {
+      seq.copyBytes(start, window, 0, end - start);
+    } else {
+      int idx = this.text.getIndex();
+      for (int i = start; i < end; i++) {
+        char c = this.text.setIndex(i);
+        window[i - start] = c < 0x80 ? (byte) c : (byte) 0x80;
+      }
+      this.text.setIndex(idx);
+    }
+    this.windowStart = start;
+    this.windowEnd = end;
+  }
+
+  /** Set the high bit of every byte in the word that is zero, leave all other bits unset. */
+  private static long zeroBytes(long word) {
+    return ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+  }
+
+  /** Find the first offset at or after <tt>from</tt> that holds one of the two delimiters, or -1 if there is none. */
+  private int findForward(int from, long delimA, long delimB) {
+    int end = this.text.getEndIndex();
+    int pos = from;
+    while (pos < end) {
+      if (pos < windowStart || pos >= windowEnd) {
+        loadWindow(pos);
+      }
+      int idx = pos - windowStart;
+      int limit = windowEnd - windowStart;
+      for (; idx + Long.BYTES <= limit; idx += Long.BYTES) {
+        long word = windowWords.getLong(idx);
+        long hits = zeroBytes(word ^ delimA) | zeroBytes(word ^ delimB);
+        if (hits != 0) {
+          return windowStart + idx + (Long.numberOfTrailingZeros(hits) >>> 3);
+        }
+      }
+      for (; idx < limit; idx++) {
+        if (window[idx] == (byte) delimA || window[idx] == (byte) delimB) {
+          return windowStart + idx;
+        }
+      }
+      pos = windowEnd;
+    }
+    return -1;
+  }
+
+  /** Find the last offset at or before <tt>from</tt> that holds one of the two delimiters, or -1 if there is none. */
+  private int findBackward(int from, long delimA, long delimB) {
+    int begin = this.text.getBeginIndex();
+    int pos = from;
+    while (pos >= begin) {
+      if (pos < windowStart || pos >= windowEnd) {
+        loadWindow(pos - WINDOW_SIZE + 1);
+      }
+      int idx = pos - windowStart;
+      for (; idx - Long.BYTES + 1 >= 0; idx -= Long.BYTES) {
+        long word = windowWords.getLong(idx - Long.BYTES + 1);
+        long hits = zeroBytes(word ^ delimA) | zeroBytes(word ^ delimB);
+        if (hits != 0) {
+          return windowStart + idx - Long.BYTES + 1 + ((63 - Long.numberOfLeadingZeros(hits)) >>> 3);
+        }
+      }
+      for (; idx >= 0; idx--) {
+        if (window[idx] == (byte) delimA || window[idx] == (byte) delimB) {
+          return windowStart + idx;
+        }
+      }
+      pos = windowStart - 1;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,66 @@
+package de.digitalcollections.solrocr.iter;
+
+import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.util.ZipArchive;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/** {@link ByteCharIterator} over the inflated content of a DEFLATED entry in a {@link ZipArchive}.
+ *
+ * Use {@link #open(Path, Charset, SourcePointer)} to obtain an iterator for any entry: STORED entries are read
+ * directly from the mapped archive with a {@link FileBytesCharIterator}, without copying them.
+ */
+public class ZipEntryCharIterator extends ByteCharIterator {
+  private final Path entryPath;
+  // Shared with clones and the cache of inflated entries, never modified
+  private final byte[] content;
+
+  private ZipEntryCharIterator(Path entryPath, byte[] content, Charset charset, SourcePointer ptr) {
+    super(content.length, charset, ptr);
+    this.entryPath = entryPath;
+    this.content = content;
+  }
+
+  public ZipEntryCharIterator(ZipEntryCharIterator other) {
+    this(other.entryPath, other.content, other.charset, other.ptr);
+    this.current = other.current;
+  }
+
+  /** Open an iterator over the content of the entry referenced by the path. */
+  public static ByteCharIterator open(Path entryPath, Charset charset, SourcePointer ptr) throws IOException {
+    try (ZipArchive archive = ZipArchive.open(ZipArchive.getArchivePath(entryPath))) {
+      ZipArchive.Entry entry = archive.getEntry(ZipArchive.getEntryName(entryPath));
+      if (entry.isStored()) {
+        return new FileBytesCharIterator(entryPath, charset, ptr, archive.getFile().share(),
+                                         archive.getDataOffset(entry), entry.getSize());
+      }
+      return new ZipEntryCharIterator(entryPath, archive.inflate(entry, true), charset, ptr);
+    }
+  }
+
+  @Override
+  protected byte byteAt(int offset) {
+    return content[offset];
+  }
+
+  @Override
+  protected void readBytes(int offset, byte[] dst, int dstOffset, int len) {
+    System.arraycopy(content, offset, dst, dstOffset, len);
+  }
+
+  @Override
+  public String getIdentifier() {
+    return entryPath.toAbsolutePath().toString();
+  }
+
+  @Override
+  public Object clone() {
+    return new ZipEntryCharIterator(this);
+  }
+
+  @Override
+  public void close() {
+    // NOP, the content is garbage-collected
+  }
+}
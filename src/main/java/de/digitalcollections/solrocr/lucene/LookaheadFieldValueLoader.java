@@ -0,0 +1,203 @@
+package de.digitalcollections.solrocr.lucene;
+
+import de.digitalcollections.solrocr.iter.IterableCharSequence;
+import de.digitalcollections.solrocr.util.HighlightTimeout;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.solr.search.SolrQueryTimeoutImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Loads the OCR field values for a list of documents with a bounded look-ahead on background threads.
+ *
+ * While the request thread highlights one document, the stored fields of the next documents are read, their source
+ * pointers are resolved and their sources are opened on a background executor, so the storage latency for them is
+ * hidden behind the CPU work of highlighting. Since only a bounded number of documents is loaded ahead of time, the
+ * number of files that are open at the same time is bounded as well.
+ *
+ * If the load for a document has not been started by the executor by the time it is needed, it is performed on the
+ * requesting thread instead, so a saturated executor never makes a request slower than sequential loading.
+ *
+ * The timeouts of the request ({@link HighlightTimeout} and {@link SolrQueryTimeoutImpl}) are thread-local, so they
+ * are captured when the loader is created and applied to the background loads. Once the request has run out of time,
+ * no more documents are loaded in the background and loads that have not started yet are skipped.
+ */
+class LookaheadFieldValueLoader implements AutoCloseable {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  @FunctionalInterface
+  interface DocumentLoader {
+    IterableCharSequence[] load(int docId) throws IOException;
+  }
+
+  private final int[] docIds;
+  private final DocumentLoader loader;
+  private final Executor executor;
+  private final int lookahead;
+
+  private final Long highlightTimeoutAt;
+  private final Long queryTimeoutAt;
+
+  // Every task yields whether it loaded the values of its document or skipped it due to a timeout
+  private final ArrayDeque<FutureTask<Boolean>> pending;
+  // Values loaded in the background that were not yet handed out, guarded by `this`
+  private final IterableCharSequence[][] loaded;
+  private boolean closed = false;
+  private int nextToSchedule = 0;
+  private int nextToReturn = 0;
+
+  /**
+   * @param docIds Documents to load values for, in the order they will be requested
+   * @param loader Loads the values for a single document
+   * @param executor Executor for background loading, if <tt>null</tt>, every document is loaded on the calling thread
+   * @param lookahead Maximum number of documents to load ahead of the current document
+   */
+  LookaheadFieldValueLoader(int[] docIds, DocumentLoader loader, Executor executor, int lookahead) {
+    this.docIds = docIds;
+    this.loader = loader;
+    this.executor = executor;
+    this.lookahead = executor == null ? 0 : Math.max(0, lookahead);
+    this.pending = new ArrayDeque<>(this.lookahead + 1);
+    this.loaded = new IterableCharSequence[docIds.length][];
+    this.highlightTimeoutAt = HighlightTimeout.get();
+    this.queryTimeoutAt = SolrQueryTimeoutImpl.get();
+  }
+
+  private boolean isTimedOut() {
+    long now = System.nanoTime();
+    return (highlightTimeoutAt != null && highlightTimeoutAt - now < 0L)
+        || (queryTimeoutAt != null && queryTimeoutAt - now < 0L);
+  }
+
+  private static <T> void setOrRemove(ThreadLocal<T> threadLocal, T value) {
+    if (value == null) {
+      threadLocal.remove();
+    } else {
+      threadLocal.set(value);
+    }
+  }
+
+  boolean hasNext() {
+    return nextToReturn < docIds.length;
+  }
+
+  /** Get the field values for the next document, the caller is responsible for closing them. */
+  IterableCharSequence[] next() throws IOException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    int docIdx = nextToReturn++;
+    FutureTask<Boolean> task = pending.poll();
+    // Keep the pipeline filled while we're busy with the current document
+    scheduleAhead();
+    if (task == null || task.cancel(false)) {
+      // Background loading is disabled or has not started yet, load on the request thread
+      return loader.load(docIds[docIdx]);
+    }
+    boolean loadedInBackground;
+    try {
+      loadedInBackground = task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for OCR field values to be loaded.");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+    if (!loadedInBackground) {
+      // Skipped due to a timeout, the caller decides how to deal with that
+      return loader.load(docIds[docIdx]);
+    }
+    synchronized (this) {
+      IterableCharSequence[] vals = loaded[docIdx];
+      loaded[docIdx] = null;
+      return vals;
+    }
+  }
+
+  private void scheduleAhead() {
+    while (nextToSchedule < docIds.length && nextToSchedule - nextToReturn < lookahead && !isTimedOut()) {
+      int docIdx = nextToSchedule++;
+      if (docIdx < nextToReturn) {
+        // Document was already loaded synchronously, no need for a background task
+        continue;
+      }
+      FutureTask<Boolean> task = new FutureTask<>(() -> {
+        if (isTimedOut()) {
+          return false;
+        }
+        setOrRemove(HighlightTimeout.timeoutAt, highlightTimeoutAt);
+        setOrRemove(SolrQueryTimeoutImpl.timeoutAt, queryTimeoutAt);
+        IterableCharSequence[] vals;
+        try {
+          vals = loader.load(docIds[docIdx]);
+        } finally {
+          // Loader threads are shared between requests
+          HighlightTimeout.reset();
+          SolrQueryTimeoutImpl.reset();
+        }
+        synchronized (this) {
+          if (closed) {
+            closeValues(vals);
+          } else {
+            loaded[docIdx] = vals;
+          }
+        }
+        return true;
+      });
+      pending.add(task);
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        // Executor is saturated or shut down, the task will be run on the request thread when needed
+      }
+    }
+    if (nextToSchedule < nextToReturn) {
+      nextToSchedule = nextToReturn;
+    }
+  }
+
+  static void closeValues(IterableCharSequence[] vals) {
+    if (vals == null) {
+      return;
+    }
+    for (IterableCharSequence val : vals) {
+      if (val instanceof AutoCloseable) {
+        try {
+          ((AutoCloseable) val).close();
+        } catch (Exception e) {
+          log.warn("Encountered error while closing content iterator for {}: {}", val.getPointer(), e.getMessage());
+        }
+      }
+    }
+  }
+
+  /** Cancel all pending loads and close any values that were loaded but not handed out. */
+  @Override
+  public void close() {
+    // Never interrupt running loads, an interrupt during a channel read would close the channel for everybody
+    pending.forEach(t -> t.cancel(false));
+    pending.clear();
+    synchronized (this) {
+      closed = true;
+      for (int i = 0; i < loaded.length; i++) {
+        closeValues(loaded[i]);
+        loaded[i] = null;
+      }
+    }
+  }
+}
@@ -3,7 +3,6 @@ package de.digitalcollections.solrocr.lucene;
 import de.digitalcollections.solrocr.formats.OcrPassageFormatter;
 import de.digitalcollections.solrocr.model.OcrSnippet;
 import de.digitalcollections.solrocr.iter.IterableCharSequence;
-import de.digitalcollections.solrocr.util.PageCacheWarmer;
 import java.io.IOException;
 import java.text.BreakIterator;
 import java.util.Arrays;
@@ -44,8 +43,6 @@ public class OcrFieldHighlighter extends FieldHighlighter {
       throws IOException {
     // note: it'd be nice to accept a CharSequence for content, but we need a CharacterIterator impl for it.
 
-    // If page cache pre-warming is enabled, cancel it, since we're doing the I/O ourselves now
-    PageCacheWarmer.getInstance().ifPresent(w -> w.cancelPreload(content.getPointer()));
     if (content.length() == 0) {
       return null; // nothing to do
     }
@@ -71,6 +68,33 @@ public class OcrFieldHighlighter extends FieldHighlighter {
       return null;
     }
   }
+
+  /**
+   * Get the start offsets of the first matches in the document, in ascending order.
+   *
+   * Used to warm the storage around the matches before the document is highlighted, so this does not touch any
+   * state of the highlighter and can be called from other threads.
+   *
+   * @param limit Maximum number of offsets to return
+   */
+  public int[] getMatchOffsets(LeafReader reader, int docId, int limit) throws IOException {
+    int[] offsets = new int[Math.min(limit, 64)];
+    int numOffsets = 0;
+    try (OffsetsEnum off = fieldOffsetStrategy.getOffsetsEnum(reader, docId, null)) {
+      while (numOffsets < limit && off.nextPosition()) {
+        int start = off.startOffset();
+        if (start < 0) {
+          break;
+        }
+        if (numOffsets == offsets.length) {
+          offsets = Arrays.copyOf(offsets, Math.min(limit, offsets.length * 2));
+        }
+        offsets[numOffsets++] = start;
+      }
+    }
+    return Arrays.copyOf(offsets, numOffsets);
+  }
+
   @Override
   protected Passage[] highlightOffsetsEnums(OffsetsEnum off) {
     throw new UnsupportedOperationException();
@@ -5,17 +5,23 @@ import de.digitalcollections.solrocr.model.OcrBlock;
 import de.digitalcollections.solrocr.model.OcrFormat;
 import de.digitalcollections.solrocr.formats.OcrPassageFormatter;
 import de.digitalcollections.solrocr.model.OcrSnippet;
+import de.digitalcollections.solrocr.model.OcrStructure;
 import de.digitalcollections.solrocr.formats.alto.AltoFormat;
 import de.digitalcollections.solrocr.formats.hocr.HocrFormat;
 import de.digitalcollections.solrocr.formats.mini.MiniOcrFormat;
+import de.digitalcollections.solrocr.solr.OcrHighlightCache;
 import de.digitalcollections.solrocr.solr.OcrHighlightParams;
+import de.digitalcollections.solrocr.solr.OcrPointerField;
+import de.digitalcollections.solrocr.iter.ContextBreakIterator;
 import de.digitalcollections.solrocr.iter.ExitingIterCharSeq;
-import de.digitalcollections.solrocr.iter.FileBytesCharIterator;
+import de.digitalcollections.solrocr.iter.ByteCharIteratorFactory;
 import de.digitalcollections.solrocr.util.HighlightTimeout;
 import de.digitalcollections.solrocr.iter.IterableCharSequence;
 import de.digitalcollections.solrocr.iter.MultiFileBytesCharIterator;
 import de.digitalcollections.solrocr.model.OcrHighlightResult;
 import de.digitalcollections.solrocr.util.PageCacheWarmer;
+import de.digitalcollections.solrocr.util.OcrStructureCache;
+import de.digitalcollections.solrocr.util.SourcePointerCache;
 import de.digitalcollections.solrocr.model.SourcePointer;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
@@ -26,14 +32,17 @@ import java.text.BreakIterator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
 import org.apache.lucene.document.DocumentStoredFieldVisitor;
 import org.apache.lucene.index.BaseCompositeReader;
 import org.apache.lucene.index.ExitableDirectoryReader;
@@ -57,8 +66,12 @@ import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.InPlaceMergeSorter;
 import org.apache.lucene.util.Version;
 import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.HighlightParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.SolrQueryTimeoutImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -78,6 +91,7 @@ public class OcrHighlighter extends UnifiedHighlighter {
       new AltoFormat(),
       new MiniOcrFormat());
   private static final int DEFAULT_SNIPPET_LIMIT = 100;
+  private static final int FORMAT_SAMPLE_SIZE = 4096;
   public static final String PARTIAL_OCR_HIGHLIGHTS = "partialOcrHighlights";
 
   private static final boolean VERSION_IS_PRE81 = Version.LATEST.major < 8 || Version.LATEST.minor < 1;
@@ -141,11 +155,41 @@ public class OcrHighlighter extends UnifiedHighlighter {
 
 
   private final SolrParams params;
+  private final ByteCharIteratorFactory iterFactory;
+  private final Executor loadExecutor;
+  private final int loadLookahead;
+  private final PageCacheWarmer cacheWarmer;
+  private final SourcePointerCache pointerCache;
+  private final OcrStructureCache structureCache;
 
 
   public OcrHighlighter(IndexSearcher indexSearcher, Analyzer indexAnalyzer, SolrParams params) {
+    this(indexSearcher, indexAnalyzer, params, ByteCharIteratorFactory.MMAP, null, 0, null, null, null);
+  }
+
+  /**
+   * @param iterFactory Determines how the OCR files are read
+   * @param loadExecutor Executor to load the OCR sources of upcoming documents on while highlighting the current one,
+   *                     can be <tt>null</tt> to load all sources on the request thread
+   * @param loadLookahead Maximum number of documents to load ahead of the one currently being highlighted
+   * @param cacheWarmer Read-ahead scheduler of the core, can be <tt>null</tt> if read-ahead is disabled
+   * @param pointerCache Cache for the parsed source pointers of the core, can be <tt>null</tt> to parse the pointers
+   *                     on every request
+   * @param structureCache Cache for the structure of documents that were indexed without one, can be <tt>null</tt>
+   *                       to scan these documents for tags on every request
+   */
+  public OcrHighlighter(IndexSearcher indexSearcher, Analyzer indexAnalyzer, SolrParams params,
+                        ByteCharIteratorFactory iterFactory, Executor loadExecutor, int loadLookahead,
+                        PageCacheWarmer cacheWarmer, SourcePointerCache pointerCache,
+                        OcrStructureCache structureCache) {
     super(indexSearcher, indexAnalyzer);
     this.params = params;
+    this.iterFactory = iterFactory.withSourceRouting();
+    this.loadExecutor = loadExecutor;
+    this.loadLookahead = loadLookahead;
+    this.cacheWarmer = cacheWarmer;
+    this.pointerCache = pointerCache;
+    this.structureCache = structureCache;
   }
 
   @Override
@@ -189,6 +233,15 @@ public class OcrHighlighter extends UnifiedHighlighter {
                                     + "constructor.  Perhaps you mean to call highlightWithoutSearcher?");
     }
 
+    Set<OcrSnippet.Part> includedParts;
+    try {
+      includedParts = OcrSnippet.Part.parse(params.get(OcrHighlightParams.INCLUDE));
+    } catch (IllegalArgumentException e) {
+      throw new SolrException(
+          SolrException.ErrorCode.BAD_REQUEST,
+          "Invalid value for " + OcrHighlightParams.INCLUDE + ": " + params.get(OcrHighlightParams.INCLUDE), e);
+    }
+
     Long timeAllowed = params.getLong(OcrHighlightParams.TIME_ALLOWED);
     if (timeAllowed != null) {
       HighlightTimeout.set(timeAllowed);
@@ -242,85 +295,152 @@ public class OcrHighlighter extends UnifiedHighlighter {
     // [fieldIdx][docIdInIndex] of highlightDoc result
     OcrSnippet[][][] highlightDocsInByField = new OcrSnippet[fields.length][docIds.length][];
     int[][] snippetCountsByField = new int[fields.length][docIds.length];
-    // Highlight in doc batches determined by loadFieldValues (consumes from docIdIter)
-    DocIdSetIterator docIdIter = asDocIdSetIterator(docIds);
-    docLoop:
-    for (int batchDocIdx = 0; batchDocIdx < docIds.length; ) {
-      List<IterableCharSequence[]> fieldValsByDoc = loadOcrFieldValues(fields, docIdIter);
+    int[] snippetLimits = new int[fields.length];
+    for (int f = 0; f < fields.length; f++) {
+      snippetLimits[f] = Math.max(
+          maxPassages[f], params.getInt(OcrHighlightParams.MAX_OCR_PASSAGES, DEFAULT_SNIPPET_LIMIT));
+    }
 
-      // Highlight in per-field order first, then by doc (better I/O pattern)
-      for (int fieldIdx = 0; fieldIdx < fields.length; fieldIdx++) {
-        OcrSnippet[][] resultByDocIn = highlightDocsInByField[fieldIdx];//parallel to docIdsIn
-        OcrFieldHighlighter fieldHighlighter = fieldHighlighters[fieldIdx];
-        for (int docIdx = batchDocIdx; docIdx - batchDocIdx < fieldValsByDoc.size(); docIdx++) {
-          int docId = docIds[docIdx];//sorted order
-          IterableCharSequence content = fieldValsByDoc.get(docIdx - batchDocIdx)[fieldIdx];
-          if (content == null) {
+    // Look up the snippets of all documents and fields in the cache, only the missing ones are highlighted
+    SolrCache<OcrHighlightCache.Key, OcrHighlightCache.Entry> hlCache = OcrHighlightCache.get(searcher);
+    OcrHighlightCache.Key[][] cacheKeys = null;
+    boolean[] fullyCached = new boolean[docIds.length];
+    if (hlCache != null) {
+      long indexVersion = ((SolrIndexSearcher) searcher).getIndexReader().getVersion();
+      SolrParams relevantParams = OcrHighlightCache.relevantParams(params);
+      cacheKeys = new OcrHighlightCache.Key[fields.length][docIds.length];
+      Arrays.fill(fullyCached, true);
+      for (int f = 0; f < fields.length; f++) {
+        for (int d = 0; d < docIds.length; d++) {
+          cacheKeys[f][d] = new OcrHighlightCache.Key(
+              indexVersion, docIds[d], fields[f], query, maxPassages[f], relevantParams);
+          OcrHighlightCache.Entry cached = hlCache.get(cacheKeys[f][d]);
+          if (cached == null) {
+            fullyCached[d] = false;
             continue;
           }
-          if (timeAllowed != null) {
-            content = new ExitingIterCharSeq(content, HighlightTimeout.getInstance());
-          }
-          IndexReader indexReader =
-              (fieldHighlighter.getOffsetSource() == OffsetSource.TERM_VECTORS
-                  && indexReaderWithTermVecCache != null)
-                  ? indexReaderWithTermVecCache
-                  : searcher.getIndexReader();
-          final LeafReader leafReader;
-          if (indexReader instanceof LeafReader) {
-            leafReader = (LeafReader) indexReader;
-          } else {
-            List<LeafReaderContext> leaves = indexReader.leaves();
-            LeafReaderContext leafReaderContext = leaves.get(ReaderUtil.subIndex(docId, leaves));
-            leafReader = leafReaderContext.reader();
-            docId -= leafReaderContext.docBase; // adjust 'doc' to be within this leaf reader
-          }
-          int docInIndex = docInIndexes[docIdx];//original input order
-          assert resultByDocIn[docInIndex] == null;
-          OcrFormat ocrFormat = getFormat(content);
-          String limitBlock = params.get(OcrHighlightParams.LIMIT_BLOCK, "block").toUpperCase();
-          BreakIterator breakIter = ocrFormat.getBreakIterator(
-              OcrBlock.valueOf(params.get(OcrHighlightParams.CONTEXT_BLOCK, "line").toUpperCase()),
-              limitBlock.equals("NONE") ? null : OcrBlock.valueOf(limitBlock),
-              params.getInt(OcrHighlightParams.CONTEXT_SIZE, 2));
-          OcrPassageFormatter formatter = ocrFormat.getPassageFormatter(
-              params.get(HighlightParams.TAG_PRE, "<em>"),
-              params.get(HighlightParams.TAG_POST, "</em>"),
-              params.getBool(OcrHighlightParams.ABSOLUTE_HIGHLIGHTS, false));
-          int snippetLimit = Math.max(
-              maxPassages[fieldIdx],
-              params.getInt(OcrHighlightParams.MAX_OCR_PASSAGES, DEFAULT_SNIPPET_LIMIT));
-          try {
-            resultByDocIn[docInIndex] = fieldHighlighter.highlightFieldForDoc(
-                leafReader, docId, breakIter, formatter, content,
-                params.get(OcrHighlightParams.PAGE_ID), snippetLimit);
-          } catch (ExitingIterCharSeq.ExitingIterCharSeqException | ExitableDirectoryReader.ExitingReaderException e) {
-            log.warn("OCR Highlighting timed out while handling " + content.getPointer(), e);
-            respHeader.put(PARTIAL_OCR_HIGHLIGHTS, Boolean.TRUE);
-            resultByDocIn[docInIndex] = null;
-            // Stop highlighting
-            break docLoop;
-          } catch (RuntimeException e) {
-            // This catch-all prevents OCR highlighting from failing the complete query, instead users
-            // get an error message in their Solr log.
-            log.error("Could not highlight OCR content for document", e);
-          } finally {
-            if (content instanceof AutoCloseable) {
-              try {
-                ((AutoCloseable) content).close();
-              } catch (Exception e) {
-                log.warn(
-                    "Encountered error while closing content iterator for {}: {}", content.getPointer(), e.getMessage());
+          highlightDocsInByField[f][docInIndexes[d]] = cached.snippets;
+          snippetCountsByField[f][docInIndexes[d]] = cached.numTotal;
+          cacheKeys[f][d] = null;
+        }
+      }
+    }
+
+    PageCacheWarmer.Request preloadRequest = null;
+    if (cacheWarmer != null) {
+      preloadRequest = cacheWarmer.newRequest(
+          timeAllowed != null ? System.currentTimeMillis() + timeAllowed : PageCacheWarmer.NO_DEADLINE);
+    }
+    final PageCacheWarmer.Request preloads = preloadRequest;
+    final SourcePointer[][] preloadedPointers = preloads != null
+        ? preload(preloads, fieldHighlighters, fields, docIds, docInIndexes, cacheKeys, snippetLimits)
+        : null;
+    // Load field values for the next documents in the background while highlighting the current one
+    LookaheadFieldValueLoader valueLoader = new LookaheadFieldValueLoader(docIds, docId -> {
+      if (fullyCached[Arrays.binarySearch(docIds, docId)]) {
+        // No need to touch the sources of documents whose snippets are all cached
+        return new IterableCharSequence[fields.length];
+      }
+      // Re-use the pointers that were resolved for the read-ahead instead of resolving them again
+      SourcePointer[] pointers = preloadedPointers != null
+          ? preloadedPointers[Arrays.binarySearch(docIds, docId)] : null;
+      return loadOcrFieldValues(fields, docId, loadExecutor != null, pointers);
+    }, loadExecutor, loadLookahead);
+    try {
+      docLoop:
+      for (int docIdx = 0; docIdx < docIds.length; docIdx++) {
+        IterableCharSequence[] fieldVals = valueLoader.next();
+        // Only read from the stored fields once per document, and only if any of its snippets are cached
+        String uniqueKey = null;
+        boolean uniqueKeyLoaded = false;
+        try {
+          for (int fieldIdx = 0; fieldIdx < fields.length; fieldIdx++) {
+            OcrSnippet[][] resultByDocIn = highlightDocsInByField[fieldIdx];//parallel to docIdsIn
+            OcrFieldHighlighter fieldHighlighter = fieldHighlighters[fieldIdx];
+            int docId = docIds[docIdx];//sorted order
+            IterableCharSequence content = fieldVals[fieldIdx];
+            if (content == null || (cacheKeys != null && cacheKeys[fieldIdx][docIdx] == null)) {
+              continue;
+            }
+            if (timeAllowed != null) {
+              content = new ExitingIterCharSeq(content, HighlightTimeout.getInstance());
+            }
+            IndexReader indexReader =
+                (fieldHighlighter.getOffsetSource() == OffsetSource.TERM_VECTORS
+                    && indexReaderWithTermVecCache != null)
+                    ? indexReaderWithTermVecCache
+                    : searcher.getIndexReader();
+            final LeafReader leafReader;
+            if (indexReader instanceof LeafReader) {
+              leafReader = (LeafReader) indexReader;
+            } else {
+              List<LeafReaderContext> leaves = indexReader.leaves();
+              LeafReaderContext leafReaderContext = leaves.get(ReaderUtil.subIndex(docId, leaves));
+              leafReader = leafReaderContext.reader();
+              docId -= leafReaderContext.docBase; // adjust 'doc' to be within this leaf reader
+            }
+            int docInIndex = docInIndexes[docIdx];//original input order
+            assert resultByDocIn[docInIndex] == null;
+            OcrFormat ocrFormat = getFormat(content);
+            String limitBlock = params.get(OcrHighlightParams.LIMIT_BLOCK, "block").toUpperCase();
+            OcrStructure structure = getStructure(content, ocrFormat);
+            BreakIterator breakIter = getBreakIterator(
+                ocrFormat, structure,
+                OcrBlock.valueOf(params.get(OcrHighlightParams.CONTEXT_BLOCK, "line").toUpperCase()),
+                limitBlock.equals("NONE") ? null : OcrBlock.valueOf(limitBlock),
+                params.getInt(OcrHighlightParams.CONTEXT_SIZE, 2));
+            OcrPassageFormatter formatter = ocrFormat.getPassageFormatter(
+                params.get(HighlightParams.TAG_PRE, "<em>"),
+                params.get(HighlightParams.TAG_POST, "</em>"),
+                params.getBool(OcrHighlightParams.ABSOLUTE_HIGHLIGHTS, false));
+            formatter.setStructure(structure);
+            formatter.setIncludedParts(includedParts);
+            if (preloads != null && preloadedPointers[docIdx] != null) {
+              // Cancel any pending read-ahead, since we're doing the I/O ourselves now
+              preloads.finish(preloadedPointers[docIdx][fieldIdx]);
+            }
+            // Only successfully highlighted documents are cached
+            boolean highlighted = false;
+            try {
+              resultByDocIn[docInIndex] = fieldHighlighter.highlightFieldForDoc(
+                  leafReader, docId, breakIter, formatter, content,
+                  params.get(OcrHighlightParams.PAGE_ID), snippetLimits[fieldIdx]);
+              highlighted = true;
+            } catch (ExitingIterCharSeq.ExitingIterCharSeqException | ExitableDirectoryReader.ExitingReaderException e) {
+              log.warn("OCR Highlighting timed out while handling " + content.getPointer(), e);
+              respHeader.put(PARTIAL_OCR_HIGHLIGHTS, Boolean.TRUE);
+              resultByDocIn[docInIndex] = null;
+              // Stop highlighting
+              break docLoop;
+            } catch (RuntimeException e) {
+              // This catch-all prevents OCR highlighting from failing the complete query, instead users
+              // get an error message in their Solr log.
+              log.error("Could not highlight OCR content for document", e);
+            } finally {
+              // Close the sources of a field as soon as we're done with it to keep the number of open files low
+              LookaheadFieldValueLoader.closeValues(new IterableCharSequence[] { fieldVals[fieldIdx] });
+            }
+            snippetCountsByField[fieldIdx][docInIndex] = fieldHighlighter.getNumMatches(docId);
+            if (cacheKeys != null && highlighted) {
+              if (!uniqueKeyLoaded) {
+                uniqueKey = getUniqueKey(docIds[docIdx]);
+                uniqueKeyLoaded = true;
               }
+              hlCache.put(cacheKeys[fieldIdx][docIdx], new OcrHighlightCache.Entry(
+                  resultByDocIn[docInIndex], snippetCountsByField[fieldIdx][docInIndex], uniqueKey));
             }
           }
-          snippetCountsByField[fieldIdx][docInIndex] = fieldHighlighter.getNumMatches(docId);
+        } finally {
+          LookaheadFieldValueLoader.closeValues(fieldVals);
         }
       }
-      batchDocIdx += fieldValsByDoc.size();
+    } finally {
+      // Close sources that were loaded ahead of time but not needed anymore, e.g. due to a timeout
+      valueLoader.close();
+      if (preloads != null) {
+        preloads.close();
+      }
     }
-    assert docIdIter.docID() == DocIdSetIterator.NO_MORE_DOCS
-        || docIdIter.nextDoc() == DocIdSetIterator.NO_MORE_DOCS;
     HighlightTimeout.reset();
     SolrQueryTimeoutImpl.reset();
 
@@ -342,6 +462,16 @@ public class OcrHighlighter extends UnifiedHighlighter {
     return out;
   }
 
+  /** Get the readable unique key of the document, or <tt>null</tt> if the schema has none. */
+  private String getUniqueKey(int docId) throws IOException {
+    IndexSchema schema = ((SolrIndexSearcher) searcher).getSchema();
+    if (schema.getUniqueKeyField() == null) {
+      return null;
+    }
+    Document doc = searcher.doc(docId, Collections.singleton(schema.getUniqueKeyField().getName()));
+    return schema.printableUniqueKey(doc);
+  }
+
   @Override
   protected List<CharSequence[]> loadFieldValues(String[] fields, DocIdSetIterator docIter, int cacheCharsThreshold)
       throws IOException {
@@ -354,47 +484,225 @@ public class OcrHighlighter extends UnifiedHighlighter {
     List<IterableCharSequence[]> fieldValues = new ArrayList<>((int) docIter.cost());
     int docId;
     while ((docId = docIter.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
-      DocumentStoredFieldVisitor docIdVisitor = new DocumentStoredFieldVisitor(fields);
-      IterableCharSequence[] ocrVals = new IterableCharSequence[fields.length];
-      searcher.doc(docId, docIdVisitor);
+      fieldValues.add(loadOcrFieldValues(fields, docId, false, null));
+    }
+    return fieldValues;
+  }
+
+  /**
+   * Load the OCR field values for a single document.
+   *
+   * @param touch Read the beginning of every source right away, used when loading ahead of time on a background
+   *              thread, so the first pages needed for highlighting are already in memory.
+   * @param knownPointers Source pointers that were already resolved for the document, e.g. for the read-ahead, can
+   *                      be <tt>null</tt>. Only the pointers of fields without a known pointer are resolved.
+   */
+  protected IterableCharSequence[] loadOcrFieldValues(String[] fields, int docId, boolean touch,
+                                                      SourcePointer[] knownPointers) throws IOException {
+    IterableCharSequence[] ocrVals = new IterableCharSequence[fields.length];
+    String[] storedTexts = new String[fields.length];
+    SourcePointer[] sourcePointers = loadSourcePointers(fields, docId, storedTexts, knownPointers);
+    try {
       for (int fieldIdx=0; fieldIdx < fields.length; fieldIdx++) {
-        String fieldName = fields[fieldIdx];
-        String fieldValue = docIdVisitor.getDocument().get(fieldName);
-        if (fieldValue == null) {
-          // No OCR content at all
-          ocrVals[fieldIdx] = null;
-          continue;
-        }
-        if (!SourcePointer.isPointer(fieldValue)) {
-          // OCR content as stored text
-          ocrVals[fieldIdx] = IterableCharSequence.fromString(fieldValue);
-          continue;
-        }
-        SourcePointer sourcePointer = SourcePointer.parse(fieldValue);
+        SourcePointer sourcePointer = sourcePointers[fieldIdx];
         if (sourcePointer == null) {
-          // None of the files in the pointer exist or were readable, log should have warnings
-          ocrVals[fieldIdx] = null;
+          // OCR content as stored text, or no OCR content at all
+          ocrVals[fieldIdx] = storedTexts[fieldIdx] != null
+              ? IterableCharSequence.fromString(storedTexts[fieldIdx]) : null;
           continue;
         }
-        // If preloading is enabled, start warming the cache for the pointer
-        PageCacheWarmer.getInstance().ifPresent(w -> w.preload(sourcePointer));
         if (sourcePointer.sources.size() == 1) {
-          ocrVals[fieldIdx] = new FileBytesCharIterator(
+          ocrVals[fieldIdx] = iterFactory.open(
               sourcePointer.sources.get(0).path, StandardCharsets.UTF_8, sourcePointer);
         } else {
           ocrVals[fieldIdx] = new MultiFileBytesCharIterator(
               sourcePointer.sources.stream().map(s -> s.path).collect(Collectors.toList()),
-              StandardCharsets.UTF_8, sourcePointer);
+              StandardCharsets.UTF_8, sourcePointer, iterFactory);
+        }
+        if (touch) {
+          // Same sample that is used for determining the format
+          ocrVals[fieldIdx].subSequence(0, Math.min(FORMAT_SAMPLE_SIZE, ocrVals[fieldIdx].length()));
         }
       }
-      fieldValues.add(ocrVals);
+    } catch (IOException | RuntimeException e) {
+      LookaheadFieldValueLoader.closeValues(ocrVals);
+      throw e;
     }
-    return fieldValues;
+    return ocrVals;
+  }
+
+  /**
+   * Get the source pointers for the OCR field values of a document without opening the sources.
+   *
+   * @param storedTexts If not <tt>null</tt>, receives the values of the fields that hold their OCR content as stored
+   *                    text instead of a pointer
+   * @param knownPointers Pointers that are already known for the fields, can be <tt>null</tt>
+   * @return the source pointers of the fields, <tt>null</tt> for fields without a (readable) pointer
+   */
+  private SourcePointer[] loadSourcePointers(String[] fields, int docId, String[] storedTexts,
+                                             SourcePointer[] knownPointers) throws IOException {
+    List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+    LeafReaderContext leafCtx = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    int leafDocId = docId - leafCtx.docBase;
+    SourcePointer[] pointers = knownPointers != null ? knownPointers.clone() : new SourcePointer[fields.length];
+    boolean allKnown = true;
+    for (int fieldIdx=0; fieldIdx < fields.length; fieldIdx++) {
+      SourcePointer ptr = pointers[fieldIdx];
+      if (ptr == null && pointerCache != null) {
+        ptr = pointerCache.getPointer(leafCtx.reader(), leafDocId, fields[fieldIdx]);
+      }
+      if (ptr == null) {
+        // Pointers of OcrPointerField fields are decoded from doc values, which is cheap enough to not cache them
+        ptr = OcrPointerField.readPointer(leafCtx.reader(), leafDocId, fields[fieldIdx]);
+      }
+      pointers[fieldIdx] = ptr;
+      allKnown &= ptr != null;
+    }
+    if (allKnown) {
+      // Stored fields only need to be loaded if we don't know the pointers for all fields yet
+      return pointers;
+    }
+    DocumentStoredFieldVisitor docIdVisitor = new DocumentStoredFieldVisitor(fields);
+    searcher.doc(docId, docIdVisitor);
+    Document doc = docIdVisitor.getDocument();
+    for (int fieldIdx=0; fieldIdx < fields.length; fieldIdx++) {
+      if (pointers[fieldIdx] != null) {
+        continue;
+      }
+      String fieldValue = doc.get(fields[fieldIdx]);
+      if (fieldValue == null) {
+        // No OCR content at all
+        continue;
+      }
+      if (!SourcePointer.isPointer(fieldValue)) {
+        // OCR content as stored text
+        if (storedTexts != null) {
+          storedTexts[fieldIdx] = fieldValue;
+        }
+        continue;
+      }
+      // Can be null if none of the files in the pointer exist or were readable, log should have warnings
+      pointers[fieldIdx] = SourcePointer.parse(fieldValue, pointerCache);
+      if (pointers[fieldIdx] != null && pointerCache != null) {
+        pointerCache.putPointer(leafCtx.reader(), leafDocId, fields[fieldIdx], pointers[fieldIdx]);
+      }
+    }
+    return pointers;
+  }
+
+  /**
+   * Start warming the page cache for all documents whose snippets are not cached yet. This is done for the complete
+   * batch up front, independently of how many documents are loaded ahead, since the reads of a document are only
+   * cancelled once its highlighting starts.
+   *
+   * @return the source pointers of the documents by field, to open the sources and to call {@link
+   *         PageCacheWarmer.Request#finish(SourcePointer)} with, <tt>null</tt> for documents whose pointers could
+   *         not be loaded
+   */
+  private SourcePointer[][] preload(PageCacheWarmer.Request preloads, OcrFieldHighlighter[] fieldHighlighters, String[] fields,
+                                    int[] docIds, int[] docInIndexes, OcrHighlightCache.Key[][] cacheKeys,
+                                    int[] snippetLimits) {
+    SourcePointer[][] preloaded = new SourcePointer[docIds.length][];
+    for (int docIdx = 0; docIdx < docIds.length; docIdx++) {
+      SourcePointer[] pointers;
+      try {
+        pointers = loadSourcePointers(fields, docIds[docIdx], null, null);
+      } catch (IOException e) {
+        // Warming is only an optimization, highlighting will report any actual problems
+        log.debug("Could not load source pointers for document {}: {}", docIds[docIdx], e.getMessage());
+        continue;
+      }
+      SourcePointer[] uncached = pointers.clone();
+      for (int fieldIdx = 0; fieldIdx < fields.length; fieldIdx++) {
+        if (cacheKeys != null && cacheKeys[fieldIdx][docIdx] == null) {
+          // Snippets are cached, no need to touch the sources
+          uncached[fieldIdx] = null;
+        }
+      }
+      // The position in the input is the rank of the document in the result list
+      preload(preloads, fieldHighlighters, docIds[docIdx], docInIndexes[docIdx], uncached, snippetLimits);
+      preloaded[docIdx] = pointers;
+    }
+    return preloaded;
+  }
+
+  /**
+   * Start warming the page cache for the OCR sources of a document, either for the complete sources or only for
+   * the areas around the matches if hit-targeted preloading is enabled.
+   */
+  private void preload(PageCacheWarmer.Request preloads, OcrFieldHighlighter[] fieldHighlighters, int docId, int rank,
+                       SourcePointer[] pointers, int[] snippetLimits) {
+    List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+    LeafReaderContext leafReaderContext = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    for (int fieldIdx = 0; fieldIdx < pointers.length; fieldIdx++) {
+      SourcePointer ptr = pointers[fieldIdx];
+      if (ptr == null) {
+        continue;
+      }
+      OcrFieldHighlighter fieldHighlighter = fieldHighlighters[fieldIdx];
+      if (!cacheWarmer.isHitTargeted()
+          || fieldHighlighter.getOffsetSource() == OffsetSource.ANALYSIS
+          || fieldHighlighter.getOffsetSource() == OffsetSource.NONE_NEEDED) {
+        preloads.preload(ptr, rank);
+        continue;
+      }
+      try {
+        int[] hitOffsets = fieldHighlighter.getMatchOffsets(
+            leafReaderContext.reader(), docId - leafReaderContext.docBase, snippetLimits[fieldIdx]);
+        // The sources are not open yet, so the page marker is only known if the format was determined at index time
+        preloads.preloadHits(ptr, hitOffsets, ptr.format != null ? ptr.format.getPageMarker() : null, rank);
+      } catch (IOException | RuntimeException e) {
+        // Warming is only an optimization, highlighting will report any actual problems
+        log.debug("Could not preload hits for {}: {}", ptr, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Get the structure that was recorded for the content at index time, or the cached structure if there is none or if
+   * it doesn't match the content anymore. Returns <tt>null</tt> if neither is available.
+   */
+  private OcrStructure getStructure(IterableCharSequence content, OcrFormat format) {
+    SourcePointer ptr = content.getPointer();
+    if (ptr == null) {
+      return null;
+    }
+    if (ptr.structure != null && ptr.structure.getContentLength() == content.length()) {
+      return ptr.structure;
+    }
+    if (structureCache == null) {
+      return null;
+    }
+    OcrStructure structure = structureCache.get(ptr, format);
+    if (structure == null || structure.getContentLength() != content.length()) {
+      return null;
+    }
+    return structure;
+  }
+
+  /**
+   * Get a break iterator that uses the offsets recorded in the structure if they are available for the blocks, since
+   * these don't have to scan the content for tags. Otherwise use the format's regular break iterator.
+   */
+  private static BreakIterator getBreakIterator(OcrFormat format, OcrStructure structure, OcrBlock breakBlock,
+                                                OcrBlock limitBlock, int contextSize) {
+    if (structure != null && structure.hasBlock(breakBlock)
+        && (limitBlock == null || structure.hasBlock(limitBlock))) {
+      return new ContextBreakIterator(
+          structure.getBreakIterator(breakBlock),
+          limitBlock != null ? structure.getBreakIterator(limitBlock) : null,
+          contextSize);
+    }
+    return format.getBreakIterator(breakBlock, limitBlock, contextSize);
   }
 
   private OcrFormat getFormat(IterableCharSequence content) throws IOException {
+    if (content.getPointer() != null && content.getPointer().format != null) {
+      // Determined at index time
+      return content.getPointer().format;
+    }
     // Sample the first 4k characters to determine the format
-    String sampleChunk = content.subSequence(0, Math.min(4096, content.length())).toString();
+    String sampleChunk = content.subSequence(0, Math.min(FORMAT_SAMPLE_SIZE, content.length())).toString();
     return FORMATS.stream()
         .filter(fmt -> fmt.hasFormat(sampleChunk))
         .findFirst()
@@ -560,36 +868,6 @@ public class OcrHighlighter extends UnifiedHighlighter {
   }
 
   // FIXME: And another one copied straight from UnifiedHighlighter because it has private access.
-  private DocIdSetIterator asDocIdSetIterator(int[] sortedDocIds) {
-    return new DocIdSetIterator() {
-      int idx = -1;
-
-      @Override
-      public int docID() {
-        if (idx < 0 || idx >= sortedDocIds.length) {
-          return NO_MORE_DOCS;
-        }
-        return sortedDocIds[idx];
-      }
-
-      @Override
-      public int nextDoc() throws IOException {
-        idx++;
-        return docID();
-      }
-
-      @Override
-      public int advance(int target) throws IOException {
-        return super.slowAdvance(target); // won't be called, so whatever
-      }
-
-      @Override
-      public long cost() {
-        return Math.max(0, sortedDocIds.length - (idx + 1)); // remaining docs
-      }
-    };
-  }
-
   /**
    * Wraps an IndexReader that remembers/caches the last call to {@link LeafReader#getTermVectors(int)} so that
    * if the next call has the same ID, then it is reused.  If TV's were column-stride (like doc-values), there would
@@ -3,14 +3,16 @@ package de.digitalcollections.solrocr.lucene.filters;
 import com.google.common.collect.ImmutableList;
 import de.digitalcollections.solrocr.reader.MultiFileReader;
 import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.util.SourceFiles;
 import de.digitalcollections.solrocr.util.Utf8;
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Map;
@@ -60,7 +62,7 @@ public class ExternalUtf8ContentFilterFactory extends CharFilterFactory {
       else if (pointer.sources.size() > 1) {
         r = new MultiFileReader(pointer.sources.stream().map(s -> s.path).collect(Collectors.toList()));
       } else {
-        r = new FileReader(pointer.sources.get(0).path.toFile());
+        r = MultiFileReader.openReader(pointer.sources.get(0).path);
       }
 
       List<SourcePointer.Region> charRegions = pointer.sources.stream()
@@ -75,15 +77,24 @@ public class ExternalUtf8ContentFilterFactory extends CharFilterFactory {
   private void validateSource(SourcePointer.FileSource src) {
     // TODO: Check if sourcePath is located under one of the whitelisted base directories, abort otherwise
     // TODO: Check if sourcePath's filename matches one of the whitelisted file name patterns, abort otherwise
-    File f = src.path.toFile();
-    if (!f.exists() || !f.canRead()) {
+    try {
+      SourceFiles.checkReadable(src.path);
+    } catch (IOException e) {
       throw new SolrException(
           ErrorCode.BAD_REQUEST,
           String.format("File at %s either does not exist or cannot be read.", src.path));
     }
   }
 
-  private static long getUtf8DecodedLength(FileChannel fChan, ByteBuffer buf, long numBytes) throws IOException {
+  /** Open a channel over the content of a source file, block-compressed containers and ZIP entries are decompressed. */
+  private static ReadableByteChannel openChannel(Path path) throws IOException {
+    if (SourceFiles.isPacked(path)) {
+      return Channels.newChannel(SourceFiles.openStream(path));
+    }
+    return FileChannel.open(path, StandardOpenOption.READ);
+  }
+
+  private static long getUtf8DecodedLength(ReadableByteChannel fChan, ByteBuffer buf, long numBytes) throws IOException {
     long numRead = 0;
     long decodedLength = 0;
     while (numRead < numBytes) {
@@ -98,56 +109,68 @@ public class ExternalUtf8ContentFilterFactory extends CharFilterFactory {
     return decodedLength;
   }
 
+  /** Convert a long byte or char offset to an int, failing if it can't be represented in a Lucene offset. */
+  private static int toOffset(long offset, SourcePointer.FileSource src) {
+    if (offset > Integer.MAX_VALUE) {
+      throw new SolrException(
+          ErrorCode.BAD_REQUEST,
+          String.format(
+              "Region in %s ends at offset %d, but OCR content beyond 2GiB can't be stored in the index. "
+              + "Use regions to restrict the pointer to the first 2GiB of the source.", src.path, offset));
+    }
+    return (int) offset;
+  }
+
   private void toCharOffsets(SourcePointer ptr) throws IOException {
-    int byteOffset = 0;
-    int charOffset = 0;
+    long byteOffset = 0;
+    long charOffset = 0;
     ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024 /* 1 MiB */);
-    // TODO: Use a queue for the file sources so we don't have to read until the end of the last file every time
     // TODO: Think about building the UTF8 -> UTF16 offset map right here if the mapping part should become a
     //       bottle neck
-    for (SourcePointer.FileSource src : ptr.sources) {
-      try (FileChannel fChan = FileChannel.open(src.path, StandardOpenOption.READ)) {
-        final int fSize = (int) fChan.size();
+    for (int srcIdx = 0; srcIdx < ptr.sources.size(); srcIdx++) {
+      SourcePointer.FileSource src = ptr.sources.get(srcIdx);
+      boolean isLastSource = srcIdx == ptr.sources.size() - 1;
+      try (ReadableByteChannel fChan = openChannel(src.path)) {
+        final long fSize = SourceFiles.contentSize(src.path);
 
         // Byte offset of the current file from the beginning of the first file
-        final int baseOffset = byteOffset;
+        final long baseOffset = byteOffset;
         if (src.regions.isEmpty()) {
-          src.regions = ImmutableList.of(new SourcePointer.Region(0, fSize));
+          src.regions = ImmutableList.of(new SourcePointer.Region(0, toOffset(fSize, src)));
         }
         for (SourcePointer.Region region : src.regions) {
+          long regionEnd = region.end < 0 ? fSize : Math.min(region.end, fSize);
           if (src.isAscii) {
             // Optimization for pure-ASCII sources, where we don't need to do any mapping
-            region.start += baseOffset;
-            region.end = Math.min(region.end + baseOffset, fSize + baseOffset);
+            region.start = toOffset(region.start + baseOffset, src);
+            region.end = toOffset(regionEnd + baseOffset, src);
             continue;
           }
           // Make region offsets relative to the beginning of the first file
-          region.start += baseOffset;
-          if (region.end < 0) {
-            region.end = fSize;
-          }
-          region.end = Math.min(region.end + baseOffset, fSize + baseOffset);
+          long regionStart = region.start + baseOffset;
+          regionEnd += baseOffset;
           // Read until the start of the region
-          if (byteOffset != region.start) {
+          if (byteOffset != regionStart) {
             // Read the data between the current offset and the start of the region
-            int len = region.start - byteOffset;
+            long len = regionStart - byteOffset;
             charOffset += getUtf8DecodedLength(fChan, buf, len);
             byteOffset += len;
           }
 
-          int regionSize = region.end - region.start;
-          region.start = charOffset;
-          region.startOffset = byteOffset;
+          long regionSize = regionEnd - regionStart;
+          region.start = toOffset(charOffset, src);
+          region.startOffset = toOffset(byteOffset, src);
           // Read region, determine character offsett of region end
           charOffset += getUtf8DecodedLength(fChan, buf, regionSize);
           byteOffset += regionSize;
-          region.end = charOffset;
+          region.end = toOffset(charOffset, src);
         }
-        // Determine character offset of the end of the file
+        // Determine character offset of the end of the file. This is only needed if another file follows, for the
+        // last file we can skip reading the remainder, which makes regions at the start of large files cheap.
         if (src.isAscii) {
-          byteOffset += fSize;
-        } else if (byteOffset != baseOffset + fSize) {
-          int len = (baseOffset + fSize) - byteOffset;
+          byteOffset = baseOffset + fSize;
+        } else if (!isLastSource && byteOffset != baseOffset + fSize) {
+          long len = (baseOffset + fSize) - byteOffset;
           charOffset += getUtf8DecodedLength(fChan, buf, len);
           byteOffset += len;
         }
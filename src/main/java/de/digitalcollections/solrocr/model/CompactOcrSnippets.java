@@ -0,0 +1,177 @@
+package de.digitalcollections.solrocr.model;
+
+import de.digitalcollections.solrocr.model.OcrSnippet.Part;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.solr.common.IteratorWriter;
+import org.apache.solr.common.MapWriter;
+
+/**
+ * Columnar representation of the snippets of a field in a document, used for <tt>hl.ocr.format=compact</tt>.
+ *
+ * Instead of a map per snippet, region, highlight and page, the coordinates of the regions and highlights of a
+ * snippet are written as flat arrays with four values (<tt>ulx, uly, lrx, lry</tt>) per box and pages are referred
+ * to by their index in a table of pages that is shared by all snippets of the field:
+ *
+ * <pre>
+ * {
+ *   "numTotal": 3,
+ *   "pageIds": ["p1", "p2"], "pageWidths": [2000, -1], "pageHeights": [3000, -1],
+ *   "snippets": [{
+ *     "score": 4.2, "text": "...", "pages": [0],
+ *     "regionPages": [0], "regionCoords": [10, 20, 400, 80], "regionTexts": ["..."],
+ *     "highlightSpans": [0], "highlightRegions": [0], "highlightCoords": [5, 0, 90, 20], "highlightTexts": ["..."]
+ *   }]
+ * }
+ * </pre>
+ *
+ * <tt>highlightSpans</tt> holds the index of the first box of every highlighted span, <tt>highlightRegions</tt> the
+ * index of the region every box is located in (or <tt>-1</tt>). Unknown pages and page dimensions are written as
+ * <tt>-1</tt>.
+ * Coordinates are written as integers if all coordinates in the array are integers, as floats otherwise. Only the
+ * parts included in the snippets are written, the page table is omitted if neither pages nor regions are included.
+ *
+ * The response is written directly by Solr's response writers, without building a {@link
+ * org.apache.solr.common.util.NamedList} tree for it. Only the XML writer needs it converted to maps and lists
+ * first, see {@link OcrHighlightResult#toCompactNamedList(boolean)}.
+ */
+public class CompactOcrSnippets implements MapWriter {
+  private final OcrSnippet[] snippets;
+  private final int numTotal;
+
+  public CompactOcrSnippets(OcrSnippet[] snippets, int numTotal) {
+    this.snippets = snippets;
+    this.numTotal = numTotal;
+  }
+
+  @Override
+  public void writeMap(EntryWriter ew) throws IOException {
+    ew.put("numTotal", numTotal);
+    Set<Part> parts = null;
+    Map<String, OcrPage> pageTable = new LinkedHashMap<>();
+    for (OcrSnippet snip : snippets) {
+      if (snip == null) {
+        continue;
+      }
+      parts = snip.getIncludedParts();
+      if (parts.contains(Part.PAGES)) {
+        snip.getPages().forEach(p -> pageTable.putIfAbsent(p.id, p));
+      }
+      if (parts.contains(Part.REGIONS)) {
+        for (OcrBox region : snip.getSnippetRegions()) {
+          if (region.getPageId() != null) {
+            pageTable.putIfAbsent(region.getPageId(), new OcrPage(region.getPageId(), null));
+          }
+        }
+      }
+    }
+    Map<String, Integer> pageIdxs = new HashMap<>();
+    for (String id : pageTable.keySet()) {
+      pageIdxs.put(id, pageIdxs.size());
+    }
+    if (parts != null && (parts.contains(Part.PAGES) || parts.contains(Part.REGIONS))) {
+      ew.put("pageIds", (IteratorWriter) iw -> {
+        for (String id : pageTable.keySet()) {
+          iw.add(id);
+        }
+      });
+    }
+    if (parts != null && parts.contains(Part.PAGES)) {
+      ew.put("pageWidths", (IteratorWriter) iw -> {
+        for (OcrPage page : pageTable.values()) {
+          iw.add(page.dimensions != null ? page.dimensions.width : -1);
+        }
+      });
+      ew.put("pageHeights", (IteratorWriter) iw -> {
+        for (OcrPage page : pageTable.values()) {
+          iw.add(page.dimensions != null ? page.dimensions.height : -1);
+        }
+      });
+    }
+    ew.put("snippets", (IteratorWriter) iw -> {
+      for (OcrSnippet snip : snippets) {
+        iw.add(snip == null ? null : (MapWriter) sw -> writeSnippet(snip, pageIdxs, sw));
+      }
+    });
+  }
+
+  private static void writeSnippet(OcrSnippet snip, Map<String, Integer> pageIdxs, EntryWriter ew) throws IOException {
+    Set<Part> parts = snip.getIncludedParts();
+    ew.put("score", snip.getScore());
+    if (parts.contains(Part.TEXT)) {
+      ew.put("text", snip.getText());
+    }
+    if (parts.contains(Part.PAGES)) {
+      ew.put("pages", ints(snip.getPages().stream().mapToInt(p -> pageIdxs.get(p.id)).toArray()));
+    }
+    if (parts.contains(Part.REGIONS)) {
+      List<OcrBox> regions = snip.getSnippetRegions();
+      ew.put("regionPages", ints(regions.stream().mapToInt(r -> pageIdxs.getOrDefault(r.getPageId(), -1)).toArray()));
+      ew.put("regionCoords", coordinates(regions));
+      ew.put("regionTexts", texts(regions));
+    }
+    if (parts.contains(Part.HIGHLIGHTS) && snip.getHighlightSpans() != null) {
+      List<OcrBox> boxes = new ArrayList<>();
+      int[] spanStarts = new int[snip.getHighlightSpans().size()];
+      for (int i = 0; i < spanStarts.length; i++) {
+        spanStarts[i] = boxes.size();
+        for (OcrBox box : snip.getHighlightSpans().get(i)) {
+          boxes.add(box);
+        }
+      }
+      int[] regionIdxs = boxes.stream()
+          .mapToInt(b -> b.getParentRegionIdx() != null ? b.getParentRegionIdx() : -1).toArray();
+      ew.put("highlightSpans", ints(spanStarts));
+      ew.put("highlightRegions", ints(regionIdxs));
+      ew.put("highlightCoords", coordinates(boxes));
+      ew.put("highlightTexts", texts(boxes));
+    }
+  }
+
+  private static IteratorWriter ints(int[] values) {
+    return iw -> {
+      for (int v : values) {
+        iw.add(v);
+      }
+    };
+  }
+
+  /** Write the coordinates of the boxes, as integers if all of them are integral. */
+  private static IteratorWriter coordinates(List<OcrBox> boxes) {
+    float[] coords = new float[boxes.size() * 4];
+    for (int i = 0; i < boxes.size(); i++) {
+      OcrBox box = boxes.get(i);
+      coords[i * 4] = box.getUlx();
+      coords[i * 4 + 1] = box.getUly();
+      coords[i * 4 + 2] = box.getLrx();
+      coords[i * 4 + 3] = box.getLry();
+    }
+    boolean asInts = true;
+    for (float c : coords) {
+      asInts &= c == (int) c;
+    }
+    boolean integral = asInts;
+    return iw -> {
+      for (float c : coords) {
+        if (integral) {
+          iw.add((int) c);
+        } else {
+          iw.add(c);
+        }
+      }
+    };
+  }
+
+  private static IteratorWriter texts(List<OcrBox> boxes) {
+    return iw -> {
+      for (OcrBox box : boxes) {
+        iw.add(box.getText());
+      }
+    };
+  }
+}
@@ -3,6 +3,7 @@ package de.digitalcollections.solrocr.model;
 import de.digitalcollections.solrocr.formats.OcrPassageFormatter;
 import java.io.Reader;
 import java.text.BreakIterator;
+import java.util.function.Predicate;
 
 /**
  * Provides access to format-specific {@link BreakIterator} and {@link OcrPassageFormatter} instances.
@@ -35,4 +36,26 @@ public interface OcrFormat {
    * @return whether the chunk is formatted according to the implementing format.
    */
   boolean hasFormat(String ocrChunk);
+
+  /**
+   * Get an ASCII string that occurs at the start of every page in the format, used to locate the beginning of the
+   * page that a match is located on without parsing the content.
+   *
+   * @return the page marker, or <tt>null</tt> if the format has no such marker
+   */
+  default String getPageMarker() {
+    return null;
+  }
+
+  /**
+   * Get a predicate that matches the opening tags of blocks of the given type, used to record the offsets of the
+   * blocks in a document when it is indexed. Must match exactly the tags that the format's {@link BreakIterator}
+   * breaks on.
+   *
+   * @param block the type of block
+   * @return a predicate on complete opening tags, or <tt>null</tt> if the format has no such blocks
+   */
+  default Predicate<String> getBlockStartMatcher(OcrBlock block) {
+    return null;
+  }
 }
@@ -2,6 +2,7 @@ package de.digitalcollections.solrocr.model;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
@@ -47,4 +48,19 @@ public class OcrHighlightResult {
     }
     return out;
   }
+
+  /**
+   * Same as {@link #toNamedList()}, but with the snippets of every field in the {@link CompactOcrSnippets} form.
+   *
+   * If <tt>materialize</tt> is set, the compact snippets are converted to maps and lists, for response writers that
+   * cannot write {@link org.apache.solr.common.MapWriter} values (like the XML writer).
+   */
+  public NamedList<Object> toCompactNamedList(boolean materialize) {
+    SimpleOrderedMap<Object> out = new SimpleOrderedMap<>();
+    for (String fieldName : fieldSnippets.keySet()) {
+      CompactOcrSnippets snips = new CompactOcrSnippets(getFieldSnippets(fieldName), getSnippetCount(fieldName));
+      out.add(fieldName, materialize ? snips.toMap(new LinkedHashMap<>()) : snips);
+    }
+    return out;
+  }
 }
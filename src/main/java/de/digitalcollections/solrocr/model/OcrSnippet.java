@@ -3,13 +3,44 @@ package de.digitalcollections.solrocr.model;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
 
 /** A structured representation of a highlighted OCR snippet. */
 public class OcrSnippet implements Comparable<OcrSnippet> {
+  /** Parts of a snippet that can be included in the response. */
+  public enum Part {
+    TEXT,
+    REGIONS,
+    HIGHLIGHTS,
+    PAGES;
+
+    /**
+     * Parse a comma-separated list of part names, e.g. <tt>text,highlights</tt>.
+     *
+     * @return the parts in the list, or all parts if the list is <tt>null</tt>
+     * @throws IllegalArgumentException if the list contains an unknown part
+     */
+    public static Set<Part> parse(String parts) {
+      if (parts == null) {
+        return EnumSet.allOf(Part.class);
+      }
+      Set<Part> out = EnumSet.noneOf(Part.class);
+      for (String part : parts.split(",")) {
+        if (!part.trim().isEmpty()) {
+          out.add(Part.valueOf(part.trim().toUpperCase(Locale.ROOT)));
+        }
+      }
+      return out;
+    }
+  }
+
   private static final Comparator<OcrSnippet> COMPARATOR = Comparator.comparing(OcrSnippet::getScore);
+  private final Set<Part> parts;
   private final String text;
   private final List<OcrPage> pages;
   private final List<OcrBox> snippetRegions;
@@ -23,6 +54,17 @@ public class OcrSnippet implements Comparable<OcrSnippet> {
    * @param snippetRegions regions the snippet is located in
    */
   public OcrSnippet(String text, List<OcrPage> pages, List<OcrBox> snippetRegions) {
+    this(text, pages, snippetRegions, EnumSet.allOf(Part.class));
+  }
+
+  /**
+   * Create a new snippet that only includes some of its parts in the response.
+   *
+   * Parts that are not included do not need to be set, e.g. the text can be <tt>null</tt> if {@link Part#TEXT} is
+   * not included.
+   */
+  public OcrSnippet(String text, List<OcrPage> pages, List<OcrBox> snippetRegions, Set<Part> parts) {
+    this.parts = parts;
     this.text = text;
     this.pages = pages;
     this.snippetRegions = snippetRegions;
@@ -44,6 +86,16 @@ public class OcrSnippet implements Comparable<OcrSnippet> {
     return text;
   }
 
+  /** Get the pages the snippet appears on */
+  public List<OcrPage> getPages() {
+    return pages;
+  }
+
+  /** Get the parts of the snippet that are included in the response */
+  public Set<Part> getIncludedParts() {
+    return parts;
+  }
+
   /** Get the region of the page that the snippes is located in */
   public List<OcrBox> getSnippetRegions() {
     return snippetRegions;
@@ -72,15 +124,21 @@ public class OcrSnippet implements Comparable<OcrSnippet> {
   @SuppressWarnings("rawtypes")
   public NamedList toNamedList() {
     SimpleOrderedMap m = new SimpleOrderedMap();
-    m.add("text", this.getText());
+    if (parts.contains(Part.TEXT)) {
+      m.add("text", this.getText());
+    }
     m.add("score", this.getScore());
-    NamedList[] pageEntries = this.pages.stream()
-        .map(OcrPage::toNamedList).toArray(NamedList[]::new);
-    m.add("pages", pageEntries);
-    NamedList[] regions = this.snippetRegions.stream()
-        .map(b -> b.toNamedList(pages)).toArray(NamedList[]::new);
-    m.add("regions", regions);
-    if (this.getHighlightSpans() != null) {
+    if (parts.contains(Part.PAGES)) {
+      NamedList[] pageEntries = this.pages.stream()
+          .map(OcrPage::toNamedList).toArray(NamedList[]::new);
+      m.add("pages", pageEntries);
+    }
+    if (parts.contains(Part.REGIONS)) {
+      NamedList[] regions = this.snippetRegions.stream()
+          .map(this::regionToNamedList).toArray(NamedList[]::new);
+      m.add("regions", regions);
+    }
+    if (parts.contains(Part.HIGHLIGHTS) && this.getHighlightSpans() != null) {
       List<NamedList[]> highlights = new ArrayList<>();
       for (OcrBox[] region : this.getHighlightSpans()) {
         NamedList[] regionBoxes = Arrays.stream(region)
@@ -93,6 +151,19 @@ public class OcrSnippet implements Comparable<OcrSnippet> {
     return m;
   }
 
+  /** Regions refer to their page by its index in the pages of the snippet, or by its id if those are not included. */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private NamedList regionToNamedList(OcrBox region) {
+    if (parts.contains(Part.PAGES)) {
+      return region.toNamedList(pages);
+    }
+    NamedList out = region.toNamedList();
+    if (region.getPageId() != null) {
+      out.add("pageId", region.getPageId());
+    }
+    return out;
+  }
+
   @Override
   public int compareTo(OcrSnippet other) {
     return COMPARATOR.compare(this, other);
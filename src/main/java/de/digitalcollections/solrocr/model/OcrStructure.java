@@ -0,0 +1,350 @@
+package de.digitalcollections.solrocr.model;
+
+import de.digitalcollections.solrocr.iter.OffsetIndexBreakIterator;
+import de.digitalcollections.solrocr.model.SourcePointer.FileSource;
+import de.digitalcollections.solrocr.model.SourcePointer.Region;
+import de.digitalcollections.solrocr.util.SourceFiles;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.BreakIterator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * Offsets of the opening tags of the structural blocks (pages, blocks, lines, ...) of an OCR document.
+ *
+ * Recorded once when the document is indexed, so that the highlighter can determine passage boundaries and the page
+ * a passage starts on without scanning the content for tags. All offsets are byte offsets into the concatenated
+ * content of the document's sources, i.e. the offsets the highlighter works with. For every tag, both the offset of
+ * its opening <tt>&lt;</tt> and its closing <tt>&gt;</tt> are recorded, which is what's needed to give exactly the same
+ * breaks as the scanning iterators.
+ *
+ * At index time, words are not recorded, since they would make up the bulk of the data for little gain. Structures that
+ * are built at query time for documents without a recorded structure (see
+ * {@link de.digitalcollections.solrocr.util.OcrStructureCache}) include them. The identifiers and dimensions of pages
+ * are parsed lazily the first time a passage on the page is formatted and then kept along with the offsets.
+ */
+public class OcrStructure {
+  /** Blocks that are recorded at index time. */
+  public static final OcrBlock[] RECORDED_BLOCKS = {
+      OcrBlock.PAGE, OcrBlock.BLOCK, OcrBlock.SECTION, OcrBlock.PARAGRAPH, OcrBlock.LINE};
+  /** Rough size of a parsed page on the heap. */
+  private static final int PAGE_BYTES = 128;
+  /** Longer tags are only matched on their first bytes, the tag names and classes we look for come early. */
+  private static final int MAX_TAG_LENGTH = 8 * 1024;
+  /**
+   * Sources are always scanned completely, since the breaks for passages at the edges of a region can lie outside of
+   * it. If the regions of a pointer only cover a small part of its sources (e.g. an article in a volume), that would
+   * be too expensive and no structure is recorded.
+   */
+  private static final double MIN_REGION_COVERAGE = 0.5;
+
+  private final int contentLength;
+  private final Map<OcrBlock, IntBuffer> tagStarts;
+  private final Map<OcrBlock, IntBuffer> tagEnds;
+  private final AtomicReferenceArray<OcrPage> pages;
+
+  OcrStructure(int contentLength, Map<OcrBlock, int[]> tagStarts, Map<OcrBlock, int[]> tagEnds) {
+    this.contentLength = contentLength;
+    this.tagStarts = new EnumMap<>(OcrBlock.class);
+    this.tagEnds = new EnumMap<>(OcrBlock.class);
+    tagStarts.forEach((block, starts) -> {
+      this.tagStarts.put(block, IntBuffer.wrap(starts));
+      this.tagEnds.put(block, IntBuffer.wrap(tagEnds.get(block)));
+    });
+    this.pages = newPages();
+  }
+
+  private OcrStructure(int contentLength, Map<OcrBlock, IntBuffer> tagStarts, Map<OcrBlock, IntBuffer> tagEnds,
+                       AtomicReferenceArray<OcrPage> pages) {
+    this.contentLength = contentLength;
+    this.tagStarts = tagStarts;
+    this.tagEnds = tagEnds;
+    this.pages = pages;
+  }
+
+  private AtomicReferenceArray<OcrPage> newPages() {
+    IntBuffer pageStarts = tagStarts.get(OcrBlock.PAGE);
+    return pageStarts == null ? null : new AtomicReferenceArray<>(pageStarts.capacity());
+  }
+
+  /**
+   * Copy the offsets to a single buffer outside of the Java heap, for structures that are kept around for a long time
+   * and would otherwise add to the garbage collector's load. The memory is released once the copy is no longer
+   * referenced.
+   */
+  public OcrStructure toDirect() {
+    ByteBuffer buf = ByteBuffer.allocateDirect(getNumTags() * 2 * Integer.BYTES).order(ByteOrder.nativeOrder());
+    Map<OcrBlock, IntBuffer> directStarts = new EnumMap<>(OcrBlock.class);
+    Map<OcrBlock, IntBuffer> directEnds = new EnumMap<>(OcrBlock.class);
+    for (Map.Entry<OcrBlock, IntBuffer> entry : tagStarts.entrySet()) {
+      directStarts.put(entry.getKey(), copyTo(buf, entry.getValue()));
+      directEnds.put(entry.getKey(), copyTo(buf, tagEnds.get(entry.getKey())));
+    }
+    return new OcrStructure(contentLength, directStarts, directEnds, newPages());
+  }
+
+  private static IntBuffer copyTo(ByteBuffer buf, IntBuffer offsets) {
+    int numBytes = offsets.capacity() * Integer.BYTES;
+    ByteBuffer slice = buf.slice().order(ByteOrder.nativeOrder());
+    slice.limit(numBytes);
+    IntBuffer copy = slice.asIntBuffer();
+    copy.put(offsets.duplicate());
+    copy.rewind();
+    buf.position(buf.position() + numBytes);
+    return copy;
+  }
+
+  private int getNumTags() {
+    return tagStarts.values().stream().mapToInt(IntBuffer::capacity).sum();
+  }
+
+  /** Approximate number of bytes needed for the structure, including room for all of its pages once they're parsed. */
+  public long getByteSize() {
+    return getNumTags() * 2L * Integer.BYTES + (pages == null ? 0 : pages.length() * (long) PAGE_BYTES);
+  }
+
+  /** Length of the content the structure was recorded from, if it differs from the content at hand it is stale. */
+  public int getContentLength() {
+    return contentLength;
+  }
+
+  public boolean hasBlock(OcrBlock block) {
+    return tagStarts.containsKey(block);
+  }
+
+  /** Offsets of the opening <tt>&lt;</tt> of all tags of the block type, in ascending order. */
+  public int[] getTagStarts(OcrBlock block) {
+    return toArray(tagStarts.get(block));
+  }
+
+  /** Offsets of the closing <tt>&gt;</tt> of all tags of the block type, in ascending order. */
+  public int[] getTagEnds(OcrBlock block) {
+    return toArray(tagEnds.get(block));
+  }
+
+  private static int[] toArray(IntBuffer offsets) {
+    if (offsets == null) {
+      return null;
+    }
+    int[] out = new int[offsets.capacity()];
+    for (int i = 0; i < out.length; i++) {
+      out[i] = offsets.get(i);
+    }
+    return out;
+  }
+
+  /**
+   * Get the index of the page that contains the offset, i.e. of the last page whose tag ends at or before the
+   * offset, or <tt>-1</tt> if there is none.
+   */
+  public int getPageIndex(int offset) {
+    IntBuffer pageEnds = tagEnds.get(OcrBlock.PAGE);
+    if (pageEnds == null) {
+      return -1;
+    }
+    int idx = OffsetIndexBreakIterator.binarySearch(pageEnds, offset);
+    return idx >= 0 ? idx : -idx - 2;
+  }
+
+  /** Get the page at the index if it was already parsed, or <tt>null</tt> otherwise. */
+  public OcrPage getPage(int pageIdx) {
+    return pages.get(pageIdx);
+  }
+
+  /** Remember the parsed page at the index, so it doesn't have to be parsed from the content again. */
+  public void setPage(int pageIdx, OcrPage page) {
+    pages.set(pageIdx, page);
+  }
+
+  /** Get a {@link BreakIterator} that breaks on the starts of all blocks of the given type. */
+  public BreakIterator getBreakIterator(OcrBlock block) {
+    if (!hasBlock(block)) {
+      throw new IllegalArgumentException("No offsets recorded for blocks of type " + block);
+    }
+    return new OffsetIndexBreakIterator(tagStarts.get(block), tagEnds.get(block));
+  }
+
+  /**
+   * Record the structure of the content a pointer references by scanning its sources for the opening tags of blocks.
+   *
+   * @return the structure, or <tt>null</tt> if it can't be recorded for the pointer, e.g. because the format is
+   *         unknown or its regions cover too little of its sources
+   */
+  public static OcrStructure scan(SourcePointer ptr, OcrFormat format) throws IOException {
+    return scan(ptr, format, RECORDED_BLOCKS);
+  }
+
+  /**
+   * Record the structure of the content a pointer references for the given block types.
+   *
+   * @see #scan(SourcePointer, OcrFormat)
+   */
+  public static OcrStructure scan(SourcePointer ptr, OcrFormat format, OcrBlock... blocks) throws IOException {
+    if (!isScannable(ptr, format, blocks)) {
+      return null;
+    }
+    Map<OcrBlock, Predicate<String>> matchers = new EnumMap<>(OcrBlock.class);
+    for (OcrBlock block : blocks) {
+      Predicate<String> matcher = format.getBlockStartMatcher(block);
+      if (matcher != null) {
+        matchers.put(block, matcher);
+      }
+    }
+    long totalSize = ptr.sources.stream().mapToLong(src -> src.size).sum();
+
+    Map<OcrBlock, OffsetList> offsets = new EnumMap<>(OcrBlock.class);
+    matchers.keySet().forEach(b -> offsets.put(b, new OffsetList()));
+    byte[] buf = new byte[64 * 1024];
+    byte[] tag = new byte[MAX_TAG_LENGTH];
+    int tagStart = -1;
+    int tagLen = 0;
+    int base = 0;
+    for (FileSource src : ptr.sources) {
+      try (InputStream is = SourceFiles.openStream(src.path)) {
+        int pos = base;
+        int read;
+        while ((read = is.read(buf)) > 0) {
+          for (int i = 0; i < read; i++, pos++) {
+            byte b = buf[i];
+            if (b == '<') {
+              tagStart = pos;
+              tagLen = 0;
+            }
+            if (tagStart < 0) {
+              continue;
+            }
+            if (tagLen < tag.length) {
+              tag[tagLen++] = b;
+            }
+            if (b == '>') {
+              // Closing tags never start a block, no need to look at them
+              if (tagLen > 1 && tag[1] != '/') {
+                // Tag names and classes are ASCII, so we don't have to decode the tag properly
+                String tagStr = new String(tag, 0, tagLen, StandardCharsets.ISO_8859_1);
+                for (Map.Entry<OcrBlock, Predicate<String>> entry : matchers.entrySet()) {
+                  if (entry.getValue().test(tagStr)) {
+                    offsets.get(entry.getKey()).add(tagStart, pos);
+                  }
+                }
+              }
+              tagStart = -1;
+            }
+          }
+        }
+      }
+      base += (int) src.size;
+    }
+
+    Map<OcrBlock, int[]> starts = new EnumMap<>(OcrBlock.class);
+    Map<OcrBlock, int[]> ends = new EnumMap<>(OcrBlock.class);
+    offsets.forEach((block, list) -> {
+      starts.put(block, ArrayUtil.copyOfSubArray(list.starts, 0, list.size));
+      ends.put(block, ArrayUtil.copyOfSubArray(list.ends, 0, list.size));
+    });
+    return new OcrStructure((int) totalSize, starts, ends);
+  }
+
+  /** Whether {@link #scan} will be able to record a structure for the pointer. */
+  public static boolean isScannable(SourcePointer ptr, OcrFormat format, OcrBlock... blocks) {
+    if (format == null) {
+      return false;
+    }
+    long totalSize = 0;
+    for (FileSource src : ptr.sources) {
+      if (!src.regions.isEmpty() && regionCoverage(src) < MIN_REGION_COVERAGE * src.size) {
+        return false;
+      }
+      totalSize += src.size;
+    }
+    if (totalSize > Integer.MAX_VALUE) {
+      return false;
+    }
+    for (OcrBlock block : blocks) {
+      if (format.getBlockStartMatcher(block) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long regionCoverage(FileSource src) {
+    long covered = 0;
+    for (Region region : src.regions) {
+      covered += (region.end < 0 ? src.size : region.end) - region.start;
+    }
+    return covered;
+  }
+
+  /**
+   * Encode the structure, all integers are variable-length:
+   * <pre>
+   * contentLength numBlocks
+   * per block: block(byte) numTags
+   * per tag: (start - previousEnd - 1) (end - start)
+   * </pre>
+   */
+  public void encode(DataOutput out) throws IOException {
+    out.writeVInt(contentLength);
+    out.writeVInt(tagStarts.size());
+    for (Map.Entry<OcrBlock, IntBuffer> entry : tagStarts.entrySet()) {
+      IntBuffer starts = entry.getValue();
+      IntBuffer ends = tagEnds.get(entry.getKey());
+      out.writeByte((byte) entry.getKey().ordinal());
+      out.writeVInt(starts.capacity());
+      int prevEnd = -1;
+      for (int i = 0; i < starts.capacity(); i++) {
+        out.writeVInt(starts.get(i) - prevEnd - 1);
+        out.writeVInt(ends.get(i) - starts.get(i));
+        prevEnd = ends.get(i);
+      }
+    }
+  }
+
+  public static OcrStructure decode(DataInput in) throws IOException {
+    int contentLength = in.readVInt();
+    int numBlocks = in.readVInt();
+    Map<OcrBlock, int[]> tagStarts = new EnumMap<>(OcrBlock.class);
+    Map<OcrBlock, int[]> tagEnds = new EnumMap<>(OcrBlock.class);
+    for (int b = 0; b < numBlocks; b++) {
+      OcrBlock block = OcrBlock.values()[in.readByte()];
+      int numTags = in.readVInt();
+      int[] starts = new int[numTags];
+      int[] ends = new int[numTags];
+      int prevEnd = -1;
+      for (int i = 0; i < numTags; i++) {
+        starts[i] = prevEnd + 1 + in.readVInt();
+        ends[i] = starts[i] + in.readVInt();
+        prevEnd = ends[i];
+      }
+      tagStarts.put(block, starts);
+      tagEnds.put(block, ends);
+    }
+    return new OcrStructure(contentLength, tagStarts, tagEnds);
+  }
+
+  private static final class OffsetList {
+    int[] starts = new int[64];
+    int[] ends = new int[64];
+    int size = 0;
+
+    void add(int start, int end) {
+      if (size == starts.length) {
+        starts = ArrayUtil.grow(starts, size + 1);
+        ends = ArrayUtil.grow(ends, size + 1);
+      }
+      starts[size] = start;
+      ends[size] = end;
+      size++;
+    }
+  }
+}
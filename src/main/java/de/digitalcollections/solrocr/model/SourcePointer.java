@@ -1,13 +1,19 @@
 package de.digitalcollections.solrocr.model;
 
 import com.google.common.collect.ImmutableList;
+import de.digitalcollections.solrocr.storage.StorageRegistry;
+import de.digitalcollections.solrocr.util.SourceFiles;
+import de.digitalcollections.solrocr.util.SourcePointerCache;
+import de.digitalcollections.solrocr.util.ZipArchive;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -21,21 +27,77 @@ public class SourcePointer {
     public Path path;
     public List<Region> regions;
     public boolean isAscii;
+    /** Size of the content of the source in bytes, as determined when the pointer was parsed. */
+    public long size;
 
     public FileSource(Path path, List<Region> regions, boolean isAscii) throws IOException {
+      this(path, regions, isAscii, null);
+    }
+
+    /**
+     * @param cache Cache to look up the size of the source in, can be <tt>null</tt> to always determine it from the
+     *              source itself.
+     */
+    public FileSource(Path path, List<Region> regions, boolean isAscii, SourcePointerCache cache)
+        throws IOException {
+      this.path = path;
+      this.size = checkSource(path, cache);
+      this.regions = regions;
+      this.isAscii = isAscii;
+    }
+
+    /** Create a source that was already validated, e.g. when it was indexed, with its size at that time. */
+    public FileSource(Path path, List<Region> regions, boolean isAscii, long size) {
       this.path = path;
-      if (!path.toFile().exists()) {
-        String msg = String.format("File at %s does not exist, skipping.", path.toString());
+      this.size = size;
+      this.regions = regions;
+      this.isAscii = isAscii;
+    }
+
+    private static long checkSource(Path path, SourcePointerCache cache) throws IOException {
+      String location;
+      if (StorageRegistry.isRemote(path)) {
+        location = "Object at " + StorageRegistry.toUri(path);
+      } else if (ZipArchive.isZipEntry(path)) {
+        location = "Entry at " + path;
+      } else {
+        location = "File at " + path;
+      }
+      long size;
+      try {
+        size = cache != null ? cache.contentSize(path) : SourceFiles.contentSize(path);
+      } catch (FileNotFoundException | NoSuchFileException e) {
+        String msg = String.format("%s does not exist, skipping.", location);
         logger.warn(msg);
-        throw new IOException(msg);
+        throw new IOException(msg, e);
+      } catch (IOException e) {
+        String msg = String.format("%s could not be read, skipping: %s", location, e.getMessage());
+        logger.warn(msg);
+        throw new IOException(msg, e);
       }
-      if (path.toFile().length() == 0) {
-        String msg = String.format("File at %s is empty, skipping.", path.toString());
+      if (size == 0) {
+        String msg = String.format("%s is empty, skipping.", location);
         logger.warn(msg);
         throw new IOException(msg);
       }
-      this.regions = regions;
-      this.isAscii = isAscii;
+      return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      FileSource that = (FileSource) o;
+      return isAscii == that.isAscii && path.equals(that.path) && Objects.equals(regions, that.regions);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, regions, isAscii);
     }
   }
 
@@ -54,6 +116,23 @@ public class SourcePointer {
       this.startOffset = startOffset;
     }
 
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Region region = (Region) o;
+      return start == region.start && end == region.end && startOffset == region.startOffset;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(start, end, startOffset);
+    }
+
     @Override
     public String toString() {
       final StringBuffer sb = new StringBuffer("Region{");
@@ -67,6 +146,10 @@ public class SourcePointer {
 
 
   public List<FileSource> sources;
+  /** Format of the sources, if it was already determined at index time, otherwise <tt>null</tt>. */
+  public OcrFormat format;
+  /** Offsets of the structural blocks of the content, if they were recorded at index time, otherwise <tt>null</tt>. */
+  public OcrStructure structure;
 
   public static boolean isPointer(String pointer) {
     return Arrays.stream(pointer.split("\\+"))
@@ -77,33 +160,40 @@ public class SourcePointer {
   }
 
   public static SourcePointer parse(String pointer) {
-    if (!isPointer(pointer)) {
-      throw new RuntimeException("Could not parse pointer: " + pointer);
+    return parse(pointer, null);
+  }
+
+  /**
+   * Parse a source pointer and check that all of its sources can be read.
+   *
+   * @param cache Cache to look up the sizes of the sources in, can be <tt>null</tt>.
+   */
+  public static SourcePointer parse(String pointer, SourcePointerCache cache) {
+    String[] parts = pointer.split("\\+");
+    List<FileSource> fileSources = new ArrayList<>(parts.length);
+    for (String ptr : parts) {
+      Matcher m = POINTER_PAT.matcher(ptr);
+      if (!m.matches()) {
+        throw new RuntimeException("Could not parse pointer: " + pointer);
+      }
+      Path sourcePath = StorageRegistry.resolve(m.group("path"));
+      List<Region> regions = ImmutableList.of();
+      if (m.group("regions") != null) {
+        regions = Arrays.stream(m.group("regions").split(","))
+            .map(SourcePointer::parseRegion)
+            .sorted(Comparator.comparingInt(r -> r.start))
+            .collect(Collectors.toList());
+      }
+      try {
+        fileSources.add(new FileSource(sourcePath, regions, m.group("isAscii") != null, cache));
+      } catch (FileNotFoundException e) {
+        throw new RuntimeException(
+            "Could not locate file at '" + sourcePath.toString() + "', cannot index document.");
+      } catch (IOException e) {
+        throw new RuntimeException(
+            "Could not read file at '" + sourcePath.toString() + "', cannot index document.");
+      }
     }
-    List<FileSource> fileSources = Arrays.stream(pointer.split("\\+"))
-        .map(ptr -> {
-          Matcher m = POINTER_PAT.matcher(ptr);
-          if (!m.find()) {
-            throw new RuntimeException("Could not parse source pointer from '" + ptr + "', cannot index document.");
-          }
-          Path sourcePath = Paths.get(m.group("path"));
-          List<Region> regions = ImmutableList.of();
-          if (m.group("regions") != null) {
-            regions = Arrays.stream(m.group("regions").split(","))
-                .map(SourcePointer::parseRegion)
-                .sorted(Comparator.comparingInt(r -> r.start))
-                .collect(Collectors.toList());
-          }
-          try {
-            return new FileSource(sourcePath, regions, m.group("isAscii") != null);
-          } catch (FileNotFoundException e) {
-            throw new RuntimeException(
-                "Could not locate file at '" + sourcePath.toString() + "', cannot index document.");
-          } catch (IOException e) {
-            throw new RuntimeException(
-                "Could not read file at '" + sourcePath.toString() + "', cannot index document.");
-          }
-        }).collect(Collectors.toList());
     if (fileSources.isEmpty()) {
       return null;
     } else {
@@ -1,9 +1,11 @@
 package de.digitalcollections.solrocr.reader;
 
-import java.io.FileNotFoundException;
+import de.digitalcollections.solrocr.util.SourceFiles;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.LinkedList;
 import java.util.List;
@@ -11,18 +13,22 @@ import java.util.Queue;
 
 public class MultiFileReader extends Reader {
   private Queue<Path> remainingSources;
-  private FileReader currentReader;
+  private Reader currentReader;
 
-  public MultiFileReader(List<Path> sourcePaths) throws FileNotFoundException {
+  public MultiFileReader(List<Path> sourcePaths) throws IOException {
     for (Path path : sourcePaths) {
-      if (!path.toFile().exists()) {
-        throw new FileNotFoundException(String.format("File at %s could not be found", path));
-      } else if (path.toFile().isDirectory()) {
-        throw new FileNotFoundException(String.format("File at %s is a directory", path));
-      }
+      SourceFiles.checkReadable(path);
     }
     this.remainingSources = new LinkedList<>(sourcePaths);
-    this.currentReader = new FileReader(remainingSources.remove().toFile());
+    this.currentReader = openReader(remainingSources.remove());
+  }
+
+  /** Open a reader for a single file, block-compressed containers and ZIP entries are decompressed transparently. */
+  public static Reader openReader(Path path) throws IOException {
+    if (SourceFiles.isPacked(path)) {
+      return new InputStreamReader(SourceFiles.openStream(path), StandardCharsets.UTF_8);
+    }
+    return new FileReader(path.toFile());
   }
 
   @Override
@@ -32,17 +38,12 @@ public class MultiFileReader extends Reader {
       return -1;
     }
     int numRead = 0;
-    while (numRead < len && currentReader != null) {
+    while (len > 0 && currentReader != null) {
       int read = this.currentReader.read(cbuf, off, len);
-      if (read < len) {
-        if (this.remainingSources.isEmpty()) {
-          // No more readers, return what was read so far
-          this.currentReader = null;
-        } else {
-          this.currentReader = new FileReader(this.remainingSources.remove().toFile());
-        }
-      }
       if (read < 0) {
+        // Only switch to the next file once the current one is exhausted, readers can return less than requested
+        this.currentReader.close();
+        this.currentReader = this.remainingSources.isEmpty() ? null : openReader(this.remainingSources.remove());
         continue;
       }
       numRead += read;
@@ -0,0 +1,70 @@
+package de.digitalcollections.solrocr.solr;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.core.SolrCore;
+
+/**
+ * Keeps track of the cores that use the process-wide resources of the plugin and of the settings for these resources,
+ * e.g. the limit of the {@link de.digitalcollections.solrocr.util.MappedFileCache}.
+ *
+ * These settings are configured on the component of every core, but apply to the whole node. To prevent the last core
+ * that is loaded from silently overriding the settings of all others, cores with different names have to agree on
+ * them. A reloaded core has the same name as the core it replaces, so it can change the settings.
+ */
+final class NodeSettings {
+  // Guarded by the class
+  private static final Map<SolrCore, Map<String, String>> settingsByCore = new IdentityHashMap<>();
+  private static final Map<String, String> applied = new HashMap<>();
+
+  private NodeSettings() {
+  }
+
+  /** Register a core as a user of the shared resources. */
+  static synchronized void register(SolrCore core) {
+    settingsByCore.putIfAbsent(core, new HashMap<>());
+  }
+
+  /**
+   * Set a node-level setting for the core.
+   *
+   * @return whether the value differs from the one that is currently in effect and has to be applied by the caller
+   * @throws SolrException if another core uses a different value for the setting
+   */
+  static synchronized boolean set(SolrCore core, String key, String value) {
+    for (Map.Entry<SolrCore, Map<String, String>> entry : settingsByCore.entrySet()) {
+      SolrCore other = entry.getKey();
+      String otherValue = entry.getValue().get(key);
+      if (other == core || other.getName().equals(core.getName()) || otherValue == null) {
+        continue;
+      }
+      if (!otherValue.equals(value)) {
+        throw new SolrException(
+            SolrException.ErrorCode.SERVER_ERROR,
+            // Values are not included, since they can contain credentials
+            String.format(
+                "'%s' applies to all cores of the node, but cores '%s' and '%s' use different values for it.",
+                key, other.getName(), core.getName()));
+      }
+    }
+    settingsByCore.computeIfAbsent(core, c -> new HashMap<>()).put(key, value);
+    return !Objects.equals(applied.put(key, value), value);
+  }
+
+  /**
+   * Unregister a closed core.
+   *
+   * @return whether it was the last registered core, i.e. the shared resources can be released
+   */
+  static synchronized boolean release(SolrCore core) {
+    settingsByCore.remove(core);
+    if (!settingsByCore.isEmpty()) {
+      return false;
+    }
+    applied.clear();
+    return true;
+  }
+}
@@ -0,0 +1,143 @@
+package de.digitalcollections.solrocr.solr;
+
+import de.digitalcollections.solrocr.model.OcrSnippet;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.TreeSet;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.params.HighlightParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Keys and entries of the Solr cache for formatted OCR snippets.
+ *
+ * The cache is a regular user cache of the searcher that has to be declared in the <tt>&lt;query&gt;</tt> section of
+ * <tt>solrconfig.xml</tt> under the name {@value #NAME}, e.g.:
+ *
+ * <pre>
+ * &lt;cache name="ocrHighlightCache" class="solr.CaffeineCache" size="4096" autowarmCount="256"
+ *        regenerator="de.digitalcollections.solrocr.solr.OcrHighlightCacheRegenerator"/&gt;
+ * </pre>
+ *
+ * Since the cache belongs to a searcher, its entries are dropped with the searcher, unless they are autowarmed by the
+ * {@link OcrHighlightCacheRegenerator}.
+ */
+public final class OcrHighlightCache {
+  public static final String NAME = "ocrHighlightCache";
+
+  private OcrHighlightCache() {
+  }
+
+  /** Get the snippet cache of the searcher, or <tt>null</tt> if none is configured. */
+  @SuppressWarnings("unchecked")
+  public static SolrCache<Key, Entry> get(IndexSearcher searcher) {
+    if (!(searcher instanceof SolrIndexSearcher)) {
+      return null;
+    }
+    return ((SolrIndexSearcher) searcher).getCache(NAME);
+  }
+
+  /**
+   * Get the highlighting parameters that determine the snippets of a field, in a normalized order.
+   *
+   * All <tt>hl.*</tt> parameters and their per-field variants are relevant, except for those that only determine
+   * which fields are highlighted, how long highlighting may take or how the snippets are written to the response.
+   */
+  public static SolrParams relevantParams(SolrParams params) {
+    TreeSet<String> names = new TreeSet<>();
+    Iterator<String> it = params.getParameterNamesIterator();
+    while (it.hasNext()) {
+      String name = it.next();
+      if (name.startsWith("hl.") || (name.startsWith("f.") && name.contains(".hl."))) {
+        names.add(name);
+      }
+    }
+    names.remove(HighlightParams.FIELDS);
+    names.remove(OcrHighlightParams.OCR_FIELDS);
+    names.remove(OcrHighlightParams.TIME_ALLOWED);
+    names.remove(OcrHighlightParams.FORMAT);
+    ModifiableSolrParams out = new ModifiableSolrParams();
+    for (String name : names) {
+      out.set(name, params.getParams(name));
+    }
+    return out;
+  }
+
+  /** Identifies the snippets of a field in a document for a query and set of highlighting parameters. */
+  public static final class Key {
+    /** Version of the index the document identifier refers to */
+    public final long indexVersion;
+    public final int docId;
+    public final String field;
+    public final Query query;
+    public final int maxPassages;
+    /** Normalized highlighting parameters, see {@link #relevantParams(SolrParams)} */
+    public final SolrParams params;
+    private final String paramString;
+    private final int hash;
+
+    public Key(long indexVersion, int docId, String field, Query query, int maxPassages, SolrParams params) {
+      this.indexVersion = indexVersion;
+      this.docId = docId;
+      this.field = field;
+      this.query = query;
+      this.maxPassages = maxPassages;
+      this.params = params;
+      this.paramString = params.toQueryString();
+      this.hash = Objects.hash(indexVersion, docId, field, query, maxPassages, paramString);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key other = (Key) o;
+      return indexVersion == other.indexVersion
+          && docId == other.docId
+          && maxPassages == other.maxPassages
+          && field.equals(other.field)
+          && query.equals(other.query)
+          && paramString.equals(other.paramString);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Key{indexVersion=%d, docId=%d, field='%s', query='%s', maxPassages=%d, params='%s'}",
+                           indexVersion, docId, field, query, maxPassages, paramString);
+    }
+  }
+
+  /** Formatted snippets of a field in a document, along with the total number of matching passages. */
+  public static final class Entry {
+    /** Snippets of the field, can be <tt>null</tt> if there were no matches */
+    public final OcrSnippet[] snippets;
+    public final int numTotal;
+    /** Readable unique key of the document, used to find it again in new searchers, can be <tt>null</tt> */
+    public final String uniqueKey;
+
+    public Entry(OcrSnippet[] snippets, int numTotal, String uniqueKey) {
+      this.snippets = snippets;
+      this.numTotal = numTotal;
+      this.uniqueKey = uniqueKey;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Entry{numSnippets=%d, numTotal=%d, uniqueKey='%s'}",
+                           snippets == null ? 0 : snippets.length, numTotal, uniqueKey);
+    }
+  }
+}
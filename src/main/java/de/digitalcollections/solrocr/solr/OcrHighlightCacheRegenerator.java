@@ -0,0 +1,56 @@
+package de.digitalcollections.solrocr.solr;
+
+import de.digitalcollections.solrocr.lucene.OcrHighlighter;
+import java.io.IOException;
+import java.util.HashMap;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.CacheRegenerator;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Autowarms the {@link OcrHighlightCache} of a new searcher with the most recently used entries of the old one.
+ *
+ * Document identifiers change between searchers, so the documents are looked up again by their unique key and
+ * highlighted on the new searcher with the original query and parameters. Highlighting a document stores its
+ * snippets in the cache of the new searcher. Documents that were deleted or whose field values changed are thus
+ * handled like on any other request.
+ */
+public class OcrHighlightCacheRegenerator implements CacheRegenerator {
+  @Override
+  @SuppressWarnings("rawtypes")
+  public boolean regenerateItem(SolrIndexSearcher newSearcher, SolrCache newCache, SolrCache oldCache,
+                                Object oldKey, Object oldVal) throws IOException {
+    OcrHighlightCache.Key key = (OcrHighlightCache.Key) oldKey;
+    OcrHighlightCache.Entry entry = (OcrHighlightCache.Entry) oldVal;
+    SchemaField uniqueKeyField = newSearcher.getSchema().getUniqueKeyField();
+    SolrOcrHighlighter solrHighlighter = getOcrHighlighter(newSearcher);
+    if (entry.uniqueKey == null || uniqueKeyField == null || solrHighlighter == null) {
+      // Nothing we can do for this entry, but maybe for the next one
+      return true;
+    }
+    BytesRefBuilder indexedKey = new BytesRefBuilder();
+    uniqueKeyField.getType().readableToIndexed(entry.uniqueKey, indexedKey);
+    int docId = newSearcher.getFirstMatch(new Term(uniqueKeyField.getName(), indexedKey.get()));
+    if (docId < 0) {
+      return true;
+    }
+    OcrHighlighter highlighter = solrHighlighter.createOcrHighlighter(newSearcher, key.params);
+    highlighter.highlightOcrFields(
+        new String[]{key.field}, key.query, new int[]{docId}, new int[]{key.maxPassages}, new HashMap<>());
+    return true;
+  }
+
+  private static SolrOcrHighlighter getOcrHighlighter(SolrIndexSearcher searcher) {
+    for (String name : searcher.getCore().getSearchComponents().keySet()) {
+      SearchComponent component = searcher.getCore().getSearchComponents().get(name);
+      if (component instanceof OcrHighlightComponent) {
+        return ((OcrHighlightComponent) component).getOcrHighlighter();
+      }
+    }
+    return null;
+  }
+}
@@ -1,8 +1,24 @@
 package de.digitalcollections.solrocr.solr;
 
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.digitalcollections.solrocr.iter.BlockCacheCharIterator;
+import de.digitalcollections.solrocr.iter.ByteCharIteratorFactory;
+import de.digitalcollections.solrocr.storage.RemoteBlockCache;
+import de.digitalcollections.solrocr.storage.S3RangeFetcher;
+import de.digitalcollections.solrocr.storage.StorageRegistry;
+import de.digitalcollections.solrocr.util.BlockCache;
+import de.digitalcollections.solrocr.util.MappedFileCache;
+import de.digitalcollections.solrocr.util.OcrStructureCache;
 import de.digitalcollections.solrocr.util.PageCacheWarmer;
+import de.digitalcollections.solrocr.util.SourcePointerCache;
 import de.digitalcollections.solrocr.lucene.OcrHighlighter;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.apache.lucene.search.Query;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.ModifiableSolrParams;
@@ -10,15 +26,26 @@ import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.core.CloseHook;
 import org.apache.solr.core.PluginInfo;
+import org.apache.solr.core.SolrInfoBean;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.ShardRequest;
 import org.apache.solr.handler.component.ShardResponse;
+import org.apache.solr.metrics.MetricsMap;
+import org.apache.solr.metrics.SolrMetricsContext;
+import org.apache.solr.metrics.SolrMetricProducer;
 import org.apache.solr.request.SolrQueryRequest;
 
-public class OcrHighlightComponent extends org.apache.solr.handler.component.HighlightComponent {
+public class OcrHighlightComponent extends org.apache.solr.handler.component.HighlightComponent
+    implements SolrMetricProducer {
   private PluginInfo info;
   private SolrOcrHighlighter ocrHighlighter;
+  private BlockCache blockCache;
+  private ExecutorService loadExecutor;
+  private PageCacheWarmer cacheWarmer;
+  private SourcePointerCache pointerCache;
+  private OcrStructureCache structureCache;
+  private SolrMetricsContext metricsContext;
 
   @Override
   public String getDescription() {
@@ -33,23 +60,299 @@ public class OcrHighlightComponent extends org.apache.solr.handler.component.Hig
   @Override
   public void inform(SolrCore core) {
     super.inform(core);
-    this.ocrHighlighter = new SolrOcrHighlighter();
-    if ("true".equals(info.attributes.getOrDefault("enablePreload", "false"))) {
-      PageCacheWarmer.enable(
-          Integer.parseInt(info.attributes.getOrDefault("preloadReadSize", "32768")),
-          Integer.parseInt(info.attributes.getOrDefault("preloadConcurrency", "8")));
+    NodeSettings.register(core);
+    try {
+      configure(core);
+    } catch (RuntimeException e) {
+      // The close hook is not registered yet, don't leave any threads or node settings behind
+      release(core);
+      throw e;
     }
 
-    // Shut down the cache warming threads after closing of the core
+    // Shut down the background threads and close cached files and blocks after closing of the core
     core.addCloseHook(new CloseHook() {
       @Override
       public void preClose(SolrCore core) { }
 
       @Override
       public void postClose(SolrCore core) {
-        PageCacheWarmer.getInstance().ifPresent(PageCacheWarmer::shutdown);
+        release(core);
+      }
+    });
+  }
+
+  private void configure(SolrCore core) {
+    // Node-level settings go first, since they fail if they conflict with the settings of other cores. The mapped
+    // files are shared by all cores, so their limit applies to the whole node.
+    if (info.attributes.containsKey("maxOpenFiles")
+        && NodeSettings.set(core, "maxOpenFiles", info.attributes.get("maxOpenFiles"))) {
+      MappedFileCache.getInstance().setMaxOpenFiles(Integer.parseInt(info.attributes.get("maxOpenFiles")));
+    }
+    configureRemoteStorage(core);
+
+    ByteCharIteratorFactory iterFactory;
+    String ioEngine = info.attributes.getOrDefault("ioEngine", "mmap");
+    if ("blockcache".equals(ioEngine)) {
+      this.blockCache = new BlockCache(
+          Integer.parseInt(info.attributes.getOrDefault(
+              "blockSize", String.valueOf(BlockCache.DEFAULT_BLOCK_SIZE))),
+          Long.parseLong(info.attributes.getOrDefault(
+              "blockCacheMaxRamMB", String.valueOf(BlockCache.DEFAULT_MAX_BYTES / (1024 * 1024)))) * 1024 * 1024);
+      BlockCache cache = this.blockCache;
+      iterFactory = (path, charset, ptr) -> new BlockCacheCharIterator(path, charset, ptr, cache);
+    } else if ("mmap".equals(ioEngine)) {
+      iterFactory = ByteCharIteratorFactory.MMAP;
+    } else {
+      throw new SolrException(
+          SolrException.ErrorCode.SERVER_ERROR,
+          String.format("Unknown ioEngine '%s', must be one of 'mmap' or 'blockcache'.", ioEngine));
+    }
+    int loadLookahead = Integer.parseInt(info.attributes.getOrDefault("loadLookahead", "4"));
+    int loadConcurrency = Integer.parseInt(info.attributes.getOrDefault("loadConcurrency", "0"));
+    if (loadLookahead > 0 && loadConcurrency > 0) {
+      // Loads that don't fit into the queue are rejected and performed on the request thread instead
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          loadConcurrency, loadConcurrency, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(loadConcurrency * loadLookahead),
+          new ThreadFactoryBuilder().setNameFormat("solr-ocrhighlighting-loader-%d").setDaemon(true).build());
+      executor.allowCoreThreadTimeOut(true);
+      this.loadExecutor = executor;
+    }
+    if ("true".equals(info.attributes.getOrDefault("enablePreload", "false"))) {
+      String preloadMode = info.attributes.getOrDefault("preloadMode", "full");
+      int hitWindow;
+      if ("hits".equals(preloadMode)) {
+        hitWindow = Integer.parseInt(info.attributes.getOrDefault("preloadHitWindow", "16384"));
+      } else if ("full".equals(preloadMode)) {
+        hitWindow = 0;
+      } else {
+        throw new SolrException(
+            SolrException.ErrorCode.SERVER_ERROR,
+            String.format("Unknown preloadMode '%s', must be one of 'full' or 'hits'.", preloadMode));
+      }
+      // Read size and concurrency are adapted at runtime if a range is configured for them
+      String readSize = info.attributes.getOrDefault("preloadReadSize", "32768");
+      String concurrency = info.attributes.getOrDefault("preloadConcurrency", "8");
+      this.cacheWarmer = new PageCacheWarmer(
+          Integer.parseInt(readSize),
+          Integer.parseInt(info.attributes.getOrDefault("preloadMaxReadSize", readSize)),
+          Integer.parseInt(info.attributes.getOrDefault("preloadMinConcurrency", concurrency)),
+          Integer.parseInt(concurrency),
+          hitWindow);
+    }
+    int pointerCacheSize = Integer.parseInt(info.attributes.getOrDefault(
+        "sourceCacheSize", String.valueOf(SourcePointerCache.DEFAULT_MAX_POINTERS)));
+    if (pointerCacheSize > 0) {
+      this.pointerCache = new SourcePointerCache(
+          pointerCacheSize,
+          Integer.parseInt(info.attributes.getOrDefault(
+              "sourceCacheMaxFiles", String.valueOf(SourcePointerCache.DEFAULT_MAX_FILES))),
+          Long.parseLong(info.attributes.getOrDefault(
+              "sourceCacheTtlSeconds", String.valueOf(SourcePointerCache.DEFAULT_TTL_MS / 1000))) * 1000);
+    }
+    long structureCacheBytes = Long.parseLong(info.attributes.getOrDefault(
+        "structureCacheMaxRamMB", String.valueOf(OcrStructureCache.DEFAULT_MAX_BYTES / (1024 * 1024)))) * 1024 * 1024;
+    if (structureCacheBytes > 0) {
+      this.structureCache = new OcrStructureCache(
+          structureCacheBytes,
+          Integer.parseInt(info.attributes.getOrDefault(
+              "sourceCacheMaxFiles", String.valueOf(SourcePointerCache.DEFAULT_MAX_FILES))),
+          Long.parseLong(info.attributes.getOrDefault(
+              "sourceCacheTtlSeconds", String.valueOf(SourcePointerCache.DEFAULT_TTL_MS / 1000))) * 1000);
+    }
+    this.ocrHighlighter = new SolrOcrHighlighter(
+        iterFactory, loadExecutor, loadLookahead, cacheWarmer, pointerCache, structureCache);
+  }
+
+  /** Shut down the background threads of the core and release its caches and its share of the node's resources. */
+  private void release(SolrCore core) {
+    if (cacheWarmer != null) {
+      cacheWarmer.shutdown();
+    }
+    if (loadExecutor != null) {
+      loadExecutor.shutdown();
+    }
+    if (NodeSettings.release(core)) {
+      // Mapped files and remote blocks are shared by all cores, only release them with the last one
+      MappedFileCache.getInstance().clear();
+      MappedFileCache.getInstance().setMaxOpenFiles(MappedFileCache.DEFAULT_MAX_OPEN_FILES);
+      StorageRegistry.getInstance().clear();
+    }
+    if (blockCache != null) {
+      blockCache.clear();
+    }
+    if (pointerCache != null) {
+      pointerCache.clear();
+    }
+    if (structureCache != null) {
+      structureCache.clear();
+    }
+  }
+
+  /**
+   * Configure the process-wide access to OCR files in remote storage, if any of the options are set.
+   *
+   * The block cache and the fetchers are shared by all cores of the node, so cores must agree on their settings. Cores
+   * with the same settings share a single cache, which also keeps them from evicting each other's blocks on disk.
+   */
+  private void configureRemoteStorage(SolrCore core) {
+    StorageRegistry registry = StorageRegistry.getInstance();
+    if (info.attributes.containsKey("remoteBlockSize") || info.attributes.containsKey("remoteCacheMaxRamMB")
+        || info.attributes.containsKey("remoteDiskCacheDir")) {
+      int blockSize = Integer.parseInt(info.attributes.getOrDefault(
+          "remoteBlockSize", String.valueOf(RemoteBlockCache.DEFAULT_BLOCK_SIZE)));
+      long maxRamMb = Long.parseLong(info.attributes.getOrDefault(
+          "remoteCacheMaxRamMB", String.valueOf(RemoteBlockCache.DEFAULT_MAX_BYTES / (1024 * 1024))));
+      String diskDir = info.attributes.get("remoteDiskCacheDir");
+      long diskMaxMb = Long.parseLong(info.attributes.getOrDefault("remoteDiskCacheMaxMB", "1024"));
+      String cacheSettings = String.format(
+          "blockSize=%d, maxRamMB=%d, diskDir=%s, diskMaxMB=%d", blockSize, maxRamMb, diskDir, diskMaxMb);
+      if (NodeSettings.set(core, "remoteBlockCache", cacheSettings)) {
+        try {
+          registry.setBlockCache(new RemoteBlockCache(
+              blockSize, maxRamMb * 1024 * 1024, diskDir == null ? null : Paths.get(diskDir),
+              diskMaxMb * 1024 * 1024));
+        } catch (IOException e) {
+          throw new SolrException(
+              SolrException.ErrorCode.SERVER_ERROR,
+              String.format("Could not create remote disk cache at '%s': %s", diskDir, e.getMessage()), e);
+        }
       }
+    }
+    if (info.attributes.containsKey("remoteStatTtlSeconds")
+        && NodeSettings.set(core, "remoteStatTtlSeconds", info.attributes.get("remoteStatTtlSeconds"))) {
+      registry.setStatTtl(Long.parseLong(info.attributes.get("remoteStatTtlSeconds")) * 1000);
+    }
+    if (info.attributes.containsKey("s3Endpoint")) {
+      String endpoint = info.attributes.get("s3Endpoint");
+      String region = info.attributes.getOrDefault("s3Region", "us-east-1");
+      String accessKey = info.attributes.getOrDefault("s3AccessKey", System.getenv("AWS_ACCESS_KEY_ID"));
+      String secretKey = info.attributes.getOrDefault("s3SecretKey", System.getenv("AWS_SECRET_ACCESS_KEY"));
+      // There is only a single fetcher for the s3 scheme, so all cores have to use the same credentials
+      if (NodeSettings.set(core, "s3", String.join("\n", endpoint, region, accessKey, secretKey))) {
+        registry.register(new S3RangeFetcher(endpoint, region, accessKey, secretKey));
+      }
+    }
+  }
+
+  /** Get the highlighter of the component, or <tt>null</tt> if the component was not informed about its core yet. */
+  SolrOcrHighlighter getOcrHighlighter() {
+    return ocrHighlighter;
+  }
+
+  @Override
+  public void initializeMetrics(SolrMetricsContext parentContext, String scope) {
+    this.metricsContext = parentContext.getChildContext(this);
+    MetricsMap mappedFileStats = new MetricsMap((detailed, map) -> {
+      MappedFileCache cache = MappedFileCache.getInstance();
+      map.put("hits", cache.getHits());
+      map.put("misses", cache.getMisses());
+      map.put("evictions", cache.getEvictions());
+      map.put("openFiles", cache.getNumOpenFiles());
+      map.put("maxOpenFiles", cache.getMaxOpenFiles());
+    });
+    metricsContext.gauge(this, mappedFileStats, true, "mappedFileCache", getCategory().toString(), scope);
+    MetricsMap blockCacheStats = new MetricsMap((detailed, map) -> {
+      BlockCache cache = this.blockCache;
+      if (cache == null) {
+        return;
+      }
+      map.put("hits", cache.getHits());
+      map.put("misses", cache.getMisses());
+      map.put("evictions", cache.getEvictions());
+      map.put("bytesRead", cache.getBytesRead());
+      map.put("cachedBlocks", cache.getNumCachedBlocks());
+      map.put("blockSize", cache.getBlockSize());
+      map.put("maxRamBytes", cache.getMaxBytes());
+    });
+    metricsContext.gauge(this, blockCacheStats, true, "blockCache", getCategory().toString(), scope);
+    MetricsMap warmerStats = new MetricsMap((detailed, map) -> {
+      PageCacheWarmer warmer = this.cacheWarmer;
+      if (warmer == null) {
+        return;
+      }
+      map.put("queueDepth", warmer.getQueueDepth());
+      map.put("running", warmer.getNumRunning());
+      map.put("scheduled", warmer.getNumScheduled());
+      map.put("deduplicated", warmer.getNumDeduplicated());
+      map.put("dropped", warmer.getNumDropped());
+      map.put("cancelled", warmer.getNumCancelled());
+      map.put("completed", warmer.getNumCompleted());
+      map.put("bytesRead", warmer.getBytesRead());
+      map.put("hits", warmer.getHits());
+      map.put("misses", warmer.getMisses());
+      map.put("concurrency", warmer.getConcurrency());
+      map.put("readSize", warmer.getReadSize());
+      map.put("readLatencyMs", warmer.getReadLatencyMillis());
+      map.put("throughputBytesPerSec", warmer.getThroughput());
+      map.put("increases", warmer.getNumIncreases());
+      map.put("decreases", warmer.getNumDecreases());
     });
+    metricsContext.gauge(this, warmerStats, true, "pageCacheWarmer", getCategory().toString(), scope);
+    MetricsMap remoteStats = new MetricsMap((detailed, map) -> {
+      RemoteBlockCache cache = StorageRegistry.getInstance().getBlockCache();
+      map.put("hits", cache.getHits());
+      map.put("diskHits", cache.getDiskHits());
+      map.put("misses", cache.getMisses());
+      map.put("joined", cache.getJoined());
+      map.put("fetches", cache.getFetches());
+      map.put("bytesFetched", cache.getBytesFetched());
+      map.put("cachedBlocks", cache.getNumCachedBlocks());
+      map.put("blockSize", cache.getBlockSize());
+      map.put("maxRamBytes", cache.getMaxBytes());
+      map.put("diskBytes", cache.getDiskBytes());
+    });
+    metricsContext.gauge(this, remoteStats, true, "remoteStorage", getCategory().toString(), scope);
+    // Same statistics as Solr's own caches, so it can be monitored alongside them
+    MetricsMap pointerCacheStats = new MetricsMap((detailed, map) -> {
+      SourcePointerCache cache = this.pointerCache;
+      if (cache == null) {
+        return;
+      }
+      CacheStats pointerStats = cache.getPointerStats();
+      map.put("lookups", pointerStats.requestCount());
+      map.put("hits", pointerStats.hitCount());
+      map.put("hitratio", pointerStats.hitRate());
+      map.put("evictions", pointerStats.evictionCount());
+      map.put("size", cache.getNumPointers());
+      CacheStats fileStats = cache.getFileStats();
+      map.put("fileLookups", fileStats.requestCount());
+      map.put("fileHits", fileStats.hitCount());
+      map.put("fileHitratio", fileStats.hitRate());
+      map.put("fileEvictions", fileStats.evictionCount());
+      map.put("fileSize", cache.getNumFiles());
+      map.put("missingFileHits", cache.getNegativeHits());
+    });
+    metricsContext.gauge(this, pointerCacheStats, true, "sourcePointerCache",
+        SolrInfoBean.Category.CACHE.toString(), scope);
+    MetricsMap structureCacheStats = new MetricsMap((detailed, map) -> {
+      OcrStructureCache cache = this.structureCache;
+      if (cache == null) {
+        return;
+      }
+      CacheStats stats = cache.getStats();
+      map.put("lookups", stats.requestCount());
+      map.put("hits", stats.hitCount());
+      map.put("hitratio", stats.hitRate());
+      map.put("evictions", stats.evictionCount());
+      map.put("size", cache.getNumStructures());
+      map.put("ramBytesUsed", cache.getBytesUsed());
+      map.put("maxRamBytes", cache.getMaxBytes());
+    });
+    metricsContext.gauge(this, structureCacheStats, true, "ocrStructureCache",
+        SolrInfoBean.Category.CACHE.toString(), scope);
+  }
+
+  @Override
+  public SolrMetricsContext getSolrMetricsContext() {
+    return metricsContext;
+  }
+
+  @Override
+  public void close() {
+    if (metricsContext != null) {
+      metricsContext.unregister();
+    }
   }
 
   @Override
@@ -12,4 +12,6 @@ public interface OcrHighlightParams extends HighlightParams {
   String ABSOLUTE_HIGHLIGHTS = "hl.ocr.absoluteHighlights";
   String MAX_OCR_PASSAGES = "hl.ocr.maxPassages";
   String TIME_ALLOWED = "hl.ocr.timeAllowed";
+  String INCLUDE = "hl.ocr.include";
+  String FORMAT = "hl.ocr.format";
 }
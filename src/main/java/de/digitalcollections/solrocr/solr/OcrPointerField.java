@@ -0,0 +1,220 @@
+package de.digitalcollections.solrocr.solr;
+
+import com.google.common.collect.ImmutableList;
+import de.digitalcollections.solrocr.formats.alto.AltoFormat;
+import de.digitalcollections.solrocr.formats.hocr.HocrFormat;
+import de.digitalcollections.solrocr.formats.mini.MiniOcrFormat;
+import de.digitalcollections.solrocr.model.OcrFormat;
+import de.digitalcollections.solrocr.model.OcrStructure;
+import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.model.SourcePointer.FileSource;
+import de.digitalcollections.solrocr.model.SourcePointer.Region;
+import de.digitalcollections.solrocr.util.SourceFiles;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.IOUtils;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.TextField;
+
+/**
+ * Text field type for OCR fields that are indexed from source pointers.
+ *
+ * Behaves exactly like a {@link TextField} (i.e. the analyzer still has to read the OCR via the
+ * {@link de.digitalcollections.solrocr.lucene.filters.ExternalUtf8ContentFilterFactory}), but validates the pointer
+ * when the document is indexed and additionally stores it in a compact binary form in the field's
+ * {@link BinaryDocValues}, along with the sizes of the files, the OCR format and the {@link OcrStructure} of the
+ * content. The highlighter reads pointers from there with a single doc values lookup, instead of loading the stored
+ * fields and parsing the pointer, and uses the structure to find passage boundaries and pages without scanning the
+ * content for tags. Since doc values can only hold a single value per document, so can fields of this type.
+ *
+ * Encoding, all integers are variable-length:
+ * <pre>
+ * version(byte) format(byte) numSources
+ * per source: flags(byte) sharedPathPrefixLen pathSuffixLen pathSuffix(utf8) size numRegions
+ * per region: startDelta (end - start + 1, or 0 for an open end)
+ * hasStructure(byte) [structure, see {@link OcrStructure#encode}]
+ * </pre>
+ * Paths share their common prefix with the path of the previous source, which usually is most of the path for
+ * documents that span many pages.
+ */
+public class OcrPointerField extends TextField {
+  private static final byte VERSION = 2;
+  private static final byte FLAG_ASCII = 1;
+  private static final int FORMAT_SAMPLE_SIZE = 4096;
+
+  /** Formats by their identifier in the encoding, <tt>0</tt> is reserved for an unknown format. */
+  private static final List<OcrFormat> FORMATS = ImmutableList.of(
+      new HocrFormat(),
+      new AltoFormat(),
+      new MiniOcrFormat());
+
+  @Override
+  public void checkSchemaField(SchemaField field) {
+    super.checkSchemaField(field);
+    if (field.multiValued()) {
+      throw new SolrException(
+          SolrException.ErrorCode.SERVER_ERROR,
+          String.format(
+              "Field '%s' of type %s can't be multiValued, the pointer is kept in single-valued doc values.",
+              field.getName(), getClass().getSimpleName()));
+    }
+  }
+
+  @Override
+  public List<IndexableField> createFields(SchemaField field, Object value) {
+    List<IndexableField> fields = new ArrayList<>(super.createFields(field, value));
+    String pointer = value.toString();
+    if (!SourcePointer.isPointer(pointer)) {
+      // OCR stored as text, nothing to do for us
+      return fields;
+    }
+    SourcePointer ptr;
+    try {
+      ptr = SourcePointer.parse(pointer);
+    } catch (RuntimeException e) {
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, e.getMessage(), e);
+    }
+    if (ptr == null) {
+      return fields;
+    }
+    OcrFormat format = detectFormat(ptr);
+    try {
+      ptr.structure = OcrStructure.scan(ptr, format);
+    } catch (IOException e) {
+      throw new SolrException(
+          SolrException.ErrorCode.BAD_REQUEST,
+          String.format("Could not read '%s': %s", pointer, e.getMessage()), e);
+    }
+    fields.add(new BinaryDocValuesField(field.getName(), encode(ptr, format)));
+    return fields;
+  }
+
+  /** Determine the format from the beginning of the first source, like the highlighter does. */
+  private static OcrFormat detectFormat(SourcePointer ptr) {
+    try (InputStream is = SourceFiles.openStream(ptr.sources.get(0).path)) {
+      byte[] buf = new byte[FORMAT_SAMPLE_SIZE];
+      int len = IOUtils.read(is, buf);
+      String sample = new String(buf, 0, len, StandardCharsets.UTF_8);
+      return FORMATS.stream().filter(f -> f.hasFormat(sample)).findFirst().orElse(null);
+    } catch (IOException e) {
+      throw new SolrException(
+          SolrException.ErrorCode.BAD_REQUEST,
+          String.format("Could not read '%s': %s", ptr.sources.get(0).path, e.getMessage()), e);
+    }
+  }
+
+  /** Encode a pointer with its structure and the format of its sources (can be <tt>null</tt> if unknown). */
+  public static BytesRef encode(SourcePointer ptr, OcrFormat format) {
+    ByteBuffersDataOutput out = new ByteBuffersDataOutput();
+    try {
+      out.writeByte(VERSION);
+      out.writeByte(formatId(format));
+      out.writeVInt(ptr.sources.size());
+      byte[] prevPath = new byte[0];
+      for (FileSource src : ptr.sources) {
+        byte[] path = src.path.toString().getBytes(StandardCharsets.UTF_8);
+        int shared = 0;
+        int maxShared = Math.min(path.length, prevPath.length);
+        while (shared < maxShared && path[shared] == prevPath[shared]) {
+          shared++;
+        }
+        out.writeByte(src.isAscii ? FLAG_ASCII : 0);
+        out.writeVInt(shared);
+        out.writeVInt(path.length - shared);
+        out.writeBytes(path, shared, path.length - shared);
+        out.writeVLong(src.size);
+        out.writeVInt(src.regions.size());
+        int prevStart = 0;
+        for (Region region : src.regions) {
+          out.writeVInt(region.start - prevStart);
+          out.writeVInt(region.end < 0 ? 0 : region.end - region.start + 1);
+          prevStart = region.start;
+        }
+        prevPath = path;
+      }
+      out.writeByte(ptr.structure != null ? (byte) 1 : 0);
+      if (ptr.structure != null) {
+        ptr.structure.encode(out);
+      }
+    } catch (IOException e) {
+      // Can't happen, we're writing to memory
+      throw new UncheckedIOException(e);
+    }
+    return new BytesRef(out.toArrayCopy());
+  }
+
+  private static byte formatId(OcrFormat format) {
+    for (int i = 0; format != null && i < FORMATS.size(); i++) {
+      if (FORMATS.get(i).getClass() == format.getClass()) {
+        return (byte) (i + 1);
+      }
+    }
+    return 0;
+  }
+
+  /** Decode a pointer, returns <tt>null</tt> if it was written with an unsupported version of the encoding. */
+  public static SourcePointer decode(BytesRef bytes) {
+    ByteArrayDataInput in = new ByteArrayDataInput(bytes.bytes, bytes.offset, bytes.length);
+    if (in.readByte() != VERSION) {
+      return null;
+    }
+    int formatId = in.readByte();
+    int numSources = in.readVInt();
+    List<FileSource> sources = new ArrayList<>(numSources);
+    byte[] prevPath = new byte[0];
+    for (int i = 0; i < numSources; i++) {
+      boolean isAscii = (in.readByte() & FLAG_ASCII) != 0;
+      int shared = in.readVInt();
+      byte[] path = new byte[shared + in.readVInt()];
+      System.arraycopy(prevPath, 0, path, 0, shared);
+      in.readBytes(path, shared, path.length - shared);
+      long size = in.readVLong();
+      int numRegions = in.readVInt();
+      List<Region> regions = numRegions == 0 ? ImmutableList.of() : new ArrayList<>(numRegions);
+      int start = 0;
+      for (int r = 0; r < numRegions; r++) {
+        start += in.readVInt();
+        int len = in.readVInt();
+        regions.add(new Region(start, len == 0 ? -1 : start + len - 1));
+      }
+      sources.add(new FileSource(Paths.get(new String(path, StandardCharsets.UTF_8)), regions, isAscii, size));
+      prevPath = path;
+    }
+    SourcePointer ptr = new SourcePointer(sources);
+    ptr.format = formatId == 0 ? null : FORMATS.get(formatId - 1);
+    try {
+      if (in.readByte() != 0) {
+        ptr.structure = OcrStructure.decode(in);
+      }
+    } catch (IOException e) {
+      // Can't happen, we're reading from memory
+      throw new UncheckedIOException(e);
+    }
+    return ptr;
+  }
+
+  /**
+   * Read the pointer for a document from the doc values of a field, returns <tt>null</tt> if the field has no
+   * encoded pointer for the document.
+   */
+  public static SourcePointer readPointer(LeafReader reader, int docId, String field) throws IOException {
+    BinaryDocValues values = reader.getBinaryDocValues(field);
+    if (values == null || !values.advanceExact(docId)) {
+      return null;
+    }
+    return decode(values.binaryValue());
+  }
+}
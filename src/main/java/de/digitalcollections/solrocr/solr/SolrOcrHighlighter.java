@@ -1,5 +1,9 @@
 package de.digitalcollections.solrocr.solr;
 
+import de.digitalcollections.solrocr.iter.ByteCharIteratorFactory;
+import de.digitalcollections.solrocr.util.OcrStructureCache;
+import de.digitalcollections.solrocr.util.PageCacheWarmer;
+import de.digitalcollections.solrocr.util.SourcePointerCache;
 import de.digitalcollections.solrocr.lucene.OcrHighlighter;
 import de.digitalcollections.solrocr.model.OcrHighlightResult;
 import java.io.IOException;
@@ -7,17 +11,43 @@ import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import org.apache.lucene.search.Query;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.HighlightParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.highlight.UnifiedSolrHighlighter;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.XMLResponseWriter;
 import org.apache.solr.search.DocList;
+import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.util.SolrPluginUtils;
 
 public class SolrOcrHighlighter extends UnifiedSolrHighlighter {
+  private final ByteCharIteratorFactory iterFactory;
+  private final Executor loadExecutor;
+  private final int loadLookahead;
+  private final PageCacheWarmer cacheWarmer;
+  private final SourcePointerCache pointerCache;
+  private final OcrStructureCache structureCache;
+
+  public SolrOcrHighlighter() {
+    this(ByteCharIteratorFactory.MMAP, null, 0, null, null, null);
+  }
+
+  public SolrOcrHighlighter(ByteCharIteratorFactory iterFactory, Executor loadExecutor, int loadLookahead,
+                            PageCacheWarmer cacheWarmer, SourcePointerCache pointerCache,
+                            OcrStructureCache structureCache) {
+    this.iterFactory = iterFactory;
+    this.loadExecutor = loadExecutor;
+    this.loadLookahead = loadLookahead;
+    this.cacheWarmer = cacheWarmer;
+    this.pointerCache = pointerCache;
+    this.structureCache = structureCache;
+  }
+
   public NamedList<Object> doHighlighting(
       DocList docs, Query query, SolrQueryRequest req, String[] _defaultFields, Map<String, Object> respHeader)
       throws IOException {
@@ -41,21 +71,35 @@ public class SolrOcrHighlighter extends UnifiedSolrHighlighter {
       return null;
     }
     int[] maxPassagesOcr = getMaxPassages(ocrFieldNames, params);
+    String format = params.get(OcrHighlightParams.FORMAT, "default");
+    if (!format.equals("default") && !format.equals("compact")) {
+      throw new SolrException(
+          SolrException.ErrorCode.BAD_REQUEST, "Invalid value for " + OcrHighlightParams.FORMAT + ": " + format);
+    }
 
     // Highlight OCR fields
-    OcrHighlighter ocrHighlighter = new OcrHighlighter(
-        req.getSearcher(), req.getSchema().getIndexAnalyzer(), req.getParams());
+    OcrHighlighter ocrHighlighter = createOcrHighlighter(req.getSearcher(), req.getParams());
     OcrHighlightResult[] ocrSnippets = ocrHighlighter.highlightOcrFields(
         ocrFieldNames, query, docIDs, maxPassagesOcr, respHeader);
 
     // Assemble output data
     SimpleOrderedMap out = new SimpleOrderedMap();
     if (ocrSnippets != null) {
-      this.addOcrSnippets(out, keys, ocrFieldNames, ocrSnippets);
+      boolean compact = format.equals("compact");
+      // The XML writer can't write the compact snippets directly, they have to be converted to a tree first
+      boolean materialize = compact && req.getCore().getQueryResponseWriter(req) instanceof XMLResponseWriter;
+      this.addOcrSnippets(out, keys, ocrSnippets, compact, materialize);
     }
     return out;
   }
 
+  /** Create a highlighter for the searcher that reads the OCR sources with the resources of this instance. */
+  OcrHighlighter createOcrHighlighter(SolrIndexSearcher searcher, SolrParams params) {
+    return new OcrHighlighter(
+        searcher, searcher.getSchema().getIndexAnalyzer(), params, iterFactory,
+        loadExecutor, loadLookahead, cacheWarmer, pointerCache, structureCache);
+  }
+
   private int[] getMaxPassages(String[] fieldNames, SolrParams params) {
     int[] maxPassages = new int[fieldNames.length];
     for (int i = 0; i < fieldNames.length; i++) {
@@ -64,8 +108,8 @@ public class SolrOcrHighlighter extends UnifiedSolrHighlighter {
     return maxPassages;
   }
 
-  private void addOcrSnippets(NamedList<Object> out, String[] keys, String[] ocrFieldNames,
-                              OcrHighlightResult[] ocrSnippets) {
+  private void addOcrSnippets(NamedList<Object> out, String[] keys, OcrHighlightResult[] ocrSnippets,
+                              boolean compact, boolean materialize) {
     for (int k=0; k < keys.length; k++) {
       String docId = keys[k];
       SimpleOrderedMap docMap = (SimpleOrderedMap) out.get(docId);
@@ -76,7 +120,7 @@ public class SolrOcrHighlighter extends UnifiedSolrHighlighter {
       if (ocrSnippets[k] == null) {
         continue;
       }
-      docMap.addAll(ocrSnippets[k].toNamedList());
+      docMap.addAll(compact ? ocrSnippets[k].toCompactNamedList(materialize) : ocrSnippets[k].toNamedList());
     }
   }
 
@@ -0,0 +1,129 @@
+package de.digitalcollections.solrocr.storage;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+
+/** Fetches byte ranges of OCR files from HTTP servers with <tt>Range</tt> requests.
+ *
+ * The size of a file is determined with a <tt>HEAD</tt> request, its <tt>ETag</tt> is used as the version. Range
+ * requests are made conditional on the ETag, so a file that changed on the server is detected instead of mixing
+ * blocks of different versions.
+ */
+public class HttpRangeFetcher implements RangeFetcher {
+  public static final int DEFAULT_CONNECT_TIMEOUT_MS = 10_000;
+  public static final int DEFAULT_READ_TIMEOUT_MS = 30_000;
+
+  private final int connectTimeoutMs;
+  private final int readTimeoutMs;
+
+  public HttpRangeFetcher() {
+    this(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+  }
+
+  public HttpRangeFetcher(int connectTimeoutMs, int readTimeoutMs) {
+    this.connectTimeoutMs = connectTimeoutMs;
+    this.readTimeoutMs = readTimeoutMs;
+  }
+
+  @Override
+  public String[] getSchemes() {
+    return new String[]{"http", "https"};
+  }
+
+  /** Map the URI of an object to the URL it is requested from. */
+  protected URL toUrl(URI uri) throws IOException {
+    return uri.toURL();
+  }
+
+  /** Add authentication to a request before it is sent, a no-op by default. */
+  protected void authorize(HttpURLConnection conn, String method, URL url) throws IOException {
+    // NOP
+  }
+
+  private HttpURLConnection open(URI uri, String method) throws IOException {
+    URL url = toUrl(uri);
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    conn.setRequestMethod(method);
+    conn.setConnectTimeout(connectTimeoutMs);
+    conn.setReadTimeout(readTimeoutMs);
+    conn.setUseCaches(false);
+    conn.setInstanceFollowRedirects(true);
+    // Offsets refer to the content as stored, it must not be transformed in transit
+    conn.setRequestProperty("Accept-Encoding", "identity");
+    authorize(conn, method, url);
+    return conn;
+  }
+
+  @Override
+  public RemoteObject stat(URI uri) throws IOException {
+    HttpURLConnection conn = open(uri, "HEAD");
+    int status = conn.getResponseCode();
+    if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+      throw new FileNotFoundException(String.format("No object at %s", uri));
+    } else if (status != HttpURLConnection.HTTP_OK) {
+      throw new IOException(String.format("Could not determine size of %s, server returned HTTP %d", uri, status));
+    }
+    long size = conn.getContentLengthLong();
+    if (size < 0) {
+      throw new IOException(String.format("Could not determine size of %s, server sent no Content-Length", uri));
+    }
+    return new RemoteObject(uri, size, conn.getHeaderField("ETag"));
+  }
+
+  @Override
+  public void fetch(RemoteObject obj, long offset, byte[] dst, int dstOffset, int len) throws IOException {
+    if (len == 0) {
+      return;
+    }
+    HttpURLConnection conn = open(obj.getUri(), "GET");
+    conn.setRequestProperty("Range", String.format("bytes=%d-%d", offset, offset + len - 1));
+    if (obj.getVersion().startsWith("\"")) {
+      // Only strong ETags can be used for conditional range requests
+      conn.setRequestProperty("If-Match", obj.getVersion());
+    }
+    int status = conn.getResponseCode();
+    if (status == HttpURLConnection.HTTP_PRECON_FAILED) {
+      conn.disconnect();
+      throw new IOException(String.format("%s was modified on the server", obj.getUri()));
+    } else if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+      conn.disconnect();
+      throw new FileNotFoundException(String.format("No object at %s", obj.getUri()));
+    } else if (status == HttpURLConnection.HTTP_OK && offset != 0) {
+      // The server ignored the range, don't transfer the complete file just to discard most of it
+      conn.disconnect();
+      throw new IOException(String.format("Server for %s does not support range requests", obj.getUri()));
+    } else if (status != HttpURLConnection.HTTP_PARTIAL && status != HttpURLConnection.HTTP_OK) {
+      conn.disconnect();
+      throw new IOException(String.format(
+          "Could not fetch bytes %d-%d of %s, server returned HTTP %d", offset, offset + len - 1, obj.getUri(),
+          status));
+    }
+    String contentRange = conn.getHeaderField("Content-Range");
+    if (status == HttpURLConnection.HTTP_PARTIAL
+        && (contentRange == null || !contentRange.startsWith(String.format("bytes %d-", offset)))) {
+      conn.disconnect();
+      throw new IOException(String.format(
+          "Server for %s returned unexpected range '%s' for offset %d", obj.getUri(), contentRange, offset));
+    }
+    try (InputStream in = conn.getInputStream()) {
+      int pos = 0;
+      while (pos < len) {
+        int read = in.read(dst, dstOffset + pos, len - pos);
+        if (read < 0) {
+          throw new EOFException(String.format(
+              "Server for %s sent %d bytes for offset %d, expected %d", obj.getUri(), pos, offset, len));
+        }
+        pos += read;
+      }
+      if (status == HttpURLConnection.HTTP_OK) {
+        // Only a prefix of the complete file was requested, don't wait for the rest of it
+        conn.disconnect();
+      }
+    }
+  }
+}
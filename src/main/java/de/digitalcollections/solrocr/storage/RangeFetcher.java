@@ -0,0 +1,33 @@
+package de.digitalcollections.solrocr.storage;
+
+import java.io.IOException;
+import java.net.URI;
+
+/** Reads byte ranges of OCR files from a storage backend, the extension point for remote storage.
+ *
+ * Fetchers are registered with the {@link StorageRegistry} for the URI schemes they handle. Besides registering them
+ * programmatically, implementations can be made available via the {@link java.util.ServiceLoader} mechanism by listing
+ * them in <tt>META-INF/services/de.digitalcollections.solrocr.storage.RangeFetcher</tt>.
+ *
+ * Implementations must be thread-safe. Caching and coalescing of adjacent reads is done by the
+ * {@link RemoteBlockCache} in front of the fetcher, so every call should result in a single request to the storage.
+ */
+public interface RangeFetcher {
+  /** Get the URI schemes handled by this fetcher, e.g. <tt>http</tt> and <tt>https</tt>. */
+  String[] getSchemes();
+
+  /**
+   * Get the metadata of an object.
+   *
+   * @throws java.io.FileNotFoundException if the object does not exist
+   */
+  RemoteObject stat(URI uri) throws IOException;
+
+  /**
+   * Read exactly <tt>len</tt> bytes of an object starting at <tt>offset</tt> into <tt>dst</tt>.
+   *
+   * Implementations should fail if the object was modified since the metadata was obtained, if the storage allows
+   * checking for that.
+   */
+  void fetch(RemoteObject obj, long offset, byte[] dst, int dstOffset, int len) throws IOException;
+}
@@ -0,0 +1,391 @@
+package de.digitalcollections.solrocr.storage;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Cache of fixed-size blocks of remote OCR files in front of a {@link RangeFetcher}.
+ *
+ * Every access to remote storage has a high fixed cost, so reads are organized to make as few requests as possible:
+ * <ul>
+ *   <li>Blocks that were fetched recently are kept in memory and, optionally, in a directory on local disk, which
+ *       survives restarts and can be much larger than the memory cache.</li>
+ *   <li>When a range of multiple blocks is read, e.g. the text of a passage, all of its missing blocks that are
+ *       adjacent to each other are fetched with a single request.</li>
+ *   <li>Blocks that are already being fetched by another thread are not requested again, the reader waits for the
+ *       other fetch instead.</li>
+ * </ul>
+ *
+ * Blocks are keyed by the URI and version of their object and the index of the block in the object, so a modified
+ * object never returns stale blocks.
+ */
+public class RemoteBlockCache {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  /** Upper bound for the size of a single coalesced request. */
+  public static final int MAX_FETCH_SIZE = 8 * 1024 * 1024;
+
+  private final int blockSize;
+  private final long maxBytes;
+  private final Cache<BlockKey, byte[]> memory;
+  private final DiskTier disk;
+  private final ConcurrentHashMap<BlockKey, CompletableFuture<byte[]>> inflight = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder diskHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder joined = new LongAdder();
+  private final LongAdder fetches = new LongAdder();
+  private final LongAdder bytesFetched = new LongAdder();
+
+  /**
+   * @param blockSize Size of a single block
+   * @param maxBytes Maximum size of the blocks kept in memory
+   * @param diskDir Directory to keep blocks on local disk in, or <tt>null</tt> to only keep blocks in memory
+   * @param diskMaxBytes Maximum size of the blocks on disk
+   */
+  public RemoteBlockCache(int blockSize, long maxBytes, Path diskDir, long diskMaxBytes) throws IOException {
+    if (blockSize <= 0 || blockSize > MAX_FETCH_SIZE) {
+      throw new IllegalArgumentException("blockSize must be between 1 and " + MAX_FETCH_SIZE);
+    }
+    this.blockSize = blockSize;
+    this.maxBytes = maxBytes;
+    this.memory = CacheBuilder.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher((BlockKey k, byte[] b) -> b.length)
+        .build();
+    this.disk = diskDir == null ? null : new DiskTier(diskDir, diskMaxBytes);
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /** Copy a range of a remote object into a buffer, fetching all missing blocks of the range. */
+  public void read(RangeFetcher fetcher, RemoteObject obj, long offset, byte[] dst, int dstOffset, int len)
+      throws IOException {
+    if (len <= 0) {
+      return;
+    }
+    long firstBlock = offset / blockSize;
+    long lastBlock = (offset + len - 1) / blockSize;
+    byte[][] blocks = getBlocks(fetcher, obj, firstBlock, lastBlock);
+    long pos = offset;
+    for (byte[] block : blocks) {
+      int blockOffset = (int) (pos % blockSize);
+      int toCopy = Math.min(len, block.length - blockOffset);
+      if (toCopy <= 0) {
+        throw new IOException(String.format("Offset %d is beyond the end of %s", pos, obj));
+      }
+      System.arraycopy(block, blockOffset, dst, dstOffset, toCopy);
+      pos += toCopy;
+      dstOffset += toCopy;
+      len -= toCopy;
+    }
+  }
+
+  /** Get a single block of a remote object. */
+  public byte[] getBlock(RangeFetcher fetcher, RemoteObject obj, long blockIdx) throws IOException {
+    return getBlocks(fetcher, obj, blockIdx, blockIdx)[0];
+  }
+
+  /** Get a range of blocks of a remote object, adjacent missing blocks are fetched with a single request. */
+  public byte[][] getBlocks(RangeFetcher fetcher, RemoteObject obj, long firstBlock, long lastBlock)
+      throws IOException {
+    int numBlocks = (int) (lastBlock - firstBlock + 1);
+    byte[][] blocks = new byte[numBlocks][];
+    List<CompletableFuture<byte[]>> claimed = new ArrayList<>();
+    long[] claimedIdxs = new long[numBlocks];
+    CompletableFuture<?>[] waitingFor = new CompletableFuture<?>[numBlocks];
+    for (int i = 0; i < numBlocks; i++) {
+      BlockKey key = new BlockKey(obj, firstBlock + i);
+      byte[] block = memory.getIfPresent(key);
+      if (block == null && disk != null) {
+        block = disk.get(key);
+        if (block != null) {
+          diskHits.increment();
+          memory.put(key, block);
+        }
+      } else if (block != null) {
+        hits.increment();
+      }
+      if (block != null) {
+        blocks[i] = block;
+        continue;
+      }
+      CompletableFuture<byte[]> future = new CompletableFuture<>();
+      CompletableFuture<byte[]> other = inflight.putIfAbsent(key, future);
+      if (other != null) {
+        joined.increment();
+        waitingFor[i] = other;
+      } else {
+        misses.increment();
+        claimedIdxs[claimed.size()] = firstBlock + i;
+        claimed.add(future);
+      }
+    }
+
+    // Fetch our own blocks before waiting for the ones of other threads, so two readers can't wait for each other
+    int runStart = 0;
+    for (int i = 1; i <= claimed.size(); i++) {
+      boolean isAdjacent = i < claimed.size() && claimedIdxs[i] == claimedIdxs[i - 1] + 1
+          && (long) (i - runStart + 1) * blockSize <= MAX_FETCH_SIZE;
+      if (!isAdjacent) {
+        fetchRun(fetcher, obj, claimedIdxs, claimed, runStart, i, blocks, firstBlock);
+        runStart = i;
+      }
+    }
+
+    for (int i = 0; i < numBlocks; i++) {
+      if (waitingFor[i] == null) {
+        continue;
+      }
+      try {
+        blocks[i] = (byte[]) waitingFor[i].get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for block to be fetched.");
+      } catch (ExecutionException e) {
+        throw new IOException(String.format("Failed to fetch block %d of %s", firstBlock + i, obj), e.getCause());
+      }
+    }
+    return blocks;
+  }
+
+  /** Fetch the adjacent claimed blocks in <tt>[from, to)</tt> with a single request. */
+  private void fetchRun(RangeFetcher fetcher, RemoteObject obj, long[] claimedIdxs,
+                        List<CompletableFuture<byte[]>> claimed, int from, int to, byte[][] blocks, long firstBlock)
+      throws IOException {
+    if (from >= to) {
+      return;
+    }
+    long start = claimedIdxs[from] * blockSize;
+    long end = Math.min(obj.getSize(), (claimedIdxs[to - 1] + 1) * blockSize);
+    try {
+      if (start >= end) {
+        throw new IOException(String.format("Block %d is beyond the end of %s", claimedIdxs[from], obj));
+      }
+      byte[] data = new byte[(int) (end - start)];
+      fetcher.fetch(obj, start, data, 0, data.length);
+      fetches.increment();
+      bytesFetched.add(data.length);
+      for (int i = from; i < to; i++) {
+        int blockStart = (int) ((claimedIdxs[i] - claimedIdxs[from]) * blockSize);
+        byte[] block = new byte[Math.min(blockSize, data.length - blockStart)];
+        System.arraycopy(data, blockStart, block, 0, block.length);
+        BlockKey key = new BlockKey(obj, claimedIdxs[i]);
+        memory.put(key, block);
+        if (disk != null) {
+          disk.put(key, block);
+        }
+        blocks[(int) (claimedIdxs[i] - firstBlock)] = block;
+        inflight.remove(key);
+        claimed.get(i).complete(block);
+      }
+    } catch (IOException | RuntimeException e) {
+      // Fail all blocks that were not fetched yet, including those of later runs, waiting readers would hang otherwise
+      for (int i = from; i < claimed.size(); i++) {
+        inflight.remove(new BlockKey(obj, claimedIdxs[i]), claimed.get(i));
+        claimed.get(i).completeExceptionally(e);
+      }
+      throw e;
+    }
+  }
+
+  /** Drop all blocks from memory, blocks on disk are kept. */
+  public void clear() {
+    memory.invalidateAll();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getDiskHits() {
+    return diskHits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /** Number of blocks that were already being fetched by another reader. */
+  public long getJoined() {
+    return joined.sum();
+  }
+
+  /** Number of requests made to the storage. */
+  public long getFetches() {
+    return fetches.sum();
+  }
+
+  public long getBytesFetched() {
+    return bytesFetched.sum();
+  }
+
+  public long getNumCachedBlocks() {
+    return memory.size();
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public long getDiskBytes() {
+    return disk == null ? 0 : disk.getBytes();
+  }
+
+  /** Blocks stored as individual files in a local directory, named after a hash of their key. */
+  private static final class DiskTier {
+    private final Path dir;
+    // Only tracks the sizes of the files on disk, evicted entries are deleted
+    private final Cache<String, Integer> files;
+    private final LongAdder bytes = new LongAdder();
+
+    DiskTier(Path dir, long maxBytes) throws IOException {
+      this.dir = dir;
+      Files.createDirectories(dir);
+      this.files = CacheBuilder.newBuilder()
+          .maximumWeight(maxBytes)
+          .weigher((String name, Integer size) -> size)
+          .removalListener(n -> {
+            if (n.getCause() != RemovalCause.REPLACED) {
+              bytes.add(-n.getValue());
+              delete(n.getKey());
+            }
+          })
+          .build();
+      // Pick up the blocks of earlier runs, in no particular order
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+        for (Path p : stream) {
+          String name = p.getFileName().toString();
+          if (name.endsWith(".tmp")) {
+            Files.deleteIfExists(p);
+          } else if (Files.isRegularFile(p)) {
+            add(name, (int) Files.size(p));
+          }
+        }
+      }
+    }
+
+    private void add(String name, int size) {
+      bytes.add(size);
+      files.put(name, size);
+    }
+
+    private void delete(String name) {
+      try {
+        Files.deleteIfExists(dir.resolve(name));
+      } catch (IOException e) {
+        log.warn("Could not delete cached block at {}: {}", dir.resolve(name), e.getMessage());
+      }
+    }
+
+    byte[] get(BlockKey key) {
+      String name = key.fileName();
+      if (files.getIfPresent(name) == null) {
+        return null;
+      }
+      try {
+        return Files.readAllBytes(dir.resolve(name));
+      } catch (NoSuchFileException e) {
+        // Evicted concurrently
+        return null;
+      } catch (IOException e) {
+        log.warn("Could not read cached block at {}: {}", dir.resolve(name), e.getMessage());
+        files.invalidate(name);
+        return null;
+      }
+    }
+
+    void put(BlockKey key, byte[] block) {
+      String name = key.fileName();
+      Path tmp = dir.resolve(name + "." + Thread.currentThread().getId() + ".tmp");
+      try {
+        Files.write(tmp, block);
+        Files.move(tmp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (files.getIfPresent(name) == null) {
+          add(name, block.length);
+        }
+      } catch (IOException e) {
+        // The disk tier is only an optimization, the block is still in memory
+        log.warn("Could not write cached block to {}: {}", dir, e.getMessage());
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException ignored) {
+          // NOP
+        }
+      }
+    }
+
+    long getBytes() {
+      return bytes.sum();
+    }
+  }
+
+  private static final class BlockKey {
+    private final RemoteObject obj;
+    private final long blockIdx;
+    private final int hash;
+
+    BlockKey(RemoteObject obj, long blockIdx) {
+      this.obj = obj;
+      this.blockIdx = blockIdx;
+      this.hash = Objects.hash(obj, blockIdx);
+    }
+
+    String fileName() {
+      try {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] hashed = digest.digest(String.format("%s\n%s\n%d\n%d", obj.getUri(), obj.getVersion(),
+                                                    obj.getSize(), blockIdx).getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(hashed.length * 2);
+        for (byte b : hashed) {
+          sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      BlockKey other = (BlockKey) o;
+      return blockIdx == other.blockIdx && obj.equals(other.obj);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package de.digitalcollections.solrocr.storage;
+
+import java.net.URI;
+import java.util.Objects;
+
+/** Metadata of an OCR file in remote storage, as determined by a {@link RangeFetcher}. */
+public final class RemoteObject {
+  private final URI uri;
+  private final long size;
+  private final String version;
+
+  /**
+   * @param uri Location of the object
+   * @param size Size of the object in bytes
+   * @param version Opaque identifier that changes when the object is modified (e.g. an ETag), empty if the storage
+   *                doesn't provide one
+   */
+  public RemoteObject(URI uri, long size, String version) {
+    this.uri = uri;
+    this.size = size;
+    this.version = version == null ? "" : version;
+  }
+
+  public URI getUri() {
+    return uri;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    RemoteObject that = (RemoteObject) o;
+    return size == that.size && uri.equals(that.uri) && version.equals(that.version);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(uri, size, version);
+  }
+
+  @Override
+  public String toString() {
+    return uri.toString();
+  }
+}
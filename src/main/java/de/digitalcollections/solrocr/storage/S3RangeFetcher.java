@@ -0,0 +1,119 @@
+package de.digitalcollections.solrocr.storage;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/** Fetches byte ranges of OCR files from an S3-compatible object store.
+ *
+ * Objects are referenced as <tt>s3://bucket/key</tt> and requested from the configured endpoint with path-style
+ * URLs, i.e. <tt>{endpoint}/{bucket}/{key}</tt>, which is supported by AWS as well as by self-hosted stores like
+ * MinIO or Ceph. If credentials are configured, requests are signed with AWS Signature Version 4, otherwise they are
+ * sent anonymously, e.g. for public buckets.
+ */
+public class S3RangeFetcher extends HttpRangeFetcher {
+  private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+  private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+  private static final String SIGNED_HEADERS = "host;x-amz-content-sha256;x-amz-date";
+  private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+  private final String endpoint;
+  private final String region;
+  private final String accessKey;
+  private final String secretKey;
+
+  /**
+   * @param endpoint Base URL of the object store, e.g. <tt>https://s3.eu-central-1.amazonaws.com</tt>
+   * @param region Region to sign requests for, e.g. <tt>eu-central-1</tt>
+   * @param accessKey Access key ID, or <tt>null</tt> for anonymous requests
+   * @param secretKey Secret access key, or <tt>null</tt> for anonymous requests
+   */
+  public S3RangeFetcher(String endpoint, String region, String accessKey, String secretKey) {
+    this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+    this.region = region;
+    this.accessKey = accessKey;
+    this.secretKey = secretKey;
+  }
+
+  @Override
+  public String[] getSchemes() {
+    return new String[]{"s3"};
+  }
+
+  @Override
+  protected URL toUrl(URI uri) throws IOException {
+    if (uri.getRawAuthority() == null || uri.getRawPath() == null || uri.getRawPath().length() < 2) {
+      throw new IOException(String.format("Invalid S3 location %s, must be s3://bucket/key", uri));
+    }
+    return new URL(endpoint + "/" + uri.getRawAuthority() + uri.getRawPath());
+  }
+
+  @Override
+  protected void authorize(HttpURLConnection conn, String method, URL url) throws IOException {
+    if (accessKey == null || secretKey == null) {
+      return;
+    }
+    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+    String amzDate = AMZ_DATE.format(now);
+    conn.setRequestProperty("x-amz-date", amzDate);
+    conn.setRequestProperty("x-amz-content-sha256", UNSIGNED_PAYLOAD);
+    conn.setRequestProperty("Authorization", signature(method, url, amzDate));
+  }
+
+  /** Compute the <tt>Authorization</tt> header for a request without a body. */
+  String signature(String method, URL url, String amzDate) throws IOException {
+    String host = url.getPort() < 0 || url.getPort() == url.getDefaultPort()
+        ? url.getHost() : url.getHost() + ":" + url.getPort();
+    String canonicalRequest = String.join(
+        "\n",
+        method,
+        url.getPath().isEmpty() ? "/" : url.getPath(),
+        url.getQuery() == null ? "" : url.getQuery(),
+        "host:" + host,
+        "x-amz-content-sha256:" + UNSIGNED_PAYLOAD,
+        "x-amz-date:" + amzDate,
+        "",
+        SIGNED_HEADERS,
+        UNSIGNED_PAYLOAD);
+    String date = amzDate.substring(0, 8);
+    String scope = String.format("%s/%s/s3/aws4_request", date, region);
+    try {
+      String stringToSign = String.join("\n", ALGORITHM, amzDate, scope, hex(sha256(canonicalRequest)));
+      byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+      key = hmac(key, region);
+      key = hmac(key, "s3");
+      key = hmac(key, "aws4_request");
+      return String.format("%s Credential=%s/%s, SignedHeaders=%s, Signature=%s",
+                           ALGORITHM, accessKey, scope, SIGNED_HEADERS, hex(hmac(key, stringToSign)));
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Could not sign request: " + e.getMessage(), e);
+    }
+  }
+
+  private static byte[] hmac(byte[] key, String data) throws GeneralSecurityException {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(key, "HmacSHA256"));
+    return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static byte[] sha256(String data) throws GeneralSecurityException {
+    return MessageDigest.getInstance("SHA-256").digest(data.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String hex(byte[] data) {
+    StringBuilder sb = new StringBuilder(data.length * 2);
+    for (byte b : data) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,260 @@
+package de.digitalcollections.solrocr.storage;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Process-wide registry of the storage backends that OCR files can be read from, keyed by URI scheme.
+ *
+ * Source pointers can reference OCR files by URI instead of by local path, e.g.
+ * <tt>https://ocr.example.com/1863_191.xml</tt> or <tt>s3://ocr-bucket/1863/191.xml</tt>. Local paths and
+ * <tt>file:</tt> URIs are read from the local file system as before, all other schemes are read with the
+ * {@link RangeFetcher} registered for them, through a shared {@link RemoteBlockCache}. HTTP(S) is supported out of the
+ * box, S3 once an endpoint is configured.
+ *
+ * Throughout the plugin, remote locations are passed around as {@link Path} instances that start with the scheme,
+ * since that is what parsing the pointer yields. Note that this collapses the double slash after the scheme, use
+ * {@link #toUri(Path)} to get the actual location.
+ */
+public class StorageRegistry {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  // Schemes need at least two characters, so Windows drive letters are not mistaken for them
+  private static final Pattern SCHEME_PAT = Pattern.compile("^([a-zA-Z][a-zA-Z0-9+.-]+):[/\\\\]");
+  /** Size of the reads for sequential streams, which bypass the block cache. */
+  private static final int STREAM_READ_SIZE = 1024 * 1024;
+
+  public static final long DEFAULT_STAT_TTL_MS = 60_000;
+
+  private static final StorageRegistry instance = new StorageRegistry();
+
+  private final Map<String, RangeFetcher> fetchers = new ConcurrentHashMap<>();
+  private volatile RemoteBlockCache blockCache;
+  private volatile Cache<URI, RemoteObject> statCache;
+
+  public static StorageRegistry getInstance() {
+    return instance;
+  }
+
+  StorageRegistry() {
+    register(new HttpRangeFetcher());
+    try {
+      for (RangeFetcher fetcher : ServiceLoader.load(RangeFetcher.class, RangeFetcher.class.getClassLoader())) {
+        register(fetcher);
+      }
+    } catch (ServiceConfigurationError e) {
+      log.error("Could not load storage backends: {}", e.getMessage());
+    }
+    try {
+      this.blockCache = new RemoteBlockCache(
+          RemoteBlockCache.DEFAULT_BLOCK_SIZE, RemoteBlockCache.DEFAULT_MAX_BYTES, null, 0);
+    } catch (IOException e) {
+      // Can't happen without a disk tier
+      throw new IllegalStateException(e);
+    }
+    setStatTtl(DEFAULT_STAT_TTL_MS);
+  }
+
+  /** Register a fetcher for all of its schemes, replacing the fetchers previously registered for them. */
+  public void register(RangeFetcher fetcher) {
+    for (String scheme : fetcher.getSchemes()) {
+      fetchers.put(scheme.toLowerCase(Locale.ROOT), fetcher);
+    }
+  }
+
+  /** Replace the cache that remote reads go through. */
+  public void setBlockCache(RemoteBlockCache blockCache) {
+    this.blockCache = blockCache;
+  }
+
+  public RemoteBlockCache getBlockCache() {
+    return blockCache;
+  }
+
+  /** Change how long the metadata of remote objects is cached, i.e. how long it takes to notice modifications. */
+  public void setStatTtl(long ttlMillis) {
+    this.statCache = CacheBuilder.newBuilder()
+        .maximumSize(64 * 1024)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  /** Convert a location from a source pointer to a path, <tt>file:</tt> URIs are converted to local paths. */
+  public static Path resolve(String location) {
+    if (location.regionMatches(true, 0, "file:", 0, 5)) {
+      return Paths.get(URI.create(location));
+    }
+    return Paths.get(location);
+  }
+
+  /** Whether the path references a file in remote storage. */
+  public static boolean isRemote(Path path) {
+    return SCHEME_PAT.matcher(path.toString()).find();
+  }
+
+  /** Get the URI of a remote location that was parsed into a path. */
+  public static URI toUri(Path path) {
+    String str = path.toString().replace('\\', '/');
+    Matcher m = SCHEME_PAT.matcher(str);
+    if (!m.find()) {
+      throw new IllegalArgumentException(String.format("%s is not a remote location", path));
+    }
+    String rest = str.substring(m.end());
+    while (rest.startsWith("/")) {
+      rest = rest.substring(1);
+    }
+    return URI.create(m.group(1).toLowerCase(Locale.ROOT) + "://" + rest);
+  }
+
+  /** Get the fetcher for the scheme of a remote location. */
+  public RangeFetcher getFetcher(URI uri) throws IOException {
+    RangeFetcher fetcher = fetchers.get(uri.getScheme());
+    if (fetcher == null) {
+      throw new IOException(String.format("No storage backend configured for %s", uri));
+    }
+    return fetcher;
+  }
+
+  /** Get the metadata of a remote object, cached for a limited time. */
+  public RemoteObject stat(Path path) throws IOException {
+    URI uri = toUri(path);
+    Cache<URI, RemoteObject> cache = this.statCache;
+    RemoteObject obj = cache.getIfPresent(uri);
+    if (obj == null) {
+      obj = getFetcher(uri).stat(uri);
+      cache.put(uri, obj);
+    }
+    return obj;
+  }
+
+  /** Read a range of a remote object through the block cache. */
+  public void read(RemoteObject obj, long offset, byte[] dst, int dstOffset, int len) throws IOException {
+    blockCache.read(getFetcher(obj.getUri()), obj, offset, dst, dstOffset, len);
+  }
+
+  /** Populate the block cache with a range of a remote file, an <tt>end</tt> of -1 refers to the end of the file. */
+  public void prefetch(Path path, long start, long end) throws IOException {
+    RemoteObject obj = stat(path);
+    long contentEnd = end < 0 ? obj.getSize() : Math.min(end, obj.getSize());
+    if (start >= contentEnd) {
+      return;
+    }
+    RemoteBlockCache cache = this.blockCache;
+    cache.getBlocks(getFetcher(obj.getUri()), obj, start / cache.getBlockSize(),
+                    (contentEnd - 1) / cache.getBlockSize());
+  }
+
+  /**
+   * Open a sequential stream over a remote file, used at index time.
+   *
+   * The stream reads large ranges directly from storage, since indexing reads every file only once and would only
+   * evict the blocks used for highlighting from the cache.
+   */
+  public InputStream openStream(Path path) throws IOException {
+    RemoteObject obj = stat(path);
+    return new RemoteInputStream(getFetcher(obj.getUri()), obj);
+  }
+
+  /** Drop all cached metadata and blocks, blocks in the disk tier of the block cache are kept. */
+  public void clear() {
+    statCache.invalidateAll();
+    blockCache.clear();
+  }
+
+  private static class RemoteInputStream extends InputStream {
+    private final RangeFetcher fetcher;
+    private final RemoteObject obj;
+    private final byte[] buf;
+    private long bufStart = 0;
+    private int bufLen = 0;
+    private int pos = 0;
+
+    RemoteInputStream(RangeFetcher fetcher, RemoteObject obj) {
+      this.fetcher = fetcher;
+      this.obj = obj;
+      this.buf = new byte[(int) Math.min(STREAM_READ_SIZE, Math.max(1, obj.getSize()))];
+    }
+
+    private boolean fill() throws IOException {
+      if (pos < bufLen) {
+        return true;
+      }
+      long next = bufStart + bufLen;
+      if (next >= obj.getSize()) {
+        return false;
+      }
+      int len = (int) Math.min(buf.length, obj.getSize() - next);
+      fetcher.fetch(obj, next, buf, 0, len);
+      bufStart = next;
+      bufLen = len;
+      pos = 0;
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return buf[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int n = Math.min(len, bufLen - pos);
+      System.arraycopy(buf, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      if (n <= 0) {
+        return 0;
+      }
+      long current = bufStart + pos;
+      long target = Math.min(obj.getSize(), current + n);
+      if (target < bufStart + bufLen) {
+        pos = (int) (target - bufStart);
+      } else {
+        // Skipped data is never fetched
+        bufStart = target;
+        bufLen = 0;
+        pos = 0;
+      }
+      return target - current;
+    }
+
+    @Override
+    public int available() {
+      return bufLen - pos;
+    }
+
+    @Override
+    public void close() {
+      // NOP, every fetch is a self-contained request
+    }
+  }
+}
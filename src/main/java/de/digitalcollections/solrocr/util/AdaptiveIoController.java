@@ -0,0 +1,153 @@
+package de.digitalcollections.solrocr.util;
+
+/** Adjusts the number of concurrent reads and the read size for the {@link PageCacheWarmer} to the storage layer.
+ *
+ * Uses an AIMD (additive increase, multiplicative decrease) scheme like TCP congestion control: Reads are sampled in
+ * intervals, and for every interval the average time per byte read is compared to the best time per byte that was
+ * observed recently. As long as it stays below a multiple of that baseline and there is work waiting, concurrency and
+ * read size are increased by a single step. Once it rises above it, the storage is assumed to be congested and both
+ * are halved. The baseline slowly drifts upwards, so that a permanent change in the storage's performance (e.g. more
+ * load from other clients at peak times) is eventually accepted as the new normal.
+ *
+ * Normalizing by the number of bytes means that larger reads are only considered congestion if they are more
+ * expensive per byte, so storage with a high fixed cost per read (like NFS) will end up with larger reads.
+ */
+class AdaptiveIoController {
+  // Minimum number of reads and minimum duration of a sampling interval
+  private static final int MIN_SAMPLES = 16;
+  private static final long MIN_INTERVAL_NANOS = 250_000_000L;
+  // Time per byte above this multiple of the baseline is considered congestion
+  private static final double CONGESTION_FACTOR = 2.0;
+  // Growth of the baseline per interval, lets the controller adapt to slower storage
+  private static final double BASELINE_DRIFT = 1.05;
+
+  private final int minConcurrency;
+  private final int maxConcurrency;
+  private final int minReadSize;
+  private final int maxReadSize;
+
+  private volatile int concurrency;
+  private volatile int readSize;
+
+  // Statistics of the current interval and the controller state, guarded by `this`
+  private long intervalStart = -1;
+  private int intervalSamples = 0;
+  private long intervalNanos = 0;
+  private long intervalBytes = 0;
+  private boolean intervalBacklogged = false;
+  private double baselineNanosPerByte = -1;
+
+  // Results of the last interval, for metrics
+  private volatile double lastLatencyMillis = 0;
+  private volatile double lastThroughput = 0;
+  private volatile long numIncreases = 0;
+  private volatile long numDecreases = 0;
+
+  /**
+   * @param minConcurrency Lower bound for the number of concurrent reads, used as the initial value
+   * @param maxConcurrency Upper bound for the number of concurrent reads
+   * @param minReadSize Lower bound for the read size, used as the initial value and as the step size
+   * @param maxReadSize Upper bound for the read size
+   */
+  AdaptiveIoController(int minConcurrency, int maxConcurrency, int minReadSize, int maxReadSize) {
+    if (minConcurrency > maxConcurrency || minReadSize > maxReadSize || minReadSize <= 0) {
+      throw new IllegalArgumentException(String.format(
+          "Invalid bounds, concurrency: [%d, %d], read size: [%d, %d]",
+          minConcurrency, maxConcurrency, minReadSize, maxReadSize));
+    }
+    this.minConcurrency = minConcurrency;
+    this.maxConcurrency = maxConcurrency;
+    this.minReadSize = minReadSize;
+    this.maxReadSize = maxReadSize;
+    this.concurrency = minConcurrency;
+    this.readSize = minReadSize;
+  }
+
+  /** Whether the controller can change anything at all. */
+  boolean isAdaptive() {
+    return minConcurrency != maxConcurrency || minReadSize != maxReadSize;
+  }
+
+  /**
+   * Record a completed read.
+   *
+   * @param latencyNanos Time the read took
+   * @param bytes Number of bytes that were read
+   * @param backlogged Whether there were reads waiting for a worker
+   * @return whether the concurrency was increased
+   */
+  boolean record(long latencyNanos, int bytes, boolean backlogged) {
+    return record(latencyNanos, bytes, backlogged, System.nanoTime());
+  }
+
+  synchronized boolean record(long latencyNanos, int bytes, boolean backlogged, long now) {
+    if (!isAdaptive() || bytes <= 0) {
+      return false;
+    }
+    if (intervalStart < 0) {
+      intervalStart = now - latencyNanos;
+    }
+    intervalSamples++;
+    intervalNanos += latencyNanos;
+    intervalBytes += bytes;
+    intervalBacklogged |= backlogged;
+    if (intervalSamples < MIN_SAMPLES || now - intervalStart < MIN_INTERVAL_NANOS) {
+      return false;
+    }
+
+    double nanosPerByte = (double) intervalNanos / intervalBytes;
+    lastLatencyMillis = intervalNanos / (intervalSamples * 1_000_000.0);
+    lastThroughput = intervalBytes * 1_000_000_000.0 / (now - intervalStart);
+    if (baselineNanosPerByte < 0) {
+      baselineNanosPerByte = nanosPerByte;
+    } else {
+      baselineNanosPerByte = Math.min(nanosPerByte, baselineNanosPerByte * BASELINE_DRIFT);
+    }
+
+    int previousConcurrency = concurrency;
+    if (nanosPerByte > CONGESTION_FACTOR * baselineNanosPerByte) {
+      concurrency = Math.max(minConcurrency, concurrency / 2);
+      readSize = Math.max(minReadSize, (readSize / 2) / minReadSize * minReadSize);
+      numDecreases++;
+    } else if (intervalBacklogged) {
+      concurrency = Math.min(maxConcurrency, concurrency + 1);
+      readSize = Math.min(maxReadSize, readSize + minReadSize);
+      numIncreases++;
+    }
+
+    intervalStart = now;
+    intervalSamples = 0;
+    intervalNanos = 0;
+    intervalBytes = 0;
+    intervalBacklogged = false;
+    return concurrency > previousConcurrency;
+  }
+
+  /** Current number of concurrent reads. */
+  int getConcurrency() {
+    return concurrency;
+  }
+
+  /** Current size of a single read. */
+  int getReadSize() {
+    return readSize;
+  }
+
+  /** Average read latency in the last sampling interval, in milliseconds. */
+  double getLatencyMillis() {
+    return lastLatencyMillis;
+  }
+
+  /** Read throughput in the last sampling interval, in bytes per second. */
+  double getThroughput() {
+    return lastThroughput;
+  }
+
+  long getNumIncreases() {
+    return numIncreases;
+  }
+
+  long getNumDecreases() {
+    return numDecreases;
+  }
+}
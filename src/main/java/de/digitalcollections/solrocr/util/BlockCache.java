@@ -0,0 +1,295 @@
+package de.digitalcollections.solrocr.util;
+
+import de.digitalcollections.solrocr.util.MappedFileCache.MappedFile;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Size-bounded cache of fixed-size file blocks in off-heap memory that are read with positional reads.
+ *
+ * This is an alternative to memory-mapping the OCR files that is better suited to network storage: Instead of faulting
+ * in pages of the mapping one by one with the read-ahead policy of the kernel, only the blocks that are actually
+ * touched during highlighting are read with a single <tt>pread</tt> each, and a block size that matches the transfer
+ * size of the storage (e.g. the NFS <tt>rsize</tt>) can be chosen.
+ *
+ * Blocks are keyed by the path, modification time and size of their file and the index of the block in the file. The
+ * cache is split into a number of independently locked shards with their own LRU eviction to reduce contention between
+ * concurrent requests. Blocks that are in use are pinned and never evicted or overwritten, if all blocks of a shard are
+ * pinned, reads fall back to a temporary heap buffer.
+ */
+public class BlockCache {
+  private static final int NUM_SHARDS = 16;
+
+  public static final int DEFAULT_BLOCK_SIZE = 32 * 1024;
+  public static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+
+  private final int blockSize;
+  private final int maxBlocksPerShard;
+  private final Shard[] shards;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+
+  public BlockCache(int blockSize, long maxBytes) {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("blockSize must be positive");
+    }
+    this.blockSize = blockSize;
+    this.maxBlocksPerShard = (int) Math.max(1, maxBytes / blockSize / NUM_SHARDS);
+    this.shards = new Shard[NUM_SHARDS];
+    for (int i = 0; i < NUM_SHARDS; i++) {
+      this.shards[i] = new Shard();
+    }
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Obtain the block with the given index from the file, reading it from storage if it is not cached yet.
+   *
+   * The returned block is pinned, the caller <strong>must</strong> call {@link #release(Block)} once it no longer
+   * needs it.
+   */
+  public Block get(MappedFile file, long blockIdx) throws IOException {
+    BlockKey key = new BlockKey(file.getPath(), file.getLastModified(), file.getSize(), blockIdx);
+    Shard shard = shards[(key.hashCode() ^ (key.hashCode() >>> 16)) & (NUM_SHARDS - 1)];
+    Block block;
+    synchronized (shard) {
+      block = shard.blocks.get(key);
+      if (block != null) {
+        hits.increment();
+        block.pins += 1;
+        // Block is currently being read by another thread, wait for it
+        while (!block.loaded && block.failure == null) {
+          try {
+            shard.wait();
+          } catch (InterruptedException e) {
+            shard.unpin(block);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for block to be read.");
+          }
+        }
+        if (block.failure != null) {
+          shard.unpin(block);
+          throw new IOException("Failed to read block " + blockIdx + " from " + file.getPath(), block.failure);
+        }
+        return block;
+      }
+      misses.increment();
+      ByteBuffer buf = shard.takeBuffer();
+      if (buf == null) {
+        // Every block in the shard is pinned, read into a temporary buffer that is not cached
+        block = new Block(shard, key, ByteBuffer.allocate(blockSize), false);
+      } else {
+        block = new Block(shard, key, buf, true);
+        shard.blocks.put(key, block);
+      }
+    }
+
+    // Read from storage outside of the lock, so slow reads don't hold up other lookups in the shard
+    try {
+      block.length = readBlock(file.getChannel(), file.getSize(), blockIdx, block.data);
+    } catch (IOException | RuntimeException e) {
+      synchronized (shard) {
+        block.failure = e;
+        if (block.cached) {
+          shard.blocks.remove(key);
+          block.cached = false;
+        }
+        shard.unpin(block);
+        shard.notifyAll();
+      }
+      throw e;
+    }
+    bytesRead.add(block.length);
+    synchronized (shard) {
+      block.loaded = true;
+      shard.notifyAll();
+    }
+    return block;
+  }
+
+  private int readBlock(FileChannel chan, long fileSize, long blockIdx, ByteBuffer data) throws IOException {
+    long position = blockIdx * blockSize;
+    ByteBuffer dst = data.duplicate();
+    dst.clear();
+    dst.limit((int) Math.max(0, Math.min(blockSize, fileSize - position)));
+    while (dst.hasRemaining()) {
+      if (chan.read(dst, position + dst.position()) < 0) {
+        break;
+      }
+    }
+    return dst.position();
+  }
+
+  /** Unpin a block obtained with {@link #get(MappedFile, long)}, making it eligible for eviction. */
+  public void release(Block block) {
+    synchronized (block.shard) {
+      block.shard.unpin(block);
+    }
+  }
+
+  /** Drop all unpinned blocks from the cache and free their memory. */
+  public void clear() {
+    for (Shard shard : shards) {
+      synchronized (shard) {
+        Iterator<Block> it = shard.blocks.values().iterator();
+        while (it.hasNext()) {
+          Block block = it.next();
+          if (block.pins == 0) {
+            it.remove();
+            block.cached = false;
+            shard.numAllocated -= 1;
+          }
+        }
+        shard.numAllocated -= shard.freeBuffers.size();
+        shard.freeBuffers.clear();
+      }
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  public long getNumCachedBlocks() {
+    long num = 0;
+    for (Shard shard : shards) {
+      synchronized (shard) {
+        num += shard.blocks.size();
+      }
+    }
+    return num;
+  }
+
+  public long getMaxBytes() {
+    return (long) maxBlocksPerShard * NUM_SHARDS * blockSize;
+  }
+
+  private final class Shard {
+    // Access-ordered, so iteration starts with the least recently used block
+    private final LinkedHashMap<BlockKey, Block> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private int numAllocated = 0;
+
+    /** Obtain a buffer for a new block, evicting the least recently used unpinned block if necessary. */
+    private ByteBuffer takeBuffer() {
+      if (!freeBuffers.isEmpty()) {
+        return freeBuffers.pop();
+      }
+      if (numAllocated < maxBlocksPerShard) {
+        numAllocated += 1;
+        return ByteBuffer.allocateDirect(blockSize);
+      }
+      Iterator<Block> it = blocks.values().iterator();
+      while (it.hasNext()) {
+        Block eldest = it.next();
+        if (eldest.pins == 0) {
+          it.remove();
+          eldest.cached = false;
+          evictions.increment();
+          return eldest.data;
+        }
+      }
+      return null;
+    }
+
+    private void unpin(Block block) {
+      block.pins -= 1;
+      if (block.pins == 0 && !block.cached && block.data.isDirect()) {
+        // Block failed to load and is no longer referenced, recycle its buffer
+        freeBuffers.push(block.data);
+      }
+    }
+  }
+
+  /** A block of file data, only valid while it is pinned. */
+  public static final class Block {
+    private final Shard shard;
+    private final BlockKey key;
+    private final ByteBuffer data;
+    private boolean cached;
+    private int pins = 1;
+    private boolean loaded = false;
+    private Exception failure;
+    private int length;
+
+    private Block(Shard shard, BlockKey key, ByteBuffer data, boolean cached) {
+      this.shard = shard;
+      this.key = key;
+      this.data = data;
+      this.cached = cached;
+    }
+
+    /** Number of valid bytes in the block, only smaller than the block size for the last block of a file. */
+    public int length() {
+      return length;
+    }
+
+    public byte get(int offset) {
+      return data.get(offset);
+    }
+
+    public void read(int offset, byte[] dst, int dstOffset, int len) {
+      ByteBuffer view = data.duplicate();
+      view.position(offset);
+      view.get(dst, dstOffset, len);
+    }
+  }
+
+  private static final class BlockKey {
+    private final Path path;
+    private final long mtime;
+    private final long size;
+    private final long blockIdx;
+    private final int hash;
+
+    private BlockKey(Path path, long mtime, long size, long blockIdx) {
+      this.path = path;
+      this.mtime = mtime;
+      this.size = size;
+      this.blockIdx = blockIdx;
+      this.hash = Objects.hash(path, mtime, size, blockIdx);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      BlockKey other = (BlockKey) o;
+      return mtime == other.mtime && size == other.size && blockIdx == other.blockIdx && path.equals(other.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,403 @@
+package de.digitalcollections.solrocr.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.digitalcollections.solrocr.util.MappedFileCache.MappedFile;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A seekable container for compressed OCR files.
+ *
+ * The uncompressed content is split into blocks of a fixed size that are compressed independently with DEFLATE and
+ * followed by an index of the compressed offsets of all blocks. To read from an arbitrary offset in the uncompressed
+ * content, only the block that contains it has to be read and decompressed. All offsets in source pointers and in
+ * the index refer to the <strong>uncompressed</strong> content.
+ *
+ * Layout of a file, all numbers are big-endian:
+ * <pre>
+ * header:  "OCRZ" | version (int32) | uncompressed block size (int32)
+ * blocks:  raw DEFLATE data of every block
+ * index:   uncompressed size (int64) | number of blocks n (int32) | n+1 block offsets (int64), the last one is the
+ *          offset of the index
+ * trailer: index offset (int64) | "OCRZ"
+ * </pre>
+ *
+ * Containers are recognized by their {@value #EXTENSION} file extension. The indexes of recently used containers are
+ * cached, the files themselves are opened through the {@link MappedFileCache}, but never mapped.
+ */
+public class BlockCompressedFile implements AutoCloseable {
+  public static final String EXTENSION = ".ocrz";
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+  private static final byte[] MAGIC = {'O', 'C', 'R', 'Z'};
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 12;
+  private static final int TRAILER_SIZE = 12;
+
+  // Weighed by the number of blocks, caps the memory used by cached indexes to about 32MiB
+  private static final Cache<Path, Index> indexCache = CacheBuilder.newBuilder()
+      .maximumWeight(4 * 1024 * 1024)
+      .weigher((Path p, Index idx) -> idx.blockOffsets.length)
+      .build();
+
+  private final MappedFile file;
+  private final Index index;
+
+  private BlockCompressedFile(MappedFile file, Index index) {
+    this.file = file;
+    this.index = index;
+  }
+
+  /** Whether the file at the path is a block-compressed container. */
+  public static boolean isBlockCompressed(Path path) {
+    return path.getFileName().toString().endsWith(EXTENSION);
+  }
+
+  /**
+   * Open the container at the given path, the caller is responsible for closing it.
+   */
+  public static BlockCompressedFile open(Path path) throws IOException {
+    MappedFile file = MappedFileCache.getInstance().acquire(path);
+    try {
+      Index index = indexCache.getIfPresent(path);
+      if (index == null || index.mtime != file.getLastModified() || index.fileSize != file.getSize()) {
+        index = readIndex(file);
+        indexCache.put(path, index);
+      }
+      return new BlockCompressedFile(file, index);
+    } catch (IOException | RuntimeException e) {
+      file.release();
+      throw e;
+    }
+  }
+
+  /** Get the size of the content of a file, which is the uncompressed size for block-compressed containers. */
+  public static long contentSize(Path path) throws IOException {
+    if (!isBlockCompressed(path)) {
+      return Files.size(path);
+    }
+    try (BlockCompressedFile file = open(path)) {
+      return file.getUncompressedSize();
+    }
+  }
+
+  /** Open a stream over the uncompressed content of a container. */
+  public static InputStream openStream(Path path) throws IOException {
+    return new BlockInputStream(open(path));
+  }
+
+  private static Index readIndex(MappedFile file) throws IOException {
+    FileChannel chan = file.getChannel();
+    long size = file.getSize();
+    if (size < HEADER_SIZE + TRAILER_SIZE) {
+      throw new IOException(String.format("%s is too small to be a block-compressed container.", file.getPath()));
+    }
+    ByteBuffer header = readFully(chan, 0, HEADER_SIZE);
+    ByteBuffer trailer = readFully(chan, size - TRAILER_SIZE, TRAILER_SIZE);
+    if (!hasMagic(header, 0) || !hasMagic(trailer, 8)) {
+      throw new IOException(String.format("%s is not a block-compressed container.", file.getPath()));
+    }
+    int version = header.getInt(4);
+    if (version != VERSION) {
+      throw new IOException(String.format(
+          "%s has unsupported container version %d, expected %d.", file.getPath(), version, VERSION));
+    }
+    int blockSize = header.getInt(8);
+    long indexOffset = trailer.getLong(0);
+    if (indexOffset < HEADER_SIZE || indexOffset > size - TRAILER_SIZE - 12) {
+      throw new IOException(String.format("%s has a corrupt block index.", file.getPath()));
+    }
+    ByteBuffer idx = readFully(chan, indexOffset, (int) (size - TRAILER_SIZE - indexOffset));
+    long uncompressedSize = idx.getLong();
+    int numBlocks = idx.getInt();
+    if (blockSize <= 0 || numBlocks < 0 || idx.remaining() != (numBlocks + 1) * 8
+        || (long) numBlocks * blockSize < uncompressedSize) {
+      throw new IOException(String.format("%s has a corrupt block index.", file.getPath()));
+    }
+    long[] blockOffsets = new long[numBlocks + 1];
+    idx.asLongBuffer().get(blockOffsets);
+    return new Index(file.getLastModified(), size, blockSize, uncompressedSize, blockOffsets);
+  }
+
+  private static ByteBuffer readFully(FileChannel chan, long pos, int len) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(len);
+    while (buf.hasRemaining()) {
+      if (chan.read(buf, pos + buf.position()) < 0) {
+        throw new EOFException();
+      }
+    }
+    buf.flip();
+    return buf;
+  }
+
+  private static boolean hasMagic(ByteBuffer buf, int offset) {
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (buf.get(offset + i) != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compress the input into a new container.
+   *
+   * @param blockSize Uncompressed size of a single block. Smaller blocks make random access cheaper, larger blocks
+   *                  compress better.
+   * @param level DEFLATE compression level, see {@link Deflater}
+   * @return the number of bytes written to the output
+   */
+  public static long compress(InputStream in, OutputStream out, int blockSize, int level) throws IOException {
+    DataOutputStream dataOut = new DataOutputStream(out);
+    dataOut.write(MAGIC);
+    dataOut.writeInt(VERSION);
+    dataOut.writeInt(blockSize);
+    long[] blockOffsets = new long[16];
+    int numBlocks = 0;
+    long uncompressedSize = 0;
+    long offset = HEADER_SIZE;
+    byte[] block = new byte[blockSize];
+    // Deflated data can be slightly larger than the input for incompressible blocks
+    byte[] compressed = new byte[blockSize + blockSize / 16 + 64];
+    Deflater deflater = new Deflater(level, true);
+    try {
+      int len;
+      while ((len = readBlock(in, block)) > 0) {
+        deflater.reset();
+        deflater.setInput(block, 0, len);
+        deflater.finish();
+        if (numBlocks + 1 >= blockOffsets.length) {
+          blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+        }
+        blockOffsets[numBlocks++] = offset;
+        while (!deflater.finished()) {
+          int n = deflater.deflate(compressed);
+          dataOut.write(compressed, 0, n);
+          offset += n;
+        }
+        uncompressedSize += len;
+      }
+    } finally {
+      deflater.end();
+    }
+    blockOffsets[numBlocks] = offset;
+    long indexOffset = offset;
+    dataOut.writeLong(uncompressedSize);
+    dataOut.writeInt(numBlocks);
+    for (int i = 0; i <= numBlocks; i++) {
+      dataOut.writeLong(blockOffsets[i]);
+    }
+    dataOut.writeLong(indexOffset);
+    dataOut.write(MAGIC);
+    dataOut.flush();
+    return dataOut.size();
+  }
+
+  private static int readBlock(InputStream in, byte[] block) throws IOException {
+    int len = 0;
+    while (len < block.length) {
+      int n = in.read(block, len, block.length - len);
+      if (n < 0) {
+        break;
+      }
+      len += n;
+    }
+    return len;
+  }
+
+  public Path getPath() {
+    return file.getPath();
+  }
+
+  public long getUncompressedSize() {
+    return index.uncompressedSize;
+  }
+
+  public int getBlockSize() {
+    return index.blockSize;
+  }
+
+  public int getNumBlocks() {
+    return index.blockOffsets.length - 1;
+  }
+
+  /** Get the offset of a block in the compressed file, the block index may be one past the last block. */
+  public long getCompressedOffset(int blockIdx) {
+    return index.blockOffsets[blockIdx];
+  }
+
+  /** Get the uncompressed length of a block. */
+  public int getBlockLength(int blockIdx) {
+    return (int) Math.min(index.blockSize, index.uncompressedSize - (long) blockIdx * index.blockSize);
+  }
+
+  /** Create a new decoder for the blocks of this file, decoders are not thread-safe. */
+  public BlockDecoder newDecoder() {
+    return new BlockDecoder();
+  }
+
+  @Override
+  public void close() {
+    file.release();
+  }
+
+  /** Decompresses single blocks of the container, holds native resources and has to be closed. */
+  public class BlockDecoder implements AutoCloseable {
+    private final Inflater inflater = new Inflater(true);
+    private byte[] compressed = new byte[0];
+
+    /**
+     * Decompress a block.
+     *
+     * @param dst Destination buffer, must be at least as large as the block size of the container
+     * @return the uncompressed length of the block
+     */
+    public int decode(int blockIdx, byte[] dst) throws IOException {
+      long start = index.blockOffsets[blockIdx];
+      int compressedLen = (int) (index.blockOffsets[blockIdx + 1] - start);
+      // The inflater needs an extra dummy byte for raw DEFLATE data
+      if (compressed.length < compressedLen + 1) {
+        compressed = new byte[compressedLen + 1];
+      }
+      ByteBuffer buf = ByteBuffer.wrap(compressed, 0, compressedLen);
+      while (buf.hasRemaining()) {
+        if (file.getChannel().read(buf, start + buf.position()) < 0) {
+          throw new EOFException(String.format("Block %d of %s is truncated.", blockIdx, file.getPath()));
+        }
+      }
+      int expectedLen = getBlockLength(blockIdx);
+      inflater.reset();
+      inflater.setInput(compressed, 0, compressedLen + 1);
+      int len = 0;
+      try {
+        while (len < expectedLen && !inflater.finished()) {
+          int n = inflater.inflate(dst, len, expectedLen - len);
+          if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          len += n;
+        }
+      } catch (DataFormatException e) {
+        throw new IOException(String.format("Block %d of %s is corrupt: %s", blockIdx, file.getPath(), e.getMessage()));
+      }
+      if (len != expectedLen) {
+        throw new IOException(String.format(
+            "Block %d of %s decompressed to %d bytes, expected %d.", blockIdx, file.getPath(), len, expectedLen));
+      }
+      return len;
+    }
+
+    @Override
+    public void close() {
+      inflater.end();
+    }
+  }
+
+  private static class Index {
+    final long mtime;
+    final long fileSize;
+    final int blockSize;
+    final long uncompressedSize;
+    final long[] blockOffsets;
+
+    Index(long mtime, long fileSize, int blockSize, long uncompressedSize, long[] blockOffsets) {
+      this.mtime = mtime;
+      this.fileSize = fileSize;
+      this.blockSize = blockSize;
+      this.uncompressedSize = uncompressedSize;
+      this.blockOffsets = blockOffsets;
+    }
+  }
+
+  /** Sequential stream over the uncompressed content, used at index time. */
+  private static class BlockInputStream extends InputStream {
+    private final BlockCompressedFile file;
+    private final BlockDecoder decoder;
+    private final byte[] block;
+    private int blockIdx = -1;
+    private int blockLen = 0;
+    private int pos = 0;
+    private boolean closed = false;
+
+    BlockInputStream(BlockCompressedFile file) {
+      this.file = file;
+      this.decoder = file.newDecoder();
+      this.block = new byte[file.getBlockSize()];
+    }
+
+    private boolean fill() throws IOException {
+      while (pos >= blockLen) {
+        if (blockIdx + 1 >= file.getNumBlocks()) {
+          return false;
+        }
+        blockIdx++;
+        blockLen = decoder.decode(blockIdx, block);
+        pos = 0;
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return block[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int n = Math.min(len, blockLen - pos);
+      System.arraycopy(block, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      if (n <= 0) {
+        return 0;
+      }
+      long current = blockIdx < 0 ? 0 : (long) blockIdx * file.getBlockSize() + pos;
+      long target = Math.min(file.getUncompressedSize(), current + n);
+      int targetBlock = (int) (target / file.getBlockSize());
+      if (targetBlock != blockIdx && target < file.getUncompressedSize()) {
+        // Skip over whole blocks without decompressing them
+        blockIdx = targetBlock;
+        blockLen = decoder.decode(blockIdx, block);
+      }
+      pos = (int) (target - (long) blockIdx * file.getBlockSize());
+      if (target == file.getUncompressedSize()) {
+        blockIdx = file.getNumBlocks() - 1;
+        blockLen = pos = 0;
+      }
+      return target - current;
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        decoder.close();
+        file.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package de.digitalcollections.solrocr.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/** Command line tool to convert existing OCR files to {@link BlockCompressedFile} containers.
+ *
+ * Every input file is written to a container next to it, with the {@value BlockCompressedFile#EXTENSION} extension
+ * appended to its name. Since offsets in the containers refer to the uncompressed content, existing source pointers
+ * only need their paths changed, byte regions stay valid.
+ *
+ * Usage: <tt>java -cp solr-ocrhighlighting.jar de.digitalcollections.solrocr.util.BlockCompressedFileConverter
+ * [--block-size BYTES] [--level 0-9] FILE...</tt>
+ */
+public class BlockCompressedFileConverter {
+  private static final String USAGE =
+      "Usage: BlockCompressedFileConverter [--block-size BYTES] [--level 0-9] FILE...";
+
+  public static void main(String[] args) {
+    int blockSize = BlockCompressedFile.DEFAULT_BLOCK_SIZE;
+    int level = Deflater.DEFAULT_COMPRESSION;
+    List<Path> inputs = new ArrayList<>();
+    try {
+      for (int i = 0; i < args.length; i++) {
+        if ("--block-size".equals(args[i])) {
+          blockSize = Integer.parseInt(args[++i]);
+        } else if ("--level".equals(args[i])) {
+          level = Integer.parseInt(args[++i]);
+        } else if ("--help".equals(args[i]) || "-h".equals(args[i])) {
+          System.out.println(USAGE);
+          return;
+        } else {
+          inputs.add(Paths.get(args[i]));
+        }
+      }
+    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      System.err.println(USAGE);
+      System.exit(1);
+    }
+    if (inputs.isEmpty() || blockSize <= 0 || level < Deflater.DEFAULT_COMPRESSION || level > 9) {
+      System.err.println(USAGE);
+      System.exit(1);
+    }
+
+    int numFailed = 0;
+    for (Path input : inputs) {
+      Path output = input.resolveSibling(input.getFileName() + BlockCompressedFile.EXTENSION);
+      try {
+        long compressedSize = convert(input, output, blockSize, level);
+        long size = Files.size(input);
+        System.out.println(String.format(
+            "%s -> %s (%.1f%%)", input, output, size == 0 ? 100.0 : 100.0 * compressedSize / size));
+      } catch (IOException e) {
+        System.err.println(String.format("Could not convert %s: %s", input, e.getMessage()));
+        numFailed++;
+      }
+    }
+    if (numFailed > 0) {
+      System.exit(2);
+    }
+  }
+
+  /**
+   * Convert a single file, the output is written to a temporary file first and only moved to its destination once
+   * it is complete.
+   *
+   * @return the size of the container
+   */
+  public static long convert(Path input, Path output, int blockSize, int level) throws IOException {
+    Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(input));
+         OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+      BlockCompressedFile.compress(in, out, blockSize, level);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return Files.size(output);
+  }
+}
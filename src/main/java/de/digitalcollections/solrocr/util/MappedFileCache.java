@@ -0,0 +1,325 @@
+package de.digitalcollections.solrocr.util;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Process-wide cache of open and memory-mapped OCR files that is shared between highlighting requests.
+ *
+ * Opening a file, mapping it into memory and checking its encoding is comparatively expensive, especially on network
+ * storage. Since popular documents are highlighted over and over again, we keep the channels and mappings of recently
+ * used files around and hand out cheap views on them.
+ *
+ * Files are mapped lazily in fixed-size chunks, similar to Lucene's <tt>MMapDirectory</tt>: A chunk is only mapped
+ * once a consumer accesses it via {@link MappedFile#chunk(int)}. This way, highlighting a few pages from a
+ * multi-gigabyte volume only maps the chunks that contain those pages, and files larger than 2 GiB can be mapped at
+ * all. Consumers that read via positional reads on {@link MappedFile#getChannel()} never create a mapping.
+ *
+ * Entries are keyed by their path and validated against the modification time and size of the file on every lookup,
+ * so a file that was changed on disk is re-mapped transparently. The number of cached files is bounded by a budget of
+ * open file descriptors, the least recently used entries are evicted once it is exceeded. Note that this only bounds
+ * the file descriptors: Closing a file does not unmap its chunks, they stay mapped until the JVM garbage collects
+ * them. The budget thus limits neither the mapped address space nor the memory that is used by mapped pages, the
+ * latter is managed by the operating system's page cache.
+ *
+ * Every entry is reference counted: The cache holds one reference, every user of the file holds another one. This
+ * way, evicting a file that is still being highlighted is safe, its channel is only closed once the last user
+ * released it.
+ */
+public class MappedFileCache {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final int DEFAULT_MAX_OPEN_FILES = 256;
+  public static final int DEFAULT_CHUNK_SIZE_POWER = 26;  // 64 MiB
+
+  private static final MappedFileCache instance = new MappedFileCache(DEFAULT_MAX_OPEN_FILES);
+
+  // Access-ordered, so iteration starts with the least recently used entry
+  private final LinkedHashMap<Path, MappedFile> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final int chunkSizePower;
+  private volatile int maxOpenFiles;
+
+  public static MappedFileCache getInstance() {
+    return instance;
+  }
+
+  MappedFileCache(int maxOpenFiles) {
+    this(maxOpenFiles, DEFAULT_CHUNK_SIZE_POWER);
+  }
+
+  MappedFileCache(int maxOpenFiles, int chunkSizePower) {
+    if (chunkSizePower < 0 || chunkSizePower > 30) {
+      throw new IllegalArgumentException("chunkSizePower must be between 0 and 30");
+    }
+    this.maxOpenFiles = maxOpenFiles;
+    this.chunkSizePower = chunkSizePower;
+  }
+
+  /**
+   * Change the maximum number of files that are kept open by the cache.
+   *
+   * This bounds the open file descriptors, not the mapped memory, see the class documentation.
+   *
+   * @param maxOpenFiles Maximum number of open files, set to 0 to disable caching.
+   */
+  public void setMaxOpenFiles(int maxOpenFiles) {
+    if (maxOpenFiles < 0) {
+      throw new IllegalArgumentException("maxOpenFiles must not be negative");
+    }
+    this.maxOpenFiles = maxOpenFiles;
+    synchronized (entries) {
+      evictExcess();
+    }
+  }
+
+  public int getMaxOpenFiles() {
+    return maxOpenFiles;
+  }
+
+  /**
+   * Obtain a reference to the mapped file at the given path.
+   *
+   * The caller <strong>must</strong> call {@link MappedFile#release()} once it no longer needs the file.
+   */
+  public MappedFile acquire(Path path) throws IOException {
+    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+    long mtime = attrs.lastModifiedTime().toMillis();
+    long size = attrs.size();
+    synchronized (entries) {
+      MappedFile cached = entries.get(path);
+      if (cached != null) {
+        if (cached.mtime == mtime && cached.size == size && cached.retain()) {
+          hits.increment();
+          return cached;
+        }
+        // File was modified on disk, drop the stale mapping
+        entries.remove(path);
+        cached.release();
+      }
+    }
+    misses.increment();
+
+    // Open the file outside of the lock, so slow storage does not block lookups for other files
+    MappedFile loaded = new MappedFile(path, mtime, size, chunkSizePower);
+    if (maxOpenFiles <= 0) {
+      return loaded;
+    }
+    synchronized (entries) {
+      MappedFile raced = entries.get(path);
+      if (raced != null && raced.mtime == mtime && raced.size == size && raced.retain()) {
+        // Another thread was faster, use its mapping and discard ours
+        loaded.release();
+        return raced;
+      }
+      if (raced != null) {
+        entries.remove(path);
+        raced.release();
+      }
+      // One reference for the cache, one for the caller
+      loaded.retain();
+      entries.put(path, loaded);
+      evictExcess();
+    }
+    return loaded;
+  }
+
+  private void evictExcess() {
+    Iterator<MappedFile> it = entries.values().iterator();
+    while (entries.size() > maxOpenFiles && it.hasNext()) {
+      MappedFile eldest = it.next();
+      it.remove();
+      eldest.release();
+      evictions.increment();
+    }
+  }
+
+  /**
+   * Remove a file from the cache, e.g. because its channel was closed by an interrupt.
+   *
+   * Only removes the entry if it is still the cached instance for its path.
+   */
+  public void invalidate(MappedFile file) {
+    synchronized (entries) {
+      if (entries.get(file.path) == file) {
+        entries.remove(file.path);
+        file.release();
+      }
+    }
+  }
+
+  /** Drop all cached files. Files that are still in use are closed once they're released by their users. */
+  public void clear() {
+    synchronized (entries) {
+      entries.values().forEach(MappedFile::release);
+      entries.clear();
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public int getNumOpenFiles() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /** An open and lazily memory-mapped file whose lifetime is managed with reference counting. */
+  public static class MappedFile {
+    private static final int UTF8_SAMPLE_SIZE = 16;
+
+    private final Path path;
+    private final long mtime;
+    private final long size;
+    private final int chunkSizePower;
+    private final FileChannel chan;
+    private final boolean hasUtf8Start;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private final AtomicReferenceArray<MappedByteBuffer> chunks;
+
+    private MappedFile(Path path, long mtime, long size, int chunkSizePower) throws IOException {
+      this.path = path;
+      this.mtime = mtime;
+      this.size = size;
+      this.chunkSizePower = chunkSizePower;
+      long numChunks = (size + (1L << chunkSizePower) - 1) >>> chunkSizePower;
+      this.chunks = new AtomicReferenceArray<>((int) Math.max(1, numChunks));
+      this.chan = FileChannel.open(path, StandardOpenOption.READ);
+      try {
+        this.hasUtf8Start = checkUtf8Start(chan, size);
+      } catch (IOException | RuntimeException e) {
+        chan.close();
+        throw e;
+      }
+    }
+
+    /**
+     * Check if the first bytes of the file are valid UTF-8. A sequence that is cut off at the end of the sample is
+     * not an error, since the sample does not cover the rest of the file.
+     */
+    private static boolean checkUtf8Start(FileChannel chan, long size) throws IOException {
+      ByteBuffer buf = ByteBuffer.allocate((int) Math.min(size, UTF8_SAMPLE_SIZE));
+      while (buf.hasRemaining() && chan.read(buf, buf.position()) >= 0);
+      buf.flip();
+      CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPORT)
+          .onUnmappableCharacter(CodingErrorAction.REPORT);
+      CoderResult result = decoder.decode(buf, CharBuffer.allocate(buf.remaining()), false);
+      return !result.isError();
+    }
+
+    /** Try to obtain an additional reference, fails if the file was already closed. */
+    boolean retain() {
+      int count;
+      do {
+        count = refCount.get();
+        if (count <= 0) {
+          return false;
+        }
+      } while (!refCount.compareAndSet(count, count + 1));
+      return true;
+    }
+
+    /** Obtain an additional reference to a file the caller already holds a reference to. */
+    public MappedFile share() {
+      if (!retain()) {
+        throw new IllegalStateException("File at " + path + " was already released.");
+      }
+      return this;
+    }
+
+    /** Give up a reference to the file, the underlying channel is closed once no references remain. */
+    public void release() {
+      if (refCount.decrementAndGet() == 0) {
+        try {
+          chan.close();
+        } catch (IOException e) {
+          log.warn("Encountered error while closing mapped file at {}: {}", path, e.getMessage());
+        }
+      }
+    }
+
+    /**
+     * Get a new view on a chunk of the mapped file contents with an independent position and limit, the chunk is
+     * mapped on first access.
+     *
+     * The chunk with index <tt>i</tt> starts at byte offset <tt>i &lt;&lt; getChunkSizePower()</tt> in the file.
+     */
+    public ByteBuffer chunk(int chunkIdx) throws IOException {
+      MappedByteBuffer mapped = chunks.get(chunkIdx);
+      if (mapped == null) {
+        long start = (long) chunkIdx << chunkSizePower;
+        long len = Math.min(1L << chunkSizePower, size - start);
+        mapped = chan.map(MapMode.READ_ONLY, start, len);
+        if (!chunks.compareAndSet(chunkIdx, null, mapped)) {
+          // Another thread was faster, use its mapping
+          mapped = chunks.get(chunkIdx);
+        }
+      }
+      return mapped.duplicate();
+    }
+
+    public int getChunkSizePower() {
+      return chunkSizePower;
+    }
+
+    /**
+     * Get the underlying channel, only to be used for positional reads.
+     *
+     * Note that the channel is shared between all users of the file, so it must never be closed or repositioned by a
+     * consumer.
+     */
+    public FileChannel getChannel() {
+      return chan;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getLastModified() {
+      return mtime;
+    }
+
+    /** Whether the beginning of the file looks like UTF-8, determined once when the file was mapped. */
+    public boolean hasUtf8Start() {
+      return hasUtf8Start;
+    }
+  }
+}
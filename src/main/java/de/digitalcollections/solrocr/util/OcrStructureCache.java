@@ -0,0 +1,173 @@
+package de.digitalcollections.solrocr.util;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import de.digitalcollections.solrocr.model.OcrBlock;
+import de.digitalcollections.solrocr.model.OcrFormat;
+import de.digitalcollections.solrocr.model.OcrStructure;
+import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.model.SourcePointer.FileSource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Per-core cache of the structure of OCR documents that were indexed without one.
+ *
+ * Documents indexed before {@link de.digitalcollections.solrocr.solr.OcrPointerField} recorded the structure of their
+ * OCR (or indexed with a plain text field) have to be scanned for tags on every highlighting request. For these, the
+ * structure is built on the first highlight of their files and kept off-heap, so later highlights of the same files
+ * can determine the passage boundaries and pages from the recorded offsets. Unlike the index-time structure, words
+ * are recorded as well.
+ *
+ * Entries are keyed by the paths, versions (i.e. modification times) and sizes of the files, so a file that changed
+ * on disk is scanned again. Versions are looked up at most once per file and expiry interval. The cache is bounded by
+ * the memory taken up by the offsets, the least recently used entries are evicted first.
+ */
+public class OcrStructureCache {
+  private static final Logger log = LoggerFactory.getLogger(OcrStructureCache.class);
+
+  public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+  private static final OcrBlock[] CACHED_BLOCKS = OcrBlock.values();
+
+  private final Cache<StructureKey, OcrStructure> structures;
+  private final Cache<Path, String> versions;
+  private final long maxBytes;
+
+  public OcrStructureCache(long maxBytes, int maxFiles, long ttlMillis) {
+    this(maxBytes, maxFiles, ttlMillis, Ticker.systemTicker());
+  }
+
+  OcrStructureCache(long maxBytes, int maxFiles, long ttlMillis, Ticker ticker) {
+    this.maxBytes = maxBytes;
+    this.structures = CacheBuilder.newBuilder()
+        // Lookups happen once per highlighted document, a single segment doesn't hurt and makes the eviction order
+        // strictly least recently used across all entries
+        .concurrencyLevel(1)
+        .maximumWeight(maxBytes)
+        .weigher((StructureKey k, OcrStructure s) -> (int) Math.min(Integer.MAX_VALUE, s.getByteSize()))
+        .recordStats()
+        .build();
+    this.versions = CacheBuilder.newBuilder()
+        .maximumSize(maxFiles)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .ticker(ticker)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Get the structure of the content the pointer references, scanning its sources if it is not cached yet.
+   *
+   * @return the structure or <tt>null</tt> if none can be built for the pointer, e.g. because its regions cover too
+   *         little of its sources or because they could not be read
+   */
+  public OcrStructure get(SourcePointer ptr, OcrFormat format) {
+    if (!OcrStructure.isScannable(ptr, format, CACHED_BLOCKS)) {
+      return null;
+    }
+    try {
+      StructureKey key = getKey(ptr);
+      return structures.get(key, () -> OcrStructure.scan(ptr, format, CACHED_BLOCKS).toDirect());
+    } catch (IOException | ExecutionException | UncheckedExecutionException e) {
+      // Highlighting falls back to scanning the content, which will report any actual problems
+      log.debug("Could not determine structure of {}: {}", ptr.sources, e.getMessage());
+      return null;
+    }
+  }
+
+  private StructureKey getKey(SourcePointer ptr) throws IOException {
+    List<FileKey> files = new ArrayList<>(ptr.sources.size());
+    for (FileSource src : ptr.sources) {
+      try {
+        String version = versions.get(src.path, () -> SourceFiles.version(src.path));
+        files.add(new FileKey(src.path, version, src.size));
+      } catch (ExecutionException e) {
+        throw new IOException(e.getCause());
+      }
+    }
+    return new StructureKey(files);
+  }
+
+  public void clear() {
+    structures.invalidateAll();
+    versions.invalidateAll();
+  }
+
+  public CacheStats getStats() {
+    return structures.stats();
+  }
+
+  public long getNumStructures() {
+    return structures.size();
+  }
+
+  public long getBytesUsed() {
+    return structures.asMap().values().stream().mapToLong(OcrStructure::getByteSize).sum();
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  private static final class FileKey {
+    private final Path path;
+    private final String version;
+    private final long size;
+
+    FileKey(Path path, String version, long size) {
+      this.path = path;
+      this.version = version;
+      this.size = size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      FileKey that = (FileKey) o;
+      return size == that.size && path.equals(that.path) && version.equals(that.version);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, version, size);
+    }
+  }
+
+  private static final class StructureKey {
+    private final List<FileKey> files;
+
+    StructureKey(List<FileKey> files) {
+      this.files = files;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      return files.equals(((StructureKey) o).files);
+    }
+
+    @Override
+    public int hashCode() {
+      return files.hashCode();
+    }
+  }
+}
@@ -1,23 +1,28 @@
 package de.digitalcollections.solrocr.util;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.digitalcollections.solrocr.model.SourcePointer;
 import de.digitalcollections.solrocr.model.SourcePointer.FileSource;
 import de.digitalcollections.solrocr.model.SourcePointer.Region;
+import de.digitalcollections.solrocr.storage.StorageRegistry;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SeekableByteChannel;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
 
 /** Utility to concurrently "warm" the OS page cache with files that will be used for highlighting.
  *
@@ -30,110 +35,670 @@ import java.util.concurrent.TimeUnit;
  * concurrent way, we pre-populate the operating system's page cache, so any I/O performed by the snippet generation
  * process further down the line should only hit the page cache and not incur as much of a latency hit.
  *
- * The class also provides a way to cancel the pre-loading of a given source pointer. This is called at the beginning
+ * Every core has its own warmer with its own worker threads. Reads are scheduled through a {@link Request} that is
+ * created for every highlighting request and carries the request's deadline. Pending reads are ordered by deadline
+ * and then by the rank of their document in the result list, so the documents that are highlighted first are read
+ * first. Requests without a time limit are treated as if they were due {@link #UNTIMED_HORIZON_MS} after they were
+ * started, so they compete with requests that have a time limit instead of always yielding to them, which would
+ * starve them under load. If too many reads are pending, the ones with the lowest priority are dropped. Reads of the
+ * same byte range of a file are only performed once, even if they were scheduled by multiple concurrent requests.
+ *
+ * The request also provides a way to cancel the pre-loading of a given source pointer. This is called at the beginning
  * of the snippet generation process, since at that point any background I/O on the target files will only add to the
- * latency we might experience anyway.
+ * latency we might experience anyway. A read that was scheduled by multiple requests is only cancelled once all of
+ * them are no longer interested in it.
+ *
+ * The number of concurrent reads and the read size can be adapted to the observed performance of the storage at
+ * runtime, see {@link AdaptiveIoController}.
+ *
+ * For large documents with few hits, reading the whole source is wasteful, since highlighting only ever touches the
+ * areas around the matches. In the <strong>hit-targeted</strong> mode, only windows around the match offsets are
+ * read, together with the area between each window and the start of the page it is located on, which is needed
+ * to determine the page of a snippet.
  */
 public class PageCacheWarmer {
-  private static final int MAX_PENDING_JOBS = 128;
+  /** Deadline for requests without a time limit. */
+  public static final long NO_DEADLINE = Long.MAX_VALUE;
+  /** Time in milliseconds after their start at which the reads of requests without a time limit are due. */
+  public static final long UNTIMED_HORIZON_MS = 10_000;
 
-  // The singleton instance of the cache warmer
-  private static PageCacheWarmer instance;
+  private static final int MAX_PENDING_JOBS = 128;
+  // Maximum number of bytes to scan backwards from a hit window to find the start of its page
+  private static final int MAX_PAGE_SCAN = 8 * 1024 * 1024;
 
   // This is the read buffer for every worker thread, so we only do as many allocations as necessary
-  private final ThreadLocal<ByteBuffer> localBuf;
+  private final ThreadLocal<ByteBuffer> localBuf = new ThreadLocal<>();
+  private final int minReadSize;
+  private final AdaptiveIoController ioController;
+  private final int hitWindow;
 
-  // Set of pending preload operations for file sources, used to allow the cancelling of preloading tasks
-  private final Set<FileSource> pendingPreloads = ConcurrentHashMap.newKeySet(MAX_PENDING_JOBS);
+  // Pending reads in order of priority and all pending or running reads by their range, both guarded by `this`
+  private final TreeSet<ReadTask> queue = new TreeSet<>();
+  private final Map<RangeKey, ReadTask> pendingReads = new HashMap<>();
+  private long requestCounter = 0;
+  private long taskCounter = 0;
+  private int numRunning = 0;
+  private volatile boolean shutdown = false;
 
-  private final ExecutorService service;
+  private final LongAdder numScheduled = new LongAdder();
+  private final LongAdder numDeduplicated = new LongAdder();
+  private final LongAdder numDropped = new LongAdder();
+  private final LongAdder numCancelled = new LongAdder();
+  private final LongAdder numCompleted = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder numHits = new LongAdder();
+  private final LongAdder numMisses = new LongAdder();
 
   /**
-   * Enable the page cache warmer.
+   * Create a new page cache warmer and start its worker threads.
    *
-   * @param readBufSize Size of blocks to read for cache warming. Should match the block size of the underlying storage
-   *                    layer for best performance.
+   * @param readSize Size of blocks to read for cache warming. Should match the block size of the underlying storage
+   *                 layer for best performance.
    * @param numThreads Number of worker threads to use for cache warming. Should match the number of parallel I/O
    *                   operations that are possible with the storage layer
+   * @param hitWindow Number of bytes to read before and after every hit in hit-targeted mode, if zero or less, the
+   *                  complete sources are read
    */
-  public static void enable(int readBufSize, int numThreads) {
-    if (instance == null) {
-      instance = new PageCacheWarmer(readBufSize, numThreads);
+  public PageCacheWarmer(int readSize, int numThreads, int hitWindow) {
+    this(readSize, readSize, numThreads, numThreads, hitWindow);
+  }
+
+  /**
+   * Create a new page cache warmer that adapts the read size and the number of concurrent reads to the storage
+   * performance within the given bounds.
+   *
+   * @param minReadSize Lower bound for the read size, also the initial read size and the step size for changes.
+   * @param maxReadSize Upper bound for the read size
+   * @param minThreads Lower bound for the number of concurrent reads, also the initial number
+   * @param maxThreads Upper bound for the number of concurrent reads, this many worker threads are started
+   * @param hitWindow Number of bytes to read before and after every hit in hit-targeted mode, if zero or less, the
+   *                  complete sources are read
+   */
+  public PageCacheWarmer(int minReadSize, int maxReadSize, int minThreads, int maxThreads, int hitWindow) {
+    this.minReadSize = minReadSize;
+    this.hitWindow = hitWindow;
+    this.ioController = new AdaptiveIoController(minThreads, maxThreads, minReadSize, maxReadSize);
+    ThreadFactory threadFactory = new ThreadFactoryBuilder()
+        .setNameFormat("solr-ocrhighlighting-cache-warmer-%d")
+        .setDaemon(true)
+        .build();
+    for (int i = 0; i < maxThreads; i++) {
+      threadFactory.newThread(this::work).start();
     }
   }
 
-  public static Optional<PageCacheWarmer> getInstance() {
-    return Optional.ofNullable(instance);
+  /** Whether only the areas around the hits should be read, see {@link Request#preloadHits}. */
+  public boolean isHitTargeted() {
+    return hitWindow > 0;
   }
 
+  /**
+   * Start a new highlighting request.
+   *
+   * @param deadline Time in epoch milliseconds by which the request has to be done, or {@link #NO_DEADLINE}
+   */
+  public synchronized Request newRequest(long deadline) {
+    if (deadline == NO_DEADLINE) {
+      deadline = System.currentTimeMillis() + UNTIMED_HORIZON_MS;
+    }
+    return new Request(deadline, requestCounter++);
+  }
+
+  /** Handle for the reads of a single highlighting request. */
+  public final class Request implements AutoCloseable {
+    private final long deadline;
+    private final long seq;
+    // Reads for every source pointer of the request, guarded by the warmer
+    private final Map<SourcePointer, List<ReadTask>> reads = new IdentityHashMap<>();
+    private boolean closed = false;
 
-  private PageCacheWarmer(int bufSize, int numThreads) {
-    this.localBuf = ThreadLocal.withInitial(() -> ByteBuffer.allocate(bufSize));
-    this.service = new ThreadPoolExecutor(
-        numThreads, numThreads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<>(MAX_PENDING_JOBS),
-        new ThreadFactoryBuilder().setNameFormat("solr-ocrhighlighting-cache-warmer-%d").build(),
-        new ThreadPoolExecutor.DiscardOldestPolicy());
+    private Request(long deadline, long seq) {
+      this.deadline = deadline;
+      this.seq = seq;
+    }
+
+    /**
+     * Populate the OS page cache with the targets of the source pointer.
+     *
+     * @param rank Rank of the document in the result list, lower ranks are read first
+     */
+    public void preload(SourcePointer ptr, int rank) {
+      if (ptr == null) {
+        return;
+      }
+      for (FileSource source : ptr.sources) {
+        try {
+          if (source.regions.isEmpty()) {
+            schedule(this, ptr, fileRange(source.path, 0, -1), null, 0, rank);
+            continue;
+          }
+          for (Region region : source.regions) {
+            schedule(this, ptr, fileRange(source.path, region.start, region.end), null, 0, rank);
+          }
+        } catch (IOException e) {
+          // NOP, highlighting will report the error
+        }
+      }
+    }
+
+    /**
+     * Populate the OS page cache with the areas around the given hits in the targets of the source pointer.
+     *
+     * @param ptr Source pointer of the document
+     * @param hitOffsets Byte offsets of the hits in the concatenated sources, as stored in the index
+     * @param pageMarker Marker for the start of a page in the OCR format, the area between every hit window and the
+     *                   preceding marker is read as well. If <tt>null</tt>, only the windows are read.
+     * @param rank Rank of the document in the result list, lower ranks are read first
+     */
+    public void preloadHits(SourcePointer ptr, int[] hitOffsets, String pageMarker, int rank) {
+      if (ptr == null || hitOffsets.length == 0) {
+        return;
+      }
+      int[] hits = hitOffsets.clone();
+      Arrays.sort(hits);
+      byte[] marker = pageMarker == null ? null : pageMarker.getBytes(StandardCharsets.US_ASCII);
+      long fileStart = 0;
+      for (FileSource source : ptr.sources) {
+        try {
+          long fileSize = SourceFiles.contentSize(source.path);
+          long[] windows = hitWindows(hits, fileStart, fileSize, hitWindow, minReadSize);
+          fileStart += fileSize;
+          if (SourceFiles.isPacked(source.path)) {
+            // The marker can't be found in compressed or archived data, only read the parts of the windows
+            for (int i = 0; i < windows.length; i += 2) {
+              schedule(this, ptr, fileRange(source.path, windows[i], windows[i + 1]), null, 0, rank);
+            }
+            continue;
+          }
+          for (int i = 0; i < windows.length; i += 2) {
+            // Don't scan for the page start beyond the previous window, that area is already being read
+            long scanLimit = i == 0 ? 0 : windows[i - 1];
+            schedule(this, ptr, new RangeKey(source.path, windows[i], windows[i + 1]), marker, scanLimit, rank);
+          }
+        } catch (IOException e) {
+          // Can't map the remaining offsets without the file size, highlighting will report the error
+          return;
+        }
+      }
+    }
+
+    /**
+     * Cancel all pending reads for the given source pointer, called when highlighting of the document starts.
+     */
+    public void finish(SourcePointer ptr) {
+      if (ptr == null) {
+        return;
+      }
+      synchronized (PageCacheWarmer.this) {
+        List<ReadTask> tasks = reads.remove(ptr);
+        if (tasks == null) {
+          return;
+        }
+        boolean complete = true;
+        for (ReadTask task : tasks) {
+          complete &= task.done;
+          release(task, this);
+        }
+        if (complete) {
+          numHits.increment();
+        } else {
+          numMisses.increment();
+        }
+      }
+    }
+
+    /** Cancel all reads of the request that are still pending. */
+    @Override
+    public void close() {
+      synchronized (PageCacheWarmer.this) {
+        closed = true;
+        reads.values().forEach(tasks -> tasks.forEach(t -> release(t, this)));
+        reads.clear();
+      }
+    }
   }
 
   /**
-   * Reads the file source in 32KiB chunks
-   * @param src file source
+   * Get the range of a file that has to be read for a range of its content, for block-compressed containers these
+   * are the compressed blocks that contain the range, for ZIP entries the range in the archive.
    */
-  private void preload(FileSource src) {
-    ByteBuffer buf = localBuf.get();
-    try (SeekableByteChannel channel = Files.newByteChannel(src.path, StandardOpenOption.READ)) {
-      List<Region> regions;
-      if (src.regions.isEmpty()) {
-        regions = ImmutableList.of(new Region(0, (int) channel.size()));
-      } else {
-        regions = src.regions;
-      }
-      for (Region region : regions) {
-        channel.position(region.start);
-        int remainingSize = region.end - region.start;
-        while (remainingSize > 0) {
-          // Read and immediately clear the buffer, we don't need the data
-          remainingSize -= channel.read(buf);
-          buf.clear();
-          if (Thread.interrupted() || !pendingPreloads.contains(src)) {
+  private static RangeKey fileRange(Path path, long start, long end) throws IOException {
+    if (ZipArchive.isZipEntry(path)) {
+      try (ZipArchive archive = ZipArchive.open(ZipArchive.getArchivePath(path))) {
+        ZipArchive.Entry entry = archive.getEntry(ZipArchive.getEntryName(path));
+        long dataOffset = archive.getDataOffset(entry);
+        if (!entry.isStored()) {
+          // DEFLATED entries can only be inflated as a whole
+          return new RangeKey(archive.getPath(), dataOffset, dataOffset + entry.getCompressedSize());
+        }
+        long contentEnd = end < 0 ? entry.getSize() : Math.min(end, entry.getSize());
+        return new RangeKey(archive.getPath(), dataOffset + Math.min(start, contentEnd), dataOffset + contentEnd);
+      }
+    }
+    if (!BlockCompressedFile.isBlockCompressed(path)) {
+      return new RangeKey(path, start, end);
+    }
+    try (BlockCompressedFile file = BlockCompressedFile.open(path)) {
+      long contentEnd = end < 0 ? file.getUncompressedSize() : Math.min(end, file.getUncompressedSize());
+      int firstBlock = (int) (start / file.getBlockSize());
+      int lastBlock = (int) ((contentEnd + file.getBlockSize() - 1) / file.getBlockSize());
+      return new RangeKey(path, file.getCompressedOffset(Math.min(firstBlock, file.getNumBlocks())),
+                          file.getCompressedOffset(Math.min(lastBlock, file.getNumBlocks())));
+    }
+  }
+
+  private synchronized void schedule(Request request, SourcePointer ptr, RangeKey key, byte[] marker, long scanLimit,
+                                     int rank) {
+    if (shutdown || request.closed) {
+      return;
+    }
+    ReadTask task = pendingReads.get(key);
+    if (task != null && task.cancelled) {
+      // A cancelled read that is still running stops at the next chunk, so it can't serve the new request
+      pendingReads.remove(key);
+      task = null;
+    }
+    if (task != null) {
+      numDeduplicated.increment();
+      if (!task.running && task.hasLowerPriority(request.deadline, rank, request.seq)) {
+        queue.remove(task);
+        task.setPriority(request.deadline, rank, request.seq);
+        queue.add(task);
+      }
+    } else {
+      task = new ReadTask(key, marker, scanLimit, taskCounter++);
+      task.setPriority(request.deadline, rank, request.seq);
+      if (queue.size() >= MAX_PENDING_JOBS) {
+        ReadTask lowest = queue.last();
+        numDropped.increment();
+        if (lowest.compareTo(task) < 0) {
+          // Everything that's pending is more important than the new read
+          return;
+        }
+        queue.pollLast();
+        pendingReads.remove(lowest.key);
+        lowest.cancelled = true;
+      }
+      queue.add(task);
+      pendingReads.put(key, task);
+      numScheduled.increment();
+      notify();
+    }
+    task.owners.add(request);
+    request.reads.computeIfAbsent(ptr, p -> new ArrayList<>()).add(task);
+  }
+
+  /** Remove the request from the owners of the task and cancel the task if no request is interested in it anymore */
+  private void release(ReadTask task, Request request) {
+    task.owners.remove(request);
+    if (!task.owners.isEmpty() || task.done || task.cancelled) {
+      return;
+    }
+    task.cancelled = true;
+    numCancelled.increment();
+    if (!task.running) {
+      queue.remove(task);
+      pendingReads.remove(task.key, task);
+    }
+  }
+
+  private void work() {
+    while (true) {
+      ReadTask task;
+      synchronized (this) {
+        while ((queue.isEmpty() || numRunning >= ioController.getConcurrency()) && !shutdown) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
             return;
           }
         }
+        if (shutdown) {
+          return;
+        }
+        task = queue.pollFirst();
+        task.running = true;
+        numRunning++;
+      }
+      try {
+        read(task);
+      } finally {
+        synchronized (this) {
+          numRunning--;
+          // A slot for another read is free now
+          notify();
+          task.done = true;
+          pendingReads.remove(task.key, task);
+          if (!task.cancelled) {
+            numCompleted.increment();
+          }
+        }
+      }
+    }
+  }
+
+  private void read(ReadTask task) {
+    int readSize = ioController.getReadSize();
+    if (StorageRegistry.isRemote(task.key.path)) {
+      readRemote(task, readSize);
+      return;
+    }
+    ByteBuffer buf = localBuf.get();
+    if (buf == null || buf.capacity() != readSize) {
+      buf = ByteBuffer.allocate(readSize);
+      localBuf.set(buf);
+    }
+    try (FileChannel channel = FileChannel.open(task.key.path, StandardOpenOption.READ)) {
+      if (task.marker != null) {
+        // Scanning backwards reads the area before the window, which is what we want to warm anyway
+        long scanLimit = Math.max(task.scanLimit, task.key.start - MAX_PAGE_SCAN);
+        findPrecedingMarker(channel, task.key.start, scanLimit, task.marker, buf);
+      }
+      long end = task.key.end < 0 ? channel.size() : task.key.end;
+      long pos = task.key.start;
+      while (pos < end) {
+        // Read and immediately discard the data, we only want it in the page cache
+        buf.clear();
+        buf.limit((int) Math.min(buf.capacity(), end - pos));
+        long readStart = System.nanoTime();
+        int read = channel.read(buf, pos);
+        if (read < 0) {
+          break;
+        }
+        if (ioController.record(System.nanoTime() - readStart, read, getQueueDepth() > 0)) {
+          // More reads are allowed to run concurrently now
+          synchronized (this) {
+            notifyAll();
+          }
+        }
+        pos += read;
+        bytesRead.add(read);
+        if (task.cancelled || shutdown) {
+          return;
+        }
       }
     } catch (IOException e) {
       // NOP, this method only serves to populate the page cache, so we don't care about I/O errors.
-    } finally {
-      pendingPreloads.remove(src);
+    }
+  }
+
+  /** Populate the remote block cache instead of the page cache for files in remote storage. */
+  private void readRemote(ReadTask task, int readSize) {
+    StorageRegistry registry = StorageRegistry.getInstance();
+    try {
+      long end = task.key.end < 0 ? registry.stat(task.key.path).getSize() : task.key.end;
+      long pos = task.key.start;
+      while (pos < end) {
+        int len = (int) Math.min(readSize, end - pos);
+        long readStart = System.nanoTime();
+        registry.prefetch(task.key.path, pos, pos + len);
+        if (ioController.record(System.nanoTime() - readStart, len, getQueueDepth() > 0)) {
+          synchronized (this) {
+            notifyAll();
+          }
+        }
+        pos += len;
+        bytesRead.add(len);
+        if (task.cancelled || shutdown) {
+          return;
+        }
+      }
+    } catch (IOException e) {
+      // NOP, highlighting will report the error
     }
   }
 
   /**
-   * Populate the OS page cache with the targets of the source pointer.
+   * Determine the merged windows in a single file that cover the given hits.
+   *
+   * @param hits sorted hit offsets in the concatenated sources
+   * @param fileStart offset of the file in the concatenated sources
+   * @param fileSize size of the file
+   * @param window number of bytes to include before and after every hit
+   * @param alignment the windows are extended to multiples of this
+   * @return start and end offsets of the windows in the file, in alternating order
    */
-  public void preload(SourcePointer ptr) {
-    if (ptr == null) {
-      return;
+  static long[] hitWindows(int[] hits, long fileStart, long fileSize, int window, int alignment) {
+    long[] windows = new long[8];
+    int numWindows = 0;
+    int idx = Arrays.binarySearch(hits, (int) Math.min(Integer.MAX_VALUE, Math.max(0, fileStart - window)));
+    if (idx < 0) {
+      idx = -idx - 1;
+    }
+    // Step back to the first of multiple identical hits
+    while (idx > 0 && hits[idx - 1] >= fileStart - window) {
+      idx--;
     }
-    for (FileSource source : ptr.sources) {
-      if (pendingPreloads.contains(source)) {
+    for (; idx < hits.length && hits[idx] < fileStart + fileSize + window; idx++) {
+      long start = Math.max(0, hits[idx] - fileStart - window);
+      long end = Math.min(fileSize, hits[idx] - fileStart + window);
+      start -= start % alignment;
+      end = Math.min(fileSize, end + (alignment - end % alignment) % alignment);
+      if (start >= end) {
+        continue;
+      }
+      if (numWindows > 0 && start <= windows[2 * numWindows - 1]) {
+        windows[2 * numWindows - 1] = Math.max(end, windows[2 * numWindows - 1]);
         continue;
       }
-      pendingPreloads.add(source);
-      service.submit(() -> preload(source));
+      if (2 * numWindows == windows.length) {
+        windows = Arrays.copyOf(windows, windows.length * 2);
+      }
+      windows[2 * numWindows] = start;
+      windows[2 * numWindows + 1] = end;
+      numWindows++;
     }
+    return Arrays.copyOf(windows, 2 * numWindows);
   }
 
   /**
-   * Cancel all running and pending preloading tasks for the given source pointer.
+   * Scan backwards in buffer-sized chunks from the given position until the marker is found.
+   *
+   * @return the offset of the closest marker before <tt>pos</tt>, or <tt>-1</tt> if there is none after
+   *         <tt>limit</tt>
    */
-  public void cancelPreload(SourcePointer ptr) {
-    if (ptr == null) {
-      return;
+  static long findPrecedingMarker(FileChannel channel, long pos, long limit, byte[] marker, ByteBuffer buf)
+      throws IOException {
+    byte[] data = buf.array();
+    while (pos > limit) {
+      long chunkStart = Math.max(limit, pos - buf.capacity());
+      int len = (int) (pos - chunkStart);
+      buf.clear();
+      buf.limit(len);
+      while (buf.hasRemaining()) {
+        if (channel.read(buf, chunkStart + buf.position()) < 0) {
+          return -1;
+        }
+      }
+      for (int i = len - marker.length; i >= 0; i--) {
+        if (regionMatches(data, i, marker)) {
+          return chunkStart + i;
+        }
+      }
+      if (chunkStart == limit || len <= marker.length) {
+        break;
+      }
+      // Overlap the chunks so we find markers that straddle a chunk boundary
+      pos = chunkStart + marker.length - 1;
     }
-    ptr.sources.forEach(pendingPreloads::remove);
+    return -1;
+  }
+
+  private static boolean regionMatches(byte[] data, int offset, byte[] marker) {
+    for (int i = 0; i < marker.length; i++) {
+      if (data[offset + i] != marker[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Number of reads that are waiting for a worker. */
+  public synchronized int getQueueDepth() {
+    return queue.size();
+  }
+
+  /** Number of reads that are currently performed. */
+  public synchronized int getNumRunning() {
+    return numRunning;
+  }
+
+  public long getNumScheduled() {
+    return numScheduled.sum();
+  }
+
+  /** Number of reads that were not scheduled since an identical read was already pending. */
+  public long getNumDeduplicated() {
+    return numDeduplicated.sum();
+  }
+
+  /** Number of reads that were dropped since the queue was full with more important reads. */
+  public long getNumDropped() {
+    return numDropped.sum();
+  }
+
+  public long getNumCancelled() {
+    return numCancelled.sum();
+  }
+
+  public long getNumCompleted() {
+    return numCompleted.sum();
+  }
+
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  /** Current number of concurrent reads. */
+  public int getConcurrency() {
+    return ioController.getConcurrency();
   }
 
+  /** Current size of a single read in bytes. */
+  public int getReadSize() {
+    return ioController.getReadSize();
+  }
+
+  /** Average latency of a single read in the last measurement interval, in milliseconds. */
+  public double getReadLatencyMillis() {
+    return ioController.getLatencyMillis();
+  }
+
+  /** Read throughput in the last measurement interval, in bytes per second. */
+  public double getThroughput() {
+    return ioController.getThroughput();
+  }
+
+  /** Number of times the concurrency and read size were increased. */
+  public long getNumIncreases() {
+    return ioController.getNumIncreases();
+  }
+
+  /** Number of times the concurrency and read size were decreased due to congestion. */
+  public long getNumDecreases() {
+    return ioController.getNumDecreases();
+  }
+
+  /** Number of documents whose reads were all done by the time highlighting started. */
+  public long getHits() {
+    return numHits.sum();
+  }
+
+  /** Number of documents that had reads pending when highlighting started. */
+  public long getMisses() {
+    return numMisses.sum();
+  }
+
+  /** Stop the worker threads and discard all pending reads. */
   public void shutdown() {
-    service.shutdownNow();
+    synchronized (this) {
+      shutdown = true;
+      queue.clear();
+      pendingReads.clear();
+      notifyAll();
+    }
+  }
+
+  /** A file and a byte range in it, the end is negative for reads up to the end of the file. */
+  private static final class RangeKey {
+    final Path path;
+    final long start;
+    final long end;
+
+    RangeKey(Path path, long start, long end) {
+      this.path = path;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      RangeKey that = (RangeKey) o;
+      return start == that.start && end == that.end && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, start, end);
+    }
+  }
+
+  private static final class ReadTask implements Comparable<ReadTask> {
+    final RangeKey key;
+    final byte[] marker;
+    final long scanLimit;
+    final long seq;
+    // Priority, only modified while the task is not queued
+    long deadline;
+    int rank;
+    long requestSeq;
+    // Requests that are interested in the read, guarded by the warmer
+    final Set<Request> owners = new HashSet<>();
+    boolean running = false;
+    volatile boolean done = false;
+    volatile boolean cancelled = false;
+
+    ReadTask(RangeKey key, byte[] marker, long scanLimit, long seq) {
+      this.key = key;
+      this.marker = marker;
+      this.scanLimit = scanLimit;
+      this.seq = seq;
+    }
+
+    void setPriority(long deadline, int rank, long requestSeq) {
+      this.deadline = deadline;
+      this.rank = rank;
+      this.requestSeq = requestSeq;
+    }
+
+    boolean hasLowerPriority(long deadline, int rank, long requestSeq) {
+      if (this.deadline != deadline) {
+        return this.deadline > deadline;
+      }
+      if (this.rank != rank) {
+        return this.rank > rank;
+      }
+      return this.requestSeq > requestSeq;
+    }
+
+    @Override
+    public int compareTo(ReadTask other) {
+      if (deadline != other.deadline) {
+        return Long.compare(deadline, other.deadline);
+      }
+      if (rank != other.rank) {
+        return Integer.compare(rank, other.rank);
+      }
+      if (requestSeq != other.requestSeq) {
+        return Long.compare(requestSeq, other.requestSeq);
+      }
+      return Long.compare(seq, other.seq);
+    }
   }
 }
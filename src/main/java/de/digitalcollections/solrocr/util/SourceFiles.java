@@ -0,0 +1,82 @@
+package de.digitalcollections.solrocr.util;
+
+import de.digitalcollections.solrocr.storage.StorageRegistry;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Access to the content of OCR source files, independent of how they are stored.
+ *
+ * Sources can be plain files, {@link BlockCompressedFile} containers, entries in a {@link ZipArchive} or files in
+ * remote storage that is accessed via the {@link StorageRegistry}. In all cases, sizes and streams refer to the
+ * uncompressed content, which is what the offsets in the index point into. Containers and archives have to be stored
+ * locally.
+ */
+public class SourceFiles {
+  private SourceFiles() {
+  }
+
+  /** Whether the content of the source can't be read directly from a file with the same path. */
+  public static boolean isPacked(Path path) {
+    return StorageRegistry.isRemote(path) || BlockCompressedFile.isBlockCompressed(path)
+        || ZipArchive.isZipEntry(path);
+  }
+
+  /** Check that the source exists and can be read, throws a {@link FileNotFoundException} otherwise. */
+  public static void checkReadable(Path path) throws IOException {
+    if (StorageRegistry.isRemote(path)) {
+      // Fails if there is no such object
+      StorageRegistry.getInstance().stat(path);
+    } else if (ZipArchive.isZipEntry(path)) {
+      Path archivePath = ZipArchive.getArchivePath(path);
+      if (!Files.isRegularFile(archivePath) || !Files.isReadable(archivePath)) {
+        throw new FileNotFoundException(String.format("Archive at %s could not be found", archivePath));
+      }
+      // Fails if there is no such entry
+      ZipArchive.contentSize(path);
+    } else if (!Files.exists(path)) {
+      throw new FileNotFoundException(String.format("File at %s could not be found", path));
+    } else if (Files.isDirectory(path)) {
+      throw new FileNotFoundException(String.format("File at %s is a directory", path));
+    } else if (!Files.isReadable(path)) {
+      throw new FileNotFoundException(String.format("File at %s cannot be read", path));
+    }
+  }
+
+  /** Get the size of the content of the source. */
+  public static long contentSize(Path path) throws IOException {
+    if (StorageRegistry.isRemote(path)) {
+      return StorageRegistry.getInstance().stat(path).getSize();
+    } else if (ZipArchive.isZipEntry(path)) {
+      return ZipArchive.contentSize(path);
+    }
+    return BlockCompressedFile.contentSize(path);
+  }
+
+  /**
+   * Get an identifier that changes when the source is modified. This is the modification time for local files and
+   * archives and the version reported by the storage (e.g. an ETag) for remote files, empty if there is none.
+   */
+  public static String version(Path path) throws IOException {
+    if (StorageRegistry.isRemote(path)) {
+      return StorageRegistry.getInstance().stat(path).getVersion();
+    } else if (ZipArchive.isZipEntry(path)) {
+      path = ZipArchive.getArchivePath(path);
+    }
+    return String.valueOf(Files.getLastModifiedTime(path).toMillis());
+  }
+
+  /** Open a stream over the content of the source. */
+  public static InputStream openStream(Path path) throws IOException {
+    if (StorageRegistry.isRemote(path)) {
+      return StorageRegistry.getInstance().openStream(path);
+    } else if (ZipArchive.isZipEntry(path)) {
+      return ZipArchive.openStream(path);
+    } else if (BlockCompressedFile.isBlockCompressed(path)) {
+      return BlockCompressedFile.openStream(path);
+    }
+    return Files.newInputStream(path);
+  }
+}
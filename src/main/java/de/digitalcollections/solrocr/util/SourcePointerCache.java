@@ -0,0 +1,164 @@
+package de.digitalcollections.solrocr.util;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import de.digitalcollections.solrocr.model.SourcePointer;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+
+/** Per-core cache of the parsed source pointers of documents and of the sizes of the files they reference.
+ *
+ * Without it, every highlighted document has its stored fields loaded, its pointers parsed and every referenced file
+ * stat'ed, which for documents with hundreds of pages on network storage amounts to thousands of metadata calls per
+ * request.
+ *
+ * Pointers are keyed by segment core, document and field. Since stored fields of a segment never change, entries
+ * only have to be dropped once their segment is closed, which is done from a listener on the segment core. Both
+ * pointers (which include the sizes of their files) and file sizes expire after a short time, so changes to the files
+ * are picked up. Files that could not be found are cached as well, so a missing file on a slow mount doesn't have to
+ * be looked up over and over again.
+ */
+public class SourcePointerCache {
+  public static final int DEFAULT_MAX_POINTERS = 16 * 1024;
+  public static final int DEFAULT_MAX_FILES = 64 * 1024;
+  public static final long DEFAULT_TTL_MS = 30_000;
+
+  /** Cached size for files that don't exist. */
+  private static final long MISSING = -1;
+
+  private final Cache<PointerKey, SourcePointer> pointers;
+  private final Cache<Path, Long> sizes;
+  private final Set<IndexReader.CacheKey> trackedCores = ConcurrentHashMap.newKeySet();
+  private final LongAdder negativeHits = new LongAdder();
+
+  public SourcePointerCache(int maxPointers, int maxFiles, long ttlMillis) {
+    this(maxPointers, maxFiles, ttlMillis, Ticker.systemTicker());
+  }
+
+  SourcePointerCache(int maxPointers, int maxFiles, long ttlMillis, Ticker ticker) {
+    this.pointers = CacheBuilder.newBuilder()
+        .maximumSize(maxPointers)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .ticker(ticker)
+        .recordStats()
+        .build();
+    this.sizes = CacheBuilder.newBuilder()
+        .maximumSize(maxFiles)
+        .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+        .ticker(ticker)
+        .recordStats()
+        .build();
+  }
+
+  /** Get the cached pointer for a field of a document in a segment, or <tt>null</tt> if there is none. */
+  public SourcePointer getPointer(LeafReader reader, int docId, String field) {
+    IndexReader.CacheHelper helper = reader.getCoreCacheHelper();
+    if (helper == null) {
+      return null;
+    }
+    return pointers.getIfPresent(new PointerKey(helper.getKey(), docId, field));
+  }
+
+  /** Cache the parsed pointer for a field of a document in a segment. */
+  public void putPointer(LeafReader reader, int docId, String field, SourcePointer pointer) {
+    IndexReader.CacheHelper helper = reader.getCoreCacheHelper();
+    if (helper == null) {
+      // Reader doesn't support caching, we'd never know when to drop the entry
+      return;
+    }
+    IndexReader.CacheKey coreKey = helper.getKey();
+    if (trackedCores.add(coreKey)) {
+      helper.addClosedListener(this::dropCore);
+    }
+    pointers.put(new PointerKey(coreKey, docId, field), pointer);
+  }
+
+  private void dropCore(IndexReader.CacheKey coreKey) {
+    trackedCores.remove(coreKey);
+    pointers.asMap().keySet().removeIf(k -> k.coreKey == coreKey);
+  }
+
+  /** Get the size of the content of a source, throws a {@link FileNotFoundException} if it doesn't exist. */
+  public long contentSize(Path path) throws IOException {
+    Long size = sizes.getIfPresent(path);
+    if (size == null) {
+      try {
+        size = SourceFiles.contentSize(path);
+      } catch (FileNotFoundException | NoSuchFileException e) {
+        size = MISSING;
+      }
+      sizes.put(path, size);
+    } else if (size == MISSING) {
+      negativeHits.increment();
+    }
+    if (size == MISSING) {
+      throw new FileNotFoundException(String.format("File at %s could not be found", path));
+    }
+    return size;
+  }
+
+  public void clear() {
+    pointers.invalidateAll();
+    sizes.invalidateAll();
+  }
+
+  public CacheStats getPointerStats() {
+    return pointers.stats();
+  }
+
+  public long getNumPointers() {
+    return pointers.size();
+  }
+
+  public CacheStats getFileStats() {
+    return sizes.stats();
+  }
+
+  public long getNumFiles() {
+    return sizes.size();
+  }
+
+  public long getNegativeHits() {
+    return negativeHits.sum();
+  }
+
+  private static final class PointerKey {
+    private final IndexReader.CacheKey coreKey;
+    private final int docId;
+    private final String field;
+
+    PointerKey(IndexReader.CacheKey coreKey, int docId, String field) {
+      this.coreKey = coreKey;
+      this.docId = docId;
+      this.field = field;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      PointerKey that = (PointerKey) o;
+      return docId == that.docId && coreKey == that.coreKey && field.equals(that.field);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(coreKey), docId, field);
+    }
+  }
+}
@@ -0,0 +1,476 @@
+package de.digitalcollections.solrocr.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.digitalcollections.solrocr.util.MappedFileCache.MappedFile;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** Read access to OCR files that are stored as entries in a ZIP archive.
+ *
+ * Entries are referenced by the path of the archive, followed by {@value #ENTRY_SEPARATOR} and the name of the entry
+ * in the archive, e.g. <tt>/data/volume_1863.zip!/page_0191.xml</tt>. All offsets in source pointers and in the index
+ * refer to the uncompressed content of the entry.
+ *
+ * The central directory of recently used archives is cached, so looking up an entry is a single hash table lookup.
+ * The archives themselves are opened through the {@link MappedFileCache}: The content of STORED entries is read
+ * directly from the mapping of the archive without copying it, DEFLATED entries have to be inflated completely. The
+ * inflated content of recently used entries is cached and inflaters are pooled, since highlighting usually accesses
+ * the same pages of a volume over and over again.
+ *
+ * ZIP64 archives are supported, encrypted entries and compression methods other than STORED and DEFLATED are not.
+ */
+public class ZipArchive implements AutoCloseable {
+  public static final String ENTRY_SEPARATOR = "!/";
+
+  public static final int METHOD_STORED = 0;
+  public static final int METHOD_DEFLATED = 8;
+
+  private static final int EOCD_SIG = 0x06054b50;
+  private static final int EOCD_SIZE = 22;
+  private static final int ZIP64_EOCD_LOCATOR_SIG = 0x07064b50;
+  private static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+  private static final int ZIP64_EOCD_SIG = 0x06064b50;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int CEN_SIG = 0x02014b50;
+  private static final int CEN_SIZE = 46;
+  private static final int LOC_SIG = 0x04034b50;
+  private static final int LOC_SIZE = 30;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int FLAG_ENCRYPTED = 1;
+  private static final int MAX_INFLATED_SIZE = Integer.MAX_VALUE - 8;
+
+  // Weighed by the number of entries, caps the memory used by cached directories to about 128MiB
+  private static final Cache<Path, Directory> directoryCache = CacheBuilder.newBuilder()
+      .maximumWeight(1024 * 1024)
+      .weigher((Path p, Directory dir) -> Math.max(1, dir.entries.size()))
+      .build();
+
+  // Keyed by identity, entries of outdated directories are dropped once the directory is no longer referenced
+  private static final Cache<Entry, byte[]> inflatedCache = CacheBuilder.newBuilder()
+      .weakKeys()
+      .maximumWeight(64 * 1024 * 1024)
+      .weigher((Entry e, byte[] content) -> content.length)
+      .build();
+
+  private static final BlockingQueue<Inflater> inflaterPool = new ArrayBlockingQueue<>(16);
+
+  private final MappedFile file;
+  private final Directory directory;
+
+  private ZipArchive(MappedFile file, Directory directory) {
+    this.file = file;
+    this.directory = directory;
+  }
+
+  /** Whether the path references an entry in a ZIP archive. */
+  public static boolean isZipEntry(Path path) {
+    return path.toString().indexOf(separator(path)) > 0;
+  }
+
+  /** Get the path of the archive that contains the referenced entry. */
+  public static Path getArchivePath(Path entryPath) {
+    String str = entryPath.toString();
+    return Paths.get(str.substring(0, str.indexOf(separator(entryPath))));
+  }
+
+  /** Get the name of the referenced entry in its archive. */
+  public static String getEntryName(Path entryPath) {
+    String str = entryPath.toString();
+    String sep = separator(entryPath);
+    return str.substring(str.indexOf(sep) + sep.length()).replace(entryPath.getFileSystem().getSeparator(), "/");
+  }
+
+  private static String separator(Path path) {
+    return "!" + path.getFileSystem().getSeparator();
+  }
+
+  /**
+   * Open the archive at the given path, the caller is responsible for closing it.
+   */
+  public static ZipArchive open(Path archivePath) throws IOException {
+    MappedFile file = MappedFileCache.getInstance().acquire(archivePath);
+    try {
+      Directory dir = directoryCache.getIfPresent(archivePath);
+      if (dir == null || dir.mtime != file.getLastModified() || dir.fileSize != file.getSize()) {
+        dir = readDirectory(file);
+        directoryCache.put(archivePath, dir);
+      }
+      return new ZipArchive(file, dir);
+    } catch (IOException | RuntimeException e) {
+      file.release();
+      throw e;
+    }
+  }
+
+  /** Get the uncompressed size of the referenced entry. */
+  public static long contentSize(Path entryPath) throws IOException {
+    try (ZipArchive archive = open(getArchivePath(entryPath))) {
+      return archive.getEntry(getEntryName(entryPath)).getSize();
+    }
+  }
+
+  /** Open a stream over the uncompressed content of the referenced entry. */
+  public static InputStream openStream(Path entryPath) throws IOException {
+    try (ZipArchive archive = open(getArchivePath(entryPath))) {
+      Entry entry = archive.getEntry(getEntryName(entryPath));
+      if (entry.isStored()) {
+        return new RangeInputStream(archive.file.share(), archive.getDataOffset(entry), entry.getSize());
+      }
+      // Index-time reads are one-off, don't evict the entries used for highlighting
+      return new ByteArrayInputStream(archive.inflate(entry, false));
+    }
+  }
+
+  private static Directory readDirectory(MappedFile file) throws IOException {
+    FileChannel chan = file.getChannel();
+    long size = file.getSize();
+    int tailLen = (int) Math.min(size, EOCD_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = readFully(chan, size - tailLen, tailLen);
+    int eocdPos = -1;
+    for (int i = tailLen - EOCD_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == EOCD_SIG) {
+        eocdPos = i;
+        break;
+      }
+    }
+    if (eocdPos < 0) {
+      throw new IOException(String.format("%s is not a ZIP archive.", file.getPath()));
+    }
+    long numEntries = tail.getShort(eocdPos + 10) & 0xFFFF;
+    long cenSize = tail.getInt(eocdPos + 12) & 0xFFFFFFFFL;
+    long cenOffset = tail.getInt(eocdPos + 16) & 0xFFFFFFFFL;
+    if (numEntries == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+      long locatorPos = size - tailLen + eocdPos - ZIP64_EOCD_LOCATOR_SIZE;
+      if (locatorPos < 0) {
+        throw new IOException(String.format("%s has a corrupt ZIP64 directory.", file.getPath()));
+      }
+      ByteBuffer locator = readFully(chan, locatorPos, ZIP64_EOCD_LOCATOR_SIZE);
+      if (locator.getInt(0) != ZIP64_EOCD_LOCATOR_SIG) {
+        throw new IOException(String.format("%s has a corrupt ZIP64 directory.", file.getPath()));
+      }
+      long zip64EocdPos = locator.getLong(8);
+      ByteBuffer zip64Eocd = readFully(chan, zip64EocdPos, 56);
+      if (zip64Eocd.getInt(0) != ZIP64_EOCD_SIG) {
+        throw new IOException(String.format("%s has a corrupt ZIP64 directory.", file.getPath()));
+      }
+      numEntries = zip64Eocd.getLong(32);
+      cenSize = zip64Eocd.getLong(40);
+      cenOffset = zip64Eocd.getLong(48);
+    }
+    if (cenSize > Integer.MAX_VALUE || cenOffset + cenSize > size || numEntries * CEN_SIZE > cenSize) {
+      throw new IOException(String.format("%s has a corrupt central directory.", file.getPath()));
+    }
+
+    ByteBuffer cen = readFully(chan, cenOffset, (int) cenSize);
+    Map<String, Entry> entries = new HashMap<>((int) (numEntries / 0.75) + 1);
+    int pos = 0;
+    for (long i = 0; i < numEntries; i++) {
+      if (pos + CEN_SIZE > cen.limit() || cen.getInt(pos) != CEN_SIG) {
+        throw new IOException(String.format("%s has a corrupt central directory.", file.getPath()));
+      }
+      int flags = cen.getShort(pos + 8) & 0xFFFF;
+      int method = cen.getShort(pos + 10) & 0xFFFF;
+      int crc = cen.getInt(pos + 16);
+      long compressedSize = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+      long uncompressedSize = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+      int nameLen = cen.getShort(pos + 28) & 0xFFFF;
+      int extraLen = cen.getShort(pos + 30) & 0xFFFF;
+      int commentLen = cen.getShort(pos + 32) & 0xFFFF;
+      long localOffset = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+      int nextPos = pos + CEN_SIZE + nameLen + extraLen + commentLen;
+      if (nextPos > cen.limit()) {
+        throw new IOException(String.format("%s has a corrupt central directory.", file.getPath()));
+      }
+      byte[] nameBytes = new byte[nameLen];
+      cen.position(pos + CEN_SIZE);
+      cen.get(nameBytes);
+      String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+      // Sizes and offset that don't fit into 32 bits are stored in the ZIP64 extra field, in this order
+      int extraPos = pos + CEN_SIZE + nameLen;
+      int extraEnd = extraPos + extraLen;
+      while (extraPos + 4 <= extraEnd) {
+        int id = cen.getShort(extraPos) & 0xFFFF;
+        int len = cen.getShort(extraPos + 2) & 0xFFFF;
+        if (id == ZIP64_EXTRA_ID) {
+          int valPos = extraPos + 4;
+          if (uncompressedSize == 0xFFFFFFFFL && valPos + 8 <= extraEnd) {
+            uncompressedSize = cen.getLong(valPos);
+            valPos += 8;
+          }
+          if (compressedSize == 0xFFFFFFFFL && valPos + 8 <= extraEnd) {
+            compressedSize = cen.getLong(valPos);
+            valPos += 8;
+          }
+          if (localOffset == 0xFFFFFFFFL && valPos + 8 <= extraEnd) {
+            localOffset = cen.getLong(valPos);
+          }
+          break;
+        }
+        extraPos += 4 + len;
+      }
+      if (!name.endsWith("/")) {
+        entries.put(name, new Entry(name, flags, method, crc, compressedSize, uncompressedSize, localOffset));
+      }
+      pos = nextPos;
+    }
+    return new Directory(file.getLastModified(), size, entries);
+  }
+
+  private static ByteBuffer readFully(FileChannel chan, long pos, int len) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+    while (buf.hasRemaining()) {
+      if (chan.read(buf, pos + buf.position()) < 0) {
+        throw new EOFException();
+      }
+    }
+    buf.flip();
+    return buf;
+  }
+
+  private static Inflater borrowInflater() {
+    Inflater inflater = inflaterPool.poll();
+    return inflater != null ? inflater : new Inflater(true);
+  }
+
+  private static void returnInflater(Inflater inflater) {
+    inflater.reset();
+    if (!inflaterPool.offer(inflater)) {
+      inflater.end();
+    }
+  }
+
+  /** Get the entry with the given name. */
+  public Entry getEntry(String name) throws FileNotFoundException {
+    Entry entry = directory.entries.get(name);
+    if (entry == null) {
+      throw new FileNotFoundException(String.format("No entry named '%s' in %s", name, file.getPath()));
+    }
+    return entry;
+  }
+
+  public Path getPath() {
+    return file.getPath();
+  }
+
+  /** Get the mapped archive, e.g. to read STORED entries directly. The reference is still owned by the archive. */
+  public MappedFile getFile() {
+    return file;
+  }
+
+  /** Get the offset of the data of an entry in the archive, determined from its local header on first access. */
+  public long getDataOffset(Entry entry) throws IOException {
+    long offset = entry.dataOffset;
+    if (offset < 0) {
+      if (entry.localHeaderOffset + LOC_SIZE > file.getSize()) {
+        throw new IOException(String.format("Entry '%s' in %s is truncated.", entry.name, file.getPath()));
+      }
+      ByteBuffer header = readFully(file.getChannel(), entry.localHeaderOffset, LOC_SIZE);
+      if (header.getInt(0) != LOC_SIG) {
+        throw new IOException(String.format(
+            "Entry '%s' in %s has a corrupt local header.", entry.name, file.getPath()));
+      }
+      // The extra field of the local header can differ from the one in the central directory
+      offset = entry.localHeaderOffset + LOC_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+      if (offset + entry.compressedSize > file.getSize()) {
+        throw new IOException(String.format("Entry '%s' in %s is truncated.", entry.name, file.getPath()));
+      }
+      entry.dataOffset = offset;
+    }
+    return offset;
+  }
+
+  /**
+   * Get the complete uncompressed content of an entry.
+   *
+   * @param cache Whether the content should be looked up and stored in the cache of inflated entries
+   */
+  public byte[] inflate(Entry entry, boolean cache) throws IOException {
+    entry.checkSupported(file.getPath());
+    if (cache) {
+      byte[] cached = inflatedCache.getIfPresent(entry);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    if (entry.size > MAX_INFLATED_SIZE || entry.compressedSize > MAX_INFLATED_SIZE) {
+      throw new IOException(String.format("Entry '%s' in %s is too large.", entry.name, file.getPath()));
+    }
+    long offset = getDataOffset(entry);
+    // The inflater needs an extra dummy byte for raw DEFLATE data
+    byte[] data = new byte[(int) entry.compressedSize + (entry.isStored() ? 0 : 1)];
+    ByteBuffer buf = ByteBuffer.wrap(data, 0, (int) entry.compressedSize);
+    while (buf.hasRemaining()) {
+      if (file.getChannel().read(buf, offset + buf.position()) < 0) {
+        throw new EOFException(String.format("Entry '%s' in %s is truncated.", entry.name, file.getPath()));
+      }
+    }
+    byte[] content = data;
+    int len = data.length;
+    if (!entry.isStored()) {
+      content = new byte[(int) entry.size];
+      len = 0;
+      Inflater inflater = borrowInflater();
+      try {
+        inflater.setInput(data);
+        while (len < content.length && !inflater.finished()) {
+          int n = inflater.inflate(content, len, content.length - len);
+          if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          len += n;
+        }
+      } catch (DataFormatException e) {
+        throw new IOException(String.format(
+            "Entry '%s' in %s is corrupt: %s", entry.name, file.getPath(), e.getMessage()));
+      } finally {
+        returnInflater(inflater);
+      }
+    }
+    CRC32 crc = new CRC32();
+    crc.update(content, 0, len);
+    if (len != entry.size || (int) crc.getValue() != entry.crc) {
+      throw new IOException(String.format("Entry '%s' in %s is corrupt.", entry.name, file.getPath()));
+    }
+    if (cache) {
+      inflatedCache.put(entry, content);
+    }
+    return content;
+  }
+
+  @Override
+  public void close() {
+    file.release();
+  }
+
+  /** An entry in the central directory of an archive. */
+  public static class Entry {
+    private final String name;
+    private final int flags;
+    private final int method;
+    private final int crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+    private volatile long dataOffset = -1;
+
+    private Entry(String name, int flags, int method, int crc, long compressedSize, long size,
+                  long localHeaderOffset) {
+      this.name = name;
+      this.flags = flags;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+
+    private void checkSupported(Path archivePath) throws IOException {
+      if ((flags & FLAG_ENCRYPTED) != 0) {
+        throw new IOException(String.format("Entry '%s' in %s is encrypted.", name, archivePath));
+      }
+      if (method != METHOD_STORED && method != METHOD_DEFLATED) {
+        throw new IOException(String.format(
+            "Entry '%s' in %s uses unsupported compression method %d.", name, archivePath, method));
+      }
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** Whether the entry is stored without compression, i.e. can be read directly from the archive. */
+    public boolean isStored() {
+      return method == METHOD_STORED && (flags & FLAG_ENCRYPTED) == 0;
+    }
+
+    /** Uncompressed size of the entry. */
+    public long getSize() {
+      return size;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+  }
+
+  private static class Directory {
+    final long mtime;
+    final long fileSize;
+    final Map<String, Entry> entries;
+
+    Directory(long mtime, long fileSize, Map<String, Entry> entries) {
+      this.mtime = mtime;
+      this.fileSize = fileSize;
+      this.entries = entries;
+    }
+  }
+
+  /** Sequential stream over a range of a file with positional reads, used for STORED entries at index time. */
+  private static class RangeInputStream extends InputStream {
+    private final MappedFile file;
+    private final long end;
+    private long pos;
+    private boolean closed = false;
+
+    RangeInputStream(MappedFile file, long start, long length) {
+      this.file = file;
+      this.pos = start;
+      this.end = start + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (pos >= end) {
+        return -1;
+      }
+      int n = file.getChannel().read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+      if (n < 0) {
+        throw new EOFException(String.format("%s is truncated.", file.getPath()));
+      }
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, end - pos));
+      pos += skipped;
+      return skipped;
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        file.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package de.digitalcollections.solrocr.formats;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.digitalcollections.solrocr.formats.hocr.HocrFormat;
+import de.digitalcollections.solrocr.iter.FileBytesCharIterator;
+import de.digitalcollections.solrocr.iter.IterableCharSequence;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.lucene.search.uhighlight.Passage;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OcrPassageFormatterTest {
+  private static final Pattern LAST_INNER_TAG_PAT = Pattern.compile("[a-zA-Z0-9]</");
+  private static final String[] WORDS = {"Straße", "über", "naïve", "𝔉raktur", "plain", "€uro", "ſchön", "x"};
+
+  @TempDir
+  Path tempDir;
+
+  /** Highlighting as it was done before, by decoding a prefix of the passage for every match offset. */
+  private static String highlightByInserting(Passage passage, IterableCharSequence content) {
+    StringBuilder sb = new StringBuilder(content.subSequence(passage.getStartOffset(), passage.getEndOffset()));
+    int extraChars = 0;
+    for (int i = 0; i < passage.getNumMatches(); i++) {
+      int matchStart = content.subSequence(passage.getStartOffset(), passage.getMatchStarts()[i]).toString().length();
+      sb.insert(extraChars + matchStart, "<em>");
+      extraChars += 4;
+      int matchEnd = content.subSequence(passage.getStartOffset(), passage.getMatchEnds()[i]).toString().length();
+      String matchText = sb.substring(extraChars + matchStart, extraChars + matchEnd);
+      if (matchText.trim().endsWith(">")) {
+        Matcher m = LAST_INNER_TAG_PAT.matcher(matchText);
+        int idx = -1;
+        while (m.find()) {
+          idx = m.start() + 1;
+        }
+        if (idx > -1) {
+          matchEnd -= (matchText.length() - idx);
+        }
+      }
+      sb.insert(Math.min(extraChars + matchEnd, sb.length()), "</em>");
+      extraChars += 5;
+    }
+    return sb.toString();
+  }
+
+  private static void assertSameHighlighting(IterableCharSequence content, List<int[]> words, boolean bytes) {
+    OcrPassageFormatter formatter = new HocrFormat().getPassageFormatter("<em>", "</em>", false);
+    Random rand = new Random(42);
+    for (int i = 0; i < 200; i++) {
+      int firstWord = rand.nextInt(words.size() - 40);
+      Passage passage = new Passage();
+      passage.setStartOffset(words.get(firstWord)[0] - (rand.nextBoolean() ? 0 : 1));
+      passage.setEndOffset(words.get(firstWord + 30)[1]);
+      int wordIdx = firstWord;
+      while ((wordIdx += 1 + rand.nextInt(4)) < firstWord + 28) {
+        int[] word = words.get(wordIdx);
+        // Some matches span multiple words and end behind a closing tag, some end in the middle of a character
+        int end = rand.nextInt(4) == 0 ? words.get(++wordIdx)[1] + "</span>".length() : word[1];
+        if (bytes && rand.nextInt(8) == 0) {
+          end = word[1] - 1;
+        }
+        passage.addMatch(word[0], end, new BytesRef("x"), 1);
+      }
+      assertThat(formatter.highlightPassage(passage, content))
+          .as("passage %d", i)
+          .isEqualTo(highlightByInserting(passage, content));
+    }
+  }
+
+  /** Build a hOCR document from random words and collect the offsets of their text. */
+  private static String buildDocument(List<int[]> wordOffsets, boolean byteOffsets) {
+    StringBuilder sb = new StringBuilder("<div class='ocr_page' id='page_1'>");
+    Random rand = new Random(1337);
+    int offset = byteOffsets ? sb.toString().getBytes(StandardCharsets.UTF_8).length : sb.length();
+    for (int i = 0; i < 500; i++) {
+      String open = String.format("<span class='ocrx_word' title='bbox %d 0 10 10'>", i);
+      String word = WORDS[rand.nextInt(WORDS.length)];
+      sb.append(open).append(word).append("</span> ");
+      offset += open.length();
+      int wordLen = byteOffsets ? word.getBytes(StandardCharsets.UTF_8).length : word.length();
+      wordOffsets.add(new int[]{offset, offset + wordLen});
+      offset += wordLen + "</span> ".length();
+    }
+    return sb.append("</div>").toString();
+  }
+
+  @Test
+  void testHighlightingOnByteOffsets() throws IOException {
+    List<int[]> words = new ArrayList<>();
+    String doc = buildDocument(words, true);
+    Path path = tempDir.resolve("doc.hocr");
+    Files.write(path, doc.getBytes(StandardCharsets.UTF_8));
+    assertSameHighlighting(new FileBytesCharIterator(path, StandardCharsets.UTF_8, null), words, true);
+  }
+
+  @Test
+  void testHighlightingOnCharOffsets() {
+    List<int[]> words = new ArrayList<>();
+    String doc = buildDocument(words, false);
+    assertSameHighlighting(IterableCharSequence.fromString(doc), words, false);
+  }
+
+  @Test
+  void testHighlightingOnMalformedBytes() throws IOException {
+    List<int[]> words = new ArrayList<>();
+    byte[] doc = buildDocument(words, true).getBytes(StandardCharsets.UTF_8);
+    // Cut a few multi-byte characters in half
+    for (int i = 0; i < words.size(); i += 7) {
+      int[] word = words.get(i);
+      for (int j = word[0]; j < word[1]; j++) {
+        if ((doc[j] & 0xC0) == 0xC0) {
+          doc[j] = (byte) 'z';
+          break;
+        }
+      }
+    }
+    Path path = tempDir.resolve("broken.hocr");
+    Files.write(path, doc);
+    assertSameHighlighting(new FileBytesCharIterator(path, StandardCharsets.UTF_8, null), words, true);
+  }
+}
@@ -0,0 +1,230 @@
+package de.digitalcollections.solrocr.formats.alto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.digitalcollections.solrocr.model.OcrBox;
+import de.digitalcollections.solrocr.model.OcrPage;
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.text.StringEscapeUtils;
+import org.junit.jupiter.api.Test;
+
+class AltoFragmentParserTest {
+  private static final String START_HL = "@@STARTHLTAG@@";
+  private static final String END_HL = "@@ENDHLTAG@@";
+  private static final Pattern pagePat = Pattern.compile("<Page ?(?<attribs>.+?)/?>");
+  private static final Pattern wordPat = Pattern.compile("<String ?(?<attribs>.+?)/?>");
+  private static final Pattern attribPat = Pattern.compile("(?<key>[A-Z_]+?)=\"(?<val>.+?)\"");
+  private static final Pattern contentPat = Pattern.compile("CONTENT=\"([^\"]+)\"");
+
+  private final AltoFragmentParser parser = new AltoFragmentParser("<em>", "</em>");
+
+  private static List<Path> corpus() throws IOException {
+    try (Stream<Path> files = Files.walk(Paths.get("src/test/resources/data"))) {
+      return files
+          .filter(p -> p.getFileName().toString().endsWith(".xml"))
+          .filter(p -> !p.getFileName().toString().equals("miniocr.xml"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static Map<String, String> parseAttribs(String attribStr) {
+    Map<String, String> attribs = new HashMap<>();
+    Matcher m = attribPat.matcher(attribStr);
+    while (m.find()) {
+      attribs.put(m.group("key"), m.group("val"));
+    }
+    return attribs;
+  }
+
+  private static OcrPage parsePage(Map<String, String> attribs) {
+    Dimension dims = null;
+    if (attribs.containsKey("WIDTH") && attribs.containsKey("HEIGHT")) {
+      try {
+        dims = new Dimension((int) Double.parseDouble(attribs.get("WIDTH")),
+                             (int) Double.parseDouble(attribs.get("HEIGHT")));
+      } catch (NumberFormatException e) {
+        // NOP
+      }
+    }
+    return new OcrPage(attribs.get("ID"), dims);
+  }
+
+  /** Plaintext as it was determined by the regular expression based formatter. */
+  private static String legacyText(String altoFragment) {
+    StringBuilder sb = new StringBuilder(
+        altoFragment
+            .replaceAll("<em>", START_HL)
+            .replaceAll("</em>", END_HL)
+            .replaceAll("<SP.*?>", " ")
+            .replaceAll("(</?)?TextLine.*?>", " ")
+            .replaceAll("(?s)<Description>.+?</Description>", ""));
+    boolean isBeginning = true;
+    while (true) {
+      Matcher m = wordPat.matcher(sb);
+      if (!m.find()) {
+        break;
+      }
+      int start = m.start();
+      int end = m.end();
+      Map<String, String> attribs = parseAttribs(m.group("attribs"));
+      String content;
+      if ("HypPart1".equals(attribs.get("SUBS_TYPE"))) {
+        content = m.find() ? attribs.get("SUBS_CONTENT") : attribs.get("CONTENT");
+      } else if ("HypPart2".equals(attribs.get("SUBS_TYPE"))) {
+        content = isBeginning ? attribs.get("CONTENT") : "";
+      } else {
+        content = attribs.get("CONTENT");
+      }
+      sb.replace(start, end, content);
+      isBeginning = false;
+    }
+    return StringEscapeUtils.unescapeXml(sb.toString().replaceAll("</?[A-Z]?.*?>", ""))
+        .replaceAll("\n", "")
+        .replaceAll("\\s+", " ")
+        .trim()
+        .replaceAll(START_HL, "<em>")
+        .replaceAll(END_HL, "</em>");
+  }
+
+  /** Words as they were determined by the regular expression based formatter, for fragments without pages. */
+  private static List<OcrBox> legacyWords(String ocrFragment, String startPage) {
+    ocrFragment = ocrFragment.replaceAll("<em>", START_HL).replaceAll("</em>", END_HL);
+    List<OcrBox> wordBoxes = new ArrayList<>();
+    Matcher m = wordPat.matcher(ocrFragment);
+    boolean inHighlight = false;
+    boolean highlightHyphenEnd = false;
+    while (m.find()) {
+      Map<String, String> attribs = parseAttribs(m.group("attribs"));
+      int x = (int) Double.parseDouble(attribs.get("HPOS"));
+      int y = (int) Double.parseDouble(attribs.get("VPOS"));
+      int w = (int) Double.parseDouble(attribs.get("WIDTH"));
+      int h = (int) Double.parseDouble(attribs.get("HEIGHT"));
+      String subsType = attribs.get("SUBS_TYPE");
+      String text = StringEscapeUtils.unescapeXml(attribs.get("CONTENT"));
+      if ("HypPart1".equals(subsType)) {
+        text += "-";
+      }
+      if (text.contains(START_HL) || attribs.getOrDefault("SUBS_CONTENT", "").contains(START_HL)) {
+        inHighlight = true;
+      }
+      wordBoxes.add(new OcrBox(text.replace(START_HL, "<em>").replace(END_HL, "</em>"),
+                               startPage, x, y, x + w, y + h, inHighlight));
+      if (inHighlight && subsType != null) {
+        if (subsType.equals("HypPart1") && attribs.get("SUBS_CONTENT").contains(END_HL)) {
+          highlightHyphenEnd = true;
+        } else if (highlightHyphenEnd) {
+          highlightHyphenEnd = false;
+          inHighlight = false;
+        }
+      } else if (text.contains(END_HL)) {
+        inHighlight = false;
+      } else if (ocrFragment.startsWith(END_HL, m.end())) {
+        inHighlight = false;
+      }
+    }
+    return wordBoxes;
+  }
+
+  /** Wrap the content of some of the words in the fragment in highlighting tags, some spanning multiple words. */
+  private static String highlight(String fragment, Random rand) {
+    Matcher m = contentPat.matcher(fragment);
+    List<int[]> values = new ArrayList<>();
+    while (m.find()) {
+      values.add(new int[]{m.start(1), m.end(1)});
+    }
+    StringBuilder sb = new StringBuilder(fragment);
+    // Insert from the back so the offsets of earlier values stay valid
+    int idx = values.size() - 1 - rand.nextInt(3);
+    while (idx >= 0) {
+      int last = idx;
+      int first = Math.max(0, idx - rand.nextInt(3));
+      sb.insert(values.get(last)[1], "</em>");
+      sb.insert(values.get(first)[0], "<em>");
+      idx = first - 1 - rand.nextInt(4);
+    }
+    return sb.toString();
+  }
+
+  private static String describe(List<OcrBox> words) {
+    return words.stream()
+        .map(w -> w.toString() + (w.isInHighlight() ? "*" : ""))
+        .collect(Collectors.joining("\n"));
+  }
+
+  @Test
+  public void testSameOutputAsRegularExpressions() throws IOException {
+    Random rand = new Random(23);
+    int numCompared = 0;
+    for (Path path : corpus()) {
+      String doc = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+      List<Integer> lineStarts = new ArrayList<>();
+      Matcher m = Pattern.compile("<TextLine[ >]").matcher(doc);
+      while (m.find()) {
+        lineStarts.add(m.start());
+      }
+      for (int i = 0; i + 3 < lineStarts.size(); i += 1 + rand.nextInt(5)) {
+        String fragment = doc.substring(lineStarts.get(i), lineStarts.get(i + 1 + rand.nextInt(3)));
+        if (fragment.contains("<Page") || fragment.contains("=\"\"")) {
+          // Pages were assigned with broken offsets and empty values were misparsed by the old implementation
+          continue;
+        }
+        if (rand.nextBoolean()) {
+          fragment = highlight(fragment, rand);
+        }
+        AltoFragmentParser.Result result = parser.parse(fragment, "start", true);
+        assertThat(result.text).as("%s:%d", path, i).isEqualTo(legacyText(fragment));
+        assertThat(describe(result.words.toBoxes())).as("%s:%d", path, i).isEqualTo(describe(legacyWords(fragment, "start")));
+        numCompared++;
+      }
+    }
+    assertThat(numCompared).isGreaterThan(100);
+  }
+
+  @Test
+  public void testPagesAreParsed() throws IOException {
+    for (Path path : corpus()) {
+      String doc = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+      List<OcrPage> expected = new ArrayList<>();
+      Matcher m = pagePat.matcher(doc);
+      while (m.find()) {
+        expected.add(parsePage(parseAttribs(m.group("attribs"))));
+      }
+      List<OcrPage> pages = parser.parse(doc, null, false).pages;
+      assertThat(pages).as(path.toString()).hasSameSizeAs(expected);
+      for (int i = 0; i < pages.size(); i++) {
+        assertThat(pages.get(i).id).isEqualTo(expected.get(i).id);
+        assertThat(pages.get(i).dimensions).isEqualTo(expected.get(i).dimensions);
+      }
+      if (!expected.isEmpty()) {
+        assertThat(parser.parseFirstPage(doc.substring(doc.indexOf("<Page")))).isEqualToComparingFieldByField(expected.get(0));
+      }
+    }
+  }
+
+  @Test
+  public void testWordsAreAssignedToTheirPages() {
+    String fragment = "<String CONTENT=\"a\" HPOS=\"1\" VPOS=\"2\" WIDTH=\"3\" HEIGHT=\"4\"/>"
+        + "<Page ID=\"p2\" WIDTH=\"100\" HEIGHT=\"200\"><TextLine>"
+        + "<String CONTENT=\"<em>b</em>\" HPOS=\"5.5\" VPOS=\"6\" WIDTH=\"7\" HEIGHT=\"8\"/></TextLine>";
+    AltoFragmentParser.Result result = parser.parse(fragment, "p1", true);
+    assertThat(result.text).isEqualTo("a <em>b</em>");
+    assertThat(result.words.toBoxes()).extracting(w -> w.getPageId()).containsExactly("p1", "p2");
+    assertThat(result.words.toBoxes().get(1).isInHighlight()).isTrue();
+    assertThat(result.pages).extracting(p -> p.dimensions).containsExactly(new Dimension(100, 200));
+  }
+}
@@ -0,0 +1,154 @@
+package de.digitalcollections.solrocr.formats.hocr;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import de.digitalcollections.solrocr.model.OcrBox;
+import de.digitalcollections.solrocr.model.OcrPage;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.text.StringEscapeUtils;
+import org.apache.lucene.analysis.charfilter.HTMLStripCharFilter;
+import org.junit.jupiter.api.Test;
+
+class HocrFragmentParserTest {
+  private static final Pattern wordPat = Pattern.compile(
+      "<span class=['\"]ocrx_word['\"].+?title=['\"].*?"
+      + "bbox (?<ulx>\\d+) (?<uly>\\d+) (?<lrx>\\d+) (?<lry>\\d+);?.*?>(?<text>.+?)</span>");
+  private static final Pattern pageElemPat = Pattern.compile("<div.+?class=['\"]ocr_page['\"]\\s*(?<attribs>.+?)>");
+  private static final Pattern titlePat = Pattern.compile("<title>.*?</title>");
+  private static final String[] WORDS = {
+      "Straße", "&amp;", "&lt;b&gt;", "&quot;quoted&quot;", "&#228;h", "&auml;", "&amp;amp;", "x&nbsp;y", "plain"};
+
+  private final HocrFragmentParser parser = new HocrFragmentParser("<em>", "</em>");
+
+  /** Plaintext as it was determined with the HTMLStripCharFilter. */
+  private static String legacyText(String fragment) throws IOException {
+    HTMLStripCharFilter filter = new HTMLStripCharFilter(
+        new StringReader(titlePat.matcher(fragment).replaceAll("")), ImmutableSet.of("em"));
+    return StringEscapeUtils.unescapeXml(IOUtils.toString(filter))
+        .replaceAll("\n", "")
+        .replaceAll("\\s+", " ")
+        .trim();
+  }
+
+  /** Words as they were determined by the regular expression based formatter. */
+  private static List<OcrBox> legacyWords(String fragment, String startPage) {
+    List<OcrBox> wordBoxes = new ArrayList<>();
+    Matcher m = wordPat.matcher(fragment);
+    boolean inHighlight = false;
+    while (m.find()) {
+      String text = StringEscapeUtils.unescapeXml(m.group("text"));
+      if (text.contains("<em>")) {
+        inHighlight = true;
+      }
+      wordBoxes.add(new OcrBox(
+          text, startPage, Integer.parseInt(m.group("ulx")), Integer.parseInt(m.group("uly")),
+          Integer.parseInt(m.group("lrx")), Integer.parseInt(m.group("lry")), inHighlight));
+      if (text.contains("</em>") || fragment.startsWith("</em>", m.end())) {
+        inHighlight = false;
+      }
+    }
+    return wordBoxes;
+  }
+
+  private static String describe(List<OcrBox> words) {
+    return words.stream()
+        .map(w -> w.toString() + (w.isInHighlight() ? "*" : ""))
+        .collect(Collectors.joining("\n"));
+  }
+
+  /** Build a hOCR document with escaped characters and highlighted words, some spanning multiple words. */
+  private static String buildDocument(Random rand) {
+    StringBuilder sb = new StringBuilder("<div class='ocr_page' id='page_1' title='bbox 0 0 1000 2000'>\n");
+    boolean inHighlight = false;
+    for (int line = 0; line < 200; line++) {
+      sb.append("  <span class='ocr_line' title='bbox 0 0 10 10'>\n");
+      for (int i = 0; i < 6; i++) {
+        String word = WORDS[rand.nextInt(WORDS.length)];
+        if (!inHighlight && rand.nextInt(6) == 0) {
+          word = "<em>" + word;
+          inHighlight = true;
+        }
+        boolean closeAfter = false;
+        if (inHighlight && rand.nextInt(3) == 0) {
+          if (rand.nextBoolean()) {
+            word += "</em>";
+          } else {
+            closeAfter = true;
+          }
+          inHighlight = false;
+        }
+        sb.append(String.format(
+            "    <span class='ocrx_word' id='w_%d_%d' title='bbox %d %d %d %d; x_wconf 93'>%s</span>%s%s",
+            line, i, i * 10, line * 10, i * 10 + 8, line * 10 + 9, word, closeAfter ? "</em>" : "",
+            rand.nextInt(4) == 0 ? "" : " "));
+      }
+      sb.append("\n  </span>\n");
+    }
+    if (inHighlight) {
+      sb.append("</em>");
+    }
+    return sb.append("</div>").toString();
+  }
+
+  private void assertSameOutput(String doc, Random rand) throws IOException {
+    List<Integer> lineStarts = new ArrayList<>();
+    Matcher m = Pattern.compile("<span class=['\"]ocr_line").matcher(doc);
+    while (m.find()) {
+      lineStarts.add(m.start());
+    }
+    int numCompared = 0;
+    for (int i = 0; i + 3 < lineStarts.size(); i += 1 + rand.nextInt(3)) {
+      String fragment = doc.substring(lineStarts.get(i), lineStarts.get(i + 1 + rand.nextInt(3)));
+      HocrFragmentParser.Result result = parser.parse(fragment, "start", true);
+      assertThat(result.text).as("line %d", i).isEqualTo(legacyText(fragment));
+      assertThat(describe(result.words.toBoxes())).as("line %d", i).isEqualTo(describe(legacyWords(fragment, "start")));
+      numCompared++;
+    }
+    assertThat(numCompared).isGreaterThan(50);
+  }
+
+  @Test
+  public void testSameOutputAsHtmlStripping() throws IOException {
+    String doc = new String(
+        Files.readAllBytes(Paths.get("src/test/resources/data/multicolumn.hocr")), StandardCharsets.UTF_8);
+    assertSameOutput(doc, new Random(23));
+  }
+
+  @Test
+  public void testSameOutputWithEntitiesAndHighlights() throws IOException {
+    Random rand = new Random(42);
+    assertSameOutput(buildDocument(rand), rand);
+  }
+
+  @Test
+  public void testPagesAreParsed() throws IOException {
+    String doc = new String(
+        Files.readAllBytes(Paths.get("src/test/resources/data/multicolumn.hocr")), StandardCharsets.UTF_8);
+    List<String> expected = new ArrayList<>();
+    Matcher m = pageElemPat.matcher(doc);
+    while (m.find()) {
+      expected.add(m.group("attribs"));
+    }
+    HocrFragmentParser.Result result = parser.parse(doc, null, true);
+    assertThat(result.pages).hasSize(expected.size()).hasSize(1);
+    OcrPage page = result.pages.get(0);
+    assertThat(page.id).isEqualTo("bsb10049004_00007");
+    assertThat(page.dimensions.width).isEqualTo(2701);
+    assertThat(page.dimensions.height).isEqualTo(3749);
+    assertThat(result.words.toBoxes()).allMatch(w -> w.getPageId().equals("bsb10049004_00007"));
+    assertThat(result.text).isEqualTo(legacyText(doc));
+    assertThat(parser.parseFirstPage(doc)).isEqualToComparingFieldByField(page);
+  }
+}
@@ -0,0 +1,170 @@
+package de.digitalcollections.solrocr.formats.mini;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import de.digitalcollections.solrocr.model.OcrBox;
+import de.digitalcollections.solrocr.model.OcrPage;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.text.StringEscapeUtils;
+import org.apache.lucene.analysis.charfilter.HTMLStripCharFilter;
+import org.junit.jupiter.api.Test;
+
+class MiniOcrFragmentParserTest {
+  private static final Pattern wordPat = Pattern.compile(
+      "<w x=\"(?<x>1?\\.?\\d+?) (?<y>1?\\.?\\d+?) (?<w>1?\\.?\\d+?) (?<h>1?\\.?\\d+?)\">(?<text>.+?)</w>");
+  private static final Pattern pagePat = Pattern.compile(
+      "<p xml:id=\"(?<pageId>.+?)\" ?(?:wh=\"(?<w>\\d+) (?<h>\\d+)\")?>");
+  private static final Pattern contentPat = Pattern.compile("\">([^<]+)</w>");
+
+  private final MiniOcrFragmentParser parser = new MiniOcrFragmentParser("<em>", "</em>");
+
+  /** Plaintext as it was determined with the HTMLStripCharFilter. */
+  private static String legacyText(String fragment) throws IOException {
+    HTMLStripCharFilter filter = new HTMLStripCharFilter(new StringReader(fragment), ImmutableSet.of("em"));
+    return StringEscapeUtils.unescapeXml(IOUtils.toString(filter))
+        .replaceAll("\n", "")
+        .replaceAll("\\s+", " ")
+        .trim();
+  }
+
+  /** Words as they were determined by the regular expression based formatter. */
+  private static List<OcrBox> legacyWords(String fragment, String startPage) {
+    List<OcrPage> pages = new ArrayList<>();
+    List<Integer> pageOffsets = new ArrayList<>();
+    Matcher pm = pagePat.matcher(fragment);
+    while (pm.find()) {
+      pages.add(new OcrPage(pm.group("pageId"), null));
+      pageOffsets.add(pm.start());
+    }
+    List<OcrBox> wordBoxes = new ArrayList<>();
+    boolean inHighlight = false;
+    Matcher m = wordPat.matcher(fragment);
+    while (m.find()) {
+      String pageId = startPage;
+      for (int i = 0; i < pages.size(); i++) {
+        if (pageOffsets.get(i) <= m.start()) {
+          pageId = pages.get(i).id;
+        }
+      }
+      float x = Float.parseFloat(m.group("x"));
+      float y = Float.parseFloat(m.group("y"));
+      float width = Float.parseFloat(m.group("w"));
+      float height = Float.parseFloat(m.group("h"));
+      String text = StringEscapeUtils.unescapeXml(m.group("text"));
+      if (text.contains("<em>")) {
+        inHighlight = true;
+      }
+      wordBoxes.add(new OcrBox(text, pageId, x, y, x + width, y + height, inHighlight));
+      if (text.contains("</em>") || fragment.startsWith("</em>", m.end())) {
+        inHighlight = false;
+      }
+    }
+    return wordBoxes;
+  }
+
+  private static String describe(List<OcrBox> words) {
+    return words.stream()
+        .map(w -> w.toString() + (w.isInHighlight() ? "*" : ""))
+        .collect(Collectors.joining("\n"));
+  }
+
+  /** Wrap the text of some of the words in the fragment in highlighting tags, some spanning multiple words. */
+  private static String highlight(String fragment, Random rand) {
+    Matcher m = contentPat.matcher(fragment);
+    List<int[]> texts = new ArrayList<>();
+    while (m.find()) {
+      texts.add(new int[]{m.start(1), m.end(1)});
+    }
+    StringBuilder sb = new StringBuilder(fragment);
+    int idx = texts.size() - 1 - rand.nextInt(3);
+    while (idx >= 0) {
+      int first = Math.max(0, idx - rand.nextInt(3));
+      // Some highlights end right behind the closing tag of the word
+      sb.insert(rand.nextInt(4) == 0 ? texts.get(idx)[1] + "</w>".length() : texts.get(idx)[1], "</em>");
+      sb.insert(texts.get(first)[0], "<em>");
+      idx = first - 1 - rand.nextInt(4);
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testSameOutputAsRegularExpressions() throws IOException {
+    String doc = new String(
+        Files.readAllBytes(Paths.get("src/test/resources/data/miniocr.xml")), StandardCharsets.UTF_8);
+    List<Integer> lineStarts = new ArrayList<>();
+    Matcher m = Pattern.compile("<l>").matcher(doc);
+    while (m.find()) {
+      lineStarts.add(m.start());
+    }
+    Random rand = new Random(23);
+    int numCompared = 0;
+    for (int i = 0; i + 4 < lineStarts.size(); i += 1 + rand.nextInt(4)) {
+      String fragment = doc.substring(lineStarts.get(i), lineStarts.get(i + 1 + rand.nextInt(4)));
+      if (rand.nextBoolean()) {
+        fragment = highlight(fragment, rand);
+      }
+      MiniOcrFragmentParser.Result result = parser.parse(new StringBuilder(fragment), "start", true);
+      assertThat(result.text).as("line %d", i).isEqualTo(legacyText(fragment));
+      assertThat(describe(result.words.toBoxes())).as("line %d", i).isEqualTo(describe(legacyWords(fragment, "start")));
+      numCompared++;
+    }
+    assertThat(numCompared).isGreaterThan(100);
+  }
+
+  @Test
+  public void testCoordinatesAreParsedLikeFloats() {
+    Random rand = new Random(42);
+    List<String> numbers = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      numbers.add(String.format(Locale.US, ".%04d", rand.nextInt(10000)));
+      numbers.add(String.format(Locale.US, "%.6f", rand.nextFloat()));
+      numbers.add(Integer.toString(rand.nextInt(100000)));
+      numbers.add(String.format(Locale.US, "%.3f", rand.nextFloat() * 10000));
+      numbers.add(String.format(Locale.US, "%.12f", rand.nextDouble()));
+    }
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i + 3 < numbers.size(); i += 4) {
+      sb.append(String.format("<w x=\"%s %s %s %s\">w%d</w> ",
+                              numbers.get(i), numbers.get(i + 1), numbers.get(i + 2), numbers.get(i + 3), i));
+    }
+    List<OcrBox> words = parser.parse(sb, "p", false).words.toBoxes();
+    assertThat(words).hasSize(numbers.size() / 4);
+    for (int i = 0; i < words.size(); i++) {
+      OcrBox box = words.get(i);
+      float x = Float.parseFloat(numbers.get(i * 4));
+      float y = Float.parseFloat(numbers.get(i * 4 + 1));
+      assertThat(box.getUlx()).as(numbers.get(i * 4)).isEqualTo(x);
+      assertThat(box.getUly()).as(numbers.get(i * 4 + 1)).isEqualTo(y);
+      assertThat(box.getLrx()).isEqualTo(x + Float.parseFloat(numbers.get(i * 4 + 2)));
+      assertThat(box.getLry()).isEqualTo(y + Float.parseFloat(numbers.get(i * 4 + 3)));
+    }
+  }
+
+  @Test
+  public void testPagesAreParsed() {
+    String fragment = "<w x=\".1 .2 .3 .4\">a</w></l></b></p><p xml:id=\"p2\" wh=\"1000 2000\"><b><l>"
+        + "<w x=\".5 .6 .1 .1\">b&amp;c</w>";
+    MiniOcrFragmentParser.Result result = parser.parse(fragment, "p1", true);
+    assertThat(result.text).isEqualTo("ab&c");
+    assertThat(result.words.toBoxes()).extracting(OcrBox::getPageId).containsExactly("p1", "p2");
+    assertThat(result.words.toBoxes().get(1).getText()).isEqualTo("b&c");
+    assertThat(result.pages).hasSize(1);
+    assertThat(result.pages.get(0).id).isEqualTo("p2");
+    assertThat(result.pages.get(0).dimensions.width).isEqualTo(1000);
+    assertThat(result.pages.get(0).dimensions.height).isEqualTo(2000);
+    assertThat(parser.parseFirstPage("<p xml:id=\"p3\"><b>").dimensions).isNull();
+  }
+}
@@ -0,0 +1,244 @@
+package de.digitalcollections.solrocr.lucene;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.digitalcollections.solrocr.iter.IterableCharSequence;
+import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.util.HighlightTimeout;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class LookaheadFieldValueLoaderTest {
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+  private final AtomicInteger numOpen = new AtomicInteger();
+  private final Set<Integer> loadedDocs = ConcurrentHashMap.newKeySet();
+
+  @AfterEach
+  void shutdown() {
+    executor.shutdownNow();
+    HighlightTimeout.reset();
+  }
+
+  private IterableCharSequence[] load(int docId) {
+    loadedDocs.add(docId);
+    numOpen.incrementAndGet();
+    return new IterableCharSequence[] { new ClosingSeq(String.valueOf(docId)) };
+  }
+
+  @Test
+  void testReturnsValuesInOrder() throws IOException {
+    int[] docIds = {3, 7, 12, 20, 21, 40};
+    try (LookaheadFieldValueLoader loader = new LookaheadFieldValueLoader(docIds, this::load, executor, 2)) {
+      for (int docId : docIds) {
+        IterableCharSequence[] vals = loader.next();
+        assertThat(vals[0].toString()).isEqualTo(String.valueOf(docId));
+        LookaheadFieldValueLoader.closeValues(vals);
+      }
+      assertThat(loader.hasNext()).isFalse();
+    }
+    assertThat(numOpen.get()).isEqualTo(0);
+  }
+
+  @Test
+  void testLookaheadIsBounded() throws IOException, InterruptedException {
+    int[] docIds = {1, 2, 3, 4, 5, 6, 7, 8};
+    try (LookaheadFieldValueLoader loader = new LookaheadFieldValueLoader(docIds, this::load, executor, 2)) {
+      LookaheadFieldValueLoader.closeValues(loader.next());
+      Thread.sleep(100);
+      // Current document plus two documents of look-ahead
+      assertThat(loadedDocs).containsOnly(1, 2, 3);
+    }
+  }
+
+  @Test
+  void testCloseReleasesUnconsumedValues() throws IOException, InterruptedException {
+    int[] docIds = {1, 2, 3, 4, 5};
+    LookaheadFieldValueLoader loader = new LookaheadFieldValueLoader(docIds, this::load, executor, 3);
+    LookaheadFieldValueLoader.closeValues(loader.next());
+    Thread.sleep(100);
+    loader.close();
+    Thread.sleep(100);
+    assertThat(numOpen.get()).isEqualTo(0);
+  }
+
+  @Test
+  void testLoadsSynchronouslyWithoutExecutor() throws IOException {
+    int[] docIds = {1, 2};
+    try (LookaheadFieldValueLoader loader = new LookaheadFieldValueLoader(docIds, this::load, null, 4)) {
+      LookaheadFieldValueLoader.closeValues(loader.next());
+      assertThat(loadedDocs).containsOnly(1);
+      LookaheadFieldValueLoader.closeValues(loader.next());
+      assertThat(loadedDocs).containsOnly(1, 2);
+    }
+  }
+
+  @Test
+  void testPropagatesErrors() throws IOException {
+    int[] docIds = {1, 2, 3};
+    try (LookaheadFieldValueLoader loader = new LookaheadFieldValueLoader(docIds, docId -> {
+      if (docId == 2) {
+        throw new IOException("boom");
+      }
+      return load(docId);
+    }, executor, 2)) {
+      LookaheadFieldValueLoader.closeValues(loader.next());
+      assertThatThrownBy(loader::next).isInstanceOf(IOException.class).hasMessage("boom");
+    }
+  }
+
+  @Test
+  void testBackgroundLoadsHonorTimeout() throws IOException {
+    int[] docIds = {1, 2, 3};
+    Set<Long> timeouts = ConcurrentHashMap.newKeySet();
+    HighlightTimeout.set(60_000L);
+    Long timeoutAt = HighlightTimeout.get();
+    try (LookaheadFieldValueLoader loader = new LookaheadFieldValueLoader(docIds, docId -> {
+      if (HighlightTimeout.get() != null) {
+        timeouts.add(HighlightTimeout.get());
+      }
+      return load(docId);
+    }, executor, 2)) {
+      while (loader.hasNext()) {
+        LookaheadFieldValueLoader.closeValues(loader.next());
+      }
+    }
+    // The timeout of the request applies to the loads on the background threads as well
+    assertThat(timeouts).containsOnly(timeoutAt);
+  }
+
+  @Test
+  void testNoBackgroundLoadsAfterTimeout() throws IOException {
+    int[] docIds = {1, 2, 3, 4};
+    Set<Thread> loadingThreads = ConcurrentHashMap.newKeySet();
+    HighlightTimeout.set(-1L);
+    try (LookaheadFieldValueLoader loader = new LookaheadFieldValueLoader(docIds, docId -> {
+      loadingThreads.add(Thread.currentThread());
+      return load(docId);
+    }, executor, 2)) {
+      while (loader.hasNext()) {
+        LookaheadFieldValueLoader.closeValues(loader.next());
+      }
+    }
+    // Everything was left to the request thread
+    assertThat(loadingThreads).containsOnly(Thread.currentThread());
+    assertThat(loadedDocs).containsOnly(1, 2, 3, 4);
+  }
+
+  private class ClosingSeq implements IterableCharSequence, AutoCloseable {
+    private final String str;
+    private final IterableCharSequence seq;
+    private boolean closed = false;
+
+    ClosingSeq(String str) {
+      this.str = str;
+      this.seq = IterableCharSequence.fromString(str);
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        numOpen.decrementAndGet();
+      }
+    }
+
+    @Override
+    public String getIdentifier() {
+      return seq.getIdentifier();
+    }
+
+    @Override
+    public OffsetType getOffsetType() {
+      return seq.getOffsetType();
+    }
+
+    @Override
+    public Charset getCharset() {
+      return StandardCharsets.UTF_8;
+    }
+
+    @Override
+    public SourcePointer getPointer() {
+      return null;
+    }
+
+    @Override
+    public int length() {
+      return seq.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+      return seq.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return seq.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+      return str;
+    }
+
+    @Override
+    public char first() {
+      return seq.first();
+    }
+
+    @Override
+    public char last() {
+      return seq.last();
+    }
+
+    @Override
+    public char current() {
+      return seq.current();
+    }
+
+    @Override
+    public char next() {
+      return seq.next();
+    }
+
+    @Override
+    public char previous() {
+      return seq.previous();
+    }
+
+    @Override
+    public char setIndex(int position) {
+      return seq.setIndex(position);
+    }
+
+    @Override
+    public int getBeginIndex() {
+      return seq.getBeginIndex();
+    }
+
+    @Override
+    public int getEndIndex() {
+      return seq.getEndIndex();
+    }
+
+    @Override
+    public int getIndex() {
+      return seq.getIndex();
+    }
+
+    @Override
+    public Object clone() {
+      return this;
+    }
+  }
+}
@@ -2,8 +2,11 @@ package de.digitalcollections.solrocr.solr;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 import org.apache.solr.BaseDistributedSearchTestCase;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.util.NamedList;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -63,6 +66,27 @@ public class DistributedTest extends BaseDistributedSearchTestCase {
     //       do a lot of assertions here, since the general case is already covered by the other tests.
   }
 
+  @Test
+  public void testDistributedCompactFormat() throws Exception {
+    QueryResponse resp = query(
+        "q", "svadag",
+        "hl", "true",
+        "hl.ocr.fl", "ocr_text",
+        "hl.usePhraseHighlighter", "true",
+        "df", "ocr_text",
+        "hl.snippets", "10",
+        "hl.ocr.format", "compact",
+        "fl", "id,score");
+    assertEquals(1, resp.getResults().getNumFound());
+    NamedList<?> fieldHls = (NamedList<?>) ((NamedList<?>) resp.getResponse().get("ocrHighlighting")).get("31337");
+    Map<?, ?> compact = (Map<?, ?>) fieldHls.get("ocr_text");
+    List<?> snippets = (List<?>) compact.get("snippets");
+    assertEquals(compact.get("numTotal"), snippets.size());
+    Map<?, ?> snippet = (Map<?, ?>) snippets.get(0);
+    assertEquals(4 * ((List<?>) snippet.get("regionTexts")).size(), ((List<?>) snippet.get("regionCoords")).size());
+    assertEquals(((List<?>) compact.get("pageIds")).size(), ((List<?>) compact.get("pageWidths")).size());
+  }
+
   @Test
   public void testDistributedTimeout() throws Exception {
     QueryResponse resp = query(
@@ -9,6 +9,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Stream;
 import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.request.SolrQueryRequest;
 import org.junit.BeforeClass;
@@ -263,4 +264,73 @@ public class MiniOcrTest extends SolrTestCaseJ4 {
         "(//arr[@name='regions']/lst/int[@name='pageIdx'])[1]='0'",
         "(//arr[@name='regions']/lst/int[@name='pageIdx'])[2]='1'");
   }
+
+  @Test
+  public void testIncludeOnlyText() throws Exception {
+    SolrQueryRequest req = xmlQ("q", "München", "hl.ocr.include", "text");
+    assertQ(req,
+            "count(//lst[@name='ocrHighlighting']/lst[@name='31337']/lst[@name='ocr_text']/arr/lst)=3",
+            "//str[@name='text'][1]/text()='Bayerische Staatsbibliothek <em>München</em>'",
+            "count(//arr[@name='pages'])=0",
+            "count(//arr[@name='regions'])=0",
+            "count(//arr[@name='highlights'])=0");
+  }
+
+  @Test
+  public void testIncludeRegionsAndHighlights() throws Exception {
+    SolrQueryRequest req = xmlQ("q", "München", "hl.ocr.include", "regions,highlights");
+    assertQ(req,
+            "count(//lst[@name='ocr_text']/arr/lst/str[@name='text'])=0",
+            "count(//arr[@name='pages'])=0",
+            "count(//arr[@name='regions']/lst/int[@name='pageIdx'])=0",
+            "count(//arr[@name='regions']/lst/str[@name='pageId'])>0",
+            "//arr[@name='regions'][1]/lst/float[@name='ulx']/text()='0.4949'",
+            "count(//arr[@name='highlights'])=3",
+            "//arr[@name='highlights'][1]/arr/lst/float[@name='ulx']/text()='0.2339'");
+  }
+
+  @Test
+  public void testIncludeInvalidPart() throws Exception {
+    SolrQueryRequest req = xmlQ("q", "München", "hl.ocr.include", "text,words");
+    assertQEx("Unknown parts should be rejected", req, SolrException.ErrorCode.BAD_REQUEST);
+  }
+
+  @Test
+  public void testCompactFormat() throws Exception {
+    SolrQueryRequest req = xmlQ("q", "München", "hl.ocr.format", "compact");
+    String base = "//lst[@name='ocrHighlighting']/lst[@name='31337']/lst[@name='ocr_text']";
+    assertQ(req,
+            base + "/int[@name='numTotal']='3'",
+            "count(" + base + "/arr[@name='snippets']/lst)=3",
+            "count(" + base + "/arr[@name='pageIds']/str)=3",
+            base + "/arr[@name='pageWidths']/int[1]='1500'",
+            base + "/arr[@name='pageHeights']/int[1]='3000'",
+            "count(" + base + "/arr[@name='snippets']/lst/str[@name='text' and "
+                + "text()='Bayerische Staatsbibliothek <em>München</em>'])=1",
+            base + "/arr[@name='snippets']/lst[1]/arr[@name='regionCoords']/float[1]='0.0494'",
+            base + "/arr[@name='snippets']/lst[1]/arr[@name='regionCoords']/float[4]='0.8046'",
+            "count(" + base + "/arr[@name='snippets']/lst[1]/arr[@name='regionTexts']/str)=1",
+            base + "/arr[@name='snippets']/lst[1]/arr[@name='highlightSpans']/int[1]='0'",
+            base + "/arr[@name='snippets']/lst[1]/arr[@name='highlightRegions']/int[1]='0'",
+            base + "/arr[@name='snippets']/lst[1]/arr[@name='highlightCoords']/float[1]='0.0678'",
+            base + "/arr[@name='snippets']/lst[1]/arr[@name='highlightTexts']/str[1]='München'",
+            "count(//arr[@name='regions'])=0");
+  }
+
+  @Test
+  public void testCompactFormatWithProjection() throws Exception {
+    SolrQueryRequest req = xmlQ("q", "München", "hl.ocr.format", "compact", "hl.ocr.include", "highlights");
+    assertQ(req,
+            "count(//arr[@name='snippets']/lst)=3",
+            "count(//arr[@name='pageIds'])=0",
+            "count(//arr[@name='regionCoords'])=0",
+            "count(//arr[@name='snippets']/lst/str[@name='text'])=0",
+            "count(//arr[@name='highlightCoords'])=3");
+  }
+
+  @Test
+  public void testInvalidFormat() throws Exception {
+    SolrQueryRequest req = xmlQ("q", "München", "hl.ocr.format", "tiny");
+    assertQEx("Unknown formats should be rejected", req, SolrException.ErrorCode.BAD_REQUEST);
+  }
 }
@@ -0,0 +1,92 @@
+package de.digitalcollections.solrocr.solr;
+
+import com.codahale.metrics.Gauge;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class OcrHighlightCacheTest extends SolrTestCaseJ4 {
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig-cache.xml", "schema.xml", "src/test/resources/solr", "general");
+    Path dataPath = Paths.get("src", "test", "resources", "data").toAbsolutePath();
+    assertU(adoc("ocr_text", dataPath.resolve("miniocr.xml").toString(), "id", "31337"));
+    assertU(commit());
+  }
+
+  @Before
+  public void clearCache() {
+    withCache(SolrCache::clear);
+  }
+
+  private static SolrQueryRequest q(String query, String... extraArgs) {
+    String[] args = new String[]{
+        "q", query, "df", "ocr_text", "hl", "true", "hl.ocr.fl", "ocr_text", "hl.snippets", "10", "fl", "id"};
+    String[] all = new String[args.length + extraArgs.length];
+    System.arraycopy(args, 0, all, 0, args.length);
+    System.arraycopy(extraArgs, 0, all, args.length, extraArgs.length);
+    return req(all);
+  }
+
+  private static void withCache(Consumer<SolrCache<?, ?>> fn) {
+    RefCounted<SolrIndexSearcher> ref = h.getCore().getSearcher();
+    try {
+      fn.accept(ref.get().getCache(OcrHighlightCache.NAME));
+    } finally {
+      ref.decref();
+    }
+  }
+
+  private static long stat(String name) {
+    @SuppressWarnings("unchecked")
+    Gauge<Map<String, Object>> stats = (Gauge<Map<String, Object>>) h.getCoreContainer().getMetricManager()
+        .registry(h.getCore().getCoreMetricManager().getRegistryName())
+        .getMetrics().get("CACHE.searcher." + OcrHighlightCache.NAME);
+    return ((Number) stats.getValue().get(name)).longValue();
+  }
+
+  @Test
+  public void testRepeatedRequestIsCached() throws Exception {
+    String[] xpaths = {
+        "count(//lst[@name='ocrHighlighting']/lst[@name='31337']/lst[@name='ocr_text']/arr/lst)=3",
+        "//lst[@name='ocr_text']/int[@name='numTotal']='3'",
+        "//str[@name='text'][1]/text()='Bayerische Staatsbibliothek <em>München</em>'"};
+    long hits = stat("cumulative_hits");
+    assertQ(q("München"), xpaths);
+    assertEquals(hits, stat("cumulative_hits"));
+    assertQ(q("München"), xpaths);
+    assertEquals(hits + 1, stat("cumulative_hits"));
+    withCache(cache -> assertEquals(1, cache.size()));
+  }
+
+  @Test
+  public void testParametersArePartOfTheKey() throws Exception {
+    assertQ(q("München"), "count(//arr[@name='regions'])=3");
+    assertQ(q("München", "hl.ocr.include", "text"), "count(//arr[@name='regions'])=0");
+    assertQ(q("München", "hl.tag.pre", "<b>", "hl.tag.post", "</b>"),
+            "//str[@name='text'][1]/text()='Bayerische Staatsbibliothek <b>München</b>'");
+    // Per-request time limits don't change the snippets
+    assertQ(q("München", "hl.ocr.timeAllowed", "60000"), "count(//arr[@name='regions'])=3");
+    withCache(cache -> assertEquals(3, cache.size()));
+  }
+
+  @Test
+  public void testEntriesAreAutowarmed() throws Exception {
+    assertQ(q("München"), "count(//lst[@name='ocr_text']/arr/lst)=3");
+    assertU(adoc("id", "1"));
+    assertU(commit());
+    withCache(cache -> assertEquals(1, cache.size()));
+    long hits = stat("cumulative_hits");
+    assertQ(q("München"), "count(//lst[@name='ocr_text']/arr/lst)=3");
+    assertEquals(hits + 1, stat("cumulative_hits"));
+  }
+}
@@ -0,0 +1,74 @@
+package de.digitalcollections.solrocr.solr;
+
+import de.digitalcollections.solrocr.iter.ByteCharIteratorFactory;
+import de.digitalcollections.solrocr.lucene.OcrHighlighter;
+import de.digitalcollections.solrocr.util.PageCacheWarmer;
+import de.digitalcollections.solrocr.util.SourcePointerCache;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import org.apache.lucene.search.Query;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class OcrHighlighterPreloadTest extends SolrTestCaseJ4 {
+  private static final int NUM_DOCS = 3;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml", "schema.xml", "src/test/resources/solr", "general");
+    Path source = Paths.get("src", "test", "resources", "data", "miniocr.xml");
+    Path tempDir = createTempDir();
+    for (int i = 0; i < NUM_DOCS; i++) {
+      // Separate files, so the reads of the documents aren't deduplicated
+      Path copy = Files.copy(source, tempDir.resolve("miniocr_" + i + ".xml"));
+      assertU(adoc("ocr_text", copy.toAbsolutePath().toString(), "id", String.valueOf(i)));
+    }
+    assertU(commit());
+  }
+
+  @Test
+  public void testWholeBatchIsPreloadedWithoutLookahead() throws Exception {
+    // Without worker threads, all reads stay in the queue until they are finished or cancelled
+    PageCacheWarmer warmer = new PageCacheWarmer(1024, 0, 0);
+    SourcePointerCache pointerCache = new SourcePointerCache(
+        SourcePointerCache.DEFAULT_MAX_POINTERS, SourcePointerCache.DEFAULT_MAX_FILES, SourcePointerCache.DEFAULT_TTL_MS);
+    List<Integer> queueDepths = new ArrayList<>();
+    ByteCharIteratorFactory iterFactory = (path, charset, ptr) -> {
+      queueDepths.add(warmer.getQueueDepth());
+      return ByteCharIteratorFactory.MMAP.open(path, charset, ptr);
+    };
+    SolrQueryRequest req = req("q", "München", "df", "ocr_text", "hl", "true", "hl.ocr.fl", "ocr_text");
+    try {
+      SolrIndexSearcher searcher = req.getSearcher();
+      Query query = QParser.getParser("München", req).getQuery();
+      int[] docIds = Arrays.stream(searcher.search(query, 10).scoreDocs).mapToInt(sd -> sd.doc).toArray();
+      assertEquals(NUM_DOCS, docIds.length);
+      OcrHighlighter highlighter = new OcrHighlighter(
+          searcher, searcher.getSchema().getIndexAnalyzer(), req.getParams(), iterFactory, null, 0, warmer, pointerCache,
+          null);
+      highlighter.highlightOcrFields(
+          new String[]{"ocr_text"}, query, docIds, new int[]{NUM_DOCS}, new HashMap<>());
+    } finally {
+      req.close();
+      warmer.shutdown();
+    }
+    // The reads for all documents were scheduled before the first one was opened
+    assertEquals(NUM_DOCS, warmer.getNumScheduled());
+    assertEquals(NUM_DOCS, (int) queueDepths.get(0));
+    // Every document cancelled its own read when its highlighting started
+    assertEquals(NUM_DOCS, warmer.getNumCancelled());
+    assertEquals(NUM_DOCS, warmer.getMisses());
+    // The pointers resolved for the read-ahead were used for highlighting, without resolving them a second time
+    assertEquals(NUM_DOCS, pointerCache.getPointerStats().requestCount());
+    assertEquals(0, pointerCache.getPointerStats().hitCount());
+  }
+}
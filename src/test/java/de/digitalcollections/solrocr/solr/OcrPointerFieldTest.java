@@ -0,0 +1,124 @@
+package de.digitalcollections.solrocr.solr;
+
+import com.google.common.collect.ImmutableList;
+import de.digitalcollections.solrocr.formats.alto.AltoFormat;
+import de.digitalcollections.solrocr.model.OcrBlock;
+import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.model.SourcePointer.FileSource;
+import de.digitalcollections.solrocr.model.SourcePointer.Region;
+import java.nio.file.Paths;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.schema.FieldProperties;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class OcrPointerFieldTest extends SolrTestCaseJ4 {
+  private static final String MULTI_PTR =
+      "src/test/resources/data/alto_columns/alto1.xml[179626:179968,179973:180491,180496:180820]"
+          + "+src/test/resources/data/alto_columns/alto2.xml[1997:8611,8616:13294,13299:15243]";
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml", "schema.xml", "src/test/resources/solr", "general");
+    String altoPath = Paths.get("src/test/resources/data/alto.xml").toString();
+    assertU(adoc("ocr_text", altoPath, "ocr_text_pointer", altoPath, "id", "42"));
+    assertU(adoc("ocr_text", MULTI_PTR, "ocr_text_pointer", MULTI_PTR, "id", "96"));
+    assertU(commit());
+  }
+
+  private static String highlight(String field, String query) throws Exception {
+    SolrQueryRequest req = req(
+        "q", query, "df", field, "hl", "true", "hl.ocr.fl", field, "hl.snippets", "10", "fl", "id");
+    return h.query(req)
+        .replaceAll("<int name=\"QTime\">\\d+</int>", "")
+        .replace("\"" + field + "\"", "\"FIELD\"");
+  }
+
+  @Test
+  public void testHighlightingIsIdentical() throws Exception {
+    assertTrue(highlight("ocr_text", "svadag").contains("&lt;em&gt;Svadag&lt;/em&gt;"));
+    for (String query : ImmutableList.of("svadag", "Nicolai", "\"Kl. eg\"", "die")) {
+      assertEquals(highlight("ocr_text", query), highlight("ocr_text_pointer", query));
+    }
+  }
+
+  @Test
+  public void testPointerIsStoredInDocValues() throws Exception {
+    RefCounted<SolrIndexSearcher> ref = h.getCore().getSearcher();
+    try {
+      SolrIndexSearcher searcher = ref.get();
+      int docId = searcher.getFirstMatch(new org.apache.lucene.index.Term("id", "96"));
+      SourcePointer ptr = OcrPointerField.readPointer(
+          searcher.getSlowAtomicReader(), docId, "ocr_text_pointer");
+      assertNotNull(ptr);
+      assertTrue(ptr.format instanceof AltoFormat);
+      assertEquals(SourcePointer.parse(MULTI_PTR).sources, ptr.sources);
+      assertEquals(
+          Paths.get("src/test/resources/data/alto_columns/alto2.xml").toFile().length(), ptr.sources.get(1).size);
+      assertNull(OcrPointerField.readPointer(searcher.getSlowAtomicReader(), docId, "ocr_text"));
+      // The regions only cover a small part of the first file, so no structure was recorded
+      assertNull(ptr.structure);
+
+      SourcePointer altoPtr = OcrPointerField.readPointer(
+          searcher.getSlowAtomicReader(), searcher.getFirstMatch(new org.apache.lucene.index.Term("id", "42")),
+          "ocr_text_pointer");
+      assertNotNull(altoPtr.structure);
+      assertEquals(altoPtr.sources.get(0).size, altoPtr.structure.getContentLength());
+      assertEquals(2, altoPtr.structure.getTagStarts(OcrBlock.PAGE).length);
+      assertEquals(94, altoPtr.structure.getTagStarts(OcrBlock.LINE).length);
+    } finally {
+      ref.decref();
+    }
+  }
+
+  @Test
+  public void testEncodingRoundtrip() {
+    SourcePointer ptr = new SourcePointer(ImmutableList.of(
+        new FileSource(Paths.get("/mnt/ocr/vol1/page_0001.xml"), ImmutableList.of(), false, 1234),
+        new FileSource(Paths.get("/mnt/ocr/vol1/page_0002.xml"),
+                       ImmutableList.of(new Region(0, 100), new Region(200, 400), new Region(5000, -1)), true,
+                       1L << 33),
+        new FileSource(Paths.get("s3://bucket/vol2/page.xml"), ImmutableList.of(new Region(7, 8)), false, 99)));
+    BytesRef encoded = OcrPointerField.encode(ptr, null);
+    SourcePointer decoded = OcrPointerField.decode(encoded);
+    assertEquals(ptr.sources, decoded.sources);
+    assertNull(decoded.format);
+    for (int i = 0; i < ptr.sources.size(); i++) {
+      assertEquals(ptr.sources.get(i).size, decoded.sources.get(i).size);
+    }
+    // Shared prefixes are only stored once, so the encoding is shorter than the paths alone
+    int pathBytes = ptr.sources.stream().mapToInt(s -> s.path.toString().length()).sum();
+    assertTrue(encoded.length < pathBytes + 16);
+
+    BytesRef withFormat = OcrPointerField.encode(ptr, new AltoFormat());
+    assertTrue(OcrPointerField.decode(withFormat).format instanceof AltoFormat);
+  }
+
+  @Test
+  public void testMultiValuedFieldsAreRejected() {
+    SchemaField field = h.getCore().getLatestSchema().getField("ocr_text_pointer");
+    FieldType type = field.getType();
+    type.checkSchemaField(field);
+    // Creating the field already checks it
+    SolrException e = expectThrows(SolrException.class, () -> new SchemaField(
+        "ocr_multi", type, field.getProperties() | Properties.MULTI_VALUED, null));
+    assertTrue(e.getMessage().contains("can't be multiValued"));
+  }
+
+  /** Gives access to the flags of schema fields, which are only visible to subclasses */
+  private abstract static class Properties extends FieldProperties {
+    static final int MULTI_VALUED = MULTIVALUED;
+  }
+
+  @Test
+  public void testInvalidPointersAreRejected() {
+    assertFailedU(adoc("ocr_text_pointer", "src/test/resources/data/does_not_exist.xml", "id", "100"));
+  }
+}
@@ -0,0 +1,302 @@
+package de.digitalcollections.solrocr.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.digitalcollections.solrocr.iter.ByteCharIteratorFactory;
+import de.digitalcollections.solrocr.iter.FileBytesCharIterator;
+import de.digitalcollections.solrocr.iter.MultiFileBytesCharIterator;
+import de.digitalcollections.solrocr.iter.RemoteCharIterator;
+import de.digitalcollections.solrocr.lucene.filters.ExternalUtf8ContentFilterFactory;
+import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.reader.MultiFileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RemoteStorageTest {
+  private static final Pattern RANGE_PAT = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+  @TempDir
+  Path tempDir;
+
+  private HttpServer server;
+  private String baseUrl;
+  private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+  private volatile long fetchDelayMs = 0;
+  private String content;
+
+  /** Local stand-in for an object store that serves files from the temporary directory with range requests. */
+  private void serve(HttpExchange ex) throws IOException {
+    String range = ex.getRequestHeaders().getFirst("Range");
+    requests.add(ex.getRequestMethod() + " " + ex.getRequestURI().getPath() + (range == null ? "" : " " + range));
+    String path = ex.getRequestURI().getPath();
+    if (path.startsWith("/bucket/")) {
+      String auth = ex.getRequestHeaders().getFirst("Authorization");
+      if (auth == null || !auth.startsWith("AWS4-HMAC-SHA256 Credential=AKID/")
+          || ex.getRequestHeaders().getFirst("x-amz-date") == null) {
+        ex.sendResponseHeaders(403, -1);
+        ex.close();
+        return;
+      }
+      path = path.substring("/bucket".length());
+    }
+    Path file = tempDir.resolve(path.substring(1));
+    if (!Files.isRegularFile(file)) {
+      ex.sendResponseHeaders(404, -1);
+      ex.close();
+      return;
+    }
+    byte[] data = Files.readAllBytes(file);
+    String etag = String.format("\"%d-%d\"", data.length, Files.getLastModifiedTime(file).toMillis());
+    ex.getResponseHeaders().set("ETag", etag);
+    ex.getResponseHeaders().set("Accept-Ranges", "bytes");
+    if ("HEAD".equals(ex.getRequestMethod())) {
+      ex.getResponseHeaders().set("Content-Length", String.valueOf(data.length));
+      ex.sendResponseHeaders(200, -1);
+      ex.close();
+      return;
+    }
+    String ifMatch = ex.getRequestHeaders().getFirst("If-Match");
+    if (ifMatch != null && !ifMatch.equals(etag)) {
+      ex.sendResponseHeaders(412, -1);
+      ex.close();
+      return;
+    }
+    try {
+      Thread.sleep(fetchDelayMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    Matcher m = range == null ? null : RANGE_PAT.matcher(range);
+    int start = 0;
+    int end = data.length - 1;
+    int status = 200;
+    if (m != null && m.matches()) {
+      start = Integer.parseInt(m.group(1));
+      end = Math.min(end, Integer.parseInt(m.group(2)));
+      status = 206;
+      ex.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", start, end, data.length));
+    }
+    ex.sendResponseHeaders(status, end - start + 1);
+    try (OutputStream out = ex.getResponseBody()) {
+      out.write(data, start, end - start + 1);
+    }
+  }
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", this::serve);
+    server.setExecutor(Executors.newFixedThreadPool(4));
+    server.start();
+    baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    StringBuilder sb = new StringBuilder("<alto><Page ID=\"p1\">");
+    for (int i = 0; i < 2000; i++) {
+      sb.append("<String CONTENT=\"wörd").append(i).append("\" HPOS=\"").append(i % 1000).append("\"/>");
+    }
+    content = sb.append("</Page></alto>").toString();
+    Files.write(tempDir.resolve("page.xml"), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+    StorageRegistry.getInstance().clear();
+  }
+
+  private Path location(String name) {
+    return StorageRegistry.resolve(baseUrl + "/" + name);
+  }
+
+  private static StorageRegistry registry(int blockSize, Path diskDir) throws IOException {
+    StorageRegistry registry = new StorageRegistry();
+    registry.setBlockCache(new RemoteBlockCache(blockSize, 16 * 1024 * 1024, diskDir, 16 * 1024 * 1024));
+    return registry;
+  }
+
+  private List<String> fetches() {
+    synchronized (requests) {
+      return requests.stream().filter(r -> r.startsWith("GET")).collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void testLocations() {
+    Path path = location("page.xml");
+    assertThat(StorageRegistry.isRemote(path)).isTrue();
+    assertThat(StorageRegistry.toUri(path)).isEqualTo(URI.create(baseUrl + "/page.xml"));
+    assertThat(StorageRegistry.toUri(StorageRegistry.resolve("s3://bucket/1863/page.xml")))
+        .isEqualTo(URI.create("s3://bucket/1863/page.xml"));
+    assertThat(StorageRegistry.resolve("file:///mnt/data/page.xml")).isEqualTo(Paths.get("/mnt/data/page.xml"));
+    assertThat(StorageRegistry.isRemote(Paths.get("/mnt/data/page.xml"))).isFalse();
+    assertThat(StorageRegistry.isRemote(Paths.get("relative/page.xml"))).isFalse();
+  }
+
+  @Test
+  public void testIteratorMatchesLocalFile() throws IOException {
+    StorageRegistry registry = registry(1024, null);
+    try (FileBytesCharIterator expected = new FileBytesCharIterator(
+            tempDir.resolve("page.xml"), StandardCharsets.UTF_8, null);
+         RemoteCharIterator actual = new RemoteCharIterator(
+             location("page.xml"), StandardCharsets.UTF_8, null, registry)) {
+      assertThat(actual.length()).isEqualTo(expected.length());
+      Random rand = new Random(1337);
+      for (int i = 0; i < 200; i++) {
+        int start = rand.nextInt(expected.length() - 1);
+        int end = Math.min(expected.length(), start + rand.nextInt(4096));
+        assertThat(actual.subSequence(start, end).toString()).isEqualTo(expected.subSequence(start, end).toString());
+        assertThat(actual.charAt(start)).isEqualTo(expected.charAt(start));
+      }
+      assertThat(actual.getIdentifier()).isEqualTo(baseUrl + "/page.xml");
+    }
+  }
+
+  @Test
+  public void testAdjacentBlocksAreCoalesced() throws IOException {
+    StorageRegistry registry = registry(1024, null);
+    RemoteObject obj = registry.stat(location("page.xml"));
+    byte[] buf = new byte[8192];
+    registry.read(obj, 100, buf, 0, 4900);
+    assertThat(fetches()).containsExactly("GET /page.xml bytes=0-5119");
+
+    // Cached blocks are not fetched again, the missing ones are fetched together
+    registry.read(obj, 0, buf, 0, 5000);
+    registry.read(obj, 4000, buf, 0, 5000);
+    assertThat(fetches()).containsExactly("GET /page.xml bytes=0-5119", "GET /page.xml bytes=5120-9215");
+    assertThat(new String(buf, 0, 5000, StandardCharsets.ISO_8859_1))
+        .isEqualTo(new String(content.getBytes(StandardCharsets.UTF_8), 4000, 5000, StandardCharsets.ISO_8859_1));
+    assertThat(registry.getBlockCache().getFetches()).isEqualTo(2);
+    assertThat(registry.getBlockCache().getHits()).isEqualTo(7);
+  }
+
+  @Test
+  public void testConcurrentReadersShareFetches() throws Exception {
+    StorageRegistry registry = registry(1024, null);
+    RemoteObject obj = registry.stat(location("page.xml"));
+    fetchDelayMs = 200;
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<byte[]>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(executor.submit(() -> {
+          byte[] buf = new byte[3000];
+          registry.read(obj, 1000, buf, 0, buf.length);
+          return buf;
+        }));
+      }
+      for (Future<byte[]> result : results) {
+        assertThat(new String(result.get(), StandardCharsets.ISO_8859_1)).isEqualTo(
+            new String(content.getBytes(StandardCharsets.UTF_8), 1000, 3000, StandardCharsets.ISO_8859_1));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(fetches()).hasSize(1);
+  }
+
+  @Test
+  public void testModifiedObjectIsDetected() throws IOException {
+    StorageRegistry registry = registry(1024, null);
+    RemoteObject obj = registry.stat(location("page.xml"));
+    Files.write(tempDir.resolve("page.xml"), (content + "<!-- changed -->").getBytes(StandardCharsets.UTF_8));
+    assertThatThrownBy(() -> registry.read(obj, 0, new byte[100], 0, 100))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("modified");
+  }
+
+  @Test
+  public void testDiskTierSurvivesRestart() throws IOException {
+    Path diskDir = tempDir.resolve("cache");
+    StorageRegistry registry = registry(1024, diskDir);
+    RemoteObject obj = registry.stat(location("page.xml"));
+    byte[] expected = new byte[4096];
+    registry.read(obj, 0, expected, 0, expected.length);
+    assertThat(registry.getBlockCache().getDiskBytes()).isEqualTo(4096);
+
+    StorageRegistry restarted = registry(1024, diskDir);
+    byte[] actual = new byte[4096];
+    restarted.read(obj, 0, actual, 0, actual.length);
+    assertThat(actual).isEqualTo(expected);
+    assertThat(restarted.getBlockCache().getDiskHits()).isEqualTo(4);
+    assertThat(fetches()).hasSize(1);
+  }
+
+  @Test
+  public void testPointersAndIndexTimeReading() throws IOException {
+    String second = content.replace("wörd", "wort");
+    Files.write(tempDir.resolve("page2.xml"), second.getBytes(StandardCharsets.UTF_8));
+    SourcePointer ptr = SourcePointer.parse(baseUrl + "/page.xml+" + baseUrl + "/page2.xml");
+    List<Path> paths = ptr.sources.stream().map(s -> s.path).collect(Collectors.toList());
+    try (MultiFileBytesCharIterator it = new MultiFileBytesCharIterator(
+        paths, StandardCharsets.UTF_8, ptr, ByteCharIteratorFactory.MMAP.withSourceRouting())) {
+      assertThat(it.subSequence(0, it.length()).toString()).isEqualTo(content + second);
+    }
+    try (Reader r = new MultiFileReader(paths)) {
+      assertThat(IOUtils.toString(r)).isEqualTo(content + second);
+    }
+
+    int start = content.indexOf("<String CONTENT=\"wörd500\"");
+    int end = content.indexOf("<String CONTENT=\"wörd1500\"");
+    String region = content.substring(start, end);
+    start = content.substring(0, start).getBytes(StandardCharsets.UTF_8).length;
+    end = content.substring(0, end).getBytes(StandardCharsets.UTF_8).length;
+    ExternalUtf8ContentFilterFactory fac = new ExternalUtf8ContentFilterFactory(new HashMap<>());
+    try (Reader r = fac.create(new StringReader(String.format("%s/page.xml[%d:%d]", baseUrl, start, end)))) {
+      assertThat(IOUtils.toString(r).trim()).isEqualTo(region.trim());
+    }
+  }
+
+  @Test
+  public void testMissingObjects() {
+    assertThatThrownBy(() -> SourcePointer.parse(baseUrl + "/missing.xml"))
+        .isInstanceOf(RuntimeException.class);
+    assertThatThrownBy(() -> new MultiFileReader(Collections.singletonList(location("missing.xml"))))
+        .isInstanceOf(IOException.class);
+    assertThatThrownBy(() -> StorageRegistry.getInstance().stat(StorageRegistry.resolve("gopher://host/page.xml")))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("No storage backend");
+  }
+
+  @Test
+  public void testSignedS3Requests() throws IOException {
+    StorageRegistry registry = registry(1024, null);
+    registry.register(new S3RangeFetcher(baseUrl, "eu-central-1", "AKID", "SECRET"));
+    Path path = StorageRegistry.resolve("s3://bucket/page.xml");
+    try (RemoteCharIterator it = new RemoteCharIterator(path, StandardCharsets.UTF_8, null, registry)) {
+      assertThat(it.subSequence(0, it.length()).toString()).isEqualTo(content);
+    }
+    assertThat(requests).allMatch(r -> r.contains(" /bucket/page.xml"));
+
+    registry.register(new S3RangeFetcher(baseUrl, "eu-central-1", null, null));
+    assertThatThrownBy(() -> registry.getFetcher(URI.create("s3://bucket/page.xml"))
+        .stat(URI.create("s3://bucket/page.xml")))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("403");
+  }
+}
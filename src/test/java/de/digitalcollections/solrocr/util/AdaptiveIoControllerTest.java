@@ -0,0 +1,87 @@
+package de.digitalcollections.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveIoControllerTest {
+  private static final long MS = 1_000_000L;
+
+  private long now = 0;
+
+  /** Feed a full sampling interval of reads with the given latency per read. */
+  private void interval(AdaptiveIoController controller, long latencyNanos, boolean backlogged) {
+    for (int i = 0; i < 32; i++) {
+      now += 10 * MS;
+      controller.record(latencyNanos, controller.getReadSize(), backlogged, now);
+    }
+  }
+
+  @Test
+  public void testIncreasesUpToBounds() {
+    AdaptiveIoController controller = new AdaptiveIoController(2, 6, 4096, 16384);
+    assertThat(controller.getConcurrency()).isEqualTo(2);
+    assertThat(controller.getReadSize()).isEqualTo(4096);
+    for (int i = 0; i < 10; i++) {
+      // Fixed cost per read, so larger reads are cheaper per byte
+      interval(controller, 5 * MS, true);
+    }
+    assertThat(controller.getConcurrency()).isEqualTo(6);
+    assertThat(controller.getReadSize()).isEqualTo(16384);
+    assertThat(controller.getLatencyMillis()).isEqualTo(5.0);
+    assertThat(controller.getThroughput()).isGreaterThan(0);
+  }
+
+  @Test
+  public void testDoesNotIncreaseWithoutBacklog() {
+    AdaptiveIoController controller = new AdaptiveIoController(2, 6, 4096, 16384);
+    for (int i = 0; i < 10; i++) {
+      interval(controller, 5 * MS, false);
+    }
+    assertThat(controller.getConcurrency()).isEqualTo(2);
+    assertThat(controller.getReadSize()).isEqualTo(4096);
+    assertThat(controller.getNumIncreases()).isEqualTo(0);
+  }
+
+  @Test
+  public void testDecreasesOnCongestion() {
+    AdaptiveIoController controller = new AdaptiveIoController(1, 16, 4096, 65536);
+    for (int i = 0; i < 15; i++) {
+      interval(controller, 5 * MS, true);
+    }
+    assertThat(controller.getConcurrency()).isEqualTo(16);
+    int readSize = controller.getReadSize();
+    // Latency per byte goes up by a factor of ten
+    interval(controller, 50 * MS, true);
+    assertThat(controller.getConcurrency()).isEqualTo(8);
+    assertThat(controller.getReadSize()).isEqualTo(readSize / 2);
+    assertThat(controller.getNumDecreases()).isEqualTo(1);
+    interval(controller, 50 * MS, true);
+    interval(controller, 50 * MS, true);
+    interval(controller, 50 * MS, true);
+    interval(controller, 50 * MS, true);
+    assertThat(controller.getConcurrency()).isEqualTo(1);
+    assertThat(controller.getReadSize()).isEqualTo(4096);
+  }
+
+  @Test
+  public void testAdaptsToPermanentlySlowerStorage() {
+    AdaptiveIoController controller = new AdaptiveIoController(1, 4, 4096, 4096);
+    interval(controller, 5 * MS, true);
+    for (int i = 0; i < 100; i++) {
+      interval(controller, 25 * MS, true);
+    }
+    // The baseline has caught up with the new latency, so concurrency can grow again
+    assertThat(controller.getConcurrency()).isEqualTo(4);
+  }
+
+  @Test
+  public void testFixedBoundsAreNotAdaptive() {
+    AdaptiveIoController controller = new AdaptiveIoController(8, 8, 32768, 32768);
+    assertThat(controller.isAdaptive()).isFalse();
+    interval(controller, 5 * MS, true);
+    interval(controller, 500 * MS, true);
+    assertThat(controller.getConcurrency()).isEqualTo(8);
+    assertThat(controller.getReadSize()).isEqualTo(32768);
+  }
+}
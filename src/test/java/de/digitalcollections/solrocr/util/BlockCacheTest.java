@@ -0,0 +1,108 @@
+package de.digitalcollections.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.digitalcollections.solrocr.iter.BlockCacheCharIterator;
+import de.digitalcollections.solrocr.iter.FileBytesCharIterator;
+import de.digitalcollections.solrocr.util.BlockCache.Block;
+import de.digitalcollections.solrocr.util.MappedFileCache.MappedFile;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.CharacterIterator;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BlockCacheTest {
+  @TempDir
+  Path tempDir;
+
+  private Path createFile(String name, String content) throws IOException {
+    Path p = tempDir.resolve(name);
+    Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+    return p;
+  }
+
+  @Test
+  public void testIteratorMatchesMappedFile() throws IOException {
+    StringBuilder sb = new StringBuilder("<alto>");
+    Random rand = new Random(42);
+    String[] words = {"Straße", "Mühle", "€uro", "plain", "𝔉raktur", "ſchön"};
+    for (int i = 0; i < 500; i++) {
+      sb.append("<String CONTENT=\"").append(words[rand.nextInt(words.length)]).append("\"/>");
+    }
+    sb.append("</alto>");
+    Path p = createFile("a.xml", sb.toString());
+
+    BlockCache cache = new BlockCache(64, 16 * 64);
+    try (FileBytesCharIterator mapped = new FileBytesCharIterator(p, StandardCharsets.UTF_8, null);
+         BlockCacheCharIterator blocked = new BlockCacheCharIterator(p, StandardCharsets.UTF_8, null, cache)) {
+      assertThat(blocked.length()).isEqualTo(mapped.length());
+      for (int i = 0; i < mapped.length(); i++) {
+        assertThat(blocked.charAt(i)).isEqualTo(mapped.charAt(i));
+      }
+      for (int i = 0; i < 200; i++) {
+        int start = rand.nextInt(mapped.length());
+        int end = start + rand.nextInt(Math.min(500, mapped.length() - start));
+        assertThat(blocked.subSequence(start, end).toString()).isEqualTo(mapped.subSequence(start, end).toString());
+      }
+      char c = blocked.first();
+      char d = mapped.first();
+      while (d != CharacterIterator.DONE) {
+        assertThat(c).isEqualTo(d);
+        assertThat(blocked.getIndex()).isEqualTo(mapped.getIndex());
+        c = blocked.next();
+        d = mapped.next();
+      }
+      assertThat(c).isEqualTo(CharacterIterator.DONE);
+    }
+    assertThat(cache.getHits()).isGreaterThan(0);
+    assertThat(cache.getBytesRead()).isGreaterThanOrEqualTo(Files.size(p));
+  }
+
+  @Test
+  public void testBlocksAreCachedAcrossIterators() throws IOException {
+    Path p = createFile("a.xml", "<alto><String CONTENT=\"foobar\"/></alto>");
+    BlockCache cache = new BlockCache(8, 1024);
+    try (BlockCacheCharIterator it = new BlockCacheCharIterator(p, StandardCharsets.UTF_8, null, cache)) {
+      assertThat(it.subSequence(0, it.length()).toString()).isEqualTo("<alto><String CONTENT=\"foobar\"/></alto>");
+    }
+    long misses = cache.getMisses();
+    assertThat(misses).isEqualTo(5);
+    try (BlockCacheCharIterator it = new BlockCacheCharIterator(p, StandardCharsets.UTF_8, null, cache)) {
+      assertThat(it.subSequence(0, it.length()).toString()).isEqualTo("<alto><String CONTENT=\"foobar\"/></alto>");
+    }
+    assertThat(cache.getMisses()).isEqualTo(misses);
+    assertThat(cache.getHits()).isEqualTo(5);
+  }
+
+  @Test
+  public void testEvictionAndPinning() throws IOException {
+    Path p = createFile("a.xml", new String(new char[4096]).replace('\0', 'x'));
+    // A single block per shard
+    BlockCache cache = new BlockCache(16, 16 * 16);
+    MappedFile file = MappedFileCache.getInstance().acquire(p);
+    try {
+      for (int i = 0; i < 256; i++) {
+        cache.release(cache.get(file, i));
+      }
+      assertThat(cache.getNumCachedBlocks()).isLessThanOrEqualTo(16);
+      assertThat(cache.getEvictions()).isGreaterThanOrEqualTo(256 - 16);
+
+      // Pinned blocks are never evicted, reads fall back to uncached buffers
+      Block[] pinned = new Block[256];
+      for (int i = 0; i < pinned.length; i++) {
+        pinned[i] = cache.get(file, i);
+      }
+      for (Block block : pinned) {
+        assertThat(block.length()).isEqualTo(16);
+        assertThat(block.get(0)).isEqualTo((byte) 'x');
+        cache.release(block);
+      }
+    } finally {
+      file.release();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package de.digitalcollections.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.collect.ImmutableList;
+import de.digitalcollections.solrocr.iter.BlockCompressedCharIterator;
+import de.digitalcollections.solrocr.iter.ByteCharIteratorFactory;
+import de.digitalcollections.solrocr.iter.FileBytesCharIterator;
+import de.digitalcollections.solrocr.iter.MultiFileBytesCharIterator;
+import de.digitalcollections.solrocr.lucene.filters.ExternalUtf8ContentFilterFactory;
+import de.digitalcollections.solrocr.reader.MultiFileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.zip.Deflater;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BlockCompressedFileTest {
+  @TempDir
+  Path tempDir;
+
+  private static String ocrContent(int numWords) {
+    StringBuilder sb = new StringBuilder("<alto><Page ID=\"p1\">");
+    for (int i = 0; i < numWords; i++) {
+      // Mix in some multi-byte characters so blocks don't end on character boundaries
+      sb.append("<String CONTENT=\"wörd").append(i).append("\" HPOS=\"").append(i % 1000).append("\"/>");
+      if (i % 50 == 0) {
+        sb.append("<TextLine>é中😀</TextLine>");
+      }
+    }
+    sb.append("</Page></alto>");
+    return sb.toString();
+  }
+
+  private Path write(String name, String content) throws IOException {
+    Path p = tempDir.resolve(name);
+    Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+    return p;
+  }
+
+  private Path compress(Path input, int blockSize) throws IOException {
+    Path output = input.resolveSibling(input.getFileName() + BlockCompressedFile.EXTENSION);
+    BlockCompressedFileConverter.convert(input, output, blockSize, Deflater.DEFAULT_COMPRESSION);
+    return output;
+  }
+
+  @Test
+  public void testIteratorMatchesUncompressedFile() throws IOException {
+    Path plain = write("doc.xml", ocrContent(5000));
+    Path compressed = compress(plain, 1024);
+    assertThat(Files.size(compressed)).isLessThan(Files.size(plain));
+    assertThat(BlockCompressedFile.contentSize(compressed)).isEqualTo(Files.size(plain));
+
+    try (FileBytesCharIterator expected = new FileBytesCharIterator(plain, StandardCharsets.UTF_8, null);
+         BlockCompressedCharIterator actual =
+             new BlockCompressedCharIterator(compressed, StandardCharsets.UTF_8, null)) {
+      assertThat(actual.length()).isEqualTo(expected.length());
+      Random rand = new Random(1337);
+      for (int i = 0; i < 500; i++) {
+        int start = rand.nextInt(expected.length() - 1);
+        int end = Math.min(expected.length(), start + rand.nextInt(4096));
+        assertThat(actual.subSequence(start, end).toString()).isEqualTo(expected.subSequence(start, end).toString());
+        assertThat(actual.charAt(start)).isEqualTo(expected.charAt(start));
+      }
+      // Sequential iteration across block boundaries
+      expected.setIndex(0);
+      actual.setIndex(0);
+      for (int i = 0; i < 10000; i++) {
+        assertThat(actual.next()).isEqualTo(expected.next());
+        assertThat(actual.getIndex()).isEqualTo(expected.getIndex());
+      }
+    }
+  }
+
+  @Test
+  public void testStreamMatchesUncompressedFile() throws IOException {
+    String content = ocrContent(3000);
+    Path compressed = compress(write("doc.xml", content), 4096);
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    try (InputStream in = BlockCompressedFile.openStream(compressed)) {
+      assertThat(IOUtils.toByteArray(in)).isEqualTo(bytes);
+    }
+    try (InputStream in = BlockCompressedFile.openStream(compressed)) {
+      assertThat(in.skip(10000)).isEqualTo(10000);
+      assertThat((byte) in.read()).isEqualTo(bytes[10000]);
+      assertThat(in.skip(100)).isEqualTo(100);
+      assertThat((byte) in.read()).isEqualTo(bytes[10101]);
+      assertThat(in.skip(bytes.length)).isEqualTo(bytes.length - 10102);
+      assertThat(in.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void testEmptyFile() throws IOException {
+    Path compressed = compress(write("empty.xml", ""), 1024);
+    try (BlockCompressedFile file = BlockCompressedFile.open(compressed)) {
+      assertThat(file.getNumBlocks()).isEqualTo(0);
+      assertThat(file.getUncompressedSize()).isEqualTo(0);
+    }
+    try (InputStream in = BlockCompressedFile.openStream(compressed)) {
+      assertThat(in.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void testRejectsInvalidContainers() throws IOException {
+    Path invalid = write("invalid.xml" + BlockCompressedFile.EXTENSION, ocrContent(10));
+    assertThatThrownBy(() -> BlockCompressedFile.open(invalid))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("not a block-compressed container");
+  }
+
+  @Test
+  public void testMixedMultiFileSources() throws IOException {
+    String first = ocrContent(1000);
+    String second = ocrContent(2000);
+    Path firstPath = compress(write("first.xml", first), 2048);
+    Path secondPath = write("second.xml", second);
+    String expected = first + second;
+    try (MultiFileBytesCharIterator it = new MultiFileBytesCharIterator(
+        ImmutableList.of(firstPath, secondPath), StandardCharsets.UTF_8, null,
+        ByteCharIteratorFactory.MMAP.withSourceRouting())) {
+      assertThat(it.length()).isEqualTo(expected.getBytes(StandardCharsets.UTF_8).length);
+      assertThat(it.subSequence(0, it.length()).toString()).isEqualTo(expected);
+    }
+    try (Reader r = new MultiFileReader(ImmutableList.of(firstPath, secondPath))) {
+      assertThat(IOUtils.toString(r)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void testIndexTimeRegions() throws IOException {
+    String content = ocrContent(2000);
+    Path compressed = compress(write("doc.xml", content), 1024);
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    // Regions have to start and end on character boundaries
+    int start = content.indexOf("<String CONTENT=\"wörd500\"");
+    int end = content.indexOf("<String CONTENT=\"wörd1500\"");
+    start = content.substring(0, start).getBytes(StandardCharsets.UTF_8).length;
+    end = content.substring(0, end).getBytes(StandardCharsets.UTF_8).length;
+    ExternalUtf8ContentFilterFactory fac = new ExternalUtf8ContentFilterFactory(new HashMap<>());
+    try (Reader r = fac.create(new StringReader(String.format("%s[%d:%d]", compressed, start, end)))) {
+      String filtered = IOUtils.toString(r);
+      String region = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+      // Everything outside of the region is blanked out
+      assertThat(filtered.trim()).isEqualTo(region.trim());
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package de.digitalcollections.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.digitalcollections.solrocr.iter.FileBytesCharIterator;
+import de.digitalcollections.solrocr.util.MappedFileCache.MappedFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedFileCacheTest {
+  @TempDir
+  Path tempDir;
+
+  private Path createFile(String name, String content) throws IOException {
+    Path p = tempDir.resolve(name);
+    Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+    return p;
+  }
+
+  private static String read(MappedFile file) throws IOException {
+    ByteBuffer view = file.chunk(0);
+    byte[] data = new byte[view.remaining()];
+    view.get(data);
+    return new String(data, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testHitsAndMisses() throws IOException {
+    MappedFileCache cache = new MappedFileCache(4);
+    Path p = createFile("a.xml", "<alto>a</alto>");
+    MappedFile first = cache.acquire(p);
+    MappedFile second = cache.acquire(p);
+    assertThat(second).isSameAs(first);
+    assertThat(cache.getMisses()).isEqualTo(1);
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(read(second)).isEqualTo("<alto>a</alto>");
+    first.release();
+    second.release();
+  }
+
+  @Test
+  public void testModifiedFileIsRemapped() throws IOException {
+    MappedFileCache cache = new MappedFileCache(4);
+    Path p = createFile("a.xml", "<alto>a</alto>");
+    MappedFile first = cache.acquire(p);
+    Files.write(p, "<alto>modified</alto>".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+    MappedFile second = cache.acquire(p);
+    assertThat(second).isNotSameAs(first);
+    assertThat(read(second)).isEqualTo("<alto>modified</alto>");
+    first.release();
+    second.release();
+  }
+
+  @Test
+  public void testLruEviction() throws IOException {
+    MappedFileCache cache = new MappedFileCache(2);
+    Path a = createFile("a.xml", "aaaa");
+    Path b = createFile("b.xml", "bbbb");
+    Path c = createFile("c.xml", "cccc");
+    cache.acquire(a).release();
+    cache.acquire(b).release();
+    cache.acquire(a).release();  // a is now more recently used than b
+    cache.acquire(c).release();
+    assertThat(cache.getEvictions()).isEqualTo(1);
+    assertThat(cache.getNumOpenFiles()).isEqualTo(2);
+    cache.acquire(a).release();
+    assertThat(cache.getHits()).isEqualTo(2);
+    cache.acquire(b).release();
+    assertThat(cache.getMisses()).isEqualTo(4);
+  }
+
+  @Test
+  public void testEvictedFileStaysValidWhileReferenced() throws IOException {
+    MappedFileCache cache = new MappedFileCache(1);
+    Path a = createFile("a.xml", "aaaa");
+    Path b = createFile("b.xml", "bbbb");
+    MappedFile inFlight = cache.acquire(a);
+    cache.acquire(b).release();
+    assertThat(cache.getEvictions()).isEqualTo(1);
+    assertThat(read(inFlight.share())).isEqualTo("aaaa");
+    inFlight.release();
+    inFlight.release();
+  }
+
+  @Test
+  public void testChunkedMapping() throws IOException {
+    // 16 byte chunks
+    MappedFileCache cache = new MappedFileCache(4, 4);
+    String content = "<alto><String CONTENT=\"Straße\"/><String CONTENT=\"Mühle\"/></alto>";
+    Path p = createFile("a.xml", content);
+    try (FileBytesCharIterator it = new FileBytesCharIterator(p, StandardCharsets.UTF_8, null, cache)) {
+      assertThat(it.length()).isEqualTo(content.getBytes(StandardCharsets.UTF_8).length);
+      assertThat(it.subSequence(0, it.length()).toString()).isEqualTo(content);
+      assertThat(it.subSequence(14, 40).toString()).isEqualTo(
+          new String(Arrays.copyOfRange(content.getBytes(StandardCharsets.UTF_8), 14, 40), StandardCharsets.UTF_8));
+      for (int i = 0; i < it.length(); i++) {
+        byte b = content.getBytes(StandardCharsets.UTF_8)[i];
+        assertThat(it.charAt(i)).isEqualTo(b < 0 ? '?' : (char) b);
+      }
+    }
+    MappedFile file = cache.acquire(p);
+    assertThat(file.chunk(1).limit()).isEqualTo(16);
+    assertThat(file.chunk(4).limit()).isEqualTo(content.getBytes(StandardCharsets.UTF_8).length - 64);
+    file.release();
+  }
+
+  private static boolean hasUtf8Start(Path p) throws IOException {
+    MappedFile file = new MappedFileCache(0).acquire(p);
+    try {
+      return file.hasUtf8Start();
+    } finally {
+      file.release();
+    }
+  }
+
+  @Test
+  public void testUtf8Start() throws IOException {
+    assertThat(hasUtf8Start(createFile("ascii.xml", "<alto/>"))).isTrue();
+    assertThat(hasUtf8Start(createFile("bom.xml", "\uFEFF<alto/>"))).isTrue();
+    assertThat(hasUtf8Start(createFile("empty.xml", ""))).isTrue();
+    // Multi-byte character that is cut off by the end of the sample
+    assertThat(hasUtf8Start(createFile("cut.xml", "<alto>aaaaaaaaaü</alto>"))).isTrue();
+    Path latin1 = tempDir.resolve("latin1.xml");
+    Files.write(latin1, "München".getBytes(StandardCharsets.ISO_8859_1));
+    assertThat(hasUtf8Start(latin1)).isFalse();
+    // Starts in the middle of a multi-byte character
+    Path continuation = tempDir.resolve("continuation.xml");
+    byte[] utf8 = "ü<alto/>".getBytes(StandardCharsets.UTF_8);
+    Files.write(continuation, Arrays.copyOfRange(utf8, 1, utf8.length));
+    assertThat(hasUtf8Start(continuation)).isFalse();
+  }
+
+  @Test
+  public void testDisabledCache() throws IOException {
+    MappedFileCache cache = new MappedFileCache(0);
+    Path a = createFile("a.xml", "aaaa");
+    MappedFile first = cache.acquire(a);
+    MappedFile second = cache.acquire(a);
+    assertThat(second).isNotSameAs(first);
+    assertThat(cache.getNumOpenFiles()).isEqualTo(0);
+    first.release();
+    second.release();
+  }
+}
@@ -0,0 +1,119 @@
+package de.digitalcollections.solrocr.util;
+
+import de.digitalcollections.solrocr.iter.MultiFileBytesCharIterator;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro-benchmark for the segment lookup and character stepping of {@link MultiFileBytesCharIterator}.
+ *
+ * Not run as part of the test suite, since timings on shared build machines are meaningless. Run it manually after
+ * <tt>mvn test-compile</tt> with the test classpath, e.g.:
+ *
+ * <pre>
+ * mvn -q dependency:build-classpath -Dmdep.outputFile=/tmp/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat /tmp/cp.txt) \
+ *     de.digitalcollections.solrocr.util.MultiFileBytesCharIteratorBenchmark [numFiles] [runs]
+ * </pre>
+ *
+ * The sources are generated ALTO-like pages with some multi-byte characters. For every workload, the best time of
+ * the runs after a warm-up run is reported.
+ */
+public class MultiFileBytesCharIteratorBenchmark {
+  private static final int NUM_RANDOM_READS = 5_000_000;
+  private static final int NUM_SUBSEQUENCES = 200_000;
+  private static final int SUBSEQUENCE_LENGTH = 1024;
+
+  public static void main(String[] args) throws IOException {
+    int numFiles = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+    int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    Path dir = Files.createTempDirectory("multifile-bench");
+    List<Path> paths = createPages(dir, numFiles);
+    // Offsets are byte offsets, so the file boundaries follow from the file sizes
+    int[] boundaries = new int[numFiles - 1];
+    long offset = 0;
+    for (int i = 0; i < boundaries.length; i++) {
+      offset += Files.size(paths.get(i));
+      boundaries[i] = (int) offset;
+    }
+    try (MultiFileBytesCharIterator it = new MultiFileBytesCharIterator(paths, StandardCharsets.UTF_8, null)) {
+      System.out.printf("%d files, %d bytes%n", numFiles, it.length());
+      report("full next() scan", runs, () -> {
+        long sum = 0;
+        for (char c = it.first(); c != MultiFileBytesCharIterator.DONE; c = it.next()) {
+          sum += c;
+        }
+        return sum;
+      });
+      report(NUM_RANDOM_READS + " random charAt", runs, () -> {
+        Random rand = new Random(42);
+        long sum = 0;
+        for (int i = 0; i < NUM_RANDOM_READS; i++) {
+          sum += it.charAt(rand.nextInt(it.length()));
+        }
+        return sum;
+      });
+      report(NUM_SUBSEQUENCES + " subSequence across files", runs, () -> {
+        Random rand = new Random(42);
+        long sum = 0;
+        for (int i = 0; i < NUM_SUBSEQUENCES; i++) {
+          // Every subsequence crosses the boundary between two files
+          int start = boundaries[rand.nextInt(boundaries.length)] - 1 - rand.nextInt(SUBSEQUENCE_LENGTH - 2);
+          sum += it.subSequence(start, start + SUBSEQUENCE_LENGTH).length();
+        }
+        return sum;
+      });
+    } finally {
+      for (Path p : paths) {
+        Files.deleteIfExists(p);
+      }
+      Files.deleteIfExists(dir);
+    }
+  }
+
+  private static List<Path> createPages(Path dir, int numFiles) throws IOException {
+    List<Path> paths = new ArrayList<>(numFiles);
+    Random rand = new Random(42);
+    String[] words = {"Straße", "München", "Überlieferung", "der", "und", "Gemeinde", "Jahr", "café", "Zeitung"};
+    for (int page = 0; page < numFiles; page++) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("<Page ID=\"p").append(page).append("\" WIDTH=\"2000\" HEIGHT=\"3000\"><PrintSpace>\n");
+      for (int line = 0; line < 40; line++) {
+        sb.append("<TextLine>");
+        for (int word = 0; word < 8; word++) {
+          sb.append("<String CONTENT=\"").append(words[rand.nextInt(words.length)])
+              .append("\" HPOS=\"").append(word * 200).append("\" VPOS=\"").append(line * 70)
+              .append("\" WIDTH=\"180\" HEIGHT=\"60\"/>");
+        }
+        sb.append("</TextLine>\n");
+      }
+      sb.append("</PrintSpace></Page>\n");
+      Path p = dir.resolve(String.format("page_%04d.xml", page));
+      Files.write(p, sb.toString().getBytes(StandardCharsets.UTF_8));
+      paths.add(p);
+    }
+    return paths;
+  }
+
+  @FunctionalInterface
+  private interface Workload {
+    long run();
+  }
+
+  private static void report(String name, int runs, Workload workload) {
+    // Warm-up, results are printed so the JIT can't discard the work
+    long check = workload.run();
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < runs; i++) {
+      long start = System.nanoTime();
+      check += workload.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf("%-40s %8d ms (checksum %d)%n", name, best / 1_000_000, check);
+  }
+}
@@ -68,4 +68,15 @@ class MultiFileBytesCharIteratorTest {
     // TODO: Test with file that requires a surrogate pair for the last codepoint
     assertThat(utf8It.last()).isEqualTo('g');
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testSubSequenceAcrossAllFiles() throws IOException {
+    assertThat(utf8It.subSequence(0, utf8It.length()).toString()).isEqualTo(utf8Text);
+    long firstFileSize = Files.size(utfPaths.get(0));
+    long lastFileStart = utf8It.length() - Files.size(utfPaths.get(3));
+    byte[] completeBytes = Files.readAllBytes(utf8CompletePath);
+    // Spans the second and third file completely
+    assertThat(utf8It.subSequence((int) firstFileSize, (int) lastFileStart).toString()).isEqualTo(
+        new String(completeBytes, (int) firstFileSize, (int) (lastFileStart - firstFileSize), StandardCharsets.UTF_8));
+  }
+}
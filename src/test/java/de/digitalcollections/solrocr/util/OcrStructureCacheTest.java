@@ -0,0 +1,130 @@
+package de.digitalcollections.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Ticker;
+import de.digitalcollections.solrocr.formats.OcrPassageFormatter;
+import de.digitalcollections.solrocr.formats.alto.AltoFormat;
+import de.digitalcollections.solrocr.iter.FileBytesCharIterator;
+import de.digitalcollections.solrocr.iter.IterableCharSequence;
+import de.digitalcollections.solrocr.iter.TagBreakIterator;
+import de.digitalcollections.solrocr.model.OcrBlock;
+import de.digitalcollections.solrocr.model.OcrPage;
+import de.digitalcollections.solrocr.model.OcrStructure;
+import de.digitalcollections.solrocr.model.SourcePointer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.text.BreakIterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OcrStructureCacheTest {
+  private static final Path altoPath = Paths.get("src/test/resources/data/alto.xml");
+
+  @TempDir
+  Path tempDir;
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  };
+
+  private Path copyAlto() throws IOException {
+    Path path = tempDir.resolve("alto.xml");
+    Files.copy(altoPath, path, StandardCopyOption.REPLACE_EXISTING);
+    return path;
+  }
+
+  @Test
+  public void testStructureIsBuiltOnceAndIncludesWords() throws IOException {
+    OcrStructureCache cache = new OcrStructureCache(1024 * 1024, 16, 60_000, ticker);
+    Path path = copyAlto();
+    OcrStructure structure = cache.get(SourcePointer.parse(path.toString()), new AltoFormat());
+    assertThat(structure).isNotNull();
+    assertThat(structure.getTagStarts(OcrBlock.PAGE)).hasSize(2);
+    assertThat(structure.getTagStarts(OcrBlock.LINE)).hasSize(94);
+    assertThat(structure.hasBlock(OcrBlock.WORD)).isTrue();
+    assertThat(cache.get(SourcePointer.parse(path.toString()), new AltoFormat())).isSameAs(structure);
+    assertThat(cache.getStats().hitCount()).isEqualTo(1);
+    assertThat(cache.getBytesUsed()).isEqualTo(structure.getByteSize());
+  }
+
+  @Test
+  public void testOffHeapBreaksAreIdentical() throws IOException {
+    OcrStructureCache cache = new OcrStructureCache(1024 * 1024, 16, 60_000, ticker);
+    OcrStructure structure = cache.get(SourcePointer.parse(altoPath.toString()), new AltoFormat());
+    IterableCharSequence seq = new FileBytesCharIterator(altoPath, StandardCharsets.UTF_8, null);
+    BreakIterator scanning = new TagBreakIterator("String");
+    BreakIterator cached = structure.getBreakIterator(OcrBlock.WORD);
+    scanning.setText(seq);
+    cached.setText(seq);
+    for (int offset = 0; offset < seq.length(); offset += 97) {
+      assertThat(cached.following(offset)).isEqualTo(scanning.following(offset));
+      assertThat(cached.next()).isEqualTo(scanning.next());
+      assertThat(cached.preceding(offset)).isEqualTo(scanning.preceding(offset));
+      assertThat(cached.previous()).isEqualTo(scanning.previous());
+    }
+  }
+
+  @Test
+  public void testModifiedFilesAreScannedAgain() throws IOException {
+    OcrStructureCache cache = new OcrStructureCache(1024 * 1024, 16, 60_000, ticker);
+    Path path = copyAlto();
+    OcrStructure structure = cache.get(SourcePointer.parse(path.toString()), new AltoFormat());
+    Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() - 60_000));
+    // Version is only checked again once it expired
+    assertThat(cache.get(SourcePointer.parse(path.toString()), new AltoFormat())).isSameAs(structure);
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+    assertThat(cache.get(SourcePointer.parse(path.toString()), new AltoFormat())).isNotSameAs(structure);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedStructuresAreEvicted() throws IOException {
+    SourcePointer ptr = SourcePointer.parse(altoPath.toString());
+    long size = new OcrStructureCache(1024 * 1024, 16, 60_000, ticker)
+        .get(ptr, new AltoFormat()).getByteSize();
+    OcrStructureCache cache = new OcrStructureCache(size, 16, 60_000, ticker);
+    OcrStructure structure = cache.get(ptr, new AltoFormat());
+    assertThat(cache.get(SourcePointer.parse(copyAlto().toString()), new AltoFormat())).isNotNull();
+    assertThat(cache.getNumStructures()).isEqualTo(1);
+    assertThat(cache.getStats().evictionCount()).isEqualTo(1);
+    assertThat(cache.get(ptr, new AltoFormat())).isNotSameAs(structure);
+  }
+
+  @Test
+  public void testPagesAreOnlyParsedOnce() throws IOException {
+    OcrStructureCache cache = new OcrStructureCache(1024 * 1024, 16, 60_000, ticker);
+    OcrStructure structure = cache.get(SourcePointer.parse(altoPath.toString()), new AltoFormat());
+    IterableCharSequence seq = new FileBytesCharIterator(altoPath, StandardCharsets.UTF_8, null);
+    int offset = structure.getTagStarts(OcrBlock.LINE)[50];
+    int pageIdx = structure.getPageIndex(offset);
+    assertThat(structure.getPage(pageIdx)).isNull();
+
+    OcrPassageFormatter formatter = new AltoFormat().getPassageFormatter("<em>", "</em>", false);
+    OcrPage expected = formatter.determineStartPage(null, offset, seq);
+    formatter.setStructure(structure);
+    OcrPage page = formatter.determineStartPage(null, offset, seq);
+    assertThat(page.id).isEqualTo(expected.id);
+    assertThat(page.dimensions).isEqualTo(expected.dimensions);
+    assertThat(structure.getPage(pageIdx)).isSameAs(page);
+    assertThat(formatter.determineStartPage(null, offset + 1, seq)).isSameAs(page);
+  }
+
+  @Test
+  public void testSmallRegionsAreNotScanned() {
+    OcrStructureCache cache = new OcrStructureCache(1024 * 1024, 16, 60_000, ticker);
+    SourcePointer ptr = SourcePointer.parse(altoPath.toString() + "[0:1000]");
+    assertThat(cache.get(ptr, new AltoFormat())).isNull();
+    assertThat(cache.getStats().requestCount()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,111 @@
+package de.digitalcollections.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import de.digitalcollections.solrocr.formats.alto.AltoFormat;
+import de.digitalcollections.solrocr.formats.hocr.HocrClassBreakIterator;
+import de.digitalcollections.solrocr.formats.hocr.HocrFormat;
+import de.digitalcollections.solrocr.formats.mini.MiniOcrFormat;
+import de.digitalcollections.solrocr.iter.FileBytesCharIterator;
+import de.digitalcollections.solrocr.iter.IterableCharSequence;
+import de.digitalcollections.solrocr.iter.TagBreakIterator;
+import de.digitalcollections.solrocr.model.OcrBlock;
+import de.digitalcollections.solrocr.model.OcrFormat;
+import de.digitalcollections.solrocr.model.OcrStructure;
+import de.digitalcollections.solrocr.model.SourcePointer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.BreakIterator;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.junit.jupiter.api.Test;
+
+class OffsetIndexBreakIteratorTest {
+  private static final Path altoPath = Paths.get("src/test/resources/data/alto.xml");
+  private static final Path hocrPath = Paths.get("src/test/resources/data/multicolumn.hocr");
+  private static final Path miniPath = Paths.get("src/test/resources/data/miniocr.xml");
+
+  private static OcrStructure scan(Path path, OcrFormat format) throws IOException {
+    return OcrStructure.scan(SourcePointer.parse(path.toString()), format);
+  }
+
+  /** Check that the recorded offsets give exactly the same breaks as scanning the content. */
+  private static void assertSameBreaks(Path path, BreakIterator scanning, BreakIterator indexed) throws IOException {
+    IterableCharSequence seq = new FileBytesCharIterator(path, StandardCharsets.UTF_8, null);
+    scanning.setText(seq);
+    indexed.setText(seq);
+    int step = Math.max(1, seq.length() / 500);
+    for (int offset = 0; offset < seq.length(); offset += step) {
+      assertThat(indexed.following(offset)).as("following(%d)", offset).isEqualTo(scanning.following(offset));
+      for (int i = 0; i < 3; i++) {
+        assertThat(indexed.next()).as("next after following(%d)", offset).isEqualTo(scanning.next());
+      }
+      assertThat(indexed.preceding(offset)).as("preceding(%d)", offset).isEqualTo(scanning.preceding(offset));
+      for (int i = 0; i < 3; i++) {
+        assertThat(indexed.previous()).as("previous after preceding(%d)", offset).isEqualTo(scanning.previous());
+      }
+    }
+  }
+
+  @Test
+  void testAltoBreaksAreIdentical() throws IOException {
+    OcrStructure structure = scan(altoPath, new AltoFormat());
+    assertThat(structure.hasBlock(OcrBlock.SECTION)).isFalse();
+    assertThat(structure.getTagStarts(OcrBlock.PAGE)).hasSize(2);
+    assertSameBreaks(altoPath, new TagBreakIterator("TextLine"), structure.getBreakIterator(OcrBlock.LINE));
+    assertSameBreaks(altoPath, new TagBreakIterator("TextBlock"), structure.getBreakIterator(OcrBlock.BLOCK));
+    assertSameBreaks(altoPath, new TagBreakIterator("Page"), structure.getBreakIterator(OcrBlock.PAGE));
+  }
+
+  @Test
+  void testHocrBreaksAreIdentical() throws IOException {
+    OcrStructure structure = scan(hocrPath, new HocrFormat());
+    assertSameBreaks(
+        hocrPath, new HocrClassBreakIterator(ImmutableSet.of("ocr_line", "ocrx_line")),
+        structure.getBreakIterator(OcrBlock.LINE));
+    assertSameBreaks(
+        hocrPath, new HocrClassBreakIterator(ImmutableSet.of("ocr_carea", "ocrx_block")),
+        structure.getBreakIterator(OcrBlock.BLOCK));
+    assertSameBreaks(
+        hocrPath, new HocrClassBreakIterator("ocr_page"), structure.getBreakIterator(OcrBlock.PAGE));
+  }
+
+  @Test
+  void testMiniOcrBreaksAreIdentical() throws IOException {
+    OcrStructure structure = scan(miniPath, new MiniOcrFormat());
+    assertThat(structure.getTagStarts(OcrBlock.PAGE).length).isGreaterThan(1);
+    assertSameBreaks(miniPath, new TagBreakIterator("l"), structure.getBreakIterator(OcrBlock.LINE));
+    assertSameBreaks(miniPath, new TagBreakIterator("p"), structure.getBreakIterator(OcrBlock.PAGE));
+  }
+
+  @Test
+  void testEncodingRoundtrip() throws IOException {
+    OcrStructure structure = scan(miniPath, new MiniOcrFormat());
+    ByteBuffersDataOutput out = new ByteBuffersDataOutput();
+    structure.encode(out);
+    byte[] encoded = out.toArrayCopy();
+    OcrStructure decoded = OcrStructure.decode(new ByteArrayDataInput(encoded));
+    assertThat(decoded.getContentLength()).isEqualTo(structure.getContentLength());
+    int numTags = 0;
+    for (OcrBlock block : OcrBlock.values()) {
+      assertThat(decoded.hasBlock(block)).isEqualTo(structure.hasBlock(block));
+      if (structure.hasBlock(block)) {
+        assertThat(decoded.getTagStarts(block)).isEqualTo(structure.getTagStarts(block));
+        assertThat(decoded.getTagEnds(block)).isEqualTo(structure.getTagEnds(block));
+        numTags += structure.getTagStarts(block).length;
+      }
+    }
+    // Delta-encoded, so most tags only take up a few bytes
+    assertThat(encoded.length).isLessThan(numTags * 5);
+  }
+
+  @Test
+  void testSmallRegionsAreNotScanned() throws IOException {
+    SourcePointer ptr = SourcePointer.parse(altoPath + "[100:200]");
+    assertThat(OcrStructure.scan(ptr, new AltoFormat())).isNull();
+    assertThat(OcrStructure.scan(SourcePointer.parse(altoPath.toString()), null)).isNull();
+  }
+}
@@ -0,0 +1,218 @@
+package de.digitalcollections.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.digitalcollections.solrocr.model.SourcePointer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PageCacheWarmerTest {
+  @TempDir
+  Path tempDir;
+
+  private Path createFile(int size) throws IOException {
+    Path p = Files.createTempFile(tempDir, "warm", ".xml");
+    byte[] data = new byte[size];
+    Arrays.fill(data, (byte) 'a');
+    Files.write(p, data);
+    return p;
+  }
+
+  @Test
+  public void testDeduplicatesAcrossRequests() throws IOException {
+    // Without worker threads, all reads stay in the queue
+    PageCacheWarmer warmer = new PageCacheWarmer(1024, 0, 0);
+    Path p = createFile(8192);
+    PageCacheWarmer.Request first = warmer.newRequest(PageCacheWarmer.NO_DEADLINE);
+    PageCacheWarmer.Request second = warmer.newRequest(PageCacheWarmer.NO_DEADLINE);
+    first.preload(SourcePointer.parse(p.toString() + "[0:4096]"), 0);
+    second.preload(SourcePointer.parse(p.toString() + "[0:4096]"), 3);
+    second.preload(SourcePointer.parse(p.toString() + "[4096:8192]"), 3);
+    assertThat(warmer.getQueueDepth()).isEqualTo(2);
+    assertThat(warmer.getNumDeduplicated()).isEqualTo(1);
+
+    // The shared read is still needed by the second request
+    first.close();
+    assertThat(warmer.getQueueDepth()).isEqualTo(2);
+    assertThat(warmer.getNumCancelled()).isEqualTo(0);
+    second.close();
+    assertThat(warmer.getQueueDepth()).isEqualTo(0);
+    assertThat(warmer.getNumCancelled()).isEqualTo(2);
+    warmer.shutdown();
+  }
+
+  @Test
+  public void testDropsLowestPriorityWhenFull() throws IOException {
+    PageCacheWarmer warmer = new PageCacheWarmer(1024, 0, 0);
+    Path p = createFile(1024);
+    PageCacheWarmer.Request request = warmer.newRequest(PageCacheWarmer.NO_DEADLINE);
+    for (int i = 0; i < 128; i++) {
+      request.preload(SourcePointer.parse(String.format("%s[%d:%d]", p, i, i + 1)), i + 1);
+    }
+    SourcePointer topRanked = SourcePointer.parse(p.toString() + "[512:1024]");
+    request.preload(topRanked, 0);
+    assertThat(warmer.getQueueDepth()).isEqualTo(128);
+    assertThat(warmer.getNumDropped()).isEqualTo(1);
+
+    // Reads for documents with a lower rank than everything in the queue are dropped right away
+    request.preload(SourcePointer.parse(p.toString() + "[256:512]"), 500);
+    assertThat(warmer.getNumDropped()).isEqualTo(2);
+
+    // An earlier deadline takes precedence over the rank
+    PageCacheWarmer.Request urgent = warmer.newRequest(System.currentTimeMillis() + 1000);
+    urgent.preload(SourcePointer.parse(p.toString() + "[256:512]"), 500);
+    assertThat(warmer.getNumDropped()).isEqualTo(3);
+
+    // The top-ranked read is still queued, so finishing the document cancels it
+    request.finish(topRanked);
+    assertThat(warmer.getNumCancelled()).isEqualTo(1);
+    assertThat(warmer.getMisses()).isEqualTo(1);
+    warmer.shutdown();
+  }
+
+  @Test
+  public void testUntimedRequestsCompeteWithTimedRequests() throws IOException {
+    PageCacheWarmer warmer = new PageCacheWarmer(1024, 0, 0);
+    Path p = createFile(1024);
+    PageCacheWarmer.Request timed = warmer.newRequest(
+        System.currentTimeMillis() + 2 * PageCacheWarmer.UNTIMED_HORIZON_MS);
+    for (int i = 0; i < 128; i++) {
+      timed.preload(SourcePointer.parse(String.format("%s[%d:%d]", p, i, i + 1)), i);
+    }
+
+    // The untimed request is due before the timed one, so its read displaces the lowest-ranked timed read
+    PageCacheWarmer.Request untimed = warmer.newRequest(PageCacheWarmer.NO_DEADLINE);
+    SourcePointer untimedPtr = SourcePointer.parse(p.toString() + "[512:1024]");
+    untimed.preload(untimedPtr, 0);
+    assertThat(warmer.getQueueDepth()).isEqualTo(128);
+    assertThat(warmer.getNumDropped()).isEqualTo(1);
+    untimed.finish(untimedPtr);
+    assertThat(warmer.getMisses()).isEqualTo(1);
+
+    // A request that is due before the horizon still takes precedence over untimed requests
+    untimed.preload(SourcePointer.parse(p.toString() + "[256:512]"), 0);
+    PageCacheWarmer.Request urgent = warmer.newRequest(System.currentTimeMillis() + 1000);
+    SourcePointer urgentPtr = SourcePointer.parse(p.toString() + "[128:256]");
+    urgent.preload(urgentPtr, 500);
+    assertThat(warmer.getNumDropped()).isEqualTo(2);
+    urgent.finish(urgentPtr);
+    assertThat(warmer.getMisses()).isEqualTo(2);
+    warmer.shutdown();
+  }
+
+  @Test
+  public void testReadsAreCompleted() throws IOException, InterruptedException {
+    PageCacheWarmer warmer = new PageCacheWarmer(1024, 2, 0);
+    Path p = createFile(10000);
+    SourcePointer ptr = SourcePointer.parse(p.toString());
+    PageCacheWarmer.Request request = warmer.newRequest(PageCacheWarmer.NO_DEADLINE);
+    request.preload(ptr, 0);
+    for (int i = 0; i < 100 && warmer.getNumCompleted() == 0; i++) {
+      Thread.sleep(20);
+    }
+    assertThat(warmer.getNumCompleted()).isEqualTo(1);
+    assertThat(warmer.getBytesRead()).isEqualTo(10000);
+    request.finish(ptr);
+    assertThat(warmer.getHits()).isEqualTo(1);
+    request.close();
+    warmer.shutdown();
+  }
+
+  @Test
+  public void testRescheduleAfterCancelledRunningRead() throws IOException, InterruptedException {
+    // Tiny reads, so the read is still running when it is cancelled
+    PageCacheWarmer warmer = new PageCacheWarmer(1, 1, 0);
+    Path p = createFile(2 * 1024 * 1024);
+    PageCacheWarmer.Request first = warmer.newRequest(PageCacheWarmer.NO_DEADLINE);
+    first.preload(SourcePointer.parse(p.toString()), 0);
+    for (int i = 0; i < 500 && warmer.getNumRunning() == 0; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(warmer.getNumRunning()).isEqualTo(1);
+    first.close();
+    assertThat(warmer.getNumCancelled()).isEqualTo(1);
+
+    // The same range is requested again while the cancelled read is still winding down
+    PageCacheWarmer.Request second = warmer.newRequest(PageCacheWarmer.NO_DEADLINE);
+    second.preload(SourcePointer.parse(p.toString()), 0);
+    assertThat(warmer.getNumDeduplicated()).isEqualTo(0);
+    assertThat(warmer.getNumScheduled()).isEqualTo(2);
+    for (int i = 0; i < 1000 && warmer.getNumCompleted() == 0; i++) {
+      Thread.sleep(20);
+    }
+    // Only the new read counts as completed, the cancelled one stopped early
+    assertThat(warmer.getNumCompleted()).isEqualTo(1);
+    second.close();
+    warmer.shutdown();
+  }
+
+  @Test
+  public void testHitWindowsAreAlignedAndMerged() {
+    int[] hits = {100, 200, 5000, 20000};
+    long[] windows = PageCacheWarmer.hitWindows(hits, 0, 30000, 512, 1024);
+    assertThat(windows).containsExactly(0, 1024, 4096, 6144, 19456, 21504);
+  }
+
+  @Test
+  public void testHitWindowsAreClampedToFile() {
+    int[] hits = {10, 29990};
+    long[] windows = PageCacheWarmer.hitWindows(hits, 0, 30000, 4096, 1024);
+    assertThat(windows).containsExactly(0, 5120, 25600, 30000);
+  }
+
+  @Test
+  public void testHitWindowsForSecondFile() {
+    // First file is 10000 bytes, hits in the first file don't produce windows in the second
+    int[] hits = {500, 10500, 10500, 14000};
+    long[] windows = PageCacheWarmer.hitWindows(hits, 10000, 5000, 256, 256);
+    assertThat(windows).containsExactly(0, 768, 3584, 4352);
+    assertThat(PageCacheWarmer.hitWindows(hits, 20000, 5000, 256, 256)).isEmpty();
+  }
+
+  @Test
+  public void testHitWindowsIncludeContextAcrossFileBoundary() {
+    int[] hits = {9990};
+    long[] windows = PageCacheWarmer.hitWindows(hits, 10000, 5000, 256, 256);
+    assertThat(windows).containsExactly(0, 256);
+  }
+
+  @Test
+  public void testFindPrecedingMarker() throws IOException {
+    StringBuilder sb = new StringBuilder("<alto>");
+    int pageOffset = 0;
+    for (int page = 0; page < 3; page++) {
+      if (page == 2) {
+        pageOffset = sb.length();
+      }
+      sb.append("<Page ID=\"p").append(page).append("\">");
+      for (int i = 0; i < 200; i++) {
+        sb.append("<String CONTENT=\"word").append(i).append("\"/>");
+      }
+      sb.append("</Page>");
+    }
+    sb.append("</alto>");
+    Path p = tempDir.resolve("test.xml");
+    Files.write(p, sb.toString().getBytes(StandardCharsets.UTF_8));
+    byte[] marker = "<Page".getBytes(StandardCharsets.US_ASCII);
+    try (FileChannel channel = FileChannel.open(p, StandardOpenOption.READ)) {
+      // Small buffer so the marker has to be found across multiple chunks
+      ByteBuffer buf = ByteBuffer.allocate(64);
+      assertThat(PageCacheWarmer.findPrecedingMarker(channel, sb.length() - 100, 0, marker, buf))
+          .isEqualTo(pageOffset);
+      // Marker straddles the boundary of the first chunk
+      assertThat(PageCacheWarmer.findPrecedingMarker(channel, pageOffset + 66, 0, marker, buf))
+          .isEqualTo(pageOffset);
+      // Limit is respected
+      assertThat(PageCacheWarmer.findPrecedingMarker(channel, sb.length() - 100, pageOffset + 1, marker, buf))
+          .isEqualTo(-1);
+    }
+  }
+}
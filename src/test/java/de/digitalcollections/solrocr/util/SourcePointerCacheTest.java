@@ -0,0 +1,134 @@
+package de.digitalcollections.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.base.Ticker;
+import de.digitalcollections.solrocr.iter.MultiFileBytesCharIterator;
+import de.digitalcollections.solrocr.model.SourcePointer;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SourcePointerCacheTest {
+  @TempDir
+  Path tempDir;
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final Ticker ticker = new Ticker() {
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+  };
+
+  private Path writeFile(String name, String content) throws IOException {
+    Path path = tempDir.resolve(name);
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    return path;
+  }
+
+  @Test
+  public void testPointersAreDroppedWithTheirSegment() throws IOException {
+    SourcePointerCache cache = new SourcePointerCache(16, 16, 60_000, ticker);
+    Path path = writeFile("page.xml", "<alto/>");
+    SourcePointer ptr = SourcePointer.parse(path.toString(), cache);
+
+    ByteBuffersDirectory dir = new ByteBuffersDirectory();
+    try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new StandardAnalyzer()))) {
+      Document doc = new Document();
+      doc.add(new StoredField("ocr_text", path.toString()));
+      writer.addDocument(doc);
+      writer.commit();
+    }
+    DirectoryReader reader = DirectoryReader.open(dir);
+    LeafReader leaf = reader.leaves().get(0).reader();
+    assertThat(cache.getPointer(leaf, 0, "ocr_text")).isNull();
+    cache.putPointer(leaf, 0, "ocr_text", ptr);
+    assertThat(cache.getPointer(leaf, 0, "ocr_text")).isSameAs(ptr);
+    assertThat(cache.getPointer(leaf, 0, "other_field")).isNull();
+    assertThat(cache.getPointer(leaf, 1, "ocr_text")).isNull();
+    assertThat(cache.getPointerStats().hitCount()).isEqualTo(1);
+
+    assertThat(cache.getNumPointers()).isEqualTo(1);
+    reader.close();
+    assertThat(cache.getNumPointers()).isEqualTo(0);
+  }
+
+  @Test
+  public void testPointersExpire() throws IOException {
+    SourcePointerCache cache = new SourcePointerCache(16, 16, 1000, ticker);
+    ByteBuffersDirectory dir = new ByteBuffersDirectory();
+    try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(new StandardAnalyzer()))) {
+      Document doc = new Document();
+      doc.add(new StoredField("ocr_text", "foo"));
+      writer.addDocument(doc);
+    }
+    try (DirectoryReader reader = DirectoryReader.open(dir)) {
+      LeafReader leaf = reader.leaves().get(0).reader();
+      SourcePointer ptr = SourcePointer.parse(writeFile("page.xml", "<alto/>").toString(), cache);
+      cache.putPointer(leaf, 0, "ocr_text", ptr);
+      nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+      assertThat(cache.getPointer(leaf, 0, "ocr_text")).isSameAs(ptr);
+      nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+      assertThat(cache.getPointer(leaf, 0, "ocr_text")).isNull();
+    }
+  }
+
+  @Test
+  public void testFileSizesAreCached() throws IOException {
+    SourcePointerCache cache = new SourcePointerCache(16, 16, 1000, ticker);
+    Path path = writeFile("page.xml", "<alto></alto>");
+    assertThat(cache.contentSize(path)).isEqualTo(13);
+    writeFile("page.xml", "<alto><Page/></alto>");
+    assertThat(cache.contentSize(path)).isEqualTo(13);
+    assertThat(SourcePointer.parse(path.toString(), cache).sources.get(0).size).isEqualTo(13);
+    assertThat(cache.getFileStats().hitCount()).isEqualTo(2);
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertThat(cache.contentSize(path)).isEqualTo(20);
+  }
+
+  @Test
+  public void testMissingFilesAreCached() throws IOException {
+    SourcePointerCache cache = new SourcePointerCache(16, 16, 1000, ticker);
+    Path path = tempDir.resolve("missing.xml");
+    assertThatThrownBy(() -> cache.contentSize(path)).isInstanceOf(FileNotFoundException.class);
+    writeFile("missing.xml", "<alto/>");
+    assertThatThrownBy(() -> cache.contentSize(path)).isInstanceOf(FileNotFoundException.class);
+    assertThatThrownBy(() -> SourcePointer.parse(path.toString(), cache))
+        .hasMessageContaining("Could not read file");
+    assertThat(cache.getNegativeHits()).isEqualTo(2);
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertThat(cache.contentSize(path)).isEqualTo(7);
+  }
+
+  @Test
+  public void testMultipleSourcesUseParsedSizes() throws IOException {
+    SourcePointerCache cache = new SourcePointerCache(16, 16, 1000, ticker);
+    Path first = writeFile("first.xml", "<alto>first</alto>");
+    Path second = writeFile("second.xml", "<alto>second</alto>");
+    SourcePointer ptr = SourcePointer.parse(first + "+" + second, cache);
+    assertThat(ptr.sources).extracting(s -> s.size).containsExactly(18L, 19L);
+    try (MultiFileBytesCharIterator it = new MultiFileBytesCharIterator(
+        Arrays.asList(first, second), StandardCharsets.UTF_8, ptr)) {
+      assertThat(it.subSequence(0, it.length()).toString()).isEqualTo("<alto>first</alto><alto>second</alto>");
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package de.digitalcollections.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import de.digitalcollections.solrocr.formats.hocr.HocrClassBreakIterator;
+import de.digitalcollections.solrocr.iter.ContextBreakIterator;
+import de.digitalcollections.solrocr.iter.ExitingIterCharSeq;
+import de.digitalcollections.solrocr.iter.FileBytesCharIterator;
+import de.digitalcollections.solrocr.iter.IterableCharSequence;
+import de.digitalcollections.solrocr.iter.TagBreakIterator;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TagScanningBreakIteratorTest {
+  private static final Path miniPath = Paths.get("src/test/resources/data/miniocr.xml");
+  private static final Path hocrPath = Paths.get("src/test/resources/data/multicolumn.hocr");
+  private static final Pattern CLASS_PAT = Pattern.compile("class=['\"](?<class>ocr.+?)['\"]");
+
+  @TempDir
+  Path tempDir;
+
+  /** Offsets of the opening and closing brackets of all tags in the content that match the predicate. */
+  private static List<int[]> findTags(String content, Predicate<String> predicate) {
+    List<int[]> tags = new ArrayList<>();
+    int start = content.indexOf('<');
+    while (start >= 0) {
+      int end = content.indexOf('>', start);
+      int nextStart = content.indexOf('<', start + 1);
+      if (end < 0) {
+        break;
+      }
+      if (nextStart >= 0 && nextStart < end) {
+        start = nextStart;
+        continue;
+      }
+      if (predicate.test(content.substring(start, end + 1))) {
+        tags.add(new int[]{start, end});
+      }
+      start = content.indexOf('<', end);
+    }
+    return tags;
+  }
+
+  private static void assertBreaks(Path path, BreakIterator it, Predicate<String> predicate) throws IOException {
+    // One char per byte, so the offsets are byte offsets
+    String content = new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1);
+    List<int[]> tags = findTags(content, predicate);
+    assertThat(tags).isNotEmpty();
+    int[] tagStarts = tags.stream().mapToInt(t -> t[0]).toArray();
+    int[] tagEnds = tags.stream().mapToInt(t -> t[1]).toArray();
+    IterableCharSequence seq = new FileBytesCharIterator(path, StandardCharsets.UTF_8, null);
+    it.setText(seq);
+    int step = Math.max(1, content.length() / 1000);
+    List<Integer> offsets = new ArrayList<>();
+    for (int offset = 0; offset < content.length(); offset += step) {
+      offsets.add(offset);
+    }
+    // Once in order, then in random order, so we hit both known and unexplored parts of the content
+    List<Integer> shuffled = new ArrayList<>(offsets);
+    Collections.shuffle(shuffled, new Random(42));
+    offsets.addAll(shuffled);
+    for (int offset : offsets) {
+      int followingIdx = Arrays.binarySearch(tagStarts, offset);
+      followingIdx = followingIdx >= 0 ? followingIdx : -followingIdx - 1;
+      int expectedFollowing = followingIdx < tags.size() ? tagStarts[followingIdx] : content.length();
+      assertThat(it.following(offset)).as("following(%d)", offset).isEqualTo(expectedFollowing);
+      if (followingIdx + 1 < tags.size()) {
+        assertThat(it.next()).as("next after following(%d)", offset).isEqualTo(tagStarts[followingIdx + 1]);
+      }
+
+      int precedingIdx = Arrays.binarySearch(tagEnds, offset);
+      precedingIdx = precedingIdx >= 0 ? precedingIdx : -precedingIdx - 2;
+      int expectedPreceding = precedingIdx >= 0 ? tagStarts[precedingIdx] : 0;
+      assertThat(it.preceding(offset)).as("preceding(%d)", offset).isEqualTo(expectedPreceding);
+      if (precedingIdx > 0) {
+        assertThat(it.previous()).as("previous after preceding(%d)", offset).isEqualTo(tagStarts[precedingIdx - 1]);
+      }
+    }
+  }
+
+  @Test
+  void testTagBreaksAcrossWindows() throws IOException {
+    assertBreaks(miniPath, new TagBreakIterator("l"), t -> t.startsWith("<l"));
+    assertBreaks(miniPath, new TagBreakIterator("p"), t -> t.startsWith("<p"));
+  }
+
+  @Test
+  void testClassBreaksMatchPattern() throws IOException {
+    ImmutableSet<String> classes = ImmutableSet.of("ocr_line", "ocrx_line");
+    assertBreaks(hocrPath, new HocrClassBreakIterator(classes), t -> {
+      Matcher m = CLASS_PAT.matcher(t);
+      return m.find() && classes.contains(m.group("class"));
+    });
+  }
+
+  @Test
+  void testClassEdgeCases() throws IOException {
+    String content = "<div class='ocr_page'>"
+        + "<span data-class=\"ocr_line\" class='ocr_par'>a</span>"
+        + "<span class=\"ocr_line ocr_foo\">b</span>"
+        + "<span class=\"ocr\nline\" title=\"x\" class='ocr_line'>c</span>"
+        + "<span title=\"über\" class='ocr_line'>d</span>";
+    IterableCharSequence seq = IterableCharSequence.fromString(content);
+    HocrClassBreakIterator it = new HocrClassBreakIterator("ocr_line");
+    it.setText(seq);
+    // Like the pattern, the first matching attribute wins and class lists or broken attributes are not matched
+    int first = it.following(0);
+    assertThat(content.substring(first)).startsWith("<span data-class=");
+    int second = it.next();
+    assertThat(content.substring(second)).startsWith("<span class=\"ocr\nline\"");
+    int third = it.next();
+    assertThat(content.substring(third)).startsWith("<span title=\"über\"");
+    assertThat(it.next()).isEqualTo(content.length());
+    assertThat(it.preceding(content.length())).isEqualTo(third);
+    assertThat(it.previous()).isEqualTo(second);
+    assertThat(it.previous()).isEqualTo(first);
+    assertThat(it.previous()).isEqualTo(0);
+  }
+
+  @Test
+  void testExactByteOffsetsWithMultibyteTags() throws IOException {
+    String content = "<alto><TextLine ID=\"ä€\"><String CONTENT=\"Grüße\"/></TextLine>"
+        + "<TextLine ID=\"𝔉\"><String CONTENT=\"ſchön\"/></TextLine></alto>";
+    Path path = tempDir.resolve("multibyte.xml");
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    IterableCharSequence seq = new FileBytesCharIterator(path, StandardCharsets.UTF_8, null);
+    TagBreakIterator it = new TagBreakIterator("TextLine");
+    it.setText(seq);
+    int first = it.following(0);
+    int second = it.next();
+    assertThat(seq.subSequence(first, second).toString())
+        .isEqualTo("<TextLine ID=\"ä€\"><String CONTENT=\"Grüße\"/></TextLine>");
+    assertThat(it.preceding(seq.length())).isEqualTo(second);
+    assertThat(seq.subSequence(second, seq.length()).toString()).startsWith("<TextLine ID=\"𝔉\">");
+  }
+
+  @Test
+  void testWorksThroughTimeoutWrapper() throws IOException {
+    IterableCharSequence seq = new ExitingIterCharSeq(
+        new FileBytesCharIterator(miniPath, StandardCharsets.UTF_8, null), () -> false);
+    TagBreakIterator it = new TagBreakIterator("p");
+    it.setText(seq);
+    int start = it.following(1);
+    int end = it.next();
+    assertThat(seq.subSequence(start, end).toString()).startsWith("<p xml:id=");
+  }
+
+  @Test
+  void testKnownBoundariesAreNotScannedAgain() throws IOException {
+    AtomicInteger reads = new AtomicInteger();
+    IterableCharSequence seq = new ExitingIterCharSeq(
+        new FileBytesCharIterator(miniPath, StandardCharsets.UTF_8, null), () -> false) {
+      @Override
+      public void copyBytes(int offset, byte[] dst, int dstOffset, int len) {
+        reads.incrementAndGet();
+        super.copyBytes(offset, dst, dstOffset, len);
+      }
+    };
+    ContextBreakIterator it = new ContextBreakIterator(new TagBreakIterator("l"), new TagBreakIterator("b"), 2);
+    it.setText(seq);
+    int[] matchOffsets = IntStream.range(0, 200).map(i -> 500_000 + i * 373).toArray();
+    int[] expected = new int[matchOffsets.length * 2];
+    for (int i = 0; i < matchOffsets.length; i++) {
+      expected[2 * i] = it.preceding(matchOffsets[i] + 1);
+      expected[2 * i + 1] = it.following(matchOffsets[i]);
+    }
+    assertThat(reads.get()).isGreaterThan(0);
+    reads.set(0);
+    for (int i = matchOffsets.length - 1; i >= 0; i--) {
+      assertThat(it.preceding(matchOffsets[i] + 1)).isEqualTo(expected[2 * i]);
+      assertThat(it.following(matchOffsets[i])).isEqualTo(expected[2 * i + 1]);
+    }
+    assertThat(reads.get()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,220 @@
+package de.digitalcollections.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.digitalcollections.solrocr.iter.ByteCharIterator;
+import de.digitalcollections.solrocr.iter.ByteCharIteratorFactory;
+import de.digitalcollections.solrocr.iter.FileBytesCharIterator;
+import de.digitalcollections.solrocr.iter.MultiFileBytesCharIterator;
+import de.digitalcollections.solrocr.iter.ZipEntryCharIterator;
+import de.digitalcollections.solrocr.lucene.filters.ExternalUtf8ContentFilterFactory;
+import de.digitalcollections.solrocr.model.SourcePointer;
+import de.digitalcollections.solrocr.reader.MultiFileReader;
+import de.digitalcollections.solrocr.util.MappedFileCache.MappedFile;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ZipArchiveTest {
+  @TempDir
+  Path tempDir;
+
+  private Path archive;
+  private String storedPage;
+  private String deflatedPage;
+
+  private static String ocrPage(int page, int numWords) {
+    StringBuilder sb = new StringBuilder("<alto><Page ID=\"p").append(page).append("\">");
+    for (int i = 0; i < numWords; i++) {
+      sb.append("<String CONTENT=\"wörd").append(i).append("\" HPOS=\"").append(i % 1000).append("\"/>");
+      if (i % 50 == 0) {
+        sb.append("<TextLine>é中😀</TextLine>");
+      }
+    }
+    sb.append("</Page></alto>");
+    return sb.toString();
+  }
+
+  @BeforeEach
+  void createArchive() throws IOException {
+    storedPage = ocrPage(1, 3000);
+    deflatedPage = ocrPage(2, 2000);
+    archive = tempDir.resolve("volume.zip");
+    try (OutputStream out = Files.newOutputStream(archive);
+         ZipOutputStream zip = new ZipOutputStream(out)) {
+      zip.putNextEntry(new ZipEntry("alto/"));
+      zip.closeEntry();
+
+      byte[] stored = storedPage.getBytes(StandardCharsets.UTF_8);
+      ZipEntry storedEntry = new ZipEntry("alto/page_0001.xml");
+      storedEntry.setMethod(ZipEntry.STORED);
+      storedEntry.setSize(stored.length);
+      storedEntry.setCompressedSize(stored.length);
+      CRC32 crc = new CRC32();
+      crc.update(stored);
+      storedEntry.setCrc(crc.getValue());
+      // Local extra fields differ from the central directory, the data offset has to come from the local header
+      storedEntry.setExtra(new byte[] {(byte) 0xCA, (byte) 0xFE, 3, 0, 1, 2, 3});
+      zip.putNextEntry(storedEntry);
+      zip.write(stored);
+      zip.closeEntry();
+
+      zip.putNextEntry(new ZipEntry("alto/page_0002.xml"));
+      zip.write(deflatedPage.getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+
+      zip.setComment("Volume 1863");
+    }
+  }
+
+  private Path entry(String name) {
+    return Paths.get(archive.toString() + ZipArchive.ENTRY_SEPARATOR + name);
+  }
+
+  private void assertIteratorContent(ByteCharIterator it, String content) throws IOException {
+    Path plain = Files.createTempFile(tempDir, "expected", ".xml");
+    Files.write(plain, content.getBytes(StandardCharsets.UTF_8));
+    try (FileBytesCharIterator expected = new FileBytesCharIterator(plain, StandardCharsets.UTF_8, null)) {
+      assertThat(it.length()).isEqualTo(expected.length());
+      assertThat(it.subSequence(0, it.length()).toString()).isEqualTo(content);
+      Random rand = new Random(1337);
+      for (int i = 0; i < 200; i++) {
+        int start = rand.nextInt(expected.length() - 1);
+        int end = Math.min(expected.length(), start + rand.nextInt(4096));
+        assertThat(it.subSequence(start, end).toString()).isEqualTo(expected.subSequence(start, end).toString());
+        assertThat(it.charAt(start)).isEqualTo(expected.charAt(start));
+      }
+    }
+  }
+
+  @Test
+  public void testEntryPaths() {
+    Path path = entry("alto/page_0001.xml");
+    assertThat(ZipArchive.isZipEntry(path)).isTrue();
+    assertThat(ZipArchive.isZipEntry(archive)).isFalse();
+    assertThat(ZipArchive.getArchivePath(path)).isEqualTo(archive);
+    assertThat(ZipArchive.getEntryName(path)).isEqualTo("alto/page_0001.xml");
+  }
+
+  @Test
+  public void testStoredEntryIsReadFromMapping() throws IOException {
+    Path path = entry("alto/page_0001.xml");
+    assertThat(SourceFiles.contentSize(path)).isEqualTo(storedPage.getBytes(StandardCharsets.UTF_8).length);
+    try (ByteCharIterator it = ZipEntryCharIterator.open(path, StandardCharsets.UTF_8, null)) {
+      assertThat(it).isInstanceOf(FileBytesCharIterator.class);
+      assertIteratorContent(it, storedPage);
+      assertThat(it.getIdentifier()).isEqualTo(path.toAbsolutePath().toString());
+    }
+  }
+
+  @Test
+  public void testStoredEntryAcrossChunks() throws IOException {
+    Path path = entry("alto/page_0001.xml");
+    long dataOffset;
+    long size;
+    try (ZipArchive zip = ZipArchive.open(archive)) {
+      ZipArchive.Entry entry = zip.getEntry("alto/page_0001.xml");
+      dataOffset = zip.getDataOffset(entry);
+      size = entry.getSize();
+    }
+    // Tiny chunks that don't line up with the start of the entry
+    MappedFileCache cache = new MappedFileCache(16, 10);
+    MappedFile file = cache.acquire(archive);
+    try (FileBytesCharIterator it = new FileBytesCharIterator(
+        path, StandardCharsets.UTF_8, null, file, dataOffset, size)) {
+      assertThat(dataOffset % 1024).isNotEqualTo(0);
+      assertIteratorContent(it, storedPage);
+      assertThat(it.charAt(it.length() - 1)).isEqualTo('>');
+    }
+    cache.clear();
+  }
+
+  @Test
+  public void testDeflatedEntryIsInflated() throws IOException {
+    Path path = entry("alto/page_0002.xml");
+    try (ByteCharIterator it = ZipEntryCharIterator.open(path, StandardCharsets.UTF_8, null)) {
+      assertThat(it).isInstanceOf(ZipEntryCharIterator.class);
+      assertIteratorContent(it, deflatedPage);
+      try (ByteCharIterator clone = (ByteCharIterator) it.clone()) {
+        assertThat(clone.subSequence(0, clone.length()).toString()).isEqualTo(deflatedPage);
+      }
+    }
+    try (ZipArchive zip = ZipArchive.open(archive)) {
+      ZipArchive.Entry entry = zip.getEntry("alto/page_0002.xml");
+      assertThat(entry.isStored()).isFalse();
+      // Inflated content is cached
+      assertThat(zip.inflate(entry, true)).isSameAs(zip.inflate(entry, true));
+    }
+  }
+
+  @Test
+  public void testMultipleEntries() throws IOException {
+    SourcePointer ptr = SourcePointer.parse(
+        entry("alto/page_0001.xml") + "+" + entry("alto/page_0002.xml"));
+    String expected = storedPage + deflatedPage;
+    try (MultiFileBytesCharIterator it = new MultiFileBytesCharIterator(
+        ptr.sources.stream().map(s -> s.path).collect(Collectors.toList()), StandardCharsets.UTF_8, ptr,
+        ByteCharIteratorFactory.MMAP.withSourceRouting())) {
+      assertThat(it.length()).isEqualTo(expected.getBytes(StandardCharsets.UTF_8).length);
+      assertThat(it.subSequence(0, it.length()).toString()).isEqualTo(expected);
+    }
+    try (Reader r = new MultiFileReader(ptr.sources.stream().map(s -> s.path).collect(Collectors.toList()))) {
+      assertThat(IOUtils.toString(r)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void testIndexTimeRegions() throws IOException {
+    ExternalUtf8ContentFilterFactory fac = new ExternalUtf8ContentFilterFactory(new HashMap<>());
+    for (String name : new String[]{"alto/page_0001.xml", "alto/page_0002.xml"}) {
+      String content = name.endsWith("1.xml") ? storedPage : deflatedPage;
+      int start = content.indexOf("<String CONTENT=\"wörd500\"");
+      int end = content.indexOf("<String CONTENT=\"wörd1500\"");
+      String region = content.substring(start, end);
+      start = content.substring(0, start).getBytes(StandardCharsets.UTF_8).length;
+      end = content.substring(0, end).getBytes(StandardCharsets.UTF_8).length;
+      try (Reader r = fac.create(new StringReader(String.format("%s[%d:%d]", entry(name), start, end)))) {
+        assertThat(IOUtils.toString(r).trim()).isEqualTo(region.trim());
+      }
+    }
+  }
+
+  @Test
+  public void testMissingEntries() {
+    assertThatThrownBy(() -> ZipArchive.contentSize(entry("alto/page_0003.xml")))
+        .isInstanceOf(FileNotFoundException.class);
+    assertThatThrownBy(() -> ZipArchive.contentSize(entry("alto/")))
+        .isInstanceOf(FileNotFoundException.class);
+    assertThatThrownBy(() -> SourcePointer.parse(entry("alto/page_0003.xml").toString()))
+        .isInstanceOf(RuntimeException.class);
+    assertThatThrownBy(() -> new MultiFileReader(Collections.singletonList(entry("alto/page_0003.xml"))))
+        .isInstanceOf(FileNotFoundException.class);
+  }
+
+  @Test
+  public void testRejectsInvalidArchives() throws IOException {
+    Path invalid = tempDir.resolve("invalid.zip");
+    Files.write(invalid, storedPage.getBytes(StandardCharsets.UTF_8));
+    assertThatThrownBy(() -> ZipArchive.open(invalid))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("not a ZIP archive");
+  }
+}